@@ -0,0 +1,157 @@
+package net.sharksystem.hub;
+
+/**
+ * Timeouts of a shared channel connector derived from what was measured on its channel - similar to the
+ * retransmission timeout of TCP (RFC 6298).
+ * <ul>
+ *     <li>RTO: smoothed round trip time plus four times its variance (at least clock granularity). Round trips
+ *     are measured with heartbeats, see {@link RTTEstimator}.</li>
+ *     <li>Silence: asking for silence and waiting for channel clear take a round trip each - two RTOs.</li>
+ *     <li>Data session: time data actually flowed in past sessions - smoothed plus four times its variance -
+ *     plus two RTOs. A session that still transferred data when its clock rang was cut short - next sessions
+ *     get at least twice that time.</li>
+ *     <li>Connection request: long enough to wait behind {@link #CONNECTION_REQUEST_SESSIONS} other data
+ *     sessions.</li>
+ * </ul>
+ * Each timeout stays between a floor and a ceiling. Without measurements the configured timeout is used - like
+ * connectors did before.
+ * <br/>
+ * Thread safe.
+ */
+public class AdaptiveTimeouts {
+    public static final int CLOCK_GRANULARITY_IN_MILLIS = HubTimerWheel.DEFAULT_TICK_IN_MILLIS;
+    public static final int MIN_SILENCE_TIMEOUT_IN_MILLIS = 200;
+    public static final int MAX_SILENCE_TIMEOUT_IN_MILLIS = 10000;
+    public static final int MIN_DATA_SESSION_TIMEOUT_IN_MILLIS = 200;
+    public static final int MAX_DATA_SESSION_TIMEOUT_IN_MILLIS = 60000;
+    public static final int MIN_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS = 10000;
+    public static final int MAX_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS = 600000;
+    /** number of data sessions a connection request can wait behind */
+    public static final int CONNECTION_REQUEST_SESSIONS = 8;
+
+    private final RTTEstimator rttEstimator;
+
+    // time data flowed in data sessions
+    private long smoothedSessionInMillis = -1;
+    private long sessionVarianceInMillis = 0;
+    private long minSessionTimeoutInMillis = 0; // raised by sessions that were cut short
+    private long sessionSamples = 0;
+    private long truncatedSessions = 0;
+
+    /**
+     * @param rttEstimator round trip times of the channel
+     */
+    public AdaptiveTimeouts(RTTEstimator rttEstimator) {
+        this.rttEstimator = rttEstimator;
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return retransmission timeout like TCP - -1 if there is no round trip time sample yet
+     */
+    public long getRTOInMillis() {
+        long srtt;
+        long rttVariance;
+        synchronized (this.rttEstimator) {
+            if(!this.rttEstimator.hasSamples()) return -1;
+            srtt = this.rttEstimator.getSmoothedRTTInMicros();
+            rttVariance = this.rttEstimator.getRTTVarianceInMicros();
+        }
+        long rtoInMicros = srtt + Math.max(CLOCK_GRANULARITY_IN_MILLIS * 1000L, 4 * rttVariance);
+        return (rtoInMicros + 999) / 1000;
+    }
+
+    /**
+     * @param configuredInMillis used if nothing was measured yet
+     * @return how long to wait for silence - and to stay silent until channel is cleared
+     */
+    public int getSilenceTimeoutInMillis(int configuredInMillis) {
+        long rto = this.getRTOInMillis();
+        if(rto < 0) return configuredInMillis;
+        return clamp(2 * rto, MIN_SILENCE_TIMEOUT_IN_MILLIS, MAX_SILENCE_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * @param configuredInMillis used if nothing was measured yet
+     * @return how long a data session lasts (or may last at most, if framed)
+     */
+    public int getDataSessionTimeoutInMillis(int configuredInMillis) {
+        long rto = this.getRTOInMillis();
+        synchronized (this) {
+            if(rto < 0 || this.sessionSamples == 0) return configuredInMillis;
+            long timeout = this.smoothedSessionInMillis + 4 * this.sessionVarianceInMillis + 2 * rto;
+            timeout = Math.max(timeout, this.minSessionTimeoutInMillis);
+            return clamp(timeout, MIN_DATA_SESSION_TIMEOUT_IN_MILLIS, MAX_DATA_SESSION_TIMEOUT_IN_MILLIS);
+        }
+    }
+
+    /**
+     * @param configuredInMillis used if nothing was measured yet
+     * @return how long a connection request waits to be served
+     */
+    public int getConnectionRequestTimeoutInMillis(int configuredInMillis) {
+        if(this.getRTOInMillis() < 0) return configuredInMillis;
+        long perSession = (long) this.getSilenceTimeoutInMillis(configuredInMillis)
+                + this.getDataSessionTimeoutInMillis(configuredInMillis);
+        return clamp(CONNECTION_REQUEST_SESSIONS * perSession,
+                MIN_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS, MAX_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * @param configuredInMillis used if nothing was measured yet - values beyond
+     * {@link #MAX_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS} are cut
+     * @return how long a connection request waits to be served
+     */
+    public int getConnectionRequestTimeoutInMillis(long configuredInMillis) {
+        return this.getConnectionRequestTimeoutInMillis(
+                clamp(configuredInMillis, 0, MAX_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS));
+    }
+
+    /**
+     * A data session ended.
+     * @param activeInMillis time from session start to last data transfer
+     * @param timeoutInMillis session clock the session ran with
+     * @param cutShort true if data were still transferred when session clock rang
+     */
+    public synchronized void dataSessionEnded(long activeInMillis, long timeoutInMillis, boolean cutShort) {
+        if(activeInMillis < 0) return;
+        if(this.sessionSamples == 0) {
+            this.smoothedSessionInMillis = activeInMillis;
+            this.sessionVarianceInMillis = activeInMillis / 2;
+        } else {
+            this.sessionVarianceInMillis += (Math.abs(this.smoothedSessionInMillis - activeInMillis)
+                    - this.sessionVarianceInMillis) / 4;
+            this.smoothedSessionInMillis += (activeInMillis - this.smoothedSessionInMillis) / 8;
+        }
+        this.sessionSamples++;
+
+        if(cutShort) {
+            // back off like a retransmission timeout
+            this.truncatedSessions++;
+            this.minSessionTimeoutInMillis = Math.min(MAX_DATA_SESSION_TIMEOUT_IN_MILLIS, 2 * timeoutInMillis);
+        } else {
+            // sessions fit - let floor decay towards what was measured
+            this.minSessionTimeoutInMillis -= this.minSessionTimeoutInMillis / 4;
+        }
+    }
+
+    public synchronized long getSessionSamples() {
+        return this.sessionSamples;
+    }
+
+    public synchronized long getTruncatedSessions() {
+        return this.truncatedSessions;
+    }
+
+    public String toString() {
+        long rto = this.getRTOInMillis();
+        synchronized (this) {
+            return "timeouts | rto (ms): " + rto + " | smoothed session (ms): " + this.smoothedSessionInMillis
+                    + " | session variance (ms): " + this.sessionVarianceInMillis
+                    + " | sessions: " + this.sessionSamples + " | cut short: " + this.truncatedSessions;
+        }
+    }
+}
@@ -51,6 +51,8 @@ public abstract class BasicHubConnectionManager implements HubConnectionManager
                     break; // found - go ahead.
                 }
             }
+            // still trying - not failed yet
+            if (!found && this.connectionAttemptPending(wishedConnection)) found = true;
             // remove failed attempt from connected hubs list
             if (!found) toBeRemoved.add(wishedConnection);
         }
@@ -69,6 +71,8 @@ public abstract class BasicHubConnectionManager implements HubConnectionManager
                 }
             }
             if (recordedOldAttempt != null) this.failedConnectionAttempts.remove(recordedOldAttempt);
+            long lastFailure = this.lastFailedConnectionAttempt(failedConnection);
+            long timeStamp = lastFailure > 0 ? lastFailure : this.lastConnectionAttempt;
             this.failedConnectionAttempts.add(new HubConnectionManager.FailedConnectionAttempt() {
                 @Override
                 public HubConnectorDescription getHubConnectorDescription() {
@@ -77,7 +81,7 @@ public abstract class BasicHubConnectionManager implements HubConnectionManager
 
                 @Override
                 public long getTimeStamp() {
-                    return lastConnectionAttempt;
+                    return timeStamp;
                 }
             });
         }
@@ -96,6 +100,23 @@ public abstract class BasicHubConnectionManager implements HubConnectionManager
         }
     }
 
+    /**
+     * @param hcd
+     * @return true if connection establishment to that hub is still under way - it has not failed (yet).
+     * Default: false
+     */
+    protected boolean connectionAttemptPending(HubConnectorDescription hcd) {
+        return false;
+    }
+
+    /**
+     * @param hcd
+     * @return time of last failed attempt to connect to that hub - -1 if not known. Default: -1
+     */
+    protected long lastFailedConnectionAttempt(HubConnectorDescription hcd) {
+        return -1;
+    }
+
     private HubConnectorDescription findSameInList(HubConnectorDescription hcd, List<HubConnectorDescription> hcdList) {
         for (HubConnectorDescription hcdInList : hcdList) {
             if (hcd.isSame(hcdInList)) {
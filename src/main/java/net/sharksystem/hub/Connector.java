@@ -2,6 +2,8 @@ package net.sharksystem.hub;
 
 import net.sharksystem.hub.protocol.*;
 
+import java.util.concurrent.Executor;
+
 /**
  * A connector reacts on received hub connector protocol data units (PDUs). There are two side:
  * hub and peer side. A peer registers with a peer but only unregisters by closing the connection.
@@ -111,7 +113,71 @@ public interface Connector {
      */
     void openNewTCPConnectionRequest(HubPDUConnectPeerNewTCPSocketRQ hubPDU);
 
+    /**
+     * Connector engine read a PDU and is about to handle it.
+     * @param hubPDU
+     */
+    void notifyPDUHandlingStarted(HubPDU hubPDU);
+
     void notifyPDUReceived(HubPDU hubPDU);
 
+    /**
+     * Send from hub to peer as reply of a register pdu that offered capabilities (see {@link HubCapabilities}).
+     * It contains those capabilities both sides use from now on.
+     * @param pdu
+     */
+    void registerRPLY(HubPDURegisterRPLY pdu);
+
+    /**
+     * Only on multiplexed shared channels: Hub opens a data session as stream on the shared channel. There is no
+     * need for silence. Connector protocol goes on while data are exchanged.
+     * @param pdu
+     */
+    void streamOpen(HubPDUStreamOpen pdu);
+
+    /**
+     * Data of a multiplexed stream.
+     * @param pdu
+     */
+    void streamData(HubPDUStreamData pdu);
+
+    /**
+     * Other side consumed data of a multiplexed stream. More data can be sent.
+     * @param pdu
+     */
+    void streamWindow(HubPDUStreamWindow pdu);
+
+    /**
+     * Other side closed a multiplexed stream.
+     * @param pdu
+     */
+    void streamClose(HubPDUStreamClose pdu);
+
+    /**
+     * Send from hub to peer if both agreed on {@link HubCapabilities#PRESENCE_PUSH}. Peers joined or left the hub.
+     * @param pdu
+     */
+    void peerPresence(HubPDUPeerPresence pdu);
+
+    /**
+     * Only if both agreed on {@link HubCapabilities#HEARTBEAT}: Hub pings, peer answers with a pong.
+     * @param pdu
+     */
+    void heartbeat(HubPDUHeartbeat pdu);
+
+    /**
+     * Only if both agreed on {@link HubCapabilities#OPEN_SESSION}: Hub asks peer to open a data session on the
+     * shared channel, peer replies.
+     * @param pdu
+     */
+    void openSession(HubPDUOpenSession pdu);
+
+    /**
+     * Requests that reach other connectors (e.g. connect peer or unregister) are handled by this executor - one at a
+     * time in the order they were received. Connector engine reads on meanwhile. A slow or silent peer on the other
+     * side of such a request never stalls connector protocol on this channel.
+     * @return serial executor of this connector
+     */
+    Executor getHandlerExecutor();
 
 }
@@ -1,25 +1,32 @@
 package net.sharksystem.hub;
 
 import net.sharksystem.hub.peerside.HubConnectorStatusListener;
-import net.sharksystem.hub.protocol.ConnectorThread;
-import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.*;
 import net.sharksystem.utils.Log;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 /**
  * Root class of all connector implementations.
  */
 public abstract class ConnectorImpl implements Connector {
     private ConnectorThread connectorThread = null;
+    private ConnectorThreadFactory connectorThreadFactory = ConnectorThreadFactory.BLOCKING_READ;
 
-    private final InputStream is;
-    private final OutputStream os;
+    // replaced when a lost channel is reopened
+    private volatile InputStream is;
+    private volatile OutputStream os;
+    private volatile PDUWriter pduWriter;
 
     private Set<HubConnectorStatusListener> statusListener = new HashSet<>();
     private int timeoutInMillis = DEFAULT_TIMEOUT_IN_MILLIS;
@@ -44,6 +51,13 @@ public abstract class ConnectorImpl implements Connector {
         }
     }
 
+    protected void notifyListenerPeersChanged(Collection<CharSequence> joinedPeers,
+                                              Collection<CharSequence> leftPeers) {
+        for(HubConnectorStatusListener listener : this.statusListener) {
+            listener.notifyPeersChanged(this, joinedPeers, leftPeers);
+        }
+    }
+
     public void setTimeOutInMillis(int millis) {
         this.timeoutInMillis = millis;
     }
@@ -57,6 +71,22 @@ public abstract class ConnectorImpl implements Connector {
         this.os = os;
 
         if(this.is == null || this.os == null) throw new ASAPHubException("streams must not be null");
+        this.pduWriter = new PDUWriter(this.os);
+    }
+
+    /**
+     * Continue on a new channel after the previous one was lost. Connector thread must not be running. PDUs are
+     * written to the new channel from now on.
+     * @param is
+     * @param os
+     * @throws ASAPHubException streams missing
+     */
+    protected void replaceStreams(InputStream is, OutputStream os) throws ASAPHubException {
+        if(is == null || os == null) throw new ASAPHubException("streams must not be null");
+        this.is = is;
+        this.os = os;
+        this.pduWriter = new PDUWriter(os);
+        this.capabilities = HubCapabilities.NONE; // agreed again with register
     }
 
     public OutputStream getOutputStream() {
@@ -66,10 +96,159 @@ public abstract class ConnectorImpl implements Connector {
         return this.is;
     }
 
+    /**
+     * Send a PDU. Several threads can send on the same channel (e.g. multiplexed data sessions). PDUs must not
+     * be interleaved. PDU is serialised and written with a single write - PDUs of concurrent threads are coalesced.
+     * Method returns after the PDU is written.
+     * @param pdu
+     * @throws IOException
+     */
+    protected void writePDU(HubPDU pdu) throws IOException {
+        this.pduWriter.write(pdu);
+    }
+
+    /**
+     * Send several PDUs with a single write.
+     * @param pdus
+     * @throws IOException
+     */
+    protected void writePDUs(Collection<? extends HubPDU> pdus) throws IOException {
+        this.pduWriter.write(pdus);
+    }
+
+    /**
+     * Send a PDU a little later. PDUs queued within a short window go out together - with next PDU written or
+     * when the window is over.
+     * @param pdu
+     * @throws IOException channel already broken
+     */
+    protected void writePDUDeferred(HubPDU pdu) throws IOException {
+        this.pduWriter.writeDeferred(pdu);
+    }
+
+    /**
+     * Queue a PDU - it is written with the next PDU or {@link #flushPDUs()}. Does not wait for the channel: can be
+     * called holding a lock other threads must not wait for while a slow peer blocks a write.
+     * @param pdu
+     * @throws IOException channel already broken
+     */
+    protected void queuePDU(HubPDU pdu) throws IOException {
+        this.pduWriter.enqueue(pdu);
+    }
+
+    /**
+     * Write queued PDUs.
+     * @throws IOException
+     */
+    protected void flushPDUs() throws IOException {
+        this.pduWriter.flush();
+    }
+
+    /**
+     * @return writer of this connector - e.g. to read write metrics
+     */
+    public PDUWriter getPDUWriter() {
+        return this.pduWriter;
+    }
+
     protected void pduNotHandled(HubPDU pdu) {
         Log.writeLog(this, "pdu is not handled in this implementation: " + pdu);
     }
 
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                      optional capabilities                                          //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private int capabilities = HubCapabilities.NONE;
+
+    /**
+     * @return capabilities both sides agreed on
+     * @see HubCapabilities
+     */
+    public int getCapabilities() {
+        return this.capabilities;
+    }
+
+    protected void setCapabilities(int capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    @Override
+    public void registerRPLY(HubPDURegisterRPLY pdu) {
+        this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void streamOpen(HubPDUStreamOpen pdu) {
+        this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void streamData(HubPDUStreamData pdu) {
+        this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void streamWindow(HubPDUStreamWindow pdu) {
+        this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void streamClose(HubPDUStreamClose pdu) {
+        this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void peerPresence(HubPDUPeerPresence pdu) {
+        this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void openSession(HubPDUOpenSession pdu) {
+        this.pduNotHandled(pdu);
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                         heartbeat                                                   //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private final RTTEstimator rttEstimator = new RTTEstimator();
+
+    /**
+     * @return round trip times measured with heartbeats
+     */
+    public RTTEstimator getRTTEstimator() {
+        return this.rttEstimator;
+    }
+
+    /**
+     * Pings are answered right away, pongs are taken as round trip time sample.
+     * @param pdu
+     */
+    @Override
+    public void heartbeat(HubPDUHeartbeat pdu) {
+        if(!HubCapabilities.has(this.capabilities, HubCapabilities.HEARTBEAT)) {
+            this.pduNotHandled(pdu);
+            return;
+        }
+        if(!pdu.isPong()) {
+            try {
+                this.writePDU(pdu.createPong());
+            } catch (IOException e) {
+                Log.writeLog(this, this.toString(), "cannot answer heartbeat: " + e.getLocalizedMessage());
+            }
+            return;
+        }
+        this.rttEstimator.sample((System.nanoTime() - pdu.timestamp) / 1000);
+        this.heartbeatAnswered(pdu);
+    }
+
+    /**
+     * Other side answered a ping.
+     * @param pong
+     */
+    protected void heartbeatAnswered(HubPDUHeartbeat pong) { }
+
     public void connectorSessionStarted(ConnectorThread connectorThread) {
         Log.writeLog(this, "connector thread running");
         this.connectorThread = connectorThread;
@@ -83,7 +262,10 @@ public abstract class ConnectorImpl implements Connector {
         Log.writeLog(this, this.toString(), "connector thread ended");
         this.connectorThread = null;
 
-        if(noRecovery) this.connectionLost();
+        if(noRecovery) {
+            this.failPendingReplies(new IOException("connection lost"));
+            this.connectionLost();
+        }
     }
 
     /**
@@ -91,6 +273,21 @@ public abstract class ConnectorImpl implements Connector {
      */
     abstract protected void connectionLost();
 
+    /**
+     * Define what kind of engine runs the connector protocol, e.g. a selector based engine on hub side.
+     * @param connectorThreadFactory factory
+     */
+    public void setConnectorThreadFactory(ConnectorThreadFactory connectorThreadFactory) {
+        this.connectorThreadFactory = connectorThreadFactory;
+    }
+
+    /**
+     * @return a new (not yet started) connector protocol engine reading from this connectors input stream
+     */
+    protected ConnectorThread createConnectorThread() {
+        return this.connectorThreadFactory.createConnectorThread(this, this.getInputStream());
+    }
+
     protected ConnectorThread getConnectorThread() throws ASAPHubException {
         if(this.connectorThread == null) throw new ASAPHubException("no connector thread");
         return this.connectorThread;
@@ -98,45 +295,78 @@ public abstract class ConnectorImpl implements Connector {
 
     public abstract CharSequence getPeerID();
 
-    Set<Byte> blockedCommands = new HashSet<>();
-    List<Thread> blockedThreads = new ArrayList<>();
+    private final SerialExecutor handlerExecutor = new SerialExecutor("connector handler");
+
+    @Override
+    public Executor getHandlerExecutor() {
+        return this.handlerExecutor;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                       request / reply correlation                                   //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private final PendingPDUReplies pendingReplies = new PendingPDUReplies();
+    private volatile boolean handlingPDU = false;
+
+    @Override
+    public void notifyPDUHandlingStarted(HubPDU hubPDU) {
+        this.handlingPDU = true;
+    }
 
     public void notifyPDUReceived(HubPDU hubPDU) {
-//        Log.writeLog(this, "remove block: " + hubPDU.getCommand() + " | " + this.blockedCommands);
-        this.blockedCommands.remove(hubPDU.getCommand());
-//        Log.writeLog(this, "removed block: " + this.blockedCommands);
+        this.handlingPDU = false;
+        this.pendingReplies.received(hubPDU);
+    }
 
+    /**
+     * @return true if connector engine is busy with a received PDU - it reads no other PDU meanwhile
+     */
+    protected boolean isHandlingPDU() {
+        return this.handlingPDU;
+    }
 
-        for(Thread blockedThread : this.blockedThreads) {
-            blockedThread.interrupt();
-        }
+    /**
+     * @param pduCommand command of expected PDU
+     * @return future completed with next received PDU of that command. It fails with a
+     * {@link java.util.concurrent.TimeoutException} after connector timeout or when connection is lost.
+     */
+    public CompletableFuture<HubPDU> expectPDU(byte pduCommand) {
+        return this.pendingReplies.expect(pduCommand, this.timeoutInMillis);
     }
 
+    protected void failPendingReplies(Throwable cause) {
+        this.pendingReplies.failAll(cause);
+    }
+
+    // futures behind the blocking api - at most one per command like before
+    private final Map<Byte, CompletableFuture<HubPDU>> blockingReplies = new ConcurrentHashMap<>();
+
+    /**
+     * @deprecated use {@link #expectPDU(byte)}
+     */
+    @Deprecated
     public void prepareBlockUntilReceived(byte pduCommand) {
-//        Log.writeLog(this, "prepare block: " + pduCommand);
-        this.blockedCommands.add(pduCommand);
-//        Log.writeLog(this, "added block: " + this.blockedCommands);
+        this.blockingReplies.computeIfAbsent(pduCommand, this::expectPDU);
     }
 
+    /**
+     * Block until a PDU prepared with {@link #prepareBlockUntilReceived(byte)} was received or timeout.
+     * @deprecated use {@link #expectPDU(byte)}
+     */
+    @Deprecated
     public void blockUntilReceived(byte pduCommand) {
-        Log.writeLog(this, "block: " + pduCommand);
-        for(;;) {
-            if (this.blockedCommands.contains(pduCommand)) {
-                // block
-                try {
-                    this.blockedThreads.add(Thread.currentThread());
-                    Log.writeLog(this, "wait: " + pduCommand);
-                    Thread.sleep(this.timeoutInMillis);
-                    Log.writeLog(this, "leave after timeout: " + pduCommand);
-                    return;
-                } catch (InterruptedException e) {
-                    // woke up - do it again
-                    Log.writeLog(this, "woke up from blocking " + pduCommand);
-                }
-            } else {
-                Log.writeLog(this, "leave: " + pduCommand);
-                return; // leave
-            }
+        CompletableFuture<HubPDU> reply = this.blockingReplies.get(pduCommand);
+        if(reply == null) return; // not prepared - nothing to wait for
+        try {
+            reply.get();
+            Log.writeLog(this, "leave: " + pduCommand);
+        } catch (ExecutionException e) {
+            Log.writeLog(this, "leave after " + e.getCause().getLocalizedMessage() + ": " + pduCommand);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.blockingReplies.remove(pduCommand, reply);
         }
     }
 
@@ -0,0 +1,17 @@
+package net.sharksystem.hub;
+
+/**
+ * Is told about each status change of a shared channel connector (see {@link ConnectorStateMachine}).
+ */
+public interface ConnectorStateListener {
+    /**
+     * Called after state machine was unlocked - one transition after another, in the order they happened.
+     * Might be called a bit later than the transition by another thread that changed status.
+     * @param from left status
+     * @param event event that caused this transition
+     * @param to entered status
+     * @param nanosInPreviousState how long connector was in left status
+     */
+    void stateChanged(ConnectorStateMachine.State from, ConnectorStateMachine.Event event,
+                      ConnectorStateMachine.State to, long nanosInPreviousState);
+}
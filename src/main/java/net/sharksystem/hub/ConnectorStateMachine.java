@@ -0,0 +1,245 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.utils.Log;
+
+/**
+ * Status of a shared channel connector. Status only changes by an event - allowed changes are defined in a
+ * transition table. An event that is not allowed in current status is refused and status remains. A transition
+ * does not create any object: it is a table look up, a clock reading and a listener call.
+ * <br/><br/>
+ * State machine is its own lock: Hold it to check status and act on it atomically - e.g. write a PDU only in
+ * connector protocol status.
+ * <br/><br/>
+ * Listener is not called while state machine is locked. Transitions are kept (in a fixed ring) and handed to the
+ * listener in order as soon as the thread that fired lets go of this lock - or by the next thread that fires or
+ * calls {@link #notifyListener()} without holding it.
+ */
+public class ConnectorStateMachine {
+    public enum State {
+        /** connector protocol runs on channel */
+        PROTOCOL,
+        /** hub asked peer side for silence - nothing but the reply is expected */
+        ASKED_FOR_SILENCE,
+        /** hub asked peer side to open a data session - nothing but the reply is expected */
+        OPENING_SESSION,
+        /** channel is silenced - ready for a data session */
+        SILENCE,
+        /** channel belongs to a data session */
+        DATA_SESSION,
+        /** data session timed out - both sides look for the sync sequence */
+        SYNCING,
+        /** channel is broken */
+        CLOSED
+    }
+
+    public enum Event {
+        ASK_FOR_SILENCE,
+        /** silence request timed out or could not be sent */
+        SILENCE_NOT_GRANTED,
+        ENTER_SILENCE,
+        SILENCE_ENDED,
+        OPEN_SESSION,
+        /** peer side rejected data session or reply got lost */
+        SESSION_NOT_OPENED,
+        START_DATA_SESSION,
+        /** both sides ended a framed data session */
+        DATA_SESSION_ENDED,
+        SYNC,
+        SYNCED,
+        /** continue on a new channel */
+        CHANNEL_REPLACED,
+        CLOSE
+    }
+
+    private static final State[] STATES = State.values();
+    private static final State[][] TRANSITIONS = new State[STATES.length][Event.values().length];
+
+    private static void transition(State from, Event event, State to) {
+        TRANSITIONS[from.ordinal()][event.ordinal()] = to;
+    }
+
+    static {
+        transition(State.PROTOCOL, Event.ASK_FOR_SILENCE, State.ASKED_FOR_SILENCE);
+        transition(State.PROTOCOL, Event.ENTER_SILENCE, State.SILENCE);
+        transition(State.PROTOCOL, Event.OPEN_SESSION, State.OPENING_SESSION);
+        // peer side accepted an open session request
+        transition(State.PROTOCOL, Event.START_DATA_SESSION, State.DATA_SESSION);
+
+        transition(State.ASKED_FOR_SILENCE, Event.SILENCE_NOT_GRANTED, State.PROTOCOL);
+        transition(State.ASKED_FOR_SILENCE, Event.ENTER_SILENCE, State.SILENCE);
+
+        transition(State.OPENING_SESSION, Event.SESSION_NOT_OPENED, State.PROTOCOL);
+        transition(State.OPENING_SESSION, Event.START_DATA_SESSION, State.DATA_SESSION);
+
+        transition(State.SILENCE, Event.ENTER_SILENCE, State.SILENCE); // rewind clock
+        transition(State.SILENCE, Event.SILENCE_ENDED, State.PROTOCOL);
+        transition(State.SILENCE, Event.START_DATA_SESSION, State.DATA_SESSION);
+
+        // batched data sessions follow each other
+        transition(State.DATA_SESSION, Event.START_DATA_SESSION, State.DATA_SESSION);
+        transition(State.DATA_SESSION, Event.DATA_SESSION_ENDED, State.PROTOCOL);
+        transition(State.DATA_SESSION, Event.SYNC, State.SYNCING);
+
+        transition(State.SYNCING, Event.SYNCED, State.PROTOCOL);
+
+        for(State state : STATES) {
+            transition(state, Event.CHANNEL_REPLACED, State.PROTOCOL);
+            if(state != State.CLOSED) transition(state, Event.CLOSE, State.CLOSED);
+        }
+    }
+
+    /**
+     * @return status after event - null if event is not allowed in that status
+     */
+    public static State next(State state, Event event) {
+        return TRANSITIONS[state.ordinal()][event.ordinal()];
+    }
+
+    // volatile: status can be read without lock - e.g. by a detector that must not wait for a blocked writer.
+    // enteredInNanos is written before state: a reader that sees a status sees when it was entered
+    private volatile State state = State.PROTOCOL;
+    private volatile long enteredInNanos = System.nanoTime();
+    private final long[] nanosInState = new long[STATES.length];
+    private long transitions = 0;
+    private ConnectorStateListener listener = null;
+
+    // transitions not yet told to listener - guarded by this
+    private static final int PENDING_TRANSITIONS = 64;
+    private final State[] pendingFrom = new State[PENDING_TRANSITIONS];
+    private final Event[] pendingEvent = new Event[PENDING_TRANSITIONS];
+    private final State[] pendingTo = new State[PENDING_TRANSITIONS];
+    private final long[] pendingNanos = new long[PENDING_TRANSITIONS];
+    private int firstPending = 0;
+    private int numberPending = 0;
+    private long lostTransitions = 0;
+    private boolean notifying = false;
+
+    /**
+     * @param listener is told about each transition - null: nobody
+     */
+    public synchronized void setListener(ConnectorStateListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Change status if event is allowed in current status.
+     * @param event
+     * @return false if event was refused - status remains
+     */
+    public boolean fire(Event event) {
+        synchronized (this) {
+            State to = TRANSITIONS[this.state.ordinal()][event.ordinal()];
+            if(to == null) return false;
+
+            long now = System.nanoTime();
+            long nanosInPreviousState = now - this.enteredInNanos;
+            State from = this.state;
+            this.nanosInState[from.ordinal()] += nanosInPreviousState;
+            this.enteredInNanos = now;
+            this.state = to;
+            this.transitions++;
+
+            if(this.listener != null) this.keepForListener(from, event, to, nanosInPreviousState);
+        }
+        this.notifyListener();
+        return true;
+    }
+
+    private void keepForListener(State from, Event event, State to, long nanosInPreviousState) {
+        if(this.numberPending == PENDING_TRANSITIONS) {
+            // listener falls far behind - oldest one is dropped
+            this.firstPending = (this.firstPending + 1) % PENDING_TRANSITIONS;
+            this.numberPending--;
+            this.lostTransitions++;
+        }
+        int index = (this.firstPending + this.numberPending) % PENDING_TRANSITIONS;
+        this.pendingFrom[index] = from;
+        this.pendingEvent[index] = event;
+        this.pendingTo[index] = to;
+        this.pendingNanos[index] = nanosInPreviousState;
+        this.numberPending++;
+    }
+
+    /**
+     * Hand transitions to listener that were fired while this state machine was locked. Does nothing if calling
+     * thread holds this lock or another thread is telling the listener already - that one tells all of them.
+     */
+    public void notifyListener() {
+        if(Thread.holdsLock(this)) return; // told when lock is released
+        synchronized (this) {
+            if(this.notifying || this.numberPending == 0) return;
+            this.notifying = true;
+        }
+        for(;;) {
+            ConnectorStateListener listener;
+            State from, to;
+            Event event;
+            long nanosInPreviousState;
+            synchronized (this) {
+                if(this.numberPending == 0 || this.listener == null) {
+                    this.numberPending = 0;
+                    this.notifying = false;
+                    return;
+                }
+                listener = this.listener;
+                from = this.pendingFrom[this.firstPending];
+                event = this.pendingEvent[this.firstPending];
+                to = this.pendingTo[this.firstPending];
+                nanosInPreviousState = this.pendingNanos[this.firstPending];
+                this.firstPending = (this.firstPending + 1) % PENDING_TRANSITIONS;
+                this.numberPending--;
+            }
+            try {
+                listener.stateChanged(from, event, to, nanosInPreviousState);
+            } catch (RuntimeException e) {
+                Log.writeLogErr(this, this.state.name(), "state listener failed: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * @return transitions listener was not told about - it fell too far behind
+     */
+    public synchronized long getLostTransitions() {
+        return this.lostTransitions;
+    }
+
+    /**
+     * @return current status - does not wait for a thread holding this state machine
+     */
+    public State getState() {
+        return this.state;
+    }
+
+    public boolean is(State state) {
+        return this.state == state;
+    }
+
+    /**
+     * @param state
+     * @return time spent in that status so far - including current stay
+     */
+    public synchronized long getNanosInState(State state) {
+        long nanos = this.nanosInState[state.ordinal()];
+        if(this.state == state) nanos += System.nanoTime() - this.enteredInNanos;
+        return nanos;
+    }
+
+    /**
+     * @return time since last transition - does not wait for a thread holding this state machine
+     */
+    public long getNanosInCurrentState() {
+        return System.nanoTime() - this.enteredInNanos;
+    }
+
+    /**
+     * @return number of transitions so far
+     */
+    public synchronized long getTransitions() {
+        return this.transitions;
+    }
+
+    public synchronized String toString() {
+        return this.state.name();
+    }
+}
@@ -0,0 +1,345 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUOpenSession;
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+import net.sharksystem.utils.streams.StreamPairListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data session on a silenced shared channel. Each write is sent as a frame: its length (four bytes) followed by
+ * the data. Closing this stream pair sends an empty frame - the end of session. Both sides know exactly where a
+ * data session ends. Connector protocol resumes as soon as both sides sent and received end of session.
+ * There is no need to wait for a time out or to look for a sync sequence.
+ * <br/><br/>
+ * Batched sessions: Hub can end its side with a session boundary instead - a negative length followed by an open
+ * session request. Next data session starts on the channel as soon as both sides ended this one. Connector protocol
+ * does not resume in between.
+ */
+class FramedStreamPair implements StreamPair {
+    static final int END_OF_SESSION = 0;
+    static final int NEXT_SESSION = -1;
+
+    private final InputStream rawIn;
+    private final OutputStream rawOut;
+    private final SharedChannelConnectorImpl connector;
+    private final String sessionID;
+    private CharSequence endpointID = null;
+    private final List<StreamPairListener> listener = new ArrayList<>();
+
+    // guarded by readLock - only one thread reads from shared channel at a time
+    private final Object readLock = new Object();
+    private volatile int remainingInFrame = 0;
+
+    private boolean closing = false;
+    private volatile boolean localEnded = false;
+    private volatile boolean remoteEnded = false;
+    private boolean endReported = false;
+    // session that follows this one on the channel - sent (hub side) or received (peer side) with end of session
+    private volatile HubPDUOpenSession nextSession = null;
+
+    private final InputStream is = new FramedInputStream();
+    private final OutputStream os = new FramedOutputStream();
+
+    FramedStreamPair(InputStream rawIn, OutputStream rawOut, SharedChannelConnectorImpl connector,
+                     String sessionID) {
+        this.rawIn = rawIn;
+        this.rawOut = rawOut;
+        this.connector = connector;
+        this.sessionID = sessionID;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                               framing                                               //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // frames up to that size go out with a single write - header and data in one segment
+    private static final int SINGLE_WRITE_FRAME_SIZE = 1024;
+
+    private static void putFrameHeader(byte[] buffer, int length) {
+        buffer[0] = (byte) (length >>> 24);
+        buffer[1] = (byte) (length >>> 16);
+        buffer[2] = (byte) (length >>> 8);
+        buffer[3] = (byte) length;
+    }
+
+    private void writeFrameHeader(int length) throws IOException {
+        byte[] header = new byte[4];
+        putFrameHeader(header, length);
+        this.rawOut.write(header);
+    }
+
+    private void writeFrame(byte[] b, int off, int len) throws IOException {
+        if(len > SINGLE_WRITE_FRAME_SIZE) {
+            this.writeFrameHeader(len);
+            this.rawOut.write(b, off, len);
+            return;
+        }
+        byte[] frame = new byte[4 + len];
+        putFrameHeader(frame, len);
+        System.arraycopy(b, off, frame, 4, len);
+        this.rawOut.write(frame);
+    }
+
+    private int readFrameHeader() throws IOException {
+        int length = 0;
+        for(int i = 0; i < 4; i++) {
+            int b = this.rawIn.read();
+            if(b < 0) throw new IOException("shared channel closed within data session");
+            length = (length << 8) | b;
+        }
+        return length;
+    }
+
+    /**
+     * Must be called with read lock.
+     * @return false if other side ended data session
+     */
+    private boolean nextFrame() throws IOException {
+        while(this.remainingInFrame == 0) {
+            if(this.remoteEnded) return false;
+            int length = this.readFrameHeader();
+            if(length == END_OF_SESSION) {
+                Log.writeLog(this, this.sessionID, "other side ended data session");
+                this.remoteEnded = true;
+                this.checkSessionEnded(false);
+                return false;
+            }
+            if(length == NEXT_SESSION) {
+                this.nextSession = this.readSessionBoundary();
+                Log.writeLog(this, this.sessionID, "other side ended data session - next follows: "
+                        + this.nextSession.sessionID);
+                this.remoteEnded = true;
+                this.checkSessionEnded(false);
+                return false;
+            }
+            if(length < 0) throw new IOException("malformed data session frame: " + length);
+            this.remainingInFrame = length;
+        }
+        return true;
+    }
+
+    private HubPDUOpenSession readSessionBoundary() throws IOException {
+        HubPDU pdu;
+        try {
+            pdu = HubPDU.readPDU(this.rawIn);
+        } catch (ASAPException e) {
+            throw new IOException("malformed session boundary: " + e.getLocalizedMessage());
+        }
+        if(!(pdu instanceof HubPDUOpenSession)) throw new IOException("malformed session boundary: " + pdu);
+        return (HubPDUOpenSession) pdu;
+    }
+
+    /**
+     * @return data session that follows this one on the channel - null if connector protocol resumes
+     */
+    HubPDUOpenSession getNextSession() {
+        return this.nextSession;
+    }
+
+    /**
+     * Read and discard whatever other side sends until it ends its data session, too.
+     */
+    private void drain() {
+        byte[] buffer = new byte[4096];
+        try {
+            synchronized (this.readLock) {
+                while(this.nextFrame()) {
+                    int read = this.rawIn.read(buffer, 0, Math.min(buffer.length, this.remainingInFrame));
+                    if(read < 0) throw new IOException("shared channel closed within data session");
+                    this.remainingInFrame -= read;
+                }
+            }
+        } catch (IOException e) {
+            Log.writeLog(this, this.sessionID, "cannot wait for end of data session: " + e.getLocalizedMessage());
+            this.connector.framedDataSessionBroken(this);
+        }
+    }
+
+    /**
+     * Data session is over if both sides sent end of session
+     * @param spawn call connector in its own thread - caller might be application code
+     */
+    private void checkSessionEnded(boolean spawn) {
+        synchronized (this) {
+            if(!this.localEnded || !this.remoteEnded || this.endReported) return;
+            this.endReported = true;
+        }
+
+        if(!spawn) {
+            this.connector.framedDataSessionEnded(this);
+        } else {
+            HubThreads.start(new Runnable() {
+                @Override
+                public void run() {
+                    FramedStreamPair.this.connector.framedDataSessionEnded(FramedStreamPair.this);
+                }
+            }, "end of data session");
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                              StreamPair                                             //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public InputStream getInputStream() {
+        return this.is;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.os;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if(this.closing) return;
+            this.closing = true;
+        }
+
+        // hub side might serve its next request right away - known before our end of session counts
+        HubPDUOpenSession next = this.connector.nextBatchedSession(this);
+        try {
+            synchronized (this.rawOut) {
+                this.nextSession = next;
+                try {
+                    if(next == null) {
+                        this.writeFrameHeader(END_OF_SESSION);
+                    } else {
+                        this.writeFrameHeader(NEXT_SESSION);
+                        next.sendPDU(this.rawOut);
+                    }
+                } finally {
+                    this.localEnded = true;
+                }
+                this.rawOut.flush();
+            }
+        } catch (IOException e) {
+            Log.writeLog(this, this.sessionID, "cannot send end of data session: " + e.getLocalizedMessage());
+            this.connector.framedDataSessionBroken(this);
+            return;
+        }
+        Log.writeLog(this, this.sessionID, "sent end of data session");
+
+        List<StreamPairListener> listenerCopy;
+        synchronized (this.listener) {
+            listenerCopy = new ArrayList<>(this.listener);
+        }
+        for(StreamPairListener l : listenerCopy) {
+            l.notifyClosed(this, this.sessionID);
+        }
+
+        if(this.remoteEnded) {
+            this.checkSessionEnded(true);
+        } else {
+            // nobody might read anymore - wait for end of session in a thread of our own
+            HubThreads.start(new Runnable() {
+                @Override
+                public void run() {
+                    FramedStreamPair.this.drain();
+                }
+            }, "drain data session");
+        }
+    }
+
+    @Override
+    public void addListener(StreamPairListener listener) {
+        synchronized (this.listener) {
+            this.listener.add(listener);
+        }
+    }
+
+    @Override
+    public CharSequence getSessionID() {
+        return this.sessionID;
+    }
+
+    @Override
+    public CharSequence getEndpointID() {
+        return this.endpointID;
+    }
+
+    @Override
+    public void setEndpointID(CharSequence endpointID) {
+        this.endpointID = endpointID;
+    }
+
+    public String toString() {
+        return this.sessionID;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                                streams                                              //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private class FramedInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = this.read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            FramedStreamPair pair = FramedStreamPair.this;
+            synchronized (pair.readLock) {
+                if(pair.localEnded) return -1;
+                if(!pair.nextFrame()) return -1;
+                int read = pair.rawIn.read(b, off, Math.min(len, pair.remainingInFrame));
+                if(read < 0) throw new IOException("shared channel closed within data session");
+                pair.remainingInFrame -= read;
+                return read;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            FramedStreamPair pair = FramedStreamPair.this;
+            if(pair.localEnded) return 0;
+            return Math.min(pair.remainingInFrame, pair.rawIn.available());
+        }
+
+        @Override
+        public void close() {
+            FramedStreamPair.this.close();
+        }
+    }
+
+    private class FramedOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return; // an empty frame would end the session
+            FramedStreamPair pair = FramedStreamPair.this;
+            synchronized (pair.rawOut) {
+                if(pair.localEnded) throw new IOException("data session closed");
+                pair.writeFrame(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            FramedStreamPair.this.rawOut.flush();
+        }
+
+        @Override
+        public void close() {
+            FramedStreamPair.this.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.utils.AlarmClockListener;
+
+/**
+ * Alarm clock for hub and connectors. It behaves like {@link net.sharksystem.utils.AlarmClock} but it does not
+ * occupy a thread while waiting. It is scheduled on the shared {@link HubTimerWheel} - starting and killing a clock
+ * is cheap. Listener is called from a thread produced by {@link HubThreads}.
+ */
+public class HubAlarmClock implements Runnable {
+    public static final int DEFAULT_KEY = 0;
+
+    private final long duration;
+    private final int key;
+    private final AlarmClockListener listener;
+    private final HubTimerWheel timerWheel;
+    private HubTimerWheel.Timeout timeout = null;
+    private boolean killed = false;
+
+    public HubAlarmClock(long duration, int key, AlarmClockListener listener, HubTimerWheel timerWheel) {
+        this.duration = duration;
+        this.key = key;
+        this.listener = listener;
+        this.timerWheel = timerWheel;
+    }
+
+    public HubAlarmClock(long duration, int key, AlarmClockListener listener) {
+        this(duration, key, listener, HubTimerWheel.getDefault());
+    }
+
+    public HubAlarmClock(long duration, AlarmClockListener listener) {
+        this(duration, DEFAULT_KEY, listener);
+    }
+
+    public synchronized void start() {
+        if(this.timeout != null || this.killed) return;
+        this.timeout = this.timerWheel.schedule(this.duration, this);
+    }
+
+    public synchronized void kill() {
+        if(this.killed) return; // already killed or ringing - do not disturb listener
+        this.killed = true;
+        if(this.timeout != null) this.timeout.cancel();
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if(this.killed) return;
+            this.killed = true; // ring only once
+        }
+        this.listener.alarmClockRinging(this.key);
+    }
+
+    public String toString() {
+        return "alarm clock (key: " + this.key + ", duration: " + this.duration + ")";
+    }
+}
@@ -26,6 +26,16 @@ public class HubConnectionManagerImpl extends BasicHubConnectionManager
         super.syncLists();
     }
 
+    @Override
+    protected boolean connectionAttemptPending(HubConnectorDescription hcd) {
+        return this.hubManager.getConnectionEstablisher().isPending(hcd);
+    }
+
+    @Override
+    protected long lastFailedConnectionAttempt(HubConnectorDescription hcd) {
+        return this.hubManager.getConnectionEstablisher().getLastFailure(hcd);
+    }
+
     public void connectHubs(List<HubConnectorDescription> hcdList) throws SharkException, IOException {
         if(hcdList == null || hcdList.isEmpty()) return;
         this.syncLists();
@@ -83,8 +93,7 @@ public class HubConnectionManagerImpl extends BasicHubConnectionManager
         this.asapPeer = asapPeer;
         this.hubManager = new ASAPHubManagerImpl(encounterManager, waitIntervalInSeconds);
         // run it
-        this.hubManangerThread = new Thread(this.hubManager);
-        this.hubManangerThread.start();
+        this.hubManangerThread = HubThreads.start(this.hubManager, "hub manager");
     }
 
     public HubConnectionManagerImpl(ASAPEncounterManager encounterManager, ASAPPeer asapPeer) {
@@ -0,0 +1,113 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+import net.sharksystem.utils.streams.StreamPairListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Links two stream pairs: what is read from one pair is written to the other and vice versa. It behaves like
+ * {@link net.sharksystem.utils.streams.StreamPairLink} but both copying threads are produced by {@link HubThreads}.
+ */
+public class HubStreamPairLink implements StreamPairListener {
+    private static final int BUFFER_SIZE = 4096;
+
+    private final StreamCopy linkA2B;
+    private final StreamCopy linkB2A;
+
+    public HubStreamPairLink(StreamPair pairA, CharSequence idA, StreamPair pairB, CharSequence idB)
+            throws IOException {
+        this(pairA, idA, pairB, idB, true);
+    }
+
+    public HubStreamPairLink(StreamPair pairA, CharSequence idA, StreamPair pairB, CharSequence idB,
+                             boolean start) throws IOException {
+        this.linkA2B = new StreamCopy(pairA.getInputStream(), pairB.getOutputStream(), idA + " --> " + idB);
+        this.linkB2A = new StreamCopy(pairB.getInputStream(), pairA.getOutputStream(), idB + " --> " + idA);
+
+        pairA.addListener(this);
+        pairB.addListener(this);
+
+        if(start) this.start();
+    }
+
+    public void start() {
+        HubThreads.start(this.linkA2B, "stream link");
+        HubThreads.start(this.linkB2A, "stream link");
+    }
+
+    @Override
+    public void notifyClosed(StreamPair closedStreamPair, String key) {
+        Log.writeLog(this, "stream pair closed - stop links: " + key);
+        this.linkA2B.close();
+        this.linkB2A.close();
+    }
+
+    private static class StreamCopy implements Runnable {
+        private final InputStream sourceIS;
+        private final OutputStream targetOS;
+        private final String id;
+        private boolean again = true;
+
+        StreamCopy(InputStream sourceIS, OutputStream targetOS, String id) {
+            this.sourceIS = sourceIS;
+            this.targetOS = targetOS;
+            this.id = id;
+        }
+
+        void close() {
+            this.again = false;
+        }
+
+        @Override
+        public void run() {
+            Log.writeLog(this, this.id, "start reading");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                while (this.again) {
+                    // wrapped streams block in read(byte[]) until the buffer is full - never ask for more than available
+                    int available = this.sourceIS.available();
+                    if (available > 0) {
+                        int read = this.sourceIS.read(buffer, 0, Math.min(available, buffer.length));
+                        if (read < 0) break;
+                        this.targetOS.write(buffer, 0, read);
+                    } else {
+                        int read = this.sourceIS.read();
+                        if (read < 0) break;
+                        // block until next byte - and take whatever arrived with it
+                        buffer[0] = (byte) read;
+                        int length = 1;
+                        available = this.sourceIS.available();
+                        if (available > 0) {
+                            read = this.sourceIS.read(buffer, 1, Math.min(available, buffer.length - 1));
+                            if (read > 0) length += read;
+                        }
+                        this.targetOS.write(buffer, 0, length);
+                    }
+                }
+                Log.writeLog(this, this.id, "end of stream reached");
+            } catch (IOException e) {
+                Log.writeLog(this, this.id, "ioException - most probably connection closed: " + this.id);
+            } finally {
+                try {
+                    this.targetOS.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                try {
+                    this.sourceIS.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                Log.writeLog(this, this.id, "stream link ended");
+            }
+        }
+
+        public String toString() {
+            return this.id;
+        }
+    }
+}
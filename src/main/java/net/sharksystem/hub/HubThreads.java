@@ -0,0 +1,157 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.utils.Log;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * All threads of hub and connectors are created here. Platform threads are default. Virtual threads (Java 21+) can
+ * be chosen instead - each blocking read and each timer becomes cheap and the thread-per-connection design scales to
+ * large numbers of peers.
+ * <br/><br/>
+ * Virtual threads can be switched on by {@link #useVirtualThreads()}, by setting any other
+ * {@link ThreadFactory} or by system property <code>asaphub.threads=virtual</code>.
+ */
+public class HubThreads {
+    public static final String THREAD_MODE_PROPERTY = "asaphub.threads";
+    public static final String PLATFORM_THREAD_MODE = "platform";
+    public static final String VIRTUAL_THREAD_MODE = "virtual";
+
+    /** a platform thread for each task */
+    public static final ThreadFactory PLATFORM_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r);
+        }
+    };
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+    private static final AtomicInteger liveThreads = new AtomicInteger();
+    private static final AtomicInteger peakLiveThreads = new AtomicInteger();
+    private static ThreadFactory threadFactory = PLATFORM_THREADS;
+    private static String threadMode = PLATFORM_THREAD_MODE;
+
+    static {
+        if(VIRTUAL_THREAD_MODE.equalsIgnoreCase(System.getProperty(THREAD_MODE_PROPERTY))) {
+            HubThreads.useVirtualThreads();
+        }
+    }
+
+    /**
+     * Set thread factory that produces all hub and connector threads from now on.
+     * Threads already running are not affected.
+     * @param factory thread factory - null sets back to platform threads
+     */
+    public static synchronized void setThreadFactory(ThreadFactory factory) {
+        if(factory == null || factory == PLATFORM_THREADS) {
+            HubThreads.threadFactory = PLATFORM_THREADS;
+            HubThreads.threadMode = PLATFORM_THREAD_MODE;
+        } else {
+            HubThreads.threadFactory = factory;
+            HubThreads.threadMode = factory.getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * Produce virtual threads from now on.
+     * @return false if the runtime does not support virtual threads (older than Java 21) - nothing changes in that case
+     */
+    public static synchronized boolean useVirtualThreads() {
+        ThreadFactory virtualThreadFactory = HubThreads.createVirtualThreadFactory();
+        if(virtualThreadFactory == null) {
+            Log.writeLog(HubThreads.class, "virtual threads not supported by this runtime - stay with platform threads");
+            return false;
+        }
+        HubThreads.threadFactory = virtualThreadFactory;
+        HubThreads.threadMode = VIRTUAL_THREAD_MODE;
+        return true;
+    }
+
+    /**
+     * @return true if this runtime can create virtual threads
+     */
+    public static boolean virtualThreadsSupported() {
+        return HubThreads.createVirtualThreadFactory() != null;
+    }
+
+    /**
+     * @return name of current thread mode - platform, virtual or class name of a custom factory
+     */
+    public static synchronized String getThreadMode() {
+        return HubThreads.threadMode;
+    }
+
+    /**
+     * @return factory used to produce hub threads - can e.g. be used to create executors
+     */
+    public static synchronized ThreadFactory getThreadFactory() {
+        return HubThreads.threadFactory;
+    }
+
+    /**
+     * Create but do not start a new thread.
+     * @param task what to run
+     * @param name thread name - a number is added
+     * @return new thread
+     */
+    public static Thread newThread(Runnable task, String name) {
+        Thread thread = HubThreads.getThreadFactory().newThread(new Runnable() {
+            @Override
+            public void run() {
+                peakLiveThreads.accumulateAndGet(liveThreads.incrementAndGet(), Math::max);
+                try {
+                    task.run();
+                } finally {
+                    liveThreads.decrementAndGet();
+                }
+            }
+        });
+        thread.setName(name + "-" + HubThreads.threadNumber.incrementAndGet());
+        return thread;
+    }
+
+    /**
+     * Create and start a new thread.
+     * @param task what to run
+     * @param name thread name - a number is added
+     * @return running thread
+     */
+    public static Thread start(Runnable task, String name) {
+        Thread thread = HubThreads.newThread(task, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Virtual threads are not seen by {@link java.lang.management.ThreadMXBean} - hub threads are counted here.
+     * @return number of hub and connector threads running right now - in any thread mode
+     */
+    public static int getLiveThreads() {
+        return HubThreads.liveThreads.get();
+    }
+
+    /**
+     * @return maximum number of hub and connector threads that ran at the same time so far
+     */
+    public static int getPeakLiveThreads() {
+        return HubThreads.peakLiveThreads.get();
+    }
+
+    /**
+     * Virtual threads came with Java 21. Reflection keeps this code base compatible with older runtimes.
+     * @return virtual thread factory or null if not supported
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            // builder implementation is not public - call through public interface
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.utils.AlarmClockListener;
+import net.sharksystem.utils.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel shared by hub and connectors. A single thread advances the wheel tick by tick. Timeouts are
+ * kept in the bucket of their deadline tick - a bucket holds timeouts of all rounds and only those due are
+ * taken out. Scheduling and cancelling a timeout are O(1) and do not create a thread.
+ * <br/><br/>
+ * Expired timeouts are handed to a (cached) pool of threads produced by {@link HubThreads}. Listeners can block
+ * in their callback like they could with a thread per alarm clock.
+ * <br/><br/>
+ * Timeouts are precise to one tick ({@link #DEFAULT_TICK_IN_MILLIS}). They never fire early.
+ */
+public class HubTimerWheel {
+    public static final int DEFAULT_TICK_IN_MILLIS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    /** pool threads not used that long end */
+    private static final long IDLE_POOL_THREAD_KEEP_ALIVE_IN_SECONDS = 30;
+
+    private static HubTimerWheel defaultWheel = null;
+
+    /**
+     * @return timer wheel used by {@link HubAlarmClock}
+     */
+    public static synchronized HubTimerWheel getDefault() {
+        if(HubTimerWheel.defaultWheel == null) {
+            HubTimerWheel.defaultWheel = new HubTimerWheel(DEFAULT_TICK_IN_MILLIS, DEFAULT_WHEEL_SIZE);
+        }
+        return HubTimerWheel.defaultWheel;
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] buckets; // head of a doubly linked list each
+    private final long startNanos;
+    private final ExecutorService taskExecutor;
+
+    private long tick = 0; // next tick to be processed
+    private int pendingTimeouts = 0;
+    private Thread wheelThread = null;
+    private boolean stopped = false;
+
+    // metrics
+    private long scheduled = 0;
+    private long cancelled = 0;
+    private long expired = 0;
+
+    /**
+     * @param tickInMillis duration of a tick
+     * @param wheelSize number of buckets - rounded up to a power of two
+     */
+    public HubTimerWheel(int tickInMillis, int wheelSize) {
+        if(tickInMillis <= 0) throw new IllegalArgumentException("tick must be positive: " + tickInMillis);
+        int size = 1;
+        while(size < wheelSize) size <<= 1;
+
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickInMillis);
+        this.mask = size - 1;
+        this.buckets = new Timeout[size];
+        this.startNanos = System.nanoTime();
+        this.taskExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                IDLE_POOL_THREAD_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                r -> {
+                    Thread thread = HubThreads.newThread(r, "timer task");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Run a task after a delay.
+     * @param delayInMillis
+     * @param task
+     * @return handle to cancel the task
+     */
+    public Timeout schedule(long delayInMillis, Runnable task) {
+        Timeout timeout = new Timeout(task);
+        synchronized (this) {
+            if(this.stopped) throw new IllegalStateException("timer wheel stopped");
+            long elapsed = System.nanoTime() - this.startNanos;
+            if(this.pendingTimeouts == 0) {
+                // wheel was idle - catch up with time without walking through empty buckets
+                this.tick = Math.max(this.tick, elapsed / this.tickNanos);
+            }
+            long delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayInMillis));
+            long deadlineTick = (elapsed + delayNanos + this.tickNanos - 1) / this.tickNanos;
+            timeout.deadlineTick = Math.max(this.tick, deadlineTick);
+
+            this.add(timeout);
+            this.scheduled++;
+
+            if(this.wheelThread == null) {
+                this.wheelThread = HubThreads.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        HubTimerWheel.this.turn();
+                    }
+                }, "timer wheel");
+                this.wheelThread.setDaemon(true);
+                this.wheelThread.start();
+            } else if(this.pendingTimeouts == 1) {
+                this.notifyAll(); // wheel thread waits for something to do
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Call {@link AlarmClockListener#alarmClockRinging(int)} after a delay.
+     * @param delayInMillis
+     * @param key passed to listener
+     * @param listener
+     * @return handle to cancel the alarm
+     */
+    public Timeout schedule(long delayInMillis, int key, AlarmClockListener listener) {
+        return this.schedule(delayInMillis, new Runnable() {
+            @Override
+            public void run() {
+                listener.alarmClockRinging(key);
+            }
+        });
+    }
+
+    /**
+     * Stop wheel thread - pending timeouts are dropped.
+     */
+    public void stop() {
+        synchronized (this) {
+            this.stopped = true;
+            for(int i = 0; i < this.buckets.length; i++) this.buckets[i] = null;
+            this.pendingTimeouts = 0;
+            this.notifyAll();
+        }
+        this.taskExecutor.shutdown();
+    }
+
+    // must be called holding the lock
+    private void add(Timeout timeout) {
+        int index = (int) (timeout.deadlineTick & this.mask);
+        Timeout head = this.buckets[index];
+        timeout.next = head;
+        timeout.previous = null;
+        if(head != null) head.previous = timeout;
+        this.buckets[index] = timeout;
+        timeout.bucket = index;
+        this.pendingTimeouts++;
+    }
+
+    // must be called holding the lock
+    private void remove(Timeout timeout) {
+        if(timeout.previous != null) timeout.previous.next = timeout.next;
+        else this.buckets[timeout.bucket] = timeout.next;
+        if(timeout.next != null) timeout.next.previous = timeout.previous;
+        timeout.next = null;
+        timeout.previous = null;
+        timeout.bucket = -1;
+        this.pendingTimeouts--;
+    }
+
+    private synchronized boolean cancel(Timeout timeout) {
+        if(timeout.bucket < 0) return false; // expired or cancelled already
+        this.remove(timeout);
+        this.cancelled++;
+        return true;
+    }
+
+    private void turn() {
+        List<Timeout> due = new ArrayList<>();
+        for(;;) {
+            synchronized (this) {
+                if(!this.waitForTick()) return;
+
+                // take due timeouts out of current bucket - others belong to later rounds
+                int index = (int) (this.tick & this.mask);
+                Timeout timeout = this.buckets[index];
+                while(timeout != null) {
+                    Timeout next = timeout.next;
+                    if(timeout.deadlineTick <= this.tick) {
+                        this.remove(timeout);
+                        due.add(timeout);
+                    }
+                    timeout = next;
+                }
+                this.expired += due.size();
+                this.tick++;
+            }
+
+            for(Timeout timeout : due) this.runTask(timeout);
+            due.clear();
+        }
+    }
+
+    /**
+     * Wait until there is something to do and current tick has come - must be called holding the lock.
+     * @return false if wheel is stopped
+     */
+    private boolean waitForTick() {
+        for(;;) {
+            if(this.stopped) return false;
+            long waitNanos = this.pendingTimeouts == 0 ? 0 :
+                    this.tick * this.tickNanos - (System.nanoTime() - this.startNanos);
+            if(this.pendingTimeouts > 0 && waitNanos <= 0) return true;
+            try {
+                if(this.pendingTimeouts == 0) this.wait();
+                else this.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            } catch (InterruptedException e) {
+                // go ahead
+            }
+        }
+    }
+
+    private void runTask(Timeout timeout) {
+        try {
+            this.taskExecutor.execute(timeout.task);
+        } catch (RejectedExecutionException e) {
+            Log.writeLog(this, "timer wheel stopped - timeout not executed");
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                              metrics                                                //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public synchronized int getPendingTimeouts() {
+        return this.pendingTimeouts;
+    }
+
+    public synchronized long getScheduledTimeouts() {
+        return this.scheduled;
+    }
+
+    public synchronized long getCancelledTimeouts() {
+        return this.cancelled;
+    }
+
+    public synchronized long getExpiredTimeouts() {
+        return this.expired;
+    }
+
+    public synchronized String toString() {
+        return "timer wheel (pending: " + this.pendingTimeouts + ", scheduled: " + this.scheduled
+                + ", cancelled: " + this.cancelled + ", expired: " + this.expired + ")";
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public class Timeout {
+        private final Runnable task;
+        private long deadlineTick;
+        private int bucket = -1;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * @return true if task was cancelled - false if it has already been handed over for execution or
+         * was cancelled before
+         */
+        public boolean cancel() {
+            return HubTimerWheel.this.cancel(this);
+        }
+    }
+}
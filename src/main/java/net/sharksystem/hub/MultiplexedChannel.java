@@ -0,0 +1,146 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.hub.protocol.*;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Data sessions on a shared channel without silencing it. Each data session is a stream with its own id. Its data
+ * are sent in stream data PDUs between all other connector PDUs. Receivers grant credit (a window) to senders.
+ * A sender never sends more than granted. A slow reader cannot block the shared channel.
+ * <br/><br/>
+ * Both sides can open streams. Hub side uses even stream ids, peer side odd ones.
+ */
+public class MultiplexedChannel {
+    private final SharedChannelConnectorImpl connector;
+    private final Map<Integer, MultiplexedStreamPair> streams = new ConcurrentHashMap<>();
+    private int nextStreamID;
+
+    MultiplexedChannel(SharedChannelConnectorImpl connector) {
+        this(connector, connector.isHubSide());
+    }
+
+    /**
+     * @param connector sends PDUs - can be null if {@link #send(HubPDU)} and {@link #getID()} are overwritten
+     * @param hubSide
+     */
+    MultiplexedChannel(SharedChannelConnectorImpl connector, boolean hubSide) {
+        this.connector = connector;
+        this.nextStreamID = hubSide ? 2 : 1;
+    }
+
+    /**
+     * Open a new stream and tell other side.
+     * @param sourcePeerID
+     * @param targetPeerID
+     * @param maxIdleInMillis stream is closed if no data were exchanged within that period
+     * @return stream pair - it can be used immediately
+     * @throws IOException channel is broken
+     */
+    MultiplexedStreamPair openStream(CharSequence sourcePeerID, CharSequence targetPeerID, long maxIdleInMillis)
+            throws IOException {
+        int streamID;
+        synchronized (this) {
+            streamID = this.nextStreamID;
+            this.nextStreamID += 2;
+        }
+
+        MultiplexedStreamPair stream = new MultiplexedStreamPair(this, streamID,
+                MultiplexedStreamPair.INITIAL_WINDOW, maxIdleInMillis);
+        this.streams.put(streamID, stream);
+
+        try {
+            this.send(new HubPDUStreamOpen(streamID, sourcePeerID, targetPeerID,
+                    MultiplexedStreamPair.INITIAL_WINDOW, maxIdleInMillis));
+        }
+        catch(IOException e) {
+            this.streams.remove(streamID);
+            throw e;
+        }
+
+        stream.startIdleClock();
+        return stream;
+    }
+
+    /**
+     * Other side opened a stream
+     * @param pdu
+     * @return new stream pair
+     */
+    MultiplexedStreamPair acceptStream(HubPDUStreamOpen pdu) {
+        MultiplexedStreamPair stream = new MultiplexedStreamPair(this, pdu.streamID, pdu.window, pdu.maxIdleInMillis);
+        MultiplexedStreamPair previous = this.streams.put(pdu.streamID, stream);
+        if(previous != null) {
+            Log.writeLogErr(this, this.getID(), "stream id re-used - close previous stream " + pdu.streamID);
+            previous.remoteClosed();
+        }
+        stream.startIdleClock();
+        return stream;
+    }
+
+    /**
+     * Reject a stream opened by other side.
+     * @param pdu
+     */
+    void rejectStream(HubPDUStreamOpen pdu) {
+        try {
+            this.send(new HubPDUStreamClose(pdu.streamID));
+        } catch (IOException e) {
+            Log.writeLog(this, this.getID(), "cannot reject stream: " + e.getLocalizedMessage());
+        }
+    }
+
+    void dataReceived(HubPDUStreamData pdu) {
+        MultiplexedStreamPair stream = this.streams.get(pdu.streamID);
+        if(stream == null) {
+            // can happen if a stream was closed on this side while other side was still sending
+            Log.writeLog(this, this.getID(), "discard data of unknown stream " + pdu.streamID);
+            return;
+        }
+        stream.dataReceived(pdu.data, pdu.offset, pdu.length);
+    }
+
+    void windowReceived(HubPDUStreamWindow pdu) {
+        MultiplexedStreamPair stream = this.streams.get(pdu.streamID);
+        if(stream != null) stream.windowReceived(pdu.increment);
+    }
+
+    void closeReceived(HubPDUStreamClose pdu) {
+        MultiplexedStreamPair stream = this.streams.remove(pdu.streamID);
+        if(stream != null) stream.remoteClosed();
+    }
+
+    /**
+     * Shared channel is gone - so are all streams. Their listeners are told.
+     */
+    void closeAll() {
+        List<MultiplexedStreamPair> allStreams = new ArrayList<>(this.streams.values());
+        for(MultiplexedStreamPair stream : allStreams) {
+            stream.remoteClosed();
+        }
+    }
+
+    /**
+     * @return number of open streams
+     */
+    public int size() {
+        return this.streams.size();
+    }
+
+    void removeStream(int streamID, MultiplexedStreamPair stream) {
+        this.streams.remove(streamID, stream);
+    }
+
+    void send(HubPDU pdu) throws IOException {
+        this.connector.writePDU(pdu);
+    }
+
+    String getID() {
+        return this.connector.toString();
+    }
+}
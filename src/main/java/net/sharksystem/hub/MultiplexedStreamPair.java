@@ -0,0 +1,350 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.hub.protocol.HubPDUStreamClose;
+import net.sharksystem.hub.protocol.HubPDUStreamData;
+import net.sharksystem.hub.protocol.HubPDUStreamWindow;
+import net.sharksystem.utils.AlarmClockListener;
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+import net.sharksystem.utils.streams.StreamPairListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A stream on a {@link MultiplexedChannel}. Reading blocks until data arrived or stream was closed. Writing blocks
+ * if other side has not granted enough credit. Closing either input or output stream closes the whole stream pair.
+ * Stream is closed if no data were exchanged for a while.
+ * <br/><br/>
+ * Other side must not send more than granted - a stream that receives more is closed. Listeners are told once:
+ * when the stream is closed on either side or its channel is lost.
+ */
+public class MultiplexedStreamPair implements StreamPair, AlarmClockListener {
+    /** bytes each side can send without waiting for a window update */
+    public static final int INITIAL_WINDOW = 64 * 1024;
+    /** largest payload of a single stream data pdu */
+    public static final int MAX_FRAME_SIZE = 16 * 1024;
+
+    private final MultiplexedChannel channel;
+    private final int streamID;
+    private final String sessionID;
+    private final long maxIdleInMillis;
+    private CharSequence endpointID = null;
+    private final List<StreamPairListener> listener = new ArrayList<>();
+    private boolean listenerNotified = false; // guarded by listener
+
+    // inbound - guarded by inLock
+    private final Object inLock = new Object();
+    private byte[] buffer = new byte[1024];
+    private int start = 0;
+    private int end = 0;
+    private int consumed = 0; // not yet announced with a window update
+    private int receiveWindow = INITIAL_WINDOW; // granted to other side and not yet used
+    private volatile boolean remoteClosed = false;
+
+    // outbound - guarded by outLock
+    private final Object outLock = new Object();
+    private int sendWindow;
+
+    private volatile boolean closed = false;
+    private volatile long lastActivity = System.currentTimeMillis();
+    private HubAlarmClock idleClock = null;
+
+    private final InputStream is = new MultiplexedInputStream();
+    private final OutputStream os = new MultiplexedOutputStream();
+
+    MultiplexedStreamPair(MultiplexedChannel channel, int streamID, int sendWindow, long maxIdleInMillis) {
+        this.channel = channel;
+        this.streamID = streamID;
+        this.sendWindow = sendWindow;
+        this.maxIdleInMillis = maxIdleInMillis;
+        this.sessionID = channel.getID() + ":stream:" + streamID;
+    }
+
+    public int getStreamID() {
+        return this.streamID;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                           idle handling                                             //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    void startIdleClock() {
+        this.setIdleClock(this.maxIdleInMillis);
+    }
+
+    private synchronized void setIdleClock(long duration) {
+        if(this.closed || duration <= 0) return;
+        this.idleClock = new HubAlarmClock(duration, this);
+        this.idleClock.start();
+    }
+
+    private void touch() {
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    @Override
+    public void alarmClockRinging(int yourKey) {
+        long idle = System.currentTimeMillis() - this.lastActivity;
+        if(idle >= this.maxIdleInMillis) {
+            Log.writeLog(this, this.sessionID, "idle for " + idle + " ms - close");
+            this.close();
+        } else {
+            // there was some activity - wait for the rest
+            this.setIdleClock(this.maxIdleInMillis - idle);
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                     called by multiplexed channel                                   //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    void dataReceived(byte[] data, int offset, int length) {
+        this.touch();
+        int granted;
+        synchronized (this.inLock) {
+            if(this.closed) return; // nobody will read it
+            granted = this.receiveWindow;
+            if(length <= granted) {
+                this.receiveWindow -= length;
+                this.bufferReceived(data, offset, length);
+                return;
+            }
+        }
+        // other side ignores flow control - do not buffer what was never granted
+        Log.writeLogErr(this, this.sessionID, "received " + length + " bytes but granted only " + granted + " - close");
+        this.close();
+    }
+
+    // must be called holding inLock
+    private void bufferReceived(byte[] data, int offset, int length) {
+        if(this.end + length > this.buffer.length) {
+            int used = this.end - this.start;
+            if(used + length > this.buffer.length) {
+                byte[] newBuffer = new byte[Math.max(this.buffer.length * 2, used + length)];
+                System.arraycopy(this.buffer, this.start, newBuffer, 0, used);
+                this.buffer = newBuffer;
+            } else {
+                System.arraycopy(this.buffer, this.start, this.buffer, 0, used);
+            }
+            this.start = 0;
+            this.end = used;
+        }
+        System.arraycopy(data, offset, this.buffer, this.end, length);
+        this.end += length;
+        this.inLock.notifyAll();
+    }
+
+    void windowReceived(int increment) {
+        this.touch();
+        synchronized (this.outLock) {
+            this.sendWindow += increment;
+            this.outLock.notifyAll();
+        }
+    }
+
+    /**
+     * Other side closed this stream or channel is lost. Received data can still be read.
+     */
+    void remoteClosed() {
+        synchronized (this.inLock) {
+            this.remoteClosed = true;
+            this.inLock.notifyAll();
+        }
+        synchronized (this.outLock) {
+            this.outLock.notifyAll();
+        }
+        this.channel.removeStream(this.streamID, this);
+        this.notifyListener();
+    }
+
+    private void notifyListener() {
+        List<StreamPairListener> listenerCopy;
+        synchronized (this.listener) {
+            if(this.listenerNotified) return;
+            this.listenerNotified = true;
+            listenerCopy = new ArrayList<>(this.listener);
+        }
+        for(StreamPairListener l : listenerCopy) {
+            l.notifyClosed(this, this.sessionID);
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                              StreamPair                                             //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public InputStream getInputStream() {
+        return this.is;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.os;
+    }
+
+    @Override
+    public void close() {
+        HubAlarmClock clock;
+        boolean tellOtherSide;
+        synchronized (this) {
+            if(this.closed) return;
+            this.closed = true;
+            clock = this.idleClock;
+            this.idleClock = null;
+        }
+        if(clock != null) clock.kill();
+
+        synchronized (this.inLock) {
+            tellOtherSide = !this.remoteClosed;
+            this.inLock.notifyAll();
+        }
+        synchronized (this.outLock) {
+            this.outLock.notifyAll();
+        }
+
+        this.channel.removeStream(this.streamID, this);
+        if(tellOtherSide) {
+            try {
+                this.channel.send(new HubPDUStreamClose(this.streamID));
+            } catch (IOException e) {
+                Log.writeLog(this, this.sessionID, "cannot send stream close: " + e.getLocalizedMessage());
+            }
+        }
+
+        Log.writeLog(this, this.sessionID, "closed");
+        this.notifyListener();
+    }
+
+    @Override
+    public void addListener(StreamPairListener listener) {
+        synchronized (this.listener) {
+            this.listener.add(listener);
+        }
+    }
+
+    @Override
+    public CharSequence getSessionID() {
+        return this.sessionID;
+    }
+
+    @Override
+    public CharSequence getEndpointID() {
+        return this.endpointID;
+    }
+
+    @Override
+    public void setEndpointID(CharSequence endpointID) {
+        this.endpointID = endpointID;
+    }
+
+    public String toString() {
+        return this.sessionID;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                                streams                                              //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private class MultiplexedInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = this.read(b, 0, 1);
+            return read < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(len == 0) return 0;
+            int n;
+            int windowUpdate = 0;
+            synchronized (MultiplexedStreamPair.this.inLock) {
+                while(MultiplexedStreamPair.this.start == MultiplexedStreamPair.this.end) {
+                    if(MultiplexedStreamPair.this.closed || MultiplexedStreamPair.this.remoteClosed) return -1;
+                    try {
+                        MultiplexedStreamPair.this.inLock.wait();
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted while waiting for data");
+                    }
+                }
+                n = Math.min(len, MultiplexedStreamPair.this.end - MultiplexedStreamPair.this.start);
+                System.arraycopy(MultiplexedStreamPair.this.buffer, MultiplexedStreamPair.this.start, b, off, n);
+                MultiplexedStreamPair.this.start += n;
+
+                MultiplexedStreamPair.this.consumed += n;
+                if(MultiplexedStreamPair.this.consumed >= INITIAL_WINDOW / 2 && !MultiplexedStreamPair.this.remoteClosed) {
+                    windowUpdate = MultiplexedStreamPair.this.consumed;
+                    MultiplexedStreamPair.this.consumed = 0;
+                    MultiplexedStreamPair.this.receiveWindow += windowUpdate;
+                }
+            }
+
+            // grant credit outside the lock - sending can block
+            if(windowUpdate > 0) {
+                MultiplexedStreamPair.this.channel.send(
+                        new HubPDUStreamWindow(MultiplexedStreamPair.this.streamID, windowUpdate));
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            synchronized (MultiplexedStreamPair.this.inLock) {
+                return MultiplexedStreamPair.this.end - MultiplexedStreamPair.this.start;
+            }
+        }
+
+        @Override
+        public void close() {
+            MultiplexedStreamPair.this.close();
+        }
+    }
+
+    private class MultiplexedOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(len > 0) {
+                int n;
+                synchronized (MultiplexedStreamPair.this.outLock) {
+                    while(MultiplexedStreamPair.this.sendWindow <= 0) {
+                        this.checkOpen();
+                        try {
+                            MultiplexedStreamPair.this.outLock.wait();
+                        } catch (InterruptedException e) {
+                            throw new IOException("interrupted while waiting for window update");
+                        }
+                    }
+                    this.checkOpen();
+                    n = Math.min(len, Math.min(MAX_FRAME_SIZE, MultiplexedStreamPair.this.sendWindow));
+                    MultiplexedStreamPair.this.sendWindow -= n;
+                }
+
+                MultiplexedStreamPair.this.channel.send(
+                        new HubPDUStreamData(MultiplexedStreamPair.this.streamID, b, off, n));
+                MultiplexedStreamPair.this.touch();
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void checkOpen() throws IOException {
+            if(MultiplexedStreamPair.this.closed) throw new IOException("stream closed");
+            if(MultiplexedStreamPair.this.remoteClosed) throw new IOException("stream closed by other side");
+        }
+
+        @Override
+        public void close() {
+            MultiplexedStreamPair.this.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.hub.protocol.HubPDU;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Correlates received PDUs with threads waiting for them. A waiter gets a future that is completed with the next
+ * PDU of the expected command - or exceptionally after a timeout or when the connection is lost.
+ * <br/><br/>
+ * Connector protocol PDUs carry no request id. Replies are correlated by command: all futures waiting for a command
+ * when such a PDU arrives are completed with it. Futures are completed on the thread that received the PDU -
+ * dependent actions that take time should use the async variants of {@link CompletableFuture}.
+ */
+public class PendingPDUReplies {
+    private final Map<Byte, Set<CompletableFuture<HubPDU>>> waiting = new HashMap<>();
+    private final HubTimerWheel timerWheel;
+
+    public PendingPDUReplies() {
+        this(HubTimerWheel.getDefault());
+    }
+
+    public PendingPDUReplies(HubTimerWheel timerWheel) {
+        this.timerWheel = timerWheel;
+    }
+
+    /**
+     * @param command command of expected PDU
+     * @param timeoutInMillis future fails with a {@link TimeoutException} if no such PDU arrives in time -
+     *                        no timeout if not positive
+     * @return future completed with next PDU of that command
+     */
+    public CompletableFuture<HubPDU> expect(byte command, long timeoutInMillis) {
+        CompletableFuture<HubPDU> reply = new CompletableFuture<>();
+        synchronized (this) {
+            Set<CompletableFuture<HubPDU>> futures = this.waiting.get(command);
+            if(futures == null) {
+                futures = new LinkedHashSet<>();
+                this.waiting.put(command, futures);
+            }
+            futures.add(reply);
+        }
+
+        HubTimerWheel.Timeout timeout = null;
+        if(timeoutInMillis > 0) {
+            timeout = this.timerWheel.schedule(timeoutInMillis, new Runnable() {
+                @Override
+                public void run() {
+                    reply.completeExceptionally(new TimeoutException(
+                            "no pdu " + command + " within " + timeoutInMillis + " ms"));
+                }
+            });
+        }
+
+        // timed out, cancelled by caller or completed - forget it
+        HubTimerWheel.Timeout finalTimeout = timeout;
+        reply.whenComplete((pdu, throwable) -> {
+            if(finalTimeout != null) finalTimeout.cancel();
+            this.remove(command, reply);
+        });
+
+        return reply;
+    }
+
+    /**
+     * Complete all futures waiting for command of this PDU.
+     * @param pdu received PDU
+     */
+    public void received(HubPDU pdu) {
+        Set<CompletableFuture<HubPDU>> futures;
+        synchronized (this) {
+            futures = this.waiting.remove(pdu.getCommand());
+        }
+        if(futures == null) return;
+        for(CompletableFuture<HubPDU> future : futures) future.complete(pdu);
+    }
+
+    /**
+     * Fail all waiting futures, e.g. connection lost.
+     * @param cause
+     */
+    public void failAll(Throwable cause) {
+        List<CompletableFuture<HubPDU>> futures = new ArrayList<>();
+        synchronized (this) {
+            for(Set<CompletableFuture<HubPDU>> commandFutures : this.waiting.values()) {
+                futures.addAll(commandFutures);
+            }
+            this.waiting.clear();
+        }
+        for(CompletableFuture<HubPDU> future : futures) future.completeExceptionally(cause);
+    }
+
+    /**
+     * @return number of futures waiting for a PDU
+     */
+    public synchronized int size() {
+        int size = 0;
+        for(Set<CompletableFuture<HubPDU>> futures : this.waiting.values()) size += futures.size();
+        return size;
+    }
+
+    private synchronized void remove(byte command, CompletableFuture<HubPDU> reply) {
+        Set<CompletableFuture<HubPDU>> futures = this.waiting.get(command);
+        if(futures == null) return;
+        futures.remove(reply);
+        if(futures.isEmpty()) this.waiting.remove(command);
+    }
+}
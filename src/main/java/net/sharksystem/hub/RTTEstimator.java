@@ -0,0 +1,87 @@
+package net.sharksystem.hub;
+
+/**
+ * Round trip time of a connector channel - smoothed like TCP does (RFC 6298): each sample moves the smoothed
+ * round trip time by 1/8 and its variance by 1/4 towards the sample. Times are kept in microseconds - round trips
+ * in a LAN take far less than a millisecond.
+ * <br/>
+ * Thread safe.
+ */
+public class RTTEstimator {
+    private long smoothedRTTInMicros = -1;
+    private long rttVarianceInMicros = 0;
+    private long lastRTTInMicros = -1;
+    private long minRTTInMicros = Long.MAX_VALUE;
+    private long maxRTTInMicros = 0;
+    private long samples = 0;
+
+    /**
+     * @param rttInMicros measured round trip time
+     */
+    public synchronized void sample(long rttInMicros) {
+        if(rttInMicros < 0) return;
+        if(this.samples == 0) {
+            this.smoothedRTTInMicros = rttInMicros;
+            this.rttVarianceInMicros = rttInMicros / 2;
+        } else {
+            this.rttVarianceInMicros += (Math.abs(this.smoothedRTTInMicros - rttInMicros)
+                    - this.rttVarianceInMicros) / 4;
+            this.smoothedRTTInMicros += (rttInMicros - this.smoothedRTTInMicros) / 8;
+        }
+        this.lastRTTInMicros = rttInMicros;
+        this.minRTTInMicros = Math.min(this.minRTTInMicros, rttInMicros);
+        this.maxRTTInMicros = Math.max(this.maxRTTInMicros, rttInMicros);
+        this.samples++;
+    }
+
+    /**
+     * @return true if there is at least one sample
+     */
+    public synchronized boolean hasSamples() {
+        return this.samples > 0;
+    }
+
+    /**
+     * @return smoothed round trip time - -1 if there is no sample yet
+     */
+    public synchronized long getSmoothedRTTInMicros() {
+        return this.smoothedRTTInMicros;
+    }
+
+    public synchronized long getRTTVarianceInMicros() {
+        return this.rttVarianceInMicros;
+    }
+
+    /**
+     * @return most recent sample - -1 if there is none
+     */
+    public synchronized long getLastRTTInMicros() {
+        return this.lastRTTInMicros;
+    }
+
+    /**
+     * @return smallest sample - -1 if there is none
+     */
+    public synchronized long getMinRTTInMicros() {
+        return this.samples == 0 ? -1 : this.minRTTInMicros;
+    }
+
+    /**
+     * @return largest sample - -1 if there is none
+     */
+    public synchronized long getMaxRTTInMicros() {
+        return this.samples == 0 ? -1 : this.maxRTTInMicros;
+    }
+
+    public synchronized long getSamples() {
+        return this.samples;
+    }
+
+    public synchronized String toString() {
+        if(this.samples == 0) return "rtt: no samples";
+        return String.format("rtt (ms): smoothed %.3f | variance %.3f | last %.3f | min %.3f | max %.3f | samples %d",
+                this.smoothedRTTInMicros / 1000.0, this.rttVarianceInMicros / 1000.0,
+                this.lastRTTInMicros / 1000.0, this.minRTTInMicros / 1000.0, this.maxRTTInMicros / 1000.0,
+                this.samples);
+    }
+}
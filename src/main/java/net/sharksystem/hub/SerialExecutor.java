@@ -0,0 +1,67 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.utils.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one after another in the order they were handed over - never two at a time. A thread (see
+ * {@link HubThreads}) is only around while there are tasks. Each connector has one: requests that might wait for
+ * other connectors are handled here - not on the thread that reads from the channel.
+ */
+public class SerialExecutor implements Executor {
+    private final String name;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean running = false; // guarded by tasks
+
+    public SerialExecutor(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this.tasks) {
+            this.tasks.add(task);
+            if(this.running) return; // picked up by running thread
+            this.running = true;
+        }
+        HubThreads.start(new Runnable() {
+            @Override
+            public void run() {
+                SerialExecutor.this.runTasks();
+            }
+        }, this.name);
+    }
+
+    private void runTasks() {
+        for(;;) {
+            Runnable task;
+            synchronized (this.tasks) {
+                task = this.tasks.poll();
+                if(task == null) {
+                    this.running = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.writeLogErr(this, this.name, "task failed: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    /**
+     * @return number of tasks waiting - the running one is not counted
+     */
+    public int getQueueLength() {
+        synchronized (this.tasks) {
+            return this.tasks.size();
+        }
+    }
+
+    public String toString() {
+        return this.name + " | queued: " + this.getQueueLength();
+    }
+}
@@ -1,7 +1,7 @@
 package net.sharksystem.hub;
 
+import net.sharksystem.asap.utils.PeerIDHelper;
 import net.sharksystem.hub.protocol.*;
-import net.sharksystem.utils.AlarmClock;
 import net.sharksystem.utils.AlarmClockListener;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.SerializationHelper;
@@ -12,9 +12,17 @@ import net.sharksystem.utils.streams.WrappedStreamPairListener;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Root class for all connector implementation (hub and peer side) using a shared channel.
+ * <br/><br/>
+ * Status is kept in a {@link ConnectorStateMachine}. It is not the single serialisation point of this connector:
+ * the channel reader fires its events right away, alarm clocks and ended data sessions go through an event queue.
+ * Both fire concurrently - state machine lock decides which event comes first.
  */
 public abstract class SharedChannelConnectorImpl extends ConnectorImpl
         implements AlarmClockListener, WrappedStreamPairListener {
@@ -23,149 +31,391 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
         super(is, os);
     }
 
-    public int getTimeOutSilenceChannel()  { return this.getTimeoutInMillis(); }
+    private final AdaptiveTimeouts adaptiveTimeouts = new AdaptiveTimeouts(this.getRTTEstimator());
+
+    /**
+     * Timeouts adapt to round trip times (measured by heartbeats) and past data sessions. Configured timeout is
+     * used as long as nothing was measured.
+     * @return timeouts of this connector
+     */
+    public AdaptiveTimeouts getAdaptiveTimeouts() {
+        return this.adaptiveTimeouts;
+    }
+
+    public int getTimeOutSilenceChannel()  {
+        return this.adaptiveTimeouts.getSilenceTimeoutInMillis(this.getTimeoutInMillis());
+    }
     public int getTimeOutDataConnection() {
-        return this.getTimeoutInMillis();
+        return this.adaptiveTimeouts.getDataSessionTimeoutInMillis(this.getTimeoutInMillis());
+    }
+    /**
+     * @return how long hub waits for a reply to an open session request. Not adapted below configured timeout: a
+     * late reply opens a data session nobody waits for anymore.
+     */
+    public int getTimeOutOpenSession() {
+        return Math.max(this.getTimeoutInMillis(), this.getTimeOutSilenceChannel());
+    }
+    public int getTimeOutConnectionRequest() {
+        return this.adaptiveTimeouts.getConnectionRequestTimeoutInMillis((long) this.getTimeoutInMillis() * 1000000);
     }
-    public int getTimeOutConnectionRequest() { return this.getTimeoutInMillis() * 1000000; }
 
     /////////////////////////////////////////////////////////////////////////////////////////////////////////
     //                                         status management                                           //
     /////////////////////////////////////////////////////////////////////////////////////////////////////////
     /*
-        There are several statuses
+        There are several statuses (see ConnectorStateMachine)
         i) Hub-Connector protocol engine is running. Wait for commands from connector/peer side
-        ii) We asked peer side for silence (askedForSilence)
+        ii) We asked peer side for silence (askedForSilence) or to open a data session (openingSession)
         iii) We are in silence mode (inSilence) - ready for data connection
         iv) We are in a data session (inDataSession) - initiated by peer side or hub
+        v) Data session timed out - we look for the sync sequence (syncing)
+        vi) Channel is broken (closed)
+
+        Status changes on events. Reader of this channel fires its events right away - it must know the status
+        before reading the next byte. Anything else (alarm clocks, sync reader, ended framed data sessions) is put
+        into an event queue - handled one after another by a single thread.
+
+        Neither the event queue nor the state machine is the single serialisation point: reader thread, event queue
+        and threads writing PDUs fire concurrently. State machine lock orders them - each event is checked against
+        the status it finds (a refused event changes nothing) and clocks are checked against the one that rang.
      */
 
     public static final int ALARM_CLOCK_ASK_SILENCE = 0;
     public static final int ALARM_CLOCK_CHANNEL_SILENCE = 1;
     public static final int ALARM_CLOCK_DATA_SESSION = 2;
     public static final int ALARM_CLOCK_SYNC_TIMEOUT_SESSION = 3;
+    public static final int ALARM_CLOCK_OPEN_SESSION = 4;
+
+    private final ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+    private final SerialExecutor events = new SerialExecutor("connector events");
 
-    AlarmClock askedForSilenceClock = null;
-    AlarmClock inSilenceClock = null;
-    AlarmClock dataSessionClock = null;
-    AlarmClock syncTimeOutClock = null;
+    // guarded by state machine
+    HubAlarmClock askedForSilenceClock = null;
+    HubAlarmClock inSilenceClock = null;
+    HubAlarmClock dataSessionClock = null;
+    HubAlarmClock syncTimeOutClock = null;
+    HubAlarmClock openSessionClock = null;
+
+    /**
+     * @return status of this connector - add a listener to get timings of each status change
+     */
+    public ConnectorStateMachine getStateMachine() {
+        return this.stateMachine;
+    }
 
     private void stopAlarmClocks() {
-        if(this.askedForSilenceClock != null) {
-            this.askedForSilenceClock.kill();
-            this.askedForSilenceClock = null;
-        }
-        if(this.inSilenceClock != null) {
-            this.inSilenceClock.kill();
-            this.inSilenceClock = null;
+        synchronized (this.stateMachine) {
+            if(this.askedForSilenceClock != null) {
+                this.askedForSilenceClock.kill();
+                this.askedForSilenceClock = null;
+            }
+            if(this.inSilenceClock != null) {
+                this.inSilenceClock.kill();
+                this.inSilenceClock = null;
+            }
+            if(this.dataSessionClock != null) {
+                this.dataSessionClock.kill();
+                this.dataSessionClock = null;
+            }
+            if(this.syncTimeOutClock != null) {
+                this.syncTimeOutClock.kill();
+                this.syncTimeOutClock = null;
+            }
+            this.stopOpenSessionClock();
         }
-        if(this.dataSessionClock != null) {
-            this.dataSessionClock.kill();
-            this.dataSessionClock = null;
+    }
+
+    private HubAlarmClock alarmClock(int key) {
+        switch (key) {
+            case ALARM_CLOCK_ASK_SILENCE: return this.askedForSilenceClock;
+            case ALARM_CLOCK_CHANNEL_SILENCE: return this.inSilenceClock;
+            case ALARM_CLOCK_DATA_SESSION: return this.dataSessionClock;
+            case ALARM_CLOCK_SYNC_TIMEOUT_SESSION: return this.syncTimeOutClock;
+            case ALARM_CLOCK_OPEN_SESSION: return this.openSessionClock;
+            default: return null;
         }
-        if(this.syncTimeOutClock != null) {
-            this.syncTimeOutClock.kill();
-            this.syncTimeOutClock = null;
+    }
+
+    // one event per alarm clock - no object is created when a clock rings. Rung clock is handed over in
+    // rungClocks (guarded by state machine): a clock that was killed or replaced before its event ran is ignored
+    private final HubAlarmClock[] rungClocks = new HubAlarmClock[ALARM_CLOCK_OPEN_SESSION + 1];
+    private final Runnable[] alarmClockEvents = new Runnable[ALARM_CLOCK_OPEN_SESSION + 1];
+    {
+        for(int key = 0; key < this.alarmClockEvents.length; key++) {
+            final int yourKey = key;
+            this.alarmClockEvents[key] = new Runnable() {
+                @Override
+                public void run() {
+                    SharedChannelConnectorImpl.this.alarmClockRang(yourKey);
+                }
+            };
         }
     }
 
-    // alarm clock rings
+    // alarm clock rings - handled in event queue
+    @Override
     public void alarmClockRinging(int yourKey) {
+        if(yourKey < 0 || yourKey >= this.alarmClockEvents.length) {
+            Log.writeLogErr(this, this.toString(), "unknown alarm clock was ringing: " + yourKey);
+            return;
+        }
+        synchronized (this.stateMachine) {
+            this.rungClocks[yourKey] = this.alarmClock(yourKey);
+        }
+        this.events.execute(this.alarmClockEvents[yourKey]);
+    }
+
+    private void alarmClockRang(int yourKey) {
         Log.writeLog(this, this.toString(), "alarm clock is ringing...");
+        HubAlarmClock clock;
+        synchronized (this.stateMachine) {
+            clock = this.rungClocks[yourKey];
+            this.rungClocks[yourKey] = null; // a second event for this key finds nothing
+            if(clock == null || clock != this.alarmClock(yourKey)) {
+                // killed or replaced while this event was queued
+                Log.writeLog(this, this.toString(), "... outdated - ignore: " + clock);
+                return;
+            }
+        }
         switch (yourKey) {
             case ALARM_CLOCK_ASK_SILENCE:
                 Log.writeLog(this, this.toString(), "... ended: asked for silence");
-                this.askedForSilenceClock = null;
+                synchronized (this.stateMachine) {
+                    this.askedForSilenceClock = null;
+                    this.stateMachine.fire(ConnectorStateMachine.Event.SILENCE_NOT_GRANTED);
+                }
+                this.stateMachine.notifyListener();
                 break;
 
             case ALARM_CLOCK_CHANNEL_SILENCE:
                 Log.writeLog(this, this.toString(), "... ended: channel silence");
-                this.inSilenceClock = null;
-                this.silenceEnded();
+                boolean ended;
+                synchronized (this.stateMachine) {
+                    this.inSilenceClock = null;
+                    ended = this.stateMachine.fire(ConnectorStateMachine.Event.SILENCE_ENDED);
+                }
+                this.stateMachine.notifyListener();
+                if(ended) this.silenceEnded();
                 break;
 
             case ALARM_CLOCK_DATA_SESSION:
                 Log.writeLog(this, this.toString(), "... ended: data session");
-                this.dataSessionClock = null;
-                if(this.wrappedDataSessionStreamPair != null) {
+                synchronized (this.stateMachine) {
+                    this.dataSessionClock = null;
+                }
+                StreamPair dataSessionStreamPair = this.wrappedDataSessionStreamPair;
+                if(dataSessionStreamPair != null) {
+                    this.dataSessionTimedOut(dataSessionStreamPair instanceof FramedStreamPair);
                     // this cannot be null...
-                    this.wrappedDataSessionStreamPair.close();
+                    dataSessionStreamPair.close();
                     //this.wrappedDataSessionStreamPair = null; do not null it! it is done in sync
-                    this.enterSyncAfterDataSession();
+                    // framed sessions end when both sides sent end of session - no sync required
+                    if(!(dataSessionStreamPair instanceof FramedStreamPair)) this.enterSyncAfterDataSession();
                 }
                 break;
 
             case ALARM_CLOCK_SYNC_TIMEOUT_SESSION:
                 Log.writeLog(this, this.toString(), "... ended: synchronization time out");
-                this.syncTimeOutClock = null;
+                synchronized (this.stateMachine) {
+                    this.syncTimeOutClock = null;
+                }
                 Log.writeLog(this, this.toString(), "could not manage to get in sync with other side");
                 this.fatalError();
                 //this.dataSessionEnded();
                 break;
 
+            case ALARM_CLOCK_OPEN_SESSION:
+                Log.writeLog(this, this.toString(), "... ended: no reply to open session request");
+                CompletableFuture<StreamPair> pendingReply;
+                synchronized (this.stateMachine) {
+                    if(this.openSessionClock != clock) break; // replied in the meantime
+                    pendingReply = this.openSessionReply;
+                }
+                if(pendingReply != null) this.openSessionFailed(pendingReply, "no reply");
+                break;
+
             default: Log.writeLogErr(this, this.toString(), "unknown alarm clock was ringing: " + yourKey);
         }
     }
 
+    /**
+     * Channel did not come back to connector protocol in time - other side is most probably gone. Each status has a
+     * clock or waits for the other side. Each status change rewinds this deadline.
+     * @param slackInMillis granted on top of the time current status lasts at most
+     * @return true if current status lasts longer than it should - never in connector protocol status or if closed
+     */
+    protected boolean stuckOutOfProtocol(long slackInMillis) {
+        // no lock - a thread stuck writing to a dead peer must not stop its detection
+        long maxInMillis;
+        switch (this.stateMachine.getState()) {
+            case ASKED_FOR_SILENCE:
+            case SILENCE: maxInMillis = this.getTimeOutSilenceChannel(); break;
+            case OPENING_SESSION: maxInMillis = this.getTimeOutOpenSession(); break;
+            case DATA_SESSION: maxInMillis = this.dataSessionTimeout; break;
+            // wait before sync sequence is written - reading it back takes a round trip
+            case SYNCING: maxInMillis = this.getTimeoutInMillis(); break;
+            default: return false;
+        }
+        // read after status - time cannot belong to an older status
+        long inStateInMillis = this.stateMachine.getNanosInCurrentState() / 1000000;
+        return inStateInMillis > maxInMillis + slackInMillis;
+    }
+
     protected boolean statusHubConnectorProtocol() {
-        return !this.statusAskedForSilence()
-                && !this.statusInSilence()
-                && !this.statusInDataSession()
-                && !statusSynchronizing;
+        return this.stateMachine.is(ConnectorStateMachine.State.PROTOCOL);
     }
 
     protected boolean statusAskedForSilence() {
-        return this.askedForSilenceClock != null;
+        return this.stateMachine.is(ConnectorStateMachine.State.ASKED_FOR_SILENCE);
     }
 
     protected boolean statusInSilence() {
-        return this.inSilenceClock != null;
+        return this.stateMachine.is(ConnectorStateMachine.State.SILENCE);
+    }
+
+    protected boolean statusOpeningSession() {
+        return this.stateMachine.is(ConnectorStateMachine.State.OPENING_SESSION);
     }
     protected abstract void silenceStarted();
     protected abstract void silenceEnded();
 
     protected boolean statusInDataSession() {
-//        return this.dataSessionClock != null;
-        return this.wrappedDataSessionStreamPair != null;
+        return this.stateMachine.is(ConnectorStateMachine.State.DATA_SESSION);
     }
 
-    private boolean statusSynchronizing = false;
+    protected boolean statusSynchronizing() {
+        return this.stateMachine.is(ConnectorStateMachine.State.SYNCING);
+    }
 
+    /**
+     * A data session began.
+     * @param targetPeerID peer on the other side of this data session
+     * @param streamPair
+     */
     protected abstract void dataSessionStarted(CharSequence targetPeerID, StreamPair streamPair);
 
+    /**
+     * Hub names both peers of a data session. Depending on who asked, this connector's peer is source or target.
+     * @return peer on the other side
+     */
+    private CharSequence otherPeer(CharSequence sourcePeerID, CharSequence targetPeerID) {
+        CharSequence peerID = this.getPeerID();
+        if(peerID != null && targetPeerID != null && PeerIDHelper.sameID(peerID, targetPeerID)) return sourcePeerID;
+        return targetPeerID;
+    }
+
+    // nothing is written behind a silence request - see writePDUInProtocolStatus
     public final void askForSilence(long waitDuration) throws IOException, ASAPHubException {
-        if(!this.statusHubConnectorProtocol()) throw new ASAPHubException("wrong status, cannot send silence RQ");
-        if(askedForSilenceClock != null) this.askedForSilenceClock.kill(); // kill..
-        this.askedForSilenceClock = new AlarmClock(waitDuration, ALARM_CLOCK_ASK_SILENCE, this); // ..and reset
-        (new HubPDUSilentRQ(waitDuration)).sendPDU(this.getOutputStream());
-        this.askedForSilenceClock.start();
+        HubAlarmClock clock;
+        synchronized (this.stateMachine) {
+            if(!this.stateMachine.fire(ConnectorStateMachine.Event.ASK_FOR_SILENCE))
+                throw new ASAPHubException("wrong status, cannot send silence RQ");
+            if(askedForSilenceClock != null) this.askedForSilenceClock.kill(); // kill..
+            clock = new HubAlarmClock(waitDuration, ALARM_CLOCK_ASK_SILENCE, this); // ..and reset
+            this.askedForSilenceClock = clock;
+            try {
+                // queued only - a slow peer must not block threads waiting for the state machine
+                this.queuePDU(new HubPDUSilentRQ(waitDuration));
+            } catch (IOException e) {
+                this.askedForSilenceClock = null;
+                this.stateMachine.fire(ConnectorStateMachine.Event.SILENCE_NOT_GRANTED);
+                throw e;
+            }
+            clock.start();
+        }
+        this.stateMachine.notifyListener();
+
+        try {
+            this.flushPDUs();
+        } catch (IOException e) {
+            synchronized (this.stateMachine) {
+                if(this.askedForSilenceClock == clock) {
+                    clock.kill();
+                    this.askedForSilenceClock = null;
+                    this.stateMachine.fire(ConnectorStateMachine.Event.SILENCE_NOT_GRANTED);
+                }
+            }
+            this.stateMachine.notifyListener();
+            throw e;
+        }
     }
 
-    public final void enterSilence(long waitDuration) throws ASAPHubException, IOException {
-        if(!this.statusHubConnectorProtocol() && !this.statusAskedForSilence())
-            throw new ASAPHubException("cannot enter silence mode - not in connector mode or asked for silence");
+    /**
+     * Write a PDU only if connector protocol runs on the channel - multiplexed or not silenced. Check and queueing
+     * are atomic with respect to {@link #askForSilence(long)}: such a PDU never follows a silence request. Method does
+     * not block on a data session being set up. The PDU is written after the state machine is released - a thread
+     * writing to a slow peer does not block others.
+     * @param pdu
+     * @return false if not written - channel is (about to be) silenced
+     * @throws IOException
+     */
+    protected boolean writePDUInProtocolStatus(HubPDU pdu) throws IOException {
+        return this.writePDUInProtocolStatus(pdu, false);
+    }
 
-        if(askedForSilenceClock != null) this.askedForSilenceClock.kill(); // kill - we in silence now
+    /**
+     * @param pdu
+     * @param deferred see {@link #writePDUDeferred(HubPDU)} - PDU goes out before next PDU written, e.g. a reply
+     *                 that opens a data session
+     * @return false if not written - channel is (about to be) silenced
+     * @throws IOException
+     * @see #writePDUInProtocolStatus(HubPDU)
+     */
+    protected boolean writePDUInProtocolStatus(HubPDU pdu, boolean deferred) throws IOException {
+        synchronized (this.stateMachine) {
+            if(!this.isMultiplexed() && !this.statusHubConnectorProtocol()) return false;
+            if(deferred) {
+                this.writePDUDeferred(pdu);
+                return true;
+            }
+            this.queuePDU(pdu);
+        }
+        this.flushPDUs();
+        return true;
+    }
 
-        if(this.inSilenceClock != null) {
-            this.inSilenceClock.kill(); // kill - we in silence now
-            Log.writeLog(this, this.toString(), "already in silence mode - rewind clock");
+    /**
+     * Write a PDU unless hub waits for the reply to an open session request: peer side might already read data
+     * session bytes. Check and write are atomic with respect to {@link #openDataSession(CharSequence, CharSequence,
+     * int)}. PDU is written in any other status.
+     * @param pdu
+     * @return false if not written
+     * @throws IOException
+     */
+    protected boolean writePDUUnlessOpeningSession(HubPDU pdu) throws IOException {
+        synchronized (this.stateMachine) {
+            if(this.statusOpeningSession()) return false;
+            this.queuePDU(pdu);
         }
+        this.flushPDUs();
+        return true;
+    }
+
+    public final void enterSilence(long waitDuration) throws ASAPHubException, IOException {
+        synchronized (this.stateMachine) {
+            if(!this.stateMachine.fire(ConnectorStateMachine.Event.ENTER_SILENCE))
+                throw new ASAPHubException("cannot enter silence mode - not in connector mode or asked for silence");
+
+            if(askedForSilenceClock != null) { // kill - we in silence now
+                this.askedForSilenceClock.kill();
+                this.askedForSilenceClock = null;
+            }
+
+            if(this.inSilenceClock != null) {
+                this.inSilenceClock.kill(); // kill - we in silence now
+                Log.writeLog(this, this.toString(), "already in silence mode - rewind clock");
+            }
 
-        this.inSilenceClock = new AlarmClock(waitDuration, ALARM_CLOCK_CHANNEL_SILENCE, this);
-        this.inSilenceClock.start();
+            this.inSilenceClock = new HubAlarmClock(waitDuration, ALARM_CLOCK_CHANNEL_SILENCE, this);
+            this.inSilenceClock.start();
+        }
+        this.stateMachine.notifyListener();
 
         // thread waiting for data connection?
-        if(this.threadWaitingForDataConnection != null) {
+        CompletableFuture<Void> silenceWaiter = this.silenceWaiter;
+        if(silenceWaiter != null) {
             Log.writeLog(this, this.toString(), "wake thread that waits for data connection");
-            this.threadWaitingForDataConnection.interrupt();
-            this.threadWaitingForDataConnection = null;
-            // and give this thread a chance to wake up
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                // ignore
-            }
+            silenceWaiter.complete(null);
         }
 
         // tell sub classes
@@ -173,16 +423,43 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
     }
 
     private void enterDataSession(ConnectionRequest connectionRequest, int timeout) {
-        if(!this.statusInSilence()) {
-            Log.writeLogErr(this, this.toString(), "cannot enter data session - not in silence mode");
-            return;
+        StreamPair dataSession;
+        synchronized (this.stateMachine) {
+            if(!this.statusInSilence()) {
+                Log.writeLogErr(this, this.toString(), "cannot enter data session - not in silence mode");
+                return;
+            }
+            dataSession = this.launchDataSession(this.nextSessionID(), timeout);
         }
+        this.stateMachine.notifyListener();
 
-        String sessionID = this.getID() + ":" + this.sessionCounter++;
+        // tell sub classes
+        this.dataSessionStarted(this.otherPeer(connectionRequest.sourcePeerID, connectionRequest.targetPeerID),
+                dataSession);
+    }
+
+    private String nextSessionID() {
+        return this.getID() + ":" + this.sessionCounter++;
+    }
 
+    /**
+     * Channel belongs to a data session from now on: stop connector thread and all clocks but the data session clock.
+     * Caller holds state machine.
+     * @return data session stream pair
+     */
+    private StreamPair launchDataSession(String sessionID, int timeout) {
         Log.writeLog(this, this.toString(), "start new data session: " + sessionID);
-        this.wrappedDataSessionStreamPair = new StreamPairWrapper(
-                this.getInputStream(), this.getOutputStream(), this, sessionID);
+        if(!this.stateMachine.fire(ConnectorStateMachine.Event.START_DATA_SESSION)) {
+            // other side is in data session anyway - go ahead
+            Log.writeLogErr(this, this.toString(), "data session starts in unexpected status");
+        }
+        if(this.framedDataSessions()) {
+            this.wrappedDataSessionStreamPair = new FramedStreamPair(
+                    this.getInputStream(), this.getOutputStream(), this, sessionID);
+        } else {
+            this.wrappedDataSessionStreamPair = new StreamPairWrapper(
+                    this.getInputStream(), this.getOutputStream(), this, sessionID);
+        }
 
         // kill connector thread
         try {
@@ -195,15 +472,17 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
         // kill all other alarm clocks
         this.stopAlarmClocks();
 
-        Log.writeLog(this, this.toString(), "set data session timeout (ms): "
-                + this.getTimeOutDataConnection());
+        // hub side decides - peer side follows the timeout sent with channel clear
+        Log.writeLog(this, this.toString(), "set data session timeout (ms): " + timeout);
+        this.dataSessionStarted = System.currentTimeMillis();
+        this.lastDataSessionAction = this.dataSessionStarted;
+        this.dataSessionTimeout = timeout;
 
         // set alarm clock
-        this.dataSessionClock = new AlarmClock(this.getTimeOutDataConnection(), ALARM_CLOCK_DATA_SESSION, this);
+        this.dataSessionClock = new HubAlarmClock(timeout, ALARM_CLOCK_DATA_SESSION, this);
         this.dataSessionClock.start();
 
-        // tell sub classes
-        this.dataSessionStarted(connectionRequest.targetPeerID, this.wrappedDataSessionStreamPair);
+        return this.wrappedDataSessionStreamPair;
     }
 
     private byte[] syncSequence;
@@ -249,7 +528,7 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
          */
 
         HubPDUChannelClear channelClear = new HubPDUChannelClear(sourcePeerID, targetPeerID, timeout, syncSequence);
-        channelClear.sendPDU(this.getOutputStream());
+        this.writePDU(channelClear);
     }
 
     /*
@@ -278,20 +557,24 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
     We assume to be in sync again if we read the complete second series of bytes.
      */
     private void enterSyncAfterDataSession() {
-        if(!this.statusInDataSession()) {
-            Log.writeLogErr(this, this.toString(), "cannot enter sync after data session - not in data session mode");
-            return;
-        }
+        synchronized (this.stateMachine) {
+            if(!this.stateMachine.fire(ConnectorStateMachine.Event.SYNC)) {
+                Log.writeLogErr(this, this.toString(),
+                        "cannot enter sync after data session - not in data session mode");
+                return;
+            }
 
-        Log.writeLog(this, this.toString(), "enter sync status after data session");
+            Log.writeLog(this, this.toString(), "enter sync status after data session");
 
-        this.stopAlarmClocks();
-        this.statusSynchronizing = true;
-        this.wrappedDataSessionStreamPair = null; // nullify it - sign: we are no longer in data session
+            this.stopAlarmClocks();
+            this.wrappedDataSessionStreamPair = null; // no longer in data session
+        }
+        this.stateMachine.notifyListener();
 
         Log.writeLog(this, this.toString(), "wait a moment to ensure both ends stopped reading");
         try {
-            Thread.sleep(this.getTimeOutSilenceChannel());
+            // other side decides on its own - its timeouts might not be adapted
+            Thread.sleep(this.getTimeoutInMillis());
         } catch (InterruptedException e) {
             // ignore
         }
@@ -322,12 +605,12 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
         }
 
         Log.writeLog(this, this.toString(), "start sync reader");
-        (new SyncAfterDataSessionThread(this.toString())).start();
+        HubThreads.start(new SyncAfterDataSessionThread(this.toString()), "sync after data session");
     }
 
     private int numberOfSyncBytes = 20;
 
-    private class SyncAfterDataSessionThread extends Thread {
+    private class SyncAfterDataSessionThread implements Runnable {
         private final String id;
         SyncAfterDataSessionThread(String id) { this.id = id; }
         public void run() {
@@ -347,19 +630,100 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
                 } while(readInt != numberOfSyncBytes-1 || !inCountUp || !secondRound); // last byte read
             } catch (IOException e) {
                 // fatal
-                SharedChannelConnectorImpl.this.fatalError();
+                SharedChannelConnectorImpl.this.events.execute(SharedChannelConnectorImpl.this.fatalErrorEvent);
                 return;
             }
             Log.writeLog(this, this.id, "in sync again");
+            SharedChannelConnectorImpl.this.events.execute(SharedChannelConnectorImpl.this.syncedEvent);
+        }
+    }
+
+    private final Runnable syncedEvent = new Runnable() {
+        @Override
+        public void run() {
             SharedChannelConnectorImpl.this.syncedAfterDataSession();
         }
+    };
+
+    private final Runnable fatalErrorEvent = new Runnable() {
+        @Override
+        public void run() {
+            SharedChannelConnectorImpl.this.fatalError();
+        }
+    };
+
+    /**
+     * @return true if both sides agreed to frame data sessions on silenced channel
+     */
+    protected boolean framedDataSessions() {
+        return HubCapabilities.has(this.getCapabilities(), HubCapabilities.FRAMED_DATA_SESSIONS);
+    }
+
+    /**
+     * Both sides sent end of a framed data session. Next byte on the channel belongs to connector protocol again.
+     * Caller is reading or closing that session - handled in event queue.
+     * @param streamPair ended data session
+     */
+    void framedDataSessionEnded(FramedStreamPair streamPair) {
+        this.events.execute(new Runnable() {
+            @Override
+            public void run() {
+                SharedChannelConnectorImpl.this.framedDataSessionEndedEvent(streamPair);
+            }
+        });
+    }
+
+    private void framedDataSessionEndedEvent(FramedStreamPair streamPair) {
+        HubPDUOpenSession next = streamPair.getNextSession();
+        synchronized (this.stateMachine) {
+            if(this.wrappedDataSessionStreamPair != streamPair) {
+                Log.writeLogErr(this, this.toString(), "ignore end of an unknown data session: " + streamPair);
+                return;
+            }
+            if(this.dataSessionClock != null) {
+                // ended before time out
+                long duration = System.currentTimeMillis() - this.dataSessionStarted;
+                this.adaptiveTimeouts.dataSessionEnded(duration, this.dataSessionTimeout, false);
+            }
+            this.stopAlarmClocks();
+
+            if(next == null) {
+                Log.writeLog(this, this.toString(), "both sides ended data session - back to connector protocol");
+                this.wrappedDataSessionStreamPair = null;
+                this.stateMachine.fire(ConnectorStateMachine.Event.DATA_SESSION_ENDED);
+            }
+        }
+        this.stateMachine.notifyListener();
+
+        if(next != null) this.launchBatchedDataSession(next);
+        else this.actionWhenBackFromDataSession();
+    }
+
+    /**
+     * Shared channel broke during a framed data session.
+     * @param streamPair broken data session
+     */
+    void framedDataSessionBroken(FramedStreamPair streamPair) {
+        synchronized (this.stateMachine) {
+            if(this.wrappedDataSessionStreamPair != streamPair) return;
+            this.stopAlarmClocks();
+            this.wrappedDataSessionStreamPair = null;
+        }
+        ConnectionRequest batchedRequest = this.batchedRequest;
+        this.batchedRequest = null;
+        if(batchedRequest != null) this.batchedRequestNotServed(batchedRequest);
+        this.fatalError();
     }
 
     private void syncedAfterDataSession() {
         Log.writeLog(this, this.toString(), "synchronized status after data session");
 
         // synchronized again
-        this.statusSynchronizing = false;
+        if(!this.stateMachine.fire(ConnectorStateMachine.Event.SYNCED)) {
+            // channel was replaced or closed in the meantime
+            Log.writeLog(this, this.toString(), "not syncing anymore - ignore");
+            return;
+        }
 
         this.actionWhenBackFromDataSession();
     }
@@ -373,12 +737,33 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
 
     @Override
     public void notifyAction(String key) {
-        // no action when data session notifies of something - only interested in close event
+        // data flowed in data session
+        this.lastDataSessionAction = System.currentTimeMillis();
+    }
+
+    // data session bookkeeping - adapts data session timeout
+    private long dataSessionStarted;
+    private volatile long dataSessionTimeout;
+    private volatile long lastDataSessionAction;
+
+    /**
+     * Data session clock rang. Session was cut short if data still flowed in its last tenth - framed sessions
+     * were not ended by both sides.
+     */
+    private void dataSessionTimedOut(boolean framed) {
+        long active = framed ? this.dataSessionTimeout : this.lastDataSessionAction - this.dataSessionStarted;
+        boolean cutShort = framed || active >= this.dataSessionTimeout * 9 / 10;
+        this.adaptiveTimeouts.dataSessionEnded(active, this.dataSessionTimeout, cutShort);
+        if(cutShort) {
+            Log.writeLog(this, this.toString(), "data session cut short - next one gets more time: "
+                    + this.adaptiveTimeouts);
+        }
     }
 
     // TODO - take care of this ugly situation - connection broken to other side of this connector - shut all down
     private void fatalError() {
         Log.writeLogErr(this, this.toString(), "fatal: close streams (maybe already closed) and shutdown");
+        this.stateMachine.fire(ConnectorStateMachine.Event.CLOSE);
         try {
             InputStream inputStream = this.getInputStream();
             if(inputStream != null) inputStream.close();
@@ -398,42 +783,94 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
 
     abstract protected void shutdown();
 
+    /**
+     * Continue on a new channel. Status of the lost channel is dropped - we are back in hub protocol status.
+     */
+    @Override
+    protected void replaceStreams(InputStream is, OutputStream os) throws ASAPHubException {
+        this.openSessionFailed("channel replaced");
+        ConnectionRequest batchedRequest = this.batchedRequest;
+        this.batchedRequest = null;
+        if(batchedRequest != null) this.batchedRequestNotServed(batchedRequest);
+        StreamPair dataSession;
+        synchronized (this.stateMachine) {
+            this.stopAlarmClocks();
+            dataSession = this.wrappedDataSessionStreamPair;
+            this.wrappedDataSessionStreamPair = null;
+            this.stateMachine.fire(ConnectorStateMachine.Event.CHANNEL_REPLACED);
+        }
+        this.stateMachine.notifyListener();
+        if(dataSession != null) dataSession.close();
+        if(this.multiplexedChannel != null) {
+            this.multiplexedChannel.closeAll();
+            this.multiplexedChannel = null; // agreed again with register
+        }
+        super.replaceStreams(is, os);
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //                                       reaction on interface requests                                    //
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    private StreamPairWrapper wrappedDataSessionStreamPair = null;
+    private StreamPair wrappedDataSessionStreamPair = null;
     private int sessionCounter = 0;
 
     public StreamPair initDataSession(CharSequence sourcePeerID, CharSequence targetPeerID, int timeout)
             throws ASAPHubException, IOException {
 
+        if(this.isMultiplexed()) {
+            // no silence required - open another stream on shared channel
+            Log.writeLog(this, this.toString(), "open multiplexed data session " + sourcePeerID + " --> " + targetPeerID);
+            return this.multiplexedChannel.openStream(sourcePeerID, targetPeerID, this.getTimeOutDataConnection());
+        }
+
         return this.initDataSession(
             ConnectionRequest.createNewConnectRequest(sourcePeerID, targetPeerID), timeout);
     }
 
-    private Thread threadWaitingForDataConnection = null;
+    // completed when channel is silenced
+    private CompletableFuture<Void> silenceWaiter = null;
 
     synchronized protected StreamPair initDataSession(ConnectionRequest connectionRequest, int timeout)
             throws ASAPHubException, IOException {
 
         Log.writeLog(this, this.toString(), "try to init data session over shared channel..");
+        if(!this.statusInSilence() && this.openSessions()) {
+            // single round trip - no need to silence channel first
+            Log.writeLog(this, this.toString(), "open data session and wait for reply");
+            CompletableFuture<StreamPair> dataSession = this.openDataSession(
+                    connectionRequest.sourcePeerID, connectionRequest.targetPeerID, timeout);
+            try {
+                return dataSession.get(this.getTimeOutOpenSession(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new ASAPHubException("cannot open data session: " + e.getCause().getLocalizedMessage());
+            } catch (InterruptedException | TimeoutException e) {
+                // back to connector protocol - a late reply opens a data session that is closed right away
+                this.openSessionFailed(dataSession, "no reply");
+                throw new ASAPHubException("no reply - will not create data connection");
+            }
+        }
+
         if(!this.statusInSilence()) {
             Log.writeLog(this, this.toString(), "not in silence mode");
-            if(this.threadWaitingForDataConnection == null) {
+            if(this.silenceWaiter == null) {
                 Log.writeLog(this, this.toString(), "no other thread waiting - ask for silence and wait");
-                this.threadWaitingForDataConnection = Thread.currentThread();
+                CompletableFuture<Void> silence = new CompletableFuture<>();
+                this.silenceWaiter = silence;
+                int silenceTimeout = this.getTimeOutSilenceChannel();
                 try {
-                    this.askForSilence(timeout);
+                    this.askForSilence(silenceTimeout);
                 }
                 catch(ASAPHubException ahe) {
                     Log.writeLog(this, this.toString(),
                             "cannot silence connection - SHOULD PUT PENDING LIST: " + connectionRequest);
                 }
                 try {
-                    Thread.sleep(timeout);
-                } catch (InterruptedException e) {
-
+                    silence.get(silenceTimeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                    // status is checked below
+                } finally {
+                    this.silenceWaiter = null;
                 }
             } else {
                 throw new ASAPHubException("other thread waiting for data connection");
@@ -481,7 +918,7 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
         try {
             this.enterSilence(pdu.waitDuration);
             // tell other side
-            (new HubPDUSilentRPLY(pdu.waitDuration)).sendPDU(this.getOutputStream());
+            this.writePDU(new HubPDUSilentRPLY(pdu.waitDuration));
         } catch (IOException | ASAPHubException e) {
             Log.writeLogErr(this, this.toString(), "asking for silence failed: " + e.getLocalizedMessage());
         }
@@ -496,13 +933,346 @@ public abstract class SharedChannelConnectorImpl extends ConnectorImpl
         }
     }
 
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                     single round trip data sessions                                 //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return true if both sides agreed to open data sessions with a single round trip
+     */
+    protected boolean openSessions() {
+        return HubCapabilities.has(this.getCapabilities(), HubCapabilities.OPEN_SESSION);
+    }
+
+    // hub side: request sent, reply pending - guarded by state machine
+    private HubPDUOpenSession openSessionRequest = null;
+    private CompletableFuture<StreamPair> openSessionReply = null;
+
+    /**
+     * Hub side: Ask peer side to open a data session. Channel is not silenced first - data session starts with
+     * peer's reply. Nothing but that reply is written in the meantime (see {@link #writePDUInProtocolStatus(HubPDU)}).
+     * @param sourcePeerID
+     * @param targetPeerID
+     * @param timeout data session timeout
+     * @return completed with data session if peer accepted. A data session nobody waits for anymore is closed.
+     * @throws ASAPHubException not in connector protocol status
+     */
+    protected CompletableFuture<StreamPair> openDataSession(CharSequence sourcePeerID, CharSequence targetPeerID,
+                                                            int timeout) throws ASAPHubException, IOException {
+        CompletableFuture<StreamPair> reply;
+        synchronized (this.stateMachine) {
+            if(!this.stateMachine.fire(ConnectorStateMachine.Event.OPEN_SESSION))
+                throw new ASAPHubException("wrong status, cannot open data session");
+            this.syncSequence = SerializationHelper.long2byteArray(System.currentTimeMillis());
+            HubPDUOpenSession request = new HubPDUOpenSession(
+                    sourcePeerID, targetPeerID, this.nextSessionID(), timeout, this.syncSequence);
+            reply = new CompletableFuture<>();
+            this.openSessionRequest = request;
+            this.openSessionReply = reply;
+            try {
+                // written after state machine is released
+                this.queuePDU(request);
+            } catch (IOException e) {
+                this.openSessionRequest = null;
+                this.openSessionReply = null;
+                this.stateMachine.fire(ConnectorStateMachine.Event.SESSION_NOT_OPENED);
+                throw e;
+            }
+            // nobody else leaves opening session status if peer side does not answer
+            this.openSessionClock = new HubAlarmClock(this.getTimeOutOpenSession(), ALARM_CLOCK_OPEN_SESSION, this);
+            this.openSessionClock.start();
+        }
+        this.stateMachine.notifyListener();
+
+        try {
+            this.flushPDUs();
+        } catch (IOException e) {
+            boolean failed;
+            synchronized (this.stateMachine) {
+                failed = this.openSessionReply == reply;
+                if(failed) {
+                    this.openSessionRequest = null;
+                    this.openSessionReply = null;
+                    this.stopOpenSessionClock();
+                    this.stateMachine.fire(ConnectorStateMachine.Event.SESSION_NOT_OPENED);
+                }
+            }
+            this.stateMachine.notifyListener();
+            if(failed) throw e;
+            // peer replied in the meantime - reply tells what happened
+        }
+        return reply;
+    }
+
+    @Override
+    public void openSession(HubPDUOpenSession pdu) {
+        if(!this.openSessions()) {
+            this.pduNotHandled(pdu);
+            return;
+        }
+        if(pdu.isReply()) this.openSessionReplied(pdu);
+        else this.openSessionRequested(pdu);
+    }
+
+    /**
+     * Peer side: Hub asks for a data session. Accept if connector protocol runs - reply is the last PDU we write.
+     */
+    private void openSessionRequested(HubPDUOpenSession pdu) {
+        StreamPair dataSession = null;
+        synchronized (this.stateMachine) {
+            boolean accept = !this.isHubSide() && this.statusHubConnectorProtocol();
+            try {
+                // flushes deferred PDUs as well
+                this.writePDU(pdu.createReply(accept));
+            } catch (IOException e) {
+                Log.writeLogErr(this, this.toString(), "cannot reply to open session: " + e.getLocalizedMessage());
+                return;
+            }
+            if(accept) {
+                this.syncSequence = pdu.syncSequence;
+                dataSession = this.launchDataSession(pdu.sessionID.toString(), (int) pdu.maxIdleInMillis);
+            }
+        }
+        this.stateMachine.notifyListener();
+        if(dataSession == null) {
+            Log.writeLog(this, this.toString(), "rejected open session - not in connector protocol status");
+            return;
+        }
+        this.dataSessionStarted(this.otherPeer(pdu.sourcePeerID, pdu.targetPeerID), dataSession);
+    }
+
+    /**
+     * Hub side: Peer answered - each following byte belongs to the data session if it accepted.
+     */
+    private void openSessionReplied(HubPDUOpenSession pdu) {
+        HubPDUOpenSession request;
+        CompletableFuture<StreamPair> reply;
+        StreamPair dataSession = null;
+        synchronized (this.stateMachine) {
+            request = this.openSessionRequest;
+            reply = this.openSessionReply;
+            this.openSessionRequest = null;
+            this.openSessionReply = null;
+            this.stopOpenSessionClock();
+            // launch before lock is released - status must not look like connector protocol in between
+            if(!pdu.accepted) {
+                this.stateMachine.fire(ConnectorStateMachine.Event.SESSION_NOT_OPENED);
+            } else {
+                boolean known = request != null && request.sessionID.toString().equals(pdu.sessionID.toString());
+                dataSession = this.launchDataSession(pdu.sessionID.toString(),
+                        known ? (int) request.maxIdleInMillis : this.getTimeOutDataConnection());
+            }
+        }
+        this.stateMachine.notifyListener();
+
+        if(request == null || !request.sessionID.toString().equals(pdu.sessionID.toString())) {
+            Log.writeLogErr(this, this.toString(), "reply to unknown open session request: " + pdu);
+            if(reply != null) reply.completeExceptionally(new ASAPHubException("unexpected reply: " + pdu));
+            // peer is in a data session anyway - run it with nobody on our side
+            if(dataSession != null) dataSession.close();
+            return;
+        }
+
+        if(!pdu.accepted) {
+            reply.completeExceptionally(new ASAPHubException("peer side rejected data session"));
+            return;
+        }
+
+        this.dataSessionStarted(this.otherPeer(request.sourcePeerID, request.targetPeerID), dataSession);
+        if(!reply.complete(dataSession)) {
+            Log.writeLog(this, this.toString(), "nobody waits for data session anymore - close it");
+            dataSession.close();
+        }
+    }
+
+    private void openSessionFailed(String reason) {
+        this.openSessionFailed(null, reason);
+    }
+
+    /**
+     * Give up an open session request - connector protocol resumes.
+     * @param expectedReply give up only if this request is still pending - null: any request
+     * @param reason
+     */
+    private void openSessionFailed(CompletableFuture<StreamPair> expectedReply, String reason) {
+        CompletableFuture<StreamPair> reply;
+        synchronized (this.stateMachine) {
+            reply = this.openSessionReply;
+            if(expectedReply != null && reply != expectedReply) return; // replied in the meantime
+            this.openSessionRequest = null;
+            this.openSessionReply = null;
+            this.stopOpenSessionClock();
+            this.stateMachine.fire(ConnectorStateMachine.Event.SESSION_NOT_OPENED);
+        }
+        this.stateMachine.notifyListener();
+        if(reply != null) reply.completeExceptionally(new ASAPHubException(reason));
+    }
+
+    // caller holds state machine
+    private void stopOpenSessionClock() {
+        if(this.openSessionClock != null) {
+            this.openSessionClock.kill();
+            this.openSessionClock = null;
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                       batched data sessions                                         //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static final byte[] NO_SYNC_SEQUENCE = new byte[0];
+
+    // hub side: request served by the data session that follows the running one
+    private volatile ConnectionRequest batchedRequest = null;
+
+    /**
+     * @return true if both sides agreed to run queued data sessions back to back on a silenced channel
+     */
+    protected boolean batchedDataSessions() {
+        return this.framedDataSessions()
+                && HubCapabilities.has(this.getCapabilities(), HubCapabilities.BATCHED_SESSIONS);
+    }
+
+    /**
+     * Hub side: Next request to be served right after running data session - without going back to connector
+     * protocol.
+     * @return null if there is none - default
+     */
+    protected ConnectionRequest nextBatchedRequest() {
+        return null;
+    }
+
+    /**
+     * Hub side: Session boundary could not be sent - request is to be served later.
+     * @param request
+     */
+    protected void batchedRequestNotServed(ConnectionRequest request) { }
+
+    /**
+     * Called when a framed data session is closed on this side.
+     * @param endedSession
+     * @return data session that follows - sent with end of session. Null: connector protocol resumes.
+     */
+    HubPDUOpenSession nextBatchedSession(FramedStreamPair endedSession) {
+        if(!this.batchedDataSessions() || this.wrappedDataSessionStreamPair != endedSession) return null;
+        ConnectionRequest request = this.nextBatchedRequest();
+        if(request == null) return null;
+        this.batchedRequest = request;
+        return new HubPDUOpenSession(request.sourcePeerID, request.targetPeerID,
+                this.nextSessionID(), this.getTimeOutDataConnection(), NO_SYNC_SEQUENCE);
+    }
+
+    private void launchBatchedDataSession(HubPDUOpenSession next) {
+        Log.writeLog(this, this.toString(), "both sides ended data session - next one follows: " + next);
+        this.batchedRequest = null;
+        StreamPair dataSession;
+        synchronized (this.stateMachine) {
+            dataSession = this.launchDataSession(next.sessionID.toString(), (int) next.maxIdleInMillis);
+        }
+        this.stateMachine.notifyListener();
+        this.batchedDataSessionStarted(next, dataSession);
+    }
+
+    /**
+     * Data session started right after the previous one. Caller can be a thread reading the previous session - e.g.
+     * application code. Peer side is notified in a thread of its own.
+     * @param next session boundary
+     * @param dataSession
+     */
+    protected void batchedDataSessionStarted(HubPDUOpenSession next, StreamPair dataSession) {
+        HubThreads.start(new Runnable() {
+            @Override
+            public void run() {
+                SharedChannelConnectorImpl.this.dataSessionStarted(
+                        SharedChannelConnectorImpl.this.otherPeer(next.sourcePeerID, next.targetPeerID), dataSession);
+            }
+        }, "batched data session");
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                     multiplexed data sessions                                       //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private MultiplexedChannel multiplexedChannel = null;
+
+    /**
+     * Both sides agreed on multiplexing. Data sessions are streams on the shared channel from now on. There is no
+     * need to silence the channel.
+     */
+    protected void multiplexingAgreed() {
+        Log.writeLog(this, this.toString(), "data sessions are multiplexed on shared channel");
+        this.setCapabilities(this.getCapabilities() | HubCapabilities.MULTIPLEX);
+        this.multiplexedChannel = new MultiplexedChannel(this);
+    }
+
+    /**
+     * @return true if data sessions are multiplexed on the shared channel
+     */
+    public boolean isMultiplexed() {
+        return this.multiplexedChannel != null;
+    }
+
+    @Override
+    public void streamOpen(HubPDUStreamOpen pdu) {
+        if(!this.isMultiplexed()) {
+            this.pduNotHandled(pdu);
+            return;
+        }
+
+        if(this.isHubSide()) {
+            Log.writeLog(this, this.toString(), "peer side must not open streams - reject: " + pdu);
+            this.multiplexedChannel.rejectStream(pdu);
+            return;
+        }
+
+        MultiplexedStreamPair stream = this.multiplexedChannel.acceptStream(pdu);
+        // data (and ready byte) arrive on connector thread - never block it
+        HubThreads.start(new Runnable() {
+            @Override
+            public void run() {
+                SharedChannelConnectorImpl.this.dataSessionStarted(
+                        SharedChannelConnectorImpl.this.otherPeer(pdu.sourcePeerID, pdu.targetPeerID), stream);
+            }
+        }, "multiplexed data session");
+    }
+
+    @Override
+    public void streamData(HubPDUStreamData pdu) {
+        if(this.isMultiplexed()) this.multiplexedChannel.dataReceived(pdu);
+        else this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void streamWindow(HubPDUStreamWindow pdu) {
+        if(this.isMultiplexed()) this.multiplexedChannel.windowReceived(pdu);
+        else this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void streamClose(HubPDUStreamClose pdu) {
+        if(this.isMultiplexed()) this.multiplexedChannel.closeReceived(pdu);
+        else this.pduNotHandled(pdu);
+    }
+
+    @Override
+    public void connectorSessionEnded(boolean noRecovery) {
+        // shared channel is gone - so are its streams
+        if(noRecovery && this.isMultiplexed()) this.multiplexedChannel.closeAll();
+        if(noRecovery) this.openSessionFailed("shared channel closed");
+        super.connectorSessionEnded(noRecovery);
+    }
+
     public String toString() {
-        String status = null;
-        if(statusHubConnectorProtocol()) status = "hubProtocol";
-        else if(statusInSilence()) status = "silence";
-        else if(statusAskedForSilence()) status = "askedForSilence";
-        else if(statusInDataSession()) status = "dataSession";
-        else if(statusSynchronizing) status = "syncing";
+        String status;
+        switch (this.stateMachine.getState()) {
+            case PROTOCOL: status = "hubProtocol"; break;
+            case ASKED_FOR_SILENCE: status = "askedForSilence"; break;
+            case OPENING_SESSION: status = "openingSession"; break;
+            case SILENCE: status = "silence"; break;
+            case DATA_SESSION: status = "dataSession"; break;
+            case SYNCING: status = "syncing"; break;
+            default: status = "closed";
+        }
         return super.toString() + "|" + status;
     }
 }
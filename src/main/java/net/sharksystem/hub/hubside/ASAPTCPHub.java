@@ -2,12 +2,14 @@ package net.sharksystem.hub.hubside;
 
 import net.sharksystem.asap.ASAPException;
 import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.HubThreads;
 import net.sharksystem.hub.protocol.ConnectorThread;
 import net.sharksystem.utils.Commandline;
 import net.sharksystem.utils.Log;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -20,9 +22,11 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
 
     private final int port;
     private final ServerSocket serverSocket;
+    private final NIOConnectorEngine nioEngine;
     private int minPort = 0;
     private int maxPort = 0;
     private int nextPort = 0;
+    private DataPortListener dataPortListener = null;
 
     private boolean killed = false;
     private StatusPrinter statusPrinter;
@@ -51,10 +55,31 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
      * @throws IOException
      */
     public ASAPTCPHub(int port, boolean createNewConnection) throws IOException {
+        this(port, createNewConnection, false);
+    }
+
+    /**
+     * Create a hub commincating with TCP
+     * @param port proposed hub - during startup, hub will try to allocate that port but look for others if already taken
+     * @param createNewConnection create a new TCP connnection or when peer ask for initiation of an encounter.
+     * @param nioEngine true: a selector thread serves all connections and PDUs are dispatched by a small worker pool.
+     *                  false: each connection is served by its own thread with blocking reads.
+     * @throws IOException
+     */
+    public ASAPTCPHub(int port, boolean createNewConnection, boolean nioEngine) throws IOException {
         this.port = port;
         this.nextPort = port+1;
-        this.serverSocket = new ServerSocket(this.port);
         this.createNewConnection = createNewConnection;
+        if(nioEngine) {
+            ServerSocketChannel serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(this.port));
+            this.serverSocket = serverChannel.socket();
+            this.nioEngine = new NIOConnectorEngine(serverChannel, this, createNewConnection);
+        } else {
+            this.serverSocket = new ServerSocket(this.port);
+            this.nioEngine = null;
+        }
     }
 
     public void setPortRange(int minPort, int maxPort) throws ASAPException {
@@ -72,16 +97,21 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
         this.maxIdleInMillis = maxIdleInSeconds * 1000;
     }
 
+    /**
+     * @return server socket for a new data connection. It is backed by a channel - hub can relay data connections
+     * from channel to channel.
+     * @throws IOException
+     */
     synchronized ServerSocket getServerSocket() throws IOException {
         if(this.minPort == 0 || this.maxPort == 0) {
-            return new ServerSocket(0);
+            return this.openServerSocket(0);
         }
 
         int port = this.nextPort++;
         // try
         while(port <= this.maxPort) {
             try {
-                ServerSocket srv = new ServerSocket(port);
+                ServerSocket srv = this.openServerSocket(port);
                 return srv;
             } catch (IOException ioe) {
                 // port already in use
@@ -92,9 +122,38 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
         throw new IOException("all ports are in use");
     }
 
+    /**
+     * @return listener on the hub data port - opened with first call. Port is taken like any other server socket
+     * for data connections (see {@link #setPortRange(int, int)}).
+     * @throws IOException
+     */
+    synchronized DataPortListener getDataPortListener() throws IOException {
+        if(this.dataPortListener == null) {
+            this.dataPortListener = new DataPortListener(this.getServerSocket());
+            this.dataPortListener.start();
+        }
+        return this.dataPortListener;
+    }
+
+    private ServerSocket openServerSocket(int port) throws IOException {
+        ServerSocketChannel srvChannel = ServerSocketChannel.open();
+        try {
+            srvChannel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            srvChannel.close();
+            throw e;
+        }
+        return srvChannel.socket();
+    }
+
     @Override
     public void run() {
         Log.writeLog(this, "started on port: " + this.port);
+        if(this.nioEngine != null) {
+            this.nioEngine.run();
+            return;
+        }
+
         while(!killed) {
             Socket newConnection = null;
             try {
@@ -109,6 +168,8 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
             Log.writeLog(this, "new TCP connection - launch hub connector session");
 
             try {
+                // small PDUs go back and forth - do not wait for acknowledgements (PDU writer coalesces anyway)
+                newConnection.setTcpNoDelay(true);
                 Connector hubConnectorSession;
                 if(this.createNewConnection) {
                     hubConnectorSession =
@@ -173,7 +234,7 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
     /////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     public static void main(String[] args) throws IOException {
-        String usageString = "optional parameters: -port [portnumber] -maxIdleSeconds [seconds]";
+        String usageString = "optional parameters: -port [portnumber] -maxIdleSeconds [seconds] -nio [true|false] -threads [platform|virtual]";
 
         // now get real parameters
         HashMap<String, String> argumentMap = Commandline.parametersToMap(args,
@@ -181,6 +242,7 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
 
         int port = DEFAULT_PORT;
         int maxIdleInSeconds = -1;
+        boolean nio = false;
 
         if(argumentMap != null) {
             Set<String> keys = argumentMap.keySet();
@@ -210,23 +272,47 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
                     System.exit(0);
                 }
             }
+
+            // virtual threads?
+            String threadModeString = argumentMap.get("-threads");
+            if(threadModeString != null) {
+                if(threadModeString.equalsIgnoreCase(HubThreads.VIRTUAL_THREAD_MODE)) {
+                    if(!HubThreads.useVirtualThreads()) {
+                        System.err.println("virtual threads require Java 21 or later - use platform threads");
+                    }
+                } else if(!threadModeString.equalsIgnoreCase(HubThreads.PLATFORM_THREAD_MODE)) {
+                    System.err.println("unknown thread mode: " + threadModeString);
+                    System.exit(0);
+                }
+            }
+
+            // selector based engine?
+            if(keys.contains("-nio")) {
+                String nioString = argumentMap.get("-nio");
+                nio = nioString == null || nioString.length() == 0 || Boolean.parseBoolean(nioString);
+            }
         }
 
         // create TCPHub
-        ASAPTCPHub.startTCPHubThread(port, true, maxIdleInSeconds);
+        ASAPTCPHub.startTCPHubThread(port, true, maxIdleInSeconds, nio);
     }
 
     public static ASAPTCPHub startTCPHubThread(int port, boolean multichannel, int maxIdleInSeconds)
             throws IOException {
+        return ASAPTCPHub.startTCPHubThread(port, multichannel, maxIdleInSeconds, false);
+    }
 
-        ASAPTCPHub tcpHub = new ASAPTCPHub(port, multichannel);
+    public static ASAPTCPHub startTCPHubThread(int port, boolean multichannel, int maxIdleInSeconds,
+                                               boolean nioEngine) throws IOException {
+
+        ASAPTCPHub tcpHub = new ASAPTCPHub(port, multichannel, nioEngine);
         if(maxIdleInSeconds > 0) {
             tcpHub.setMaxIdleConnectionInSeconds(maxIdleInSeconds);
         }
-        System.out.printf("start TCP hub on %s:%d with maxIdleInSeconds: %d%n", tcpHub.getHostAddress(),
-                tcpHub.port, tcpHub.maxIdleInMillis);
+        System.out.printf("start TCP hub on %s:%d with maxIdleInSeconds: %d, thread mode: %s%n",
+                tcpHub.getHostAddress(), tcpHub.port, tcpHub.maxIdleInMillis, HubThreads.getThreadMode());
         tcpHub.startStatusPrinter();
-        new Thread(tcpHub).start();
+        HubThreads.start(tcpHub, "tcp hub");
         return tcpHub;
     }
 
@@ -250,6 +336,10 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
     public void kill() {
         this.killed = true;
 
+        if(this.nioEngine != null) {
+            this.nioEngine.kill();
+        }
+
         try {
             this.serverSocket.close();
         } catch (IOException e) {
@@ -259,14 +349,20 @@ public class ASAPTCPHub extends HubSingleEntitySharedChannel implements Runnable
         if(this.statusPrinter != null) {
             this.statusPrinter.kill();
         }
+
+        synchronized(this) {
+            if(this.dataPortListener != null) this.dataPortListener.kill();
+        }
+
+        this.killChannelRelay();
     }
 
     private void startStatusPrinter() {
         this.statusPrinter = new StatusPrinter(this);
-        this.statusPrinter.start();
+        HubThreads.start(this.statusPrinter, "status printer");
     }
 
-    private static class StatusPrinter extends Thread {
+    private static class StatusPrinter implements Runnable {
         private final ASAPTCPHub tcpHub;
         private boolean stopped = false;
 
@@ -1,9 +1,11 @@
 package net.sharksystem.hub.hubside;
 
 import net.sharksystem.hub.ASAPHubException;
+import net.sharksystem.hub.RTTEstimator;
 import net.sharksystem.utils.streams.StreamPair;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 public interface ConnectorInternal extends ConnectionEstablisher {
     StreamPair initDataSession(CharSequence sourcePeerID, CharSequence targetPeerID, int timeout)
@@ -14,4 +16,33 @@ public interface ConnectorInternal extends ConnectionEstablisher {
     void createNewConnection(NewConnectionCreatorListener listener,
                              CharSequence sourcePeerID, CharSequence targetPeerID,
                              int timeOutConnectionRequest, int timeOutDataConnection) throws IOException;
+
+    /**
+     * Hub hands requests of other connectors over to this executor - e.g. to set up a data session. They run one at
+     * a time and never on the thread of the asking connector.
+     * @return serial executor of this connector
+     */
+    Executor getHandlerExecutor();
+
+    /**
+     * Another peer joined or left the hub. Connectors that push presence to their peer take note - others ignore it.
+     * @param peerID
+     * @param joined true: registered; false: unregistered
+     */
+    default void peerPresenceChanged(CharSequence peerID, boolean joined) { }
+
+    /**
+     * @return round trip times to peer - null if connector does not measure them
+     */
+    default RTTEstimator getRTTEstimator() {
+        return null;
+    }
+
+    /**
+     * @return token a peer presents to resume its registration with this connector after a connection loss -
+     * {@link net.sharksystem.hub.protocol.HubPDURegister#NO_RESUMPTION_TOKEN} if registration cannot be resumed
+     */
+    default long getResumptionToken() {
+        return net.sharksystem.hub.protocol.HubPDURegister.NO_RESUMPTION_TOKEN;
+    }
 }
@@ -0,0 +1,303 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.HubTimerWheel;
+import net.sharksystem.hub.protocol.HubPDUConnectPeerNewTCPSocketRQ;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One long-lived hub port for all new data connections. Hub hands out a random token for each expected
+ * connection and tells the peer (see {@link HubPDUConnectPeerNewTCPSocketRQ}). Peer writes the token as first bytes
+ * of the new connection. Listener looks it up and passes the connection to whoever waits for it.
+ * <br/><br/>
+ * Replaces a server socket per encounter: no probing for free ports, no accept thread per encounter, no waiting
+ * for the operating system to give the port back.
+ * <br/><br/>
+ * Peers may connect before they know a token and keep those connections as a pool for upcoming encounters.
+ * A single selector thread watches all connections without token. Those idle longer than
+ * {@link #setMaxIdleWithoutTokenInMillis(int)} are closed.
+ */
+class DataPortListener implements Runnable {
+    /** connections without token are closed after that time - should exceed max idle time of peer side pools */
+    public static final int DEFAULT_MAX_IDLE_WITHOUT_TOKEN_IN_MILLIS = 60000;
+    private static final int TOKEN_LENGTH = 8;
+    private static final int SELECT_TIMEOUT_IN_MILLIS = 1000;
+
+    private final ServerSocket srv;
+    private final Selector selector;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Long, ExpectedConnection> expected = new ConcurrentHashMap<>();
+    private volatile int maxIdleWithoutTokenInMillis = DEFAULT_MAX_IDLE_WITHOUT_TOKEN_IN_MILLIS;
+    private volatile boolean killed = false;
+
+    /**
+     * @param srv bound server socket - must be backed by a channel
+     * @throws IOException
+     */
+    DataPortListener(ServerSocket srv) throws IOException {
+        ServerSocketChannel srvChannel = srv.getChannel();
+        if(srvChannel == null) throw new IOException("data port must be backed by a channel");
+        this.srv = srv;
+        this.selector = Selector.open();
+        srvChannel.configureBlocking(false);
+        srvChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    void start() {
+        HubThreads.start(this, "data port listener");
+    }
+
+    int getPort() {
+        return this.srv.getLocalPort();
+    }
+
+    void setMaxIdleWithoutTokenInMillis(int maxIdleWithoutTokenInMillis) {
+        this.maxIdleWithoutTokenInMillis = maxIdleWithoutTokenInMillis;
+    }
+
+    /**
+     * Expect a new connection.
+     * @param listener called when connection arrived
+     * @param sourcePeerID
+     * @param targetPeerID
+     * @param timeOutConnectionRequest token is dropped if no connection presents it within that time
+     * @param timeOutDataConnection passed to listener
+     * @return token peer must present
+     */
+    long expect(NewConnectionCreatorListener listener, CharSequence sourcePeerID, CharSequence targetPeerID,
+                int timeOutConnectionRequest, int timeOutDataConnection) {
+
+        ExpectedConnection expectedConnection = new ExpectedConnection(listener, sourcePeerID, targetPeerID,
+                timeOutDataConnection);
+        long token;
+        do {
+            token = this.random.nextLong();
+        } while(token == HubPDUConnectPeerNewTCPSocketRQ.NO_TOKEN
+                || this.expected.putIfAbsent(token, expectedConnection) != null);
+
+        final long expiredToken = token;
+        expectedConnection.timeout = HubTimerWheel.getDefault().schedule(timeOutConnectionRequest, () -> {
+            if(this.expected.remove(expiredToken) != null) {
+                Log.writeLog(this, "timeout - no connection presented token ("
+                        + sourcePeerID + " --> " + targetPeerID + ")");
+            }
+        });
+        return token;
+    }
+
+    /**
+     * @return number of connections expected but not yet arrived
+     */
+    int getExpectedConnections() {
+        return this.expected.size();
+    }
+
+    /**
+     * @return number of connections waiting without token - most probably pooled by peers
+     */
+    int getConnectionsWithoutToken() {
+        try {
+            return this.selector.keys().size() - 1; // minus server socket
+        } catch (ClosedSelectorException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public void run() {
+        Log.writeLog(this, "data port listener started on port: " + this.getPort());
+        while(!this.killed) {
+            try {
+                this.selector.select(SELECT_TIMEOUT_IN_MILLIS);
+            } catch (IOException | ClosedSelectorException e) {
+                if(!this.killed) Log.writeLog(this, "selector failed - give up: " + e.getLocalizedMessage());
+                break;
+            }
+
+            // keys cannot be deregistered while selected key set is iterated - collect matched connections first
+            List<SelectionKey> matchedKeys = new ArrayList<>();
+            Iterator<SelectionKey> keyIter = this.selector.selectedKeys().iterator();
+            while(keyIter.hasNext()) {
+                SelectionKey key = keyIter.next();
+                keyIter.remove();
+                try {
+                    if(!key.isValid()) continue;
+                    if(key.isAcceptable()) {
+                        this.accept();
+                    } else if(key.isReadable()) {
+                        if(this.readToken(key)) matchedKeys.add(key);
+                    }
+                } catch (CancelledKeyException e) {
+                    // connection closed in the meantime
+                }
+            }
+            if(!matchedKeys.isEmpty()) this.handOver(matchedKeys);
+            this.closeIdleConnections();
+        }
+        this.close();
+    }
+
+    private void accept() {
+        try {
+            SocketChannel newChannel = this.srv.getChannel().accept();
+            if(newChannel == null) return;
+            newChannel.configureBlocking(false);
+            newChannel.register(this.selector, SelectionKey.OP_READ, new WaitingConnection());
+        } catch (IOException e) {
+            Log.writeLog(this, "accept failed: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @return true if connection presented an expected token - it is attached to its waiting connection
+     */
+    private boolean readToken(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        WaitingConnection waiting = (WaitingConnection) key.attachment();
+        try {
+            if(channel.read(waiting.tokenBuffer) < 0) {
+                // peer gave up a pooled connection
+                closeQuietly(key);
+                return false;
+            }
+        } catch (IOException e) {
+            closeQuietly(key);
+            return false;
+        }
+        if(waiting.tokenBuffer.hasRemaining()) return false;
+
+        long token = waiting.tokenBuffer.getLong(0);
+        ExpectedConnection expectedConnection = this.expected.remove(token);
+        if(expectedConnection == null) {
+            Log.writeLog(this, "unknown or expired token - close connection");
+            closeQuietly(key);
+            return false;
+        }
+        expectedConnection.timeout.cancel();
+        waiting.matched = expectedConnection;
+        return true;
+    }
+
+    private void handOver(List<SelectionKey> matchedKeys) {
+        // hand over blocking channels - like those accepted by server sockets of single encounters
+        for(SelectionKey key : matchedKeys) key.cancel();
+        try {
+            this.selector.selectNow(); // deregister all at once
+        } catch (IOException e) {
+            Log.writeLog(this, "cannot deregister connections: " + e.getLocalizedMessage());
+            for(SelectionKey key : matchedKeys) closeQuietly(key);
+            return;
+        }
+        // keys that became ready meanwhile are handled in next round
+        for(SelectionKey key : matchedKeys) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            ExpectedConnection expectedConnection = ((WaitingConnection) key.attachment()).matched;
+            try {
+                channel.configureBlocking(true);
+            } catch (IOException e) {
+                Log.writeLog(this, "cannot hand over connection: " + e.getLocalizedMessage());
+                closeQuietly(key);
+                continue;
+            }
+
+            Log.writeLog(this, "new connection initiated from peer side ("
+                    + expectedConnection.sourcePeerID + " --> " + expectedConnection.targetPeerID + ")");
+            SocketChannelStreamPair streamPair = new SocketChannelStreamPair(channel,
+                    expectedConnection.sourcePeerID + ":" + channel.socket().getLocalPort());
+            // listener starts a data session - must not block selector thread
+            HubThreads.start(() -> expectedConnection.listener.newConnectionCreated(
+                    expectedConnection.sourcePeerID, expectedConnection.targetPeerID,
+                    streamPair, expectedConnection.timeOutDataConnection), "data connection from data port");
+        }
+    }
+
+    private void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        List<SelectionKey> idleKeys = new ArrayList<>();
+        for(SelectionKey key : this.selector.keys()) {
+            Object attachment = key.attachment();
+            if(attachment instanceof WaitingConnection
+                    && now - ((WaitingConnection) attachment).since > this.maxIdleWithoutTokenInMillis) {
+                idleKeys.add(key);
+            }
+        }
+        for(SelectionKey key : idleKeys) {
+            Log.writeLog(this, "close connection idle without token");
+            closeQuietly(key);
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private void close() {
+        try {
+            for(SelectionKey key : this.selector.keys()) {
+                closeQuietly(key);
+            }
+            this.selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            // ignore
+        }
+    }
+
+    void kill() {
+        this.killed = true;
+        try {
+            this.srv.close();
+        } catch (IOException e) {
+            Log.writeLog(this, "cannot close data port: " + e.getLocalizedMessage());
+        }
+        this.selector.wakeup();
+        this.expected.clear();
+    }
+
+    public String toString() {
+        return "data port " + this.getPort() + " (expected connections: " + this.expected.size()
+                + ", connections without token: " + this.getConnectionsWithoutToken() + ")";
+    }
+
+    private static class WaitingConnection {
+        private final long since = System.currentTimeMillis();
+        private final ByteBuffer tokenBuffer = ByteBuffer.allocate(TOKEN_LENGTH);
+        private ExpectedConnection matched;
+    }
+
+    private static class ExpectedConnection {
+        private final NewConnectionCreatorListener listener;
+        private final CharSequence sourcePeerID;
+        private final CharSequence targetPeerID;
+        private final int timeOutDataConnection;
+        private volatile HubTimerWheel.Timeout timeout;
+
+        ExpectedConnection(NewConnectionCreatorListener listener, CharSequence sourcePeerID,
+                           CharSequence targetPeerID, int timeOutDataConnection) {
+            this.listener = listener;
+            this.sourcePeerID = sourcePeerID;
+            this.targetPeerID = targetPeerID;
+            this.timeOutDataConnection = timeOutDataConnection;
+        }
+    }
+}
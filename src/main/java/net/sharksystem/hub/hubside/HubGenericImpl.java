@@ -3,9 +3,9 @@ package net.sharksystem.hub.hubside;
 import net.sharksystem.asap.ASAPPeer;
 import net.sharksystem.hub.ASAPHubException;
 import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.HubStreamPairLink;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.streams.StreamPair;
-import net.sharksystem.utils.streams.StreamPairLink;
 
 import java.io.IOException;
 import java.util.*;
@@ -77,15 +77,22 @@ public abstract class HubGenericImpl implements Hub, HubInternal {
     @Override
     public void startDataSession(CharSequence sourcePeerID, CharSequence targetPeerID,
                                  StreamPair connection, int timeout) throws ASAPHubException, IOException {
-        // remember this request
-        this.dataSessionRequestList.add(
-                new DataSessionRequest(sourcePeerID, targetPeerID, connection, timeout));
+        // remember this request - multiplexed connectors can start several data sessions at once
+        DataSessionRequest dataSessionRequest = new DataSessionRequest(sourcePeerID, targetPeerID, connection, timeout);
+        this.dataSessionRequestList.add(dataSessionRequest.sourcePeerID, dataSessionRequest.targetPeerID,
+                dataSessionRequest.until, dataSessionRequest);
 
         Log.writeLog(this, "start data session " + sourcePeerID + " -> " + targetPeerID);
         this.createDataConnection(sourcePeerID, targetPeerID, timeout);
     }
 
-    private List<DataSessionRequest> dataSessionRequestList = new ArrayList<>();
+    // stale requests hold a connection - close it when they expire
+    private PendingRequests<DataSessionRequest> dataSessionRequestList =
+            new PendingRequests<>("pending data sessions", request -> request.connection.close());
+
+    /**
+     * Peer ids are compared ignoring case - they are kept in lower case.
+     */
     private class DataSessionRequest {
         private final long until;
         private final CharSequence sourcePeerID;
@@ -95,12 +102,16 @@ public abstract class HubGenericImpl implements Hub, HubInternal {
 
         DataSessionRequest(CharSequence sourcePeerID, CharSequence targetPeerID,
                            StreamPair connection, int timeout) {
-            this.sourcePeerID = sourcePeerID;
-            this.targetPeerID = targetPeerID;
+            this.sourcePeerID = sourcePeerID.toString().toLowerCase();
+            this.targetPeerID = targetPeerID.toString().toLowerCase();
             this.connection = connection;
             this.until = System.currentTimeMillis() + timeout;
             this.timeout = timeout;
         }
+
+        public String toString() {
+            return this.sourcePeerID + " -> " + this.targetPeerID;
+        }
     }
 
     /**
@@ -114,32 +125,27 @@ public abstract class HubGenericImpl implements Hub, HubInternal {
 
     void connectionCreated(CharSequence sourcePeerID, CharSequence targetPeerID, StreamPair connection) {
         Log.writeLog(this, "connection created called");
-        DataSessionRequest dataSessionRequest = null;
-        List<DataSessionRequest> addAgain = new ArrayList<>();
-        do {
-            dataSessionRequest = this.dataSessionRequestList.remove(0);
-            if(dataSessionRequest.until >= System.currentTimeMillis()) {
-                // still valid
-                if(!sourcePeerID.toString().equalsIgnoreCase(dataSessionRequest.sourcePeerID.toString())
-                    || !targetPeerID.toString().equalsIgnoreCase(dataSessionRequest.targetPeerID.toString())) {
-                    // does not match
-                    Log.writeLog(this, "data session request does not fit");
-                    addAgain.add(dataSessionRequest);
-                    dataSessionRequest = null;
-                }
-            }
-        } while(dataSessionRequest == null && !this.dataSessionRequestList.isEmpty());
-
-        // put back in list
-        for(DataSessionRequest r : addAgain) { this.dataSessionRequestList.add(r); }
+        String source = sourcePeerID.toString().toLowerCase();
+        String target = targetPeerID.toString().toLowerCase();
+        long now = System.currentTimeMillis();
+        // oldest valid request in this direction - expired ones are discarded by the list
+        DataSessionRequest dataSessionRequest = this.dataSessionRequestList.remove(source, target,
+                request -> request.until >= now
+                        && source.equals(request.sourcePeerID) && target.equals(request.targetPeerID));
 
         if(dataSessionRequest != null) {
             // found match
             Log.writeLog(this, "found fitting data session in list");
+            if(dataSessionRequest.connection instanceof SocketChannelStreamPair
+                    && connection instanceof SocketChannelStreamPair) {
+                this.relayDataSession((SocketChannelStreamPair) dataSessionRequest.connection,
+                        (SocketChannelStreamPair) connection, dataSessionRequest.timeout);
+                return;
+            }
             try {
                 Log.writeLog(this, "create data link");
-                StreamPairLink dataLink =
-                        new StreamPairLink(
+                HubStreamPairLink dataLink =
+                        new HubStreamPairLink(
                                 dataSessionRequest.connection,
                                 sourcePeerID, connection,
                                 targetPeerID, false);
@@ -159,6 +165,55 @@ public abstract class HubGenericImpl implements Hub, HubInternal {
         }
     }
 
+    /**
+     * Other side could not be connected - close connection that was waiting for it.
+     * @param sourcePeerID
+     * @param targetPeerID
+     */
+    void dataConnectionFailed(CharSequence sourcePeerID, CharSequence targetPeerID) {
+        String source = sourcePeerID.toString().toLowerCase();
+        String target = targetPeerID.toString().toLowerCase();
+        DataSessionRequest dataSessionRequest = this.dataSessionRequestList.remove(source, target,
+                request -> source.equals(request.sourcePeerID) && target.equals(request.targetPeerID));
+        if(dataSessionRequest != null) {
+            Log.writeLog(this, "close waiting data session: " + dataSessionRequest);
+            dataSessionRequest.connection.close();
+        }
+    }
+
+    private SocketChannelRelay channelRelay = null;
+
+    /**
+     * Both peers have a dedicated TCP connection. Relay them channel to channel - no copy threads required.
+     */
+    private void relayDataSession(SocketChannelStreamPair connectionA, SocketChannelStreamPair connectionB,
+                                  int maxIdleInMillis) {
+        try {
+            // tell peers e2e is established - channels are still blocking
+            Log.writeLog(this, "send ready byte to each peer");
+            connectionA.getOutputStream().write(Connector.readyByte);
+            connectionB.getOutputStream().write(Connector.readyByte);
+
+            Log.writeLog(this, "relay data session: " + connectionA + " <--> " + connectionB);
+            synchronized (this) {
+                if(this.channelRelay == null) this.channelRelay = new SocketChannelRelay();
+            }
+            this.channelRelay.relay(connectionA, connectionB, maxIdleInMillis);
+        } catch (IOException e) {
+            Log.writeLogErr(this, "while relaying data session: " + e.getLocalizedMessage());
+            connectionA.close();
+            connectionB.close();
+        }
+    }
+
+    protected void killChannelRelay() {
+        synchronized (this) {
+            if(this.channelRelay == null) return;
+            this.channelRelay.kill();
+            this.channelRelay = null;
+        }
+    }
+
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
     //                                           Hub - external                                          //
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -1,6 +1,7 @@
 package net.sharksystem.hub.hubside;
 
 import net.sharksystem.hub.ASAPHubException;
+import net.sharksystem.hub.HubThreads;
 import net.sharksystem.hub.hubside.lora_ipc.*;
 import net.sharksystem.utils.streams.StreamPair;
 import net.sharksystem.utils.streams.StreamPairImpl;
@@ -235,8 +236,7 @@ public class HubIPCJavaSide extends HubGenericImpl {
                 e.printStackTrace();
             }
         };
-        this.readingThread = new Thread(r);
-        this.readingThread.start();
+        this.readingThread = HubThreads.start(r, "ipc reader");
     }
 
     /**
@@ -1,7 +1,10 @@
 package net.sharksystem.hub.hubside;
 
 import net.sharksystem.hub.ASAPHubException;
+import net.sharksystem.hub.RTTEstimator;
+import net.sharksystem.hub.protocol.EncodedPeerIDs;
 
+import java.util.HashSet;
 import java.util.Set;
 
 public interface HubInternal extends ConnectionEstablisher {
@@ -20,12 +23,75 @@ public interface HubInternal extends ConnectionEstablisher {
      */
     void unregister(CharSequence peerId);
 
+    /**
+     * unregister a peer only if it is still registered with this connector - it could have resumed its registration
+     * with another one in the meantime
+     * @param peerId alias for peer connection
+     * @param hubConnectorSession
+     */
+    default void unregister(CharSequence peerId, ConnectorInternal hubConnectorSession) {
+        this.unregister(peerId);
+    }
+
+    /**
+     * Connection of a registered peer was lost. Peer could come back with its resumption token. Hubs that keep
+     * registrations of lost peers for a while (see {@link #resumeRegistration(CharSequence, long, ConnectorInternal)})
+     * do so - others unregister peer immediately.
+     * @param peerId
+     * @param hubConnectorSession connector that lost its connection - nothing happens if peer is registered
+     *                            with another connector
+     */
+    default void suspendRegistration(CharSequence peerId, ConnectorInternal hubConnectorSession) {
+        this.unregister(peerId);
+    }
+
+    /**
+     * A peer reconnected and presented a resumption token. Its registration is handed over to the new connector -
+     * other peers see no change.
+     * @param peerId
+     * @param resumptionToken token handed out by previous connector (see {@link ConnectorInternal#getResumptionToken()})
+     * @param hubConnectorSession new connector
+     * @return previous connector - null if there is nothing to resume: peer must register
+     */
+    default ConnectorInternal resumeRegistration(CharSequence peerId, long resumptionToken,
+                                                 ConnectorInternal hubConnectorSession) {
+        return null;
+    }
+
     /**
      * get all registered peers in hub
      * @return Set<CharSequence> with all registered peers
      */
     Set<CharSequence> getRegisteredPeers();
 
+    /**
+     * Registered peers serialised for status replies. Hubs that keep versions serialise once per version.
+     * @return all registered peers
+     */
+    default EncodedPeerIDs getEncodedRegisteredPeers() {
+        return new EncodedPeerIDs(-1, this.getRegisteredPeers());
+    }
+
+    /**
+     * Peers (un)registered since a version of the registered peers list. Hubs that do not keep versions
+     * return all registered peers without a version.
+     * @param knownVersion version the asking peer has seen last - negative if none
+     * @return changes since that version or all registered peers
+     */
+    default PeerRegistry.Delta getRegisteredPeersSince(long knownVersion) {
+        return PeerRegistry.Delta.full(-1, new HashSet<>(this.getRegisteredPeers()));
+    }
+
+    /**
+     * Round trip times to a registered peer, measured by its connector with heartbeats. Can be used to adapt
+     * timeouts to a peers connection.
+     * @param peerID
+     * @return null if peer is not registered or its connector does not measure
+     */
+    default RTTEstimator getRTTEstimator(CharSequence peerID) {
+        return null;
+    }
+
     /**
      * Ask of a peer with id is already registered with this hub.
      * @param peerID
@@ -1,48 +1,178 @@
 package net.sharksystem.hub.hubside;
 
 import net.sharksystem.hub.ASAPHubException;
+import net.sharksystem.hub.HubTimerWheel;
+import net.sharksystem.hub.RTTEstimator;
+import net.sharksystem.hub.protocol.EncodedPeerIDs;
+import net.sharksystem.hub.protocol.HubPDURegister;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.streams.StreamPair;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class HubSingleEntity extends HubGenericImpl {
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
     //                                           Hub - internal                                          //
     ///////////////////////////////////////////////////////////////////////////////////////////////////////
-    private Map<CharSequence, ConnectorInternal> hubSessions = new HashMap<>();
+    private final PeerRegistry<ConnectorInternal> hubSessions = new PeerRegistry<>();
+    private volatile EncodedPeerIDs encodedPeers = null; // of one registry version
 
     @Override
     public boolean isRegistered(CharSequence peerID) {
-        return this.hubSessions.keySet().contains(peerID);
+        return this.hubSessions.isRegistered(peerID);
     }
 
+    /**
+     * @return registered peers - an immutable snapshot, later (un)registrations are not reflected
+     */
     @Override
     public Set<CharSequence> getRegisteredPeers() {
-        return this.hubSessions.keySet();
+        return this.hubSessions.getSnapshot().getPeerIDs();
+    }
+
+    /**
+     * @return registered peers serialised - once per registry version, shared by all status replies
+     */
+    @Override
+    public EncodedPeerIDs getEncodedRegisteredPeers() {
+        PeerRegistry.Snapshot<ConnectorInternal> snapshot = this.hubSessions.getSnapshot();
+        EncodedPeerIDs encoded = this.encodedPeers;
+        if(encoded == null || encoded.getVersion() != snapshot.getVersion()) {
+            // concurrent callers could both encode - harmless, same content
+            encoded = new EncodedPeerIDs(snapshot.getVersion(), snapshot.getPeerIDs());
+            this.encodedPeers = encoded;
+        }
+        return encoded;
+    }
+
+    @Override
+    public PeerRegistry.Delta getRegisteredPeersSince(long knownVersion) {
+        return this.hubSessions.getChangesSince(knownVersion);
     }
 
     @Override
     public void register(CharSequence peerID, ConnectorInternal hubConnectorSession) {
-        this.hubSessions.put(peerID, hubConnectorSession);
-        Log.writeLog(this, "peer registered - now: " + this.hubSessions.values());
+        this.cancelSuspension(peerID);
+        this.hubSessions.register(peerID, hubConnectorSession);
+        PeerRegistry.Snapshot<ConnectorInternal> snapshot = this.hubSessions.getSnapshot();
+        Log.writeLog(this, "peer registered - now: " + snapshot.getConnectors());
+        this.notifyPresenceChanged(snapshot, peerID, true, hubConnectorSession);
     }
 
     @Override
     public void register(CharSequence peerID, ConnectorInternal hubConnectorSession, boolean canCreateTCPConnections) {
-        this.hubSessions.put(peerID, hubConnectorSession);
-        Log.writeLog(this, "peer registered - now: " + this.hubSessions.values());
+        this.register(peerID, hubConnectorSession);
     }
 
     @Override
     public void unregister(CharSequence peerID) {
-        this.hubSessions.remove(peerID);
-        Log.writeLog(this, "peer unregistered - now: " + this.hubSessions.values());
+        this.cancelSuspension(peerID);
+        ConnectorInternal removed = this.hubSessions.unregister(peerID);
+        PeerRegistry.Snapshot<ConnectorInternal> snapshot = this.hubSessions.getSnapshot();
+        Log.writeLog(this, "peer unregistered - now: " + snapshot.getConnectors());
+        if(removed != null) this.notifyPresenceChanged(snapshot, peerID, false, removed);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                      resumption after connection loss                             //
+    ///////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public static final long DEFAULT_RESUMPTION_GRACE_PERIOD_IN_MILLIS = 30000;
+    private long resumptionGracePeriodInMillis = DEFAULT_RESUMPTION_GRACE_PERIOD_IN_MILLIS;
+    // peer id -> unregister when grace period is over
+    private final Map<String, HubTimerWheel.Timeout> suspendedRegistrations = new ConcurrentHashMap<>();
+
+    /**
+     * A peer that lost its connection stays registered that long - it can resume its registration meanwhile.
+     * @param millis
+     */
+    public void setResumptionGracePeriodInMillis(long millis) {
+        this.resumptionGracePeriodInMillis = millis;
+    }
+
+    /**
+     * Peer stays registered with its lost connector - requests to that peer are kept by that connector. Peer is
+     * unregistered if it does not come back within grace period.
+     */
+    @Override
+    public void suspendRegistration(CharSequence peerID, ConnectorInternal hubConnectorSession) {
+        if(peerID == null) return;
+        if(this.resumptionGracePeriodInMillis <= 0
+                || hubConnectorSession.getResumptionToken() == HubPDURegister.NO_RESUMPTION_TOKEN) {
+            this.unregister(peerID, hubConnectorSession);
+            return;
+        }
+        if(this.hubSessions.get(peerID) != hubConnectorSession) return; // already replaced or gone
+
+        Log.writeLog(this, "peer lost connection - keep registration for "
+                + this.resumptionGracePeriodInMillis + " ms: " + peerID);
+        HubTimerWheel.Timeout expiry = HubTimerWheel.getDefault().schedule(this.resumptionGracePeriodInMillis,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        HubSingleEntity.this.suspendedRegistrations.remove(peerID.toString());
+                        Log.writeLog(HubSingleEntity.this, "peer did not come back: " + peerID);
+                        HubSingleEntity.this.unregister(peerID, hubConnectorSession);
+                    }
+                });
+        HubTimerWheel.Timeout previous = this.suspendedRegistrations.put(peerID.toString(), expiry);
+        if(previous != null) previous.cancel();
+    }
+
+    /**
+     * Peer is handed over to new connector if it presents token of the connector it is registered with - no matter
+     * if hub already noticed that connection was lost.
+     */
+    @Override
+    public ConnectorInternal resumeRegistration(CharSequence peerID, long resumptionToken,
+                                                ConnectorInternal hubConnectorSession) {
+        if(peerID == null || resumptionToken == HubPDURegister.NO_RESUMPTION_TOKEN) return null;
+        ConnectorInternal previous = this.hubSessions.get(peerID);
+        if(previous == null || previous.getResumptionToken() != resumptionToken) return null;
+        if(!this.hubSessions.replace(peerID, previous, hubConnectorSession)) return null;
+
+        this.cancelSuspension(peerID);
+        Log.writeLog(this, "peer resumed registration: " + peerID);
+        return previous;
+    }
+
+    private void cancelSuspension(CharSequence peerID) {
+        if(peerID == null) return;
+        HubTimerWheel.Timeout expiry = this.suspendedRegistrations.remove(peerID.toString());
+        if(expiry != null) expiry.cancel();
+    }
+
+    @Override
+    public void unregister(CharSequence peerID, ConnectorInternal hubConnectorSession) {
+        if(!this.hubSessions.unregister(peerID, hubConnectorSession)) return;
+        this.cancelSuspension(peerID);
+        PeerRegistry.Snapshot<ConnectorInternal> snapshot = this.hubSessions.getSnapshot();
+        Log.writeLog(this, "peer unregistered - now: " + snapshot.getConnectors());
+        this.notifyPresenceChanged(snapshot, peerID, false, hubConnectorSession);
+    }
+
+    private void notifyPresenceChanged(PeerRegistry.Snapshot<ConnectorInternal> snapshot,
+                                       CharSequence peerID, boolean joined, ConnectorInternal peersConnector) {
+        for(ConnectorInternal connector : snapshot.getConnectors()) {
+            if(connector != peersConnector) connector.peerPresenceChanged(peerID, joined);
+        }
     }
 
+    @Override
+    public RTTEstimator getRTTEstimator(CharSequence peerID) {
+        ConnectorInternal connector = this.hubSessions.get(peerID);
+        return connector == null ? null : connector.getRTTEstimator();
+    }
+
+    /**
+     * @return registry of connected peers - e.g. for its metrics
+     */
+    public PeerRegistry<ConnectorInternal> getPeerRegistry() {
+        return this.hubSessions;
+    }
 
     /*
     protected ConnectorInternal getConnectorInternal(CharSequence peerID) {
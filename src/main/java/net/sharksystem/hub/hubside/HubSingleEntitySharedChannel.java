@@ -58,15 +58,32 @@ public class HubSingleEntitySharedChannel extends HubSingleEntity implements New
 
         Log.writeLog(this, "createDataConnection");
         ConnectorInternal targetConnector = this.getConnector(targetPeerID);
-        if(targetConnector.canEstablishTCPConnections()) {
-            Log.writeLog(this,"found connector, it can establish new connections " + targetPeerID);
-            targetConnector.createNewConnection(this, sourcePeerID, targetPeerID, timeout, timeout);
-        } else {
-            Log.writeLog(this,"found connector to " + targetPeerID);
-            // ask for data connection - can fail and produce exceptions
-            StreamPair streamPair = targetConnector.initDataSession(sourcePeerID, targetPeerID, timeout);
-            Log.writeLog(this,"got data connection (stream pair) " + targetPeerID);
-            this.connectionCreated(sourcePeerID, targetPeerID, streamPair);
+        // target might have to silence its channel first - never on the calling connector's thread
+        targetConnector.getHandlerExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                HubSingleEntitySharedChannel.this.createDataConnection(
+                        targetConnector, sourcePeerID, targetPeerID, timeout);
+            }
+        });
+    }
+
+    private void createDataConnection(ConnectorInternal targetConnector,
+                                      CharSequence sourcePeerID, CharSequence targetPeerID, int timeout) {
+        try {
+            if(targetConnector.canEstablishTCPConnections()) {
+                Log.writeLog(this,"found connector, it can establish new connections " + targetPeerID);
+                targetConnector.createNewConnection(this, sourcePeerID, targetPeerID, timeout, timeout);
+            } else {
+                Log.writeLog(this,"found connector to " + targetPeerID);
+                // ask for data connection - can fail and produce exceptions
+                StreamPair streamPair = targetConnector.initDataSession(sourcePeerID, targetPeerID, timeout);
+                Log.writeLog(this,"got data connection (stream pair) " + targetPeerID);
+                this.connectionCreated(sourcePeerID, targetPeerID, streamPair);
+            }
+        } catch (ASAPHubException | IOException e) {
+            Log.writeLog(this, "cannot create data connection to " + targetPeerID + ": " + e.getLocalizedMessage());
+            this.dataConnectionFailed(sourcePeerID, targetPeerID);
         }
     }
 
@@ -3,6 +3,7 @@ package net.sharksystem.hub.hubside;
 import net.sharksystem.asap.ASAPException;
 import net.sharksystem.hub.ASAPHubException;
 import net.sharksystem.hub.protocol.ConnectionRequest;
+import net.sharksystem.hub.protocol.HubCapabilities;
 import net.sharksystem.hub.protocol.HubPDUConnectPeerNewTCPSocketRQ;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.streams.IdleStreamPairCloser;
@@ -30,19 +31,25 @@ public class MultipleTCPChannelsConnectorHubSideImpl extends SharedChannelConnec
     private boolean createNewConnectionWithMyPeer(NewConnectionCreatorListener listener,
                               CharSequence sourcePeerID, CharSequence targetPeerID,
                               int timeOutConnectionRequest, int timeOutDataConnection) throws IOException {
-        ServerSocket srvSocket = this.getServerSocket();
-        int localPort = srvSocket.getLocalPort();
-        (new NewConnectionCreator(srvSocket, listener,
-                sourcePeerID, targetPeerID, timeOutConnectionRequest, timeOutDataConnection)).start();
+        HubPDUConnectPeerNewTCPSocketRQ newConnectionRQ;
+        if(HubCapabilities.has(this.getCapabilities(), HubCapabilities.DATA_PORT_TOKENS)) {
+            // peer presents a token on the hub data port
+            DataPortListener dataPortListener = this.getTCPHub().getDataPortListener();
+            long token = dataPortListener.expect(listener,
+                    sourcePeerID, targetPeerID, timeOutConnectionRequest, timeOutDataConnection);
+            newConnectionRQ = new HubPDUConnectPeerNewTCPSocketRQ(targetPeerID, dataPortListener.getPort(), token);
+        } else {
+            ServerSocket srvSocket = this.getServerSocket();
+            (new NewConnectionCreator(srvSocket, listener,
+                    sourcePeerID, targetPeerID, timeOutConnectionRequest, timeOutDataConnection)).start();
+            newConnectionRQ = new HubPDUConnectPeerNewTCPSocketRQ(targetPeerID, srvSocket.getLocalPort());
+        }
 
         // tell peer side connector to connect to server socket
-        HubPDUConnectPeerNewTCPSocketRQ newConnectionRQ = new HubPDUConnectPeerNewTCPSocketRQ(
-                targetPeerID, localPort);
-
         Log.writeLog(this, this.toString(),"ask my peer to connect to targetPeerID = " + targetPeerID
-                + " with port: " + localPort);
+                + " with port: " + newConnectionRQ.getPort());
 
-        newConnectionRQ.sendPDU(this.getOutputStream());
+        this.writePDU(newConnectionRQ);
 
         return true;
     }
@@ -73,15 +80,18 @@ public class MultipleTCPChannelsConnectorHubSideImpl extends SharedChannelConnec
                 timeOutConnectionRequest, timeOutDataConnection);
     }
 
-    private ServerSocket getServerSocket() throws IOException {
+    private ASAPTCPHub getTCPHub() throws IOException {
         HubInternal hub = this.getHub();
         // now it gets messy - needs to be cleaned up sometimes
         if(!(hub instanceof ASAPTCPHub)) {
             throw new IOException("need TCPHub to work - FATAL");
         }
 
-        ASAPTCPHub tcpHub = (ASAPTCPHub) hub;
-        ServerSocket srvSocket = null;
+        return (ASAPTCPHub) hub;
+    }
+
+    private ServerSocket getServerSocket() throws IOException {
+        ASAPTCPHub tcpHub = this.getTCPHub();
         try {
             return tcpHub.getServerSocket();
         } catch (IOException e) {
@@ -0,0 +1,513 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.hub.SerialExecutor;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A non-blocking connection to a peer side connector managed by the {@link NIOConnectorEngine}.
+ * <br/><br/>
+ * Received bytes are kept in a single buffer. While a connector session is active, the engine decodes PDUs from this
+ * buffer - one at a time. The next PDU is not decoded before the previous one was handled. A handler can kill the
+ * session (e.g. entering a data session) and the very next bytes belong to the data session. Those bytes are
+ * read from the input stream of this connection. There is no need to move any bytes around on status changes.
+ * <br/><br/>
+ * Handlers that might wait for other connectors (see {@link NIOConnectorSession#mayBlock(HubPDU)}) run on an executor of
+ * this connection - not on a worker thread. Nothing else is decoded before such a handler returned.
+ * <br/><br/>
+ * A PDU that arrives in pieces is not parsed again with each piece: a failed attempt tells how many bytes are missing
+ * at least and decoding waits for them.
+ * <br/><br/>
+ * Writes on the output stream go straight to the channel. Bytes that could not be written are queued and flushed by
+ * the selector thread.
+ * <br/><br/>
+ * Received buffer is bounded: Selector stops reading from the channel if it is full - e.g. a data session reader is
+ * slow. TCP flow control slows down the sender. Reading is resumed if half of it is consumed.
+ */
+class NIOConnection {
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    /** writers block if more than that is waiting for the channel */
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    /** selector stops reading if that many received bytes are not consumed */
+    static final int MAX_BUFFERED_INPUT = 256 * 1024;
+
+    private final SocketChannel channel;
+    private final NIOConnectorEngine engine;
+    private SelectionKey key;
+
+    // inbound - guarded by this
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int start = 0;
+    private int end = 0;
+    private boolean eof = false;
+    private NIOConnectorSession session = null;
+    private boolean dispatching = false;
+    private boolean readingPaused = false;
+    // decoding is not tried again before that many bytes are received (counted from start)
+    private int requiredForDecoding = 0;
+    private long decodeAttempts = 0;
+
+    private final SerialExecutor blockingHandlers = new SerialExecutor("nio blocking handler");
+
+    // outbound - guarded by pendingOutput
+    private final ArrayDeque<ByteBuffer> pendingOutput = new ArrayDeque<>();
+    private int pendingOutputBytes = 0;
+
+    private final InputStream is = new ChannelInputStream();
+    private final OutputStream os = new ChannelOutputStream();
+
+    NIOConnection(SocketChannel channel, NIOConnectorEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+    }
+
+    void setSelectionKey(SelectionKey key) { this.key = key; }
+
+    InputStream getInputStream() { return this.is; }
+    OutputStream getOutputStream() { return this.os; }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                  called by selector thread                                          //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Read what the channel offers.
+     * @param readBuffer buffer shared by all connections of the selector thread
+     * @return false if channel reached end of stream
+     */
+    boolean readFromChannel(ByteBuffer readBuffer) {
+        int read;
+        do {
+            readBuffer.clear();
+            try {
+                read = this.channel.read(readBuffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+            if (read > 0) {
+                readBuffer.flip();
+                if (!this.append(readBuffer)) break; // full - wait for consumers
+            }
+        } while (read > 0 && !readBuffer.hasRemaining());
+
+        if (read < 0) {
+            synchronized (this) {
+                this.eof = true;
+                this.notifyAll();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if buffer is full - reading from channel is paused
+     */
+    private synchronized boolean append(ByteBuffer readBuffer) {
+        int length = readBuffer.remaining();
+        if (this.end + length > this.buffer.length) {
+            int used = this.end - this.start;
+            if (used + length > this.buffer.length) {
+                // grow
+                byte[] newBuffer = new byte[Math.max(this.buffer.length * 2, used + length)];
+                System.arraycopy(this.buffer, this.start, newBuffer, 0, used);
+                this.buffer = newBuffer;
+            } else {
+                // compact
+                System.arraycopy(this.buffer, this.start, this.buffer, 0, used);
+            }
+            this.start = 0;
+            this.end = used;
+        }
+        readBuffer.get(this.buffer, this.end, length);
+        this.end += length;
+        this.notifyAll(); // wake readers in data session mode
+
+        if (this.end - this.start < MAX_BUFFERED_INPUT) return true;
+        this.readingPaused = true;
+        this.engine.pauseReading(this.key);
+        return false;
+    }
+
+    /**
+     * Bytes were taken from received buffer. Caller holds this.
+     */
+    private void consumed() {
+        if (this.readingPaused && this.end - this.start <= MAX_BUFFERED_INPUT / 2) this.resumeReading();
+    }
+
+    // caller holds this
+    private void resumeReading() {
+        this.readingPaused = false;
+        this.engine.resumeReading(this.key);
+    }
+
+    /**
+     * @return number of received bytes not consumed yet
+     */
+    synchronized int getBufferedInput() {
+        return this.end - this.start;
+    }
+
+    /**
+     * @return how often received bytes were parsed - successful or not
+     */
+    synchronized long getDecodeAttempts() {
+        return this.decodeAttempts;
+    }
+
+    void flushPendingOutput() {
+        synchronized (this.pendingOutput) {
+            try {
+                while (!this.pendingOutput.isEmpty()) {
+                    ByteBuffer next = this.pendingOutput.peek();
+                    int written = this.channel.write(next);
+                    this.pendingOutputBytes -= written;
+                    if (next.hasRemaining()) return; // channel is full - wait for next round
+                    this.pendingOutput.poll();
+                }
+                this.engine.writeDone(this.key);
+            } catch (IOException e) {
+                Log.writeLog(this, "cannot flush output: " + e.getLocalizedMessage());
+                this.pendingOutput.clear();
+                this.pendingOutputBytes = 0;
+                this.close();
+            } finally {
+                this.pendingOutput.notifyAll();
+            }
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                      PDU decoding and dispatch                                      //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * New data arrived or the connection closed. Dispatch PDUs if a connector session is running.
+     */
+    void dataArrived() {
+        synchronized (this) {
+            if (this.session == null || this.dispatching) return;
+            if (this.start == this.end && !this.eof) return;
+            this.dispatching = true;
+        }
+        this.engine.execute(new Runnable() {
+            @Override
+            public void run() {
+                NIOConnection.this.dispatchLoop();
+            }
+        });
+    }
+
+    private void dispatchLoop() {
+        for (;;) {
+            NIOConnectorSession currentSession;
+            HubPDU hubPDU = null;
+            boolean lost = false;
+            synchronized (this) {
+                currentSession = this.session;
+                if (currentSession == null) {
+                    this.dispatching = false;
+                    return;
+                }
+                try {
+                    hubPDU = this.decodePDU();
+                } catch (IOException | ASAPException e) {
+                    Log.writeLog(this, "cannot decode pdu - give up connection: " + e.getLocalizedMessage());
+                    lost = true;
+                }
+                if (hubPDU == null && !lost) {
+                    if (!this.eof) {
+                        this.dispatching = false;
+                        // a PDU larger than buffer bound must not stall the channel
+                        if (this.readingPaused) this.resumeReading();
+                        return; // wait for more data
+                    }
+                    lost = true;
+                }
+                if (hubPDU != null) this.consumed();
+                if (lost) {
+                    this.session = null;
+                    this.dispatching = false;
+                }
+            }
+
+            if (lost) {
+                currentSession.sessionEnded(true);
+                this.close();
+                return;
+            }
+
+            if (currentSession.mayBlock(hubPDU)) {
+                // keep worker free - dispatching goes on after handler returned
+                HubPDU blockingPDU = hubPDU;
+                this.blockingHandlers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        currentSession.handlePDU(blockingPDU);
+                        if (NIOConnection.this.sessionGoesOn(currentSession)) {
+                            NIOConnection.this.engine.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    NIOConnection.this.dispatchLoop();
+                                }
+                            });
+                        }
+                    }
+                });
+                return;
+            }
+
+            currentSession.handlePDU(hubPDU);
+            if (!this.sessionGoesOn(currentSession)) return;
+        }
+    }
+
+    /**
+     * Called after a PDU was handled.
+     * @return false if handler killed the session - it is ended and dispatching stops
+     */
+    private boolean sessionGoesOn(NIOConnectorSession currentSession) {
+        synchronized (this) {
+            if (this.session == currentSession) return true;
+            // session killed by handler - protocol engine is no longer responsible for those bytes
+            this.dispatching = false;
+        }
+        currentSession.sessionEnded(false);
+        return false;
+    }
+
+    /**
+     * Try to decode a PDU from received bytes. Buffer is untouched if not enough bytes are available yet.
+     * @return decoded pdu or null if more bytes are required
+     * @throws IOException malformed pdu
+     * @throws ASAPException malformed pdu
+     */
+    private HubPDU decodePDU() throws IOException, ASAPException {
+        if (this.start == this.end) return null;
+        // last attempt ran out of bytes - parsing it again makes no sense before the missing ones arrived
+        if (this.end - this.start < this.requiredForDecoding) return null;
+
+        this.decodeAttempts++;
+        BufferInputStream bis = new BufferInputStream(this.buffer, this.start, this.end);
+        try {
+            HubPDU hubPDU = HubPDU.readPDU(bis);
+            if (bis.underflow) return this.moreBytesRequired(bis); // some parser do not complain about missing bytes
+            this.start = bis.position;
+            this.requiredForDecoding = 0;
+            return hubPDU;
+        } catch (IOException | ASAPException e) {
+            if (bis.underflow) return this.moreBytesRequired(bis);
+            throw e;
+        }
+    }
+
+    private HubPDU moreBytesRequired(BufferInputStream bis) {
+        this.requiredForDecoding = bis.required - this.start;
+        return null;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                         session management                                          //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    void sessionStarted(NIOConnectorSession newSession) {
+        synchronized (this) {
+            this.session = newSession;
+            // bytes were read from the stream meanwhile - next PDU starts somewhere else
+            this.requiredForDecoding = 0;
+        }
+        this.dataArrived();
+    }
+
+    void sessionKilled(NIOConnectorSession killedSession) {
+        boolean endNow = false;
+        synchronized (this) {
+            if (this.session != killedSession) return;
+            this.session = null;
+            // a running dispatcher will notice and end the session after handling its pdu
+            endNow = !this.dispatching;
+        }
+        if (endNow) killedSession.sessionEnded(false);
+    }
+
+    void close() {
+        synchronized (this) {
+            this.eof = true;
+            this.notifyAll();
+        }
+        if (this.key != null) this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public String toString() {
+        try {
+            return "nio connection " + this.channel.getRemoteAddress();
+        } catch (IOException e) {
+            return "nio connection (closed)";
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                              streams                                                //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Reads from received buffer - used in data sessions and while synchronizing after a data session.
+     */
+    class ChannelInputStream extends InputStream {
+        NIOConnection getConnection() {
+            return NIOConnection.this;
+        }
+
+        @Override
+        public int read() throws IOException {
+            synchronized (NIOConnection.this) {
+                if (!this.waitForData()) return -1;
+                int b = NIOConnection.this.buffer[NIOConnection.this.start++] & 0xFF;
+                NIOConnection.this.consumed();
+                return b;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            synchronized (NIOConnection.this) {
+                if (!this.waitForData()) return -1;
+                int n = Math.min(len, NIOConnection.this.end - NIOConnection.this.start);
+                System.arraycopy(NIOConnection.this.buffer, NIOConnection.this.start, b, off, n);
+                NIOConnection.this.start += n;
+                NIOConnection.this.consumed();
+                return n;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (NIOConnection.this) {
+                return NIOConnection.this.end - NIOConnection.this.start;
+            }
+        }
+
+        private boolean waitForData() throws IOException {
+            while (NIOConnection.this.start == NIOConnection.this.end) {
+                if (NIOConnection.this.eof) return false;
+                try {
+                    NIOConnection.this.wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted while waiting for data");
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            NIOConnection.this.close();
+        }
+    }
+
+    private class ChannelOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            ByteBuffer data = ByteBuffer.wrap(b, off, len);
+            ArrayDeque<ByteBuffer> pendingOutput = NIOConnection.this.pendingOutput;
+            synchronized (pendingOutput) {
+                if (!NIOConnection.this.channel.isOpen()) throw new IOException("channel closed");
+
+                if (pendingOutput.isEmpty()) {
+                    NIOConnection.this.channel.write(data);
+                    if (!data.hasRemaining()) return;
+                }
+
+                // channel is busy - copy what is left and let selector thread do the rest
+                ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+                copy.put(data).flip();
+                pendingOutput.add(copy);
+                NIOConnection.this.pendingOutputBytes += copy.remaining();
+                NIOConnection.this.engine.registerForWrite(NIOConnection.this.key);
+
+                while (NIOConnection.this.pendingOutputBytes > MAX_PENDING_OUTPUT) {
+                    if (!NIOConnection.this.channel.isOpen()) throw new IOException("channel closed");
+                    try {
+                        pendingOutput.wait();
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted while waiting for channel");
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            NIOConnection.this.close();
+        }
+    }
+
+    /**
+     * Input stream on received bytes. It never blocks but remembers that a parser wanted more bytes than available -
+     * and how many it wanted at least. Parsers read fields of known length completely.
+     */
+    private static class BufferInputStream extends InputStream {
+        private final byte[] buffer;
+        private final int end;
+        private int position;
+        private boolean underflow = false;
+        private int required = 0; // buffer end a parser needed at least
+
+        BufferInputStream(byte[] buffer, int start, int end) {
+            this.buffer = buffer;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            if (this.position >= this.end) {
+                this.underflow = true;
+                this.required = Math.max(this.required, this.end + 1);
+                return -1;
+            }
+            return this.buffer[this.position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            int n = Math.min(len, this.end - this.position);
+            if (n < len) {
+                this.underflow = true;
+                this.required = Math.max(this.required, this.end + len - Math.max(n, 0));
+            }
+            if (n <= 0) return -1;
+            System.arraycopy(this.buffer, this.position, b, off, n);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return this.end - this.position;
+        }
+    }
+}
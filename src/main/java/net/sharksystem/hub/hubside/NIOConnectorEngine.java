@@ -0,0 +1,213 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.ConnectorImpl;
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.protocol.ConnectorThread;
+import net.sharksystem.hub.protocol.ConnectorThreadFactory;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hub engine based on a selector. A single thread accepts new connections and reads from all connections.
+ * Received PDUs are dispatched to the connectors by a small pool of worker threads. Handlers that might wait for other
+ * connectors do not run on those workers - see {@link NIOConnection}. An idle peer costs a registered channel but no
+ * thread.
+ * <br/><br/>
+ * Connectors are the same as in blocking mode. They enter data sessions and synchronize afterwards by reading
+ * and writing streams. Those streams are provided by {@link NIOConnection}.
+ */
+class NIOConnectorEngine implements Runnable, ConnectorThreadFactory {
+    public static final int DEFAULT_WORKER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final ASAPTCPHub hub;
+    private final boolean createNewConnection;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private volatile boolean killed = false;
+
+    NIOConnectorEngine(ServerSocketChannel serverChannel, ASAPTCPHub hub, boolean createNewConnection)
+            throws IOException {
+        this(serverChannel, hub, createNewConnection, DEFAULT_WORKER_THREADS);
+    }
+
+    NIOConnectorEngine(ServerSocketChannel serverChannel, ASAPTCPHub hub, boolean createNewConnection,
+                       int workerThreads) throws IOException {
+        this.serverChannel = serverChannel;
+        this.hub = hub;
+        this.createNewConnection = createNewConnection;
+        this.selector = Selector.open();
+
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(workerThreads, workerThreads,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return HubThreads.newThread(r, "nio hub worker");
+            }
+        });
+        workers.allowCoreThreadTimeOut(true);
+        this.workers = workers;
+
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+    }
+
+    void execute(Runnable task) {
+        this.workers.execute(task);
+    }
+
+    /*
+     * Interest ops are changed by selector thread, writers and readers - each change is made holding the key. Selector
+     * is woken up: a change is not seen by a running select call.
+     */
+    private static void changeInterest(SelectionKey key, int set, int clear) {
+        if(key == null) return;
+        synchronized (key) {
+            if(!key.isValid()) return;
+            try {
+                key.interestOps((key.interestOps() | set) & ~clear);
+            } catch (CancelledKeyException e) {
+                return; // closed in the meantime
+            }
+        }
+        key.selector().wakeup();
+    }
+
+    void registerForWrite(SelectionKey key) {
+        changeInterest(key, SelectionKey.OP_WRITE, 0);
+    }
+
+    void writeDone(SelectionKey key) {
+        changeInterest(key, 0, SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Received buffer of that connection is full - stop reading from its channel.
+     */
+    void pauseReading(SelectionKey key) {
+        changeInterest(key, 0, SelectionKey.OP_READ);
+    }
+
+    void resumeReading(SelectionKey key) {
+        changeInterest(key, SelectionKey.OP_READ, 0);
+    }
+
+    @Override
+    public ConnectorThread createConnectorThread(Connector connector, InputStream is) {
+        if(is instanceof NIOConnection.ChannelInputStream) {
+            return new NIOConnectorSession(connector,
+                    ((NIOConnection.ChannelInputStream) is).getConnection(), this);
+        }
+        // not from this engine
+        return ConnectorThreadFactory.BLOCKING_READ.createConnectorThread(connector, is);
+    }
+
+    @Override
+    public void run() {
+        Log.writeLog(this, "selector engine started");
+        while(!this.killed) {
+            try {
+                this.selector.select();
+            } catch (IOException | ClosedSelectorException e) {
+                Log.writeLog(this, "selector failed - fatal, give up: " + e.getLocalizedMessage());
+                break;
+            }
+
+            Iterator<SelectionKey> keyIter = this.selector.selectedKeys().iterator();
+            while(keyIter.hasNext()) {
+                SelectionKey key = keyIter.next();
+                keyIter.remove();
+                try {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        this.accept();
+                        continue;
+                    }
+
+                    NIOConnection connection = (NIOConnection) key.attachment();
+                    if (key.isWritable()) {
+                        connection.flushPendingOutput();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        if (!connection.readFromChannel(this.readBuffer)) {
+                            // end of stream - stop selecting that channel
+                            key.cancel();
+                        }
+                        connection.dataArrived();
+                    }
+                } catch (CancelledKeyException e) {
+                    // connection closed in the meantime
+                }
+            }
+        }
+
+        this.close();
+        Log.writeLog(this, "selector engine stopped");
+    }
+
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = this.serverChannel.accept();
+            if(channel == null) return;
+            channel.configureBlocking(false);
+            // small PDUs go back and forth - do not wait for acknowledgements
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            Log.writeLog(this, "exception when going to accept TCP connections: " + e.getLocalizedMessage());
+            return;
+        }
+
+        Log.writeLog(this, "new TCP connection - launch hub connector session");
+        NIOConnection connection = new NIOConnection(channel, this);
+        try {
+            connection.setSelectionKey(channel.register(this.selector, SelectionKey.OP_READ, connection));
+
+            ConnectorImpl hubConnectorSession;
+            if(this.createNewConnection) {
+                hubConnectorSession = new MultipleTCPChannelsConnectorHubSideImpl(
+                        connection.getInputStream(), connection.getOutputStream(), this.hub);
+            } else {
+                hubConnectorSession = new SharedChannelConnectorHubSide(
+                        connection.getInputStream(), connection.getOutputStream(), this.hub);
+            }
+            hubConnectorSession.setConnectorThreadFactory(this);
+            this.createConnectorThread(hubConnectorSession, connection.getInputStream()).start();
+        } catch (IOException | ASAPException e) {
+            Log.writeLog(this, "hub connector session ended: " + e.getLocalizedMessage());
+            connection.close();
+        }
+    }
+
+    void kill() {
+        this.killed = true;
+        this.selector.wakeup();
+    }
+
+    private void close() {
+        for(SelectionKey key : this.selector.keys()) {
+            Object attachment = key.attachment();
+            if(attachment instanceof NIOConnection) ((NIOConnection) attachment).close();
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        this.workers.shutdown();
+    }
+}
@@ -0,0 +1,74 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.protocol.ConnectorThread;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUSilentRPLY;
+import net.sharksystem.hub.protocol.HubPDUSilentRQ;
+import net.sharksystem.utils.Log;
+
+/**
+ * Connector session on a non-blocking connection. It looks like a connector thread to connectors but does not
+ * run a thread of its own. PDUs are decoded by the selector engine and handed over to this session.
+ */
+class NIOConnectorSession extends ConnectorThread {
+    private final NIOConnection connection;
+    private final NIOConnectorEngine engine;
+
+    NIOConnectorSession(Connector connector, NIOConnection connection, NIOConnectorEngine engine) {
+        super(connector, connection.getInputStream());
+        this.connection = connection;
+        this.engine = engine;
+    }
+
+    @Override
+    public synchronized void start() {
+        // no thread - connector is told on a worker thread as it would be by a new connector thread
+        this.engine.execute(new Runnable() {
+            @Override
+            public void run() {
+                NIOConnectorSession.this.getConnector().connectorSessionStarted(NIOConnectorSession.this);
+                Log.writeLog(this, NIOConnectorSession.this.toString(), "connector session started on "
+                        + NIOConnectorSession.this.connection);
+                NIOConnectorSession.this.connection.sessionStarted(NIOConnectorSession.this);
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        // nothing - never runs as thread
+    }
+
+    @Override
+    public void kill() {
+        super.kill();
+        this.connection.sessionKilled(this);
+    }
+
+    /**
+     * A silenced channel makes the hub start a data session - it waits for the other peer's channel to become silent.
+     * Such handlers must not occupy a worker thread: other connectors need workers to get there.
+     * @param hubPDU
+     * @return true if handler of that PDU might wait for other connectors
+     */
+    boolean mayBlock(HubPDU hubPDU) {
+        return hubPDU instanceof HubPDUSilentRQ || hubPDU instanceof HubPDUSilentRPLY;
+    }
+
+    void handlePDU(HubPDU hubPDU) {
+        try {
+            this.dispatchPDU(hubPDU);
+        } catch (ClassCastException e) {
+            Log.writeLog(this, this.toString(), "wrong pdu class - crazy: " + e.getLocalizedMessage());
+        } catch (RuntimeException e) {
+            Log.writeLogErr(this, this.toString(), "pdu handler failed: " + e.getLocalizedMessage());
+        }
+    }
+
+    void sessionEnded(boolean noRecovery) {
+        if(noRecovery) Log.writeLog(this, this.toString(), "connection lost - no recovery expected");
+        Log.writeLog(this, this.toString(), "hub session ended");
+        this.getConnector().connectorSessionEnded(noRecovery);
+    }
+}
@@ -1,15 +1,19 @@
 package net.sharksystem.hub.hubside;
 
-import net.sharksystem.utils.AlarmClock;
+import net.sharksystem.hub.HubAlarmClock;
+import net.sharksystem.hub.HubThreads;
 import net.sharksystem.utils.AlarmClockListener;
 import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
 import net.sharksystem.utils.streams.StreamPairImpl;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
-class NewConnectionCreator extends Thread implements AlarmClockListener {
+class NewConnectionCreator implements Runnable, AlarmClockListener {
     private final ServerSocket srv;
     private final NewConnectionCreatorListener listener;
     private final int timeOutConnectionRequest;
@@ -28,13 +32,29 @@ class NewConnectionCreator extends Thread implements AlarmClockListener {
         this.timeOutDataConnection = timeOutDataConnection;
     }
 
+    void start() {
+        HubThreads.start(this, "new connection creator");
+    }
+
     public void run() {
         try {
             // set alarm
             Log.writeLog(this, "start server socket / timeout (ms): " + this.timeOutConnectionRequest);
-            AlarmClock alarmClock = new AlarmClock(this.timeOutConnectionRequest, this);
+            HubAlarmClock alarmClock = new HubAlarmClock(this.timeOutConnectionRequest, this);
             alarmClock.start();
-            Socket newSocket = this.srv.accept();
+            StreamPair streamPair;
+            ServerSocketChannel srvChannel = this.srv.getChannel();
+            if(srvChannel != null) {
+                // hub can relay this connection without copying through streams
+                SocketChannel newChannel = srvChannel.accept();
+                streamPair = new SocketChannelStreamPair(newChannel,
+                        this.sourcePeerID + ":" + newChannel.socket().getLocalPort());
+            } else {
+                Socket newSocket = this.srv.accept();
+                streamPair = StreamPairImpl.getStreamPairWithSessionID(
+                        newSocket.getInputStream(), newSocket.getOutputStream(),
+                        this.sourcePeerID + ":" + newSocket.getLocalPort());
+            }
             alarmClock.kill();
             this.srv.close();
             Log.writeLog(this, "new connection initiated from peer side ("
@@ -42,9 +62,7 @@ class NewConnectionCreator extends Thread implements AlarmClockListener {
             Log.writeLog(this, "call listener: " + listener.getClass().getSimpleName());
 
             this.listener.newConnectionCreated(this.sourcePeerID, this.targetPeerID,
-                    StreamPairImpl.getStreamPairWithSessionID(newSocket.getInputStream(), newSocket.getOutputStream(),
-                            this.sourcePeerID + ":" + newSocket.getLocalPort()),
-                    this.timeOutDataConnection);
+                    streamPair, this.timeOutDataConnection);
 
         } catch (IOException e) {
             // maybe time out killed server socket.
@@ -0,0 +1,403 @@
+package net.sharksystem.hub.hubside;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registered peers of a hub. Connector threads register, unregister and look up peers concurrently.
+ * <br/><br/>
+ * Peers are spread over a number of stripes, each with its own lock - threads working on different peers hardly
+ * ever wait for each other. Peer ids are normalised to strings. {@link net.sharksystem.asap.utils.PeerIDHelper#sameID}
+ * compares ids char by char - two ids are the same if and only if their string forms are equal. Lookups are O(1)
+ * whatever {@link CharSequence} implementation a caller uses.
+ * <br/><br/>
+ * Readers that need all peers get an immutable {@link Snapshot}. Each change increments a version number; a
+ * snapshot is only rebuilt if the version changed since the last one was taken. The most recent changes are
+ * logged - a reader that knows an older version can ask for what changed since ({@link #getChangesSince(long)}).
+ * The change log has a lock of its own. It is taken while holding a stripe lock, never the other way round -
+ * asking for changes does not stop registrations.
+ *
+ * @param <C> connector type
+ */
+public class PeerRegistry<C> {
+    public static final int DEFAULT_NUMBER_OF_STRIPES = 16;
+    /** number of changes kept - readers further behind get all peers */
+    public static final int DEFAULT_CHANGE_LOG_SIZE = 1024;
+
+    private final Stripe<C>[] stripes;
+    private final int mask;
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot<C> snapshot;
+    // ring buffer: peer id changed with version v is kept at v % size - with its state after that change
+    private final ReentrantLock changeLogLock = new ReentrantLock();
+    private final String[] changedPeers;
+    private final boolean[] changedRegistered;
+
+    // metrics
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder unregistrations = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final LongAdder contendedLockAcquisitions = new LongAdder();
+    private final LongAdder snapshotsBuilt = new LongAdder();
+
+    public PeerRegistry() {
+        this(DEFAULT_NUMBER_OF_STRIPES, DEFAULT_CHANGE_LOG_SIZE);
+    }
+
+    /**
+     * @param numberOfStripes rounded up to a power of two
+     * @param changeLogSize number of changes kept
+     */
+    public PeerRegistry(int numberOfStripes, int changeLogSize) {
+        if(changeLogSize < 1) throw new IllegalArgumentException("change log size must be positive: " + changeLogSize);
+        this.changedPeers = new String[changeLogSize];
+        this.changedRegistered = new boolean[changeLogSize];
+        int size = 1;
+        while(size < numberOfStripes) size <<= 1;
+        @SuppressWarnings("unchecked") // holds nothing but Stripe<C>
+        Stripe<C>[] stripes = (Stripe<C>[]) new Stripe<?>[size];
+        for(int i = 0; i < size; i++) stripes[i] = new Stripe<>();
+        this.stripes = stripes;
+        this.mask = size - 1;
+        this.snapshot = new Snapshot<>(0, Collections.emptyMap());
+    }
+
+    private static String normalise(CharSequence peerID) {
+        return peerID.toString();
+    }
+
+    private Stripe<C> stripe(String peerID) {
+        int hash = peerID.hashCode();
+        return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+    }
+
+    private void lock(Stripe<C> stripe) {
+        this.lockAcquisitions.increment();
+        if(stripe.lock.tryLock()) return;
+        this.contendedLockAcquisitions.increment();
+        stripe.lock.lock();
+    }
+
+    // must be called holding the lock of the stripe of that peer
+    private void changed(String peerID, boolean registered) {
+        this.changeLogLock.lock();
+        try {
+            // version is incremented with log lock - readers of the log see each version with its entry
+            long newVersion = this.version.incrementAndGet();
+            int index = (int) (newVersion % this.changedPeers.length);
+            this.changedPeers[index] = peerID;
+            this.changedRegistered[index] = registered;
+        }
+        finally {
+            this.changeLogLock.unlock();
+        }
+    }
+
+    /**
+     * Register a peer - a connector registered before with this peer id is replaced.
+     * @param peerID
+     * @param connector
+     * @return replaced connector - null if peer was not registered
+     */
+    public C register(CharSequence peerID, C connector) {
+        if(peerID == null) throw new IllegalArgumentException("peer id must not be null");
+        String id = normalise(peerID);
+        Stripe<C> stripe = this.stripe(id);
+        this.lock(stripe);
+        try {
+            C previous = stripe.connectors.put(id, connector);
+            this.changed(id, true);
+            this.registrations.increment();
+            return previous;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @param peerID
+     * @return removed connector - null if peer was not registered
+     */
+    public C unregister(CharSequence peerID) {
+        if(peerID == null) return null;
+        String id = normalise(peerID);
+        Stripe<C> stripe = this.stripe(id);
+        this.lock(stripe);
+        try {
+            C removed = stripe.connectors.remove(id);
+            if(removed != null) {
+                this.changed(id, false);
+                this.unregistrations.increment();
+            }
+            return removed;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Remove peer only if it is still registered with this connector - a connector that reconnected in the meantime
+     * is kept.
+     * @return true if removed
+     */
+    public boolean unregister(CharSequence peerID, C connector) {
+        if(peerID == null) return false;
+        String id = normalise(peerID);
+        Stripe<C> stripe = this.stripe(id);
+        this.lock(stripe);
+        try {
+            if(stripe.connectors.get(id) != connector) return false;
+            stripe.connectors.remove(id);
+            this.changed(id, false);
+            this.unregistrations.increment();
+            return true;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Hand a registered peer over to another connector - e.g. after peer reconnected. Set of peers does not change.
+     * A new version is created nevertheless - snapshots contain the new connector.
+     * @param peerID
+     * @param expected connector peer must be registered with
+     * @param connector new connector
+     * @return false if peer is not registered with expected connector - nothing changed
+     */
+    public boolean replace(CharSequence peerID, C expected, C connector) {
+        if(peerID == null) return false;
+        String id = normalise(peerID);
+        Stripe<C> stripe = this.stripe(id);
+        this.lock(stripe);
+        try {
+            if(stripe.connectors.get(id) != expected) return false;
+            stripe.connectors.put(id, connector);
+            this.changed(id, true);
+            return true;
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @param peerID
+     * @return connector of that peer - null if not registered or peer id is null
+     */
+    public C get(CharSequence peerID) {
+        if(peerID == null) return null;
+        String id = normalise(peerID);
+        Stripe<C> stripe = this.stripe(id);
+        this.lookups.increment();
+        this.lock(stripe);
+        try {
+            return stripe.connectors.get(id);
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    public boolean isRegistered(CharSequence peerID) {
+        return this.get(peerID) != null;
+    }
+
+    /**
+     * @return current version - incremented with each change
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * @return immutable view of all registered peers - never changes once taken
+     */
+    public Snapshot<C> getSnapshot() {
+        Snapshot<C> current = this.snapshot;
+        if(current.version == this.version.get()) return current;
+
+        // take all locks (always in same order) - a consistent state across stripes
+        for(Stripe<C> stripe : this.stripes) this.lock(stripe);
+        try {
+            current = this.snapshot;
+            long currentVersion = this.version.get();
+            if(current.version != currentVersion) {
+                Map<CharSequence, C> connectors = new LinkedHashMap<>();
+                for(Stripe<C> stripe : this.stripes) connectors.putAll(stripe.connectors);
+                current = new Snapshot<>(currentVersion, connectors);
+                this.snapshot = current;
+                this.snapshotsBuilt.increment();
+            }
+            return current;
+        }
+        finally {
+            for(int i = this.stripes.length - 1; i >= 0; i--) this.stripes[i].lock.unlock();
+        }
+    }
+
+    /**
+     * Peers that changed since a version. Peers registered since are added, peers unregistered since are removed.
+     * A peer can be listed as removed although the reader has never seen it - removing it is harmless.
+     * @param knownVersion version the reader has seen last - negative if none
+     * @return changes - all registered peers if reader is unknown or too far behind (see {@link Delta#isFull()})
+     */
+    public Delta getChangesSince(long knownVersion) {
+        this.changeLogLock.lock();
+        try {
+            long currentVersion = this.version.get();
+            if(knownVersion >= 0 && knownVersion <= currentVersion
+                    && currentVersion - knownVersion <= this.changedPeers.length) {
+                Set<CharSequence> added = new HashSet<>();
+                Set<CharSequence> removed = new HashSet<>();
+                for(long v = knownVersion + 1; v <= currentVersion; v++) {
+                    int index = (int) (v % this.changedPeers.length);
+                    String peerID = this.changedPeers[index];
+                    // final state counts
+                    if(this.changedRegistered[index]) {
+                        added.add(peerID);
+                        removed.remove(peerID);
+                    } else {
+                        removed.add(peerID);
+                        added.remove(peerID);
+                    }
+                }
+                return new Delta(currentVersion, false, added, removed);
+            }
+        }
+        finally {
+            this.changeLogLock.unlock();
+        }
+
+        // unknown or too far behind - not with log lock: snapshot takes stripe locks
+        Snapshot<C> snapshot = this.getSnapshot();
+        return Delta.full(snapshot.getVersion(), new HashSet<>(snapshot.getPeerIDs()));
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                              metrics                                                //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public long getRegistrations() {
+        return this.registrations.sum();
+    }
+
+    public long getUnregistrations() {
+        return this.unregistrations.sum();
+    }
+
+    public long getLookups() {
+        return this.lookups.sum();
+    }
+
+    public long getLockAcquisitions() {
+        return this.lockAcquisitions.sum();
+    }
+
+    /**
+     * @return lock acquisitions that had to wait for another thread
+     */
+    public long getContendedLockAcquisitions() {
+        return this.contendedLockAcquisitions.sum();
+    }
+
+    public long getSnapshotsBuilt() {
+        return this.snapshotsBuilt.sum();
+    }
+
+    public String toString() {
+        return "peer registry (version: " + this.version.get() + ", stripes: " + this.stripes.length
+                + ", registrations: " + this.getRegistrations() + ", unregistrations: " + this.getUnregistrations()
+                + ", lookups: " + this.getLookups() + ", contended locks: " + this.getContendedLockAcquisitions()
+                + "/" + this.getLockAcquisitions() + ", snapshots: " + this.getSnapshotsBuilt() + ")";
+    }
+
+    /**
+     * Registered peers at a version of the registry.
+     */
+    public static class Snapshot<C> {
+        private final long version;
+        private final Map<CharSequence, C> connectors;
+
+        private Snapshot(long version, Map<CharSequence, C> connectors) {
+            this.version = version;
+            this.connectors = Collections.unmodifiableMap(connectors);
+        }
+
+        public long getVersion() {
+            return this.version;
+        }
+
+        public Set<CharSequence> getPeerIDs() {
+            return this.connectors.keySet();
+        }
+
+        public Collection<C> getConnectors() {
+            return this.connectors.values();
+        }
+
+        public int size() {
+            return this.connectors.size();
+        }
+    }
+
+    /**
+     * Changes of registered peers between two versions - or all peers at a version.
+     */
+    public static class Delta {
+        private final long version;
+        private final boolean full;
+        private final Set<CharSequence> added;
+        private final Set<CharSequence> removed;
+
+        public Delta(long version, boolean full, Set<CharSequence> added, Set<CharSequence> removed) {
+            this.version = version;
+            this.full = full;
+            this.added = added;
+            this.removed = removed;
+        }
+
+        /**
+         * @param version version of peers list - negative if unknown
+         * @param peers all registered peers
+         */
+        public static Delta full(long version, Set<CharSequence> peers) {
+            return new Delta(version, true, peers, new HashSet<>());
+        }
+
+        public long getVersion() {
+            return this.version;
+        }
+
+        /**
+         * @return true: added contains all registered peers
+         */
+        public boolean isFull() {
+            return this.full;
+        }
+
+        public Set<CharSequence> getAdded() {
+            return this.added;
+        }
+
+        public Set<CharSequence> getRemoved() {
+            return this.removed;
+        }
+    }
+
+    private static class Stripe<C> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, C> connectors = new HashMap<>();
+    }
+}
@@ -0,0 +1,245 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.HubTimerWheel;
+import net.sharksystem.utils.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Pending requests between two peers. Requests are indexed by the unordered pair of peer ids - A to B and B to A
+ * share a key. Within a key, requests are kept in arrival order. A priority queue orders all requests by deadline.
+ * <br/><br/>
+ * Checking for a request between two peers is O(1), taking the next due request is O(log n). Expired requests are
+ * dropped when they come up and by a sweep on the {@link HubTimerWheel} - memory stays bounded even if nobody asks
+ * for requests anymore.
+ * <br/><br/>
+ * Requests removed by key stay in the priority queue until they come up or the queue is compacted.
+ *
+ * @param <R> request type
+ */
+class PendingRequests<R> {
+    static final long SWEEP_INTERVAL_IN_MILLIS = 1000;
+
+    private final String name;
+    private final Consumer<R> expiredListener;
+    private final Map<String, ArrayDeque<Entry<R>>> byPeers = new HashMap<>();
+    private final PriorityQueue<Entry<R>> byDeadline = new PriorityQueue<>(
+            (a, b) -> a.until != b.until ? Long.compare(a.until, b.until) : Long.compare(a.number, b.number));
+    private int size = 0;
+    private long entryNumber = 0;
+    private HubTimerWheel.Timeout sweep = null;
+
+    /**
+     * @param name used in log messages
+     * @param expiredListener called with each request that expired - can be null
+     */
+    PendingRequests(String name, Consumer<R> expiredListener) {
+        this.name = name;
+        this.expiredListener = expiredListener;
+    }
+
+    private static String key(CharSequence peerA, CharSequence peerB) {
+        String a = peerA.toString();
+        String b = peerB.toString();
+        return a.compareTo(b) <= 0 ? a + "\u0000" + b : b + "\u0000" + a;
+    }
+
+    /**
+     * Add a request.
+     * @param peerA
+     * @param peerB
+     * @param until request expires at that time
+     * @param request
+     */
+    synchronized void add(CharSequence peerA, CharSequence peerB, long until, R request) {
+        String key = key(peerA, peerB);
+        Entry<R> entry = new Entry<>(key, until, this.entryNumber++, request);
+        ArrayDeque<Entry<R>> entries = this.byPeers.get(key);
+        if(entries == null) {
+            entries = new ArrayDeque<>();
+            this.byPeers.put(key, entries);
+        }
+        entries.addLast(entry);
+        this.byDeadline.add(entry);
+        this.size++;
+        this.scheduleSweep();
+    }
+
+    /**
+     * Add a request if there is no other one between these peers - in either direction.
+     * @return other request between these peers - null if request was added
+     */
+    synchronized R addIfAbsent(CharSequence peerA, CharSequence peerB, long until, R request) {
+        R existing = this.get(peerA, peerB);
+        if(existing != null) return existing;
+        this.add(peerA, peerB, until, request);
+        return null;
+    }
+
+    /**
+     * @return oldest request between these peers (either direction) - null if there is none
+     */
+    synchronized R get(CharSequence peerA, CharSequence peerB) {
+        ArrayDeque<Entry<R>> entries = this.byPeers.get(key(peerA, peerB));
+        return entries == null ? null : entries.peekFirst().request;
+    }
+
+    /**
+     * Remove oldest request between these peers that matches.
+     * @param matcher decides - null matches any
+     * @return removed request - null if there is none
+     */
+    synchronized R remove(CharSequence peerA, CharSequence peerB, Predicate<R> matcher) {
+        String key = key(peerA, peerB);
+        ArrayDeque<Entry<R>> entries = this.byPeers.get(key);
+        if(entries == null) return null;
+        Iterator<Entry<R>> iterator = entries.iterator();
+        while(iterator.hasNext()) {
+            Entry<R> entry = iterator.next();
+            if(matcher == null || matcher.test(entry.request)) {
+                iterator.remove();
+                if(entries.isEmpty()) this.byPeers.remove(key);
+                entry.removed = true;
+                this.size--;
+                this.compactIfWasteful();
+                return entry.request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take request with the earliest deadline out. Expired ones are dropped on the way.
+     * @return next request - null if there is none
+     */
+    R pollNextDue() {
+        List<R> expired = new ArrayList<>();
+        R next = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Entry<R> entry;
+            while(next == null && (entry = this.byDeadline.poll()) != null) {
+                if(entry.removed) continue;
+                this.unindex(entry);
+                if(entry.until < now) expired.add(entry.request);
+                else next = entry.request;
+            }
+        }
+        this.notifyExpired(expired);
+        return next;
+    }
+
+    /**
+     * Take all requests out - e.g. to hand them over to another list.
+     * @return requests ordered by deadline
+     */
+    synchronized List<R> drain() {
+        List<R> requests = this.toList();
+        this.byPeers.clear();
+        this.byDeadline.clear();
+        this.size = 0;
+        return requests;
+    }
+
+    /**
+     * Drop expired requests.
+     * @return number of dropped requests
+     */
+    int evictExpired() {
+        List<R> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Entry<R> entry;
+            while((entry = this.byDeadline.peek()) != null && (entry.removed || entry.until < now)) {
+                this.byDeadline.poll();
+                if(entry.removed) continue;
+                this.unindex(entry);
+                expired.add(entry.request);
+            }
+        }
+        this.notifyExpired(expired);
+        return expired.size();
+    }
+
+    synchronized int size() {
+        return this.size;
+    }
+
+    synchronized boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return all requests ordered by deadline - e.g. for logging
+     */
+    synchronized List<R> toList() {
+        List<Entry<R>> entries = new ArrayList<>();
+        for(Entry<R> entry : this.byDeadline) if(!entry.removed) entries.add(entry);
+        entries.sort(this.byDeadline.comparator());
+        List<R> requests = new ArrayList<>();
+        for(Entry<R> entry : entries) requests.add(entry.request);
+        return requests;
+    }
+
+    // must be called holding the lock - entry already taken from priority queue
+    private void unindex(Entry<R> entry) {
+        ArrayDeque<Entry<R>> entries = this.byPeers.get(entry.key);
+        if(entries != null) {
+            entries.remove(entry);
+            if(entries.isEmpty()) this.byPeers.remove(entry.key);
+        }
+        entry.removed = true;
+        this.size--;
+    }
+
+    // must be called holding the lock
+    private void compactIfWasteful() {
+        if(this.byDeadline.size() <= 2 * this.size + 16) return;
+        this.byDeadline.removeIf(entry -> entry.removed);
+    }
+
+    private void notifyExpired(List<R> expired) {
+        for(R request : expired) {
+            Log.writeLog(this, this.name, "discard request - timed out: " + request);
+            if(this.expiredListener != null) this.expiredListener.accept(request);
+        }
+    }
+
+    // must be called holding the lock
+    private void scheduleSweep() {
+        if(this.sweep != null) return;
+        this.sweep = HubTimerWheel.getDefault().schedule(SWEEP_INTERVAL_IN_MILLIS, new Runnable() {
+            @Override
+            public void run() {
+                PendingRequests.this.evictExpired();
+                synchronized (PendingRequests.this) {
+                    PendingRequests.this.sweep = null;
+                    if(PendingRequests.this.size > 0) PendingRequests.this.scheduleSweep();
+                }
+            }
+        });
+    }
+
+    private static class Entry<R> {
+        private final String key;
+        private final long until;
+        private final long number;
+        private final R request;
+        private boolean removed = false;
+
+        Entry(String key, long until, long number, R request) {
+            this.key = key;
+            this.until = until;
+            this.number = number;
+            this.request = request;
+        }
+    }
+}
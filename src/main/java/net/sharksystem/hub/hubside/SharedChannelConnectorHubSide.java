@@ -8,16 +8,17 @@ import net.sharksystem.hub.protocol.*;
 import net.sharksystem.utils.AlarmClockListener;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.streams.StreamPair;
-import net.sharksystem.utils.streams.StreamPairLink;
 import net.sharksystem.utils.streams.WrappedStreamPairListener;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.security.SecureRandom;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
         implements ConnectorInternal, AlarmClockListener, WrappedStreamPairListener {
@@ -102,51 +103,34 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
                     sourcePeerID, targetPeerID,System.currentTimeMillis() + timeout,
                     this.canEstablishTCPConnections());
 
-            // check for duplicates
-            ConnectionRequest duplicate = this.connectionRequestExists(newConnectionRequest);
+            // check for duplicates - in either direction
+            ConnectionRequest duplicate = this.pendingConnectionRequests.addIfAbsent(
+                    sourcePeerID, targetPeerID, newConnectionRequest.until, newConnectionRequest);
             if(duplicate != null) {
                 StringBuilder sb = new StringBuilder();
                 sb.append("ignore new connection request: ");
                 sb.append("new: " + newConnectionRequest);
                 sb.append("pending: " + duplicate);
             } else {
-                this.pendingConnectionRequests.add(newConnectionRequest);
-                this.processPendingConnectionRequestList();
+                // caller is another connector - it must not wait for us
+                this.processPendingConnectionRequestListLater();
             }
         }
     }
 
-    private ConnectionRequest connectionRequestExists(ConnectionRequest newConnectionRequest) {
-        ConnectionRequest duplicate = null;
-        for(ConnectionRequest pendingRequest : this.pendingConnectionRequests) {
-            if(this.sameConnectionRequest(pendingRequest, newConnectionRequest)) {
-                duplicate = pendingRequest; break;
-            }
-        }
-        return duplicate;
-    }
-
-    private boolean sameConnectionRequest(ConnectionRequest requestA, ConnectionRequest requestB) {
-        return (
-                (
-                    PeerIDHelper.sameID(requestA.sourcePeerID, requestB.sourcePeerID)
-                    &&
-                    PeerIDHelper.sameID(requestA.targetPeerID, requestB.targetPeerID)
-                )
-                ||
-                (
-                    PeerIDHelper.sameID(requestA.sourcePeerID, requestB.targetPeerID)
-                    &&
-                    PeerIDHelper.sameID(requestA.targetPeerID, requestB.sourcePeerID)
-                )
-        );
-    }
-
     void connectionRequest(CharSequence targetPeerID) throws ASAPHubException, IOException {
         this.hub.connectionRequest(this.getPeerID(), targetPeerID, this.getTimeOutConnectionRequest());
     }
 
-    private List<ConnectionRequest> pendingConnectionRequests = new ArrayList<>();
+    private PendingRequests<ConnectionRequest> pendingConnectionRequests =
+            new PendingRequests<>("pending connection requests", null);
+
+    /**
+     * @return connection requests waiting to be served by this connector
+     */
+    List<ConnectionRequest> getPendingConnectionRequests() {
+        return this.pendingConnectionRequests.toList();
+    }
 
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //                                       reaction on status changes                                        //
@@ -163,7 +147,7 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
 
     @Override
     protected void silenceEnded() {
-
+        this.pushPeerPresence();
     }
 
     @Override
@@ -192,13 +176,38 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
 
     }
 
+    private volatile boolean channelLost = false;
+
     protected void connectionLost() {
-        this.getHub().unregister(this.getPeerID());
+        this.channelLost = true;
+        this.stopHeartbeat();
+        // peer could come back with its resumption token
+        this.getHub().suspendRegistration(this.getPeerID(), this);
     }
 
     @Override
     protected void shutdown() {
-        this.hub.unregister(this.getPeerID());
+        this.channelLost = true;
+        this.stopHeartbeat();
+        this.hub.suspendRegistration(this.getPeerID(), this);
+    }
+
+    /**
+     * Pending requests are processed by handler executor of this connector.
+     */
+    private void processPendingConnectionRequestListLater() {
+        this.getHandlerExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                SharedChannelConnectorHubSide connector = SharedChannelConnectorHubSide.this;
+                try {
+                    connector.processPendingConnectionRequestList();
+                } catch (ASAPHubException | IOException e) {
+                    Log.writeLog(connector, connector.toString(), "cannot process pending connection requests: "
+                            + e.getLocalizedMessage());
+                }
+            }
+        });
     }
 
     synchronized private boolean processPendingConnectionRequestList() throws ASAPHubException, IOException {
@@ -209,7 +218,7 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
         if(this.pendingConnectionRequests.size() > 0) {
             boolean first = true;
             StringBuilder sb = new StringBuilder();
-            for(ConnectionRequest request : this.pendingConnectionRequests) {
+            for(ConnectionRequest request : this.pendingConnectionRequests.toList()) {
                 if(first) first = false;
                 else sb.append("\n");
                 sb.append(request.toString());
@@ -222,16 +231,14 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
             return false; // empty  nothing to do
         }
 
-        // remove outdated requests
-        ConnectionRequest nextRequestToProcess = null;
-        while(nextRequestToProcess == null && !this.pendingConnectionRequests.isEmpty()) {
-            nextRequestToProcess = this.pendingConnectionRequests.remove(0);
-            if(nextRequestToProcess.until < System.currentTimeMillis()) {
-                Log.writeLog(this, this.toString(), "discard connection request - timed out");
-                nextRequestToProcess = null;
-            }
+        if(this.channelLost) {
+            Log.writeLog(this, this.toString(), "channel lost - keep requests for a resuming peer");
+            return false;
         }
 
+        // next due request - outdated requests are discarded on the way
+        ConnectionRequest nextRequestToProcess = this.pendingConnectionRequests.pollNextDue();
+
         if(nextRequestToProcess == null) return false; // list empty
 
         if(this.canEstablishTCPConnections() && nextRequestToProcess.newConnection) {
@@ -244,6 +251,13 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
 
             }
         }
+        if(this.isMultiplexed()) {
+            this.startMultiplexedDataSession(nextRequestToProcess);
+            // no need to wait for this session - serve next request
+            this.processPendingConnectionRequestList();
+            return true;
+        }
+
         Log.writeLog(this, this.toString(), "setup data connection on shared channel");
         if (this.statusInSilence()) {
             Log.writeLog(this, this.toString(), "in silence mode - ok");
@@ -269,11 +283,15 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
         } else {
             Log.writeLog(this, this.toString(), "not in silence mode - ask for silence");
             // not in silence - should we asked for silence
-            if (this.statusHubConnectorProtocol()) { // we are in protocol status - change it
+            if (this.statusHubConnectorProtocol() && this.openSessions()) {
+                // no need to silence channel - open data session with a single round trip
+                this.openPendingDataSession(nextRequestToProcess);
+            } else if (this.statusHubConnectorProtocol()) { // we are in protocol status - change it
                 // put request back
                 Log.writeLog(this, this.toString(), "put request back in pending list: "
                         + nextRequestToProcess);
-                this.pendingConnectionRequests.add(nextRequestToProcess);
+                this.pendingConnectionRequests.add(nextRequestToProcess.sourcePeerID,
+                        nextRequestToProcess.targetPeerID, nextRequestToProcess.until, nextRequestToProcess);
                 try {
                     this.askForSilence(this.getTimeOutSilenceChannel());
                 }
@@ -283,14 +301,128 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
                             + ahe.getLocalizedMessage());
                 }
             } else {
+                // silence was asked for or channel is busy - request is processed when silence starts or
+                // data session is over
                 Log.writeLog(this, this.toString(),
-                        "cannot ask for silence .. not in connector mode - discard connection request "
+                        "cannot ask for silence .. not in connector mode - keep connection request "
                                 + nextRequestToProcess);
+                this.pendingConnectionRequests.add(nextRequestToProcess.sourcePeerID,
+                        nextRequestToProcess.targetPeerID, nextRequestToProcess.until, nextRequestToProcess);
+                return false;
             }
         }
         return true;
     }
 
+    /**
+     * Ask peer side to open a data session and tell hub when it is open. Request goes back to pending list if peer
+     * side rejected or channel is gone.
+     * @param connectionRequest
+     */
+    private void openPendingDataSession(ConnectionRequest connectionRequest) throws IOException {
+        Log.writeLog(this, this.toString(), "open data session by request: " + connectionRequest);
+        int timeout = this.getTimeOutDataConnection();
+        CompletableFuture<StreamPair> dataSession;
+        try {
+            dataSession = this.openDataSession(connectionRequest.sourcePeerID, connectionRequest.targetPeerID, timeout);
+        } catch (ASAPHubException e) {
+            Log.writeLog(this, this.toString(), "cannot open data session: " + e.getLocalizedMessage());
+            this.pendingConnectionRequests.add(connectionRequest.sourcePeerID,
+                    connectionRequest.targetPeerID, connectionRequest.until, connectionRequest);
+            return;
+        }
+
+        // reply can be read before we get here - never run on calling thread: it could be the connector thread
+        // of the other peer which is asked for a data session next
+        dataSession.whenCompleteAsync((streamPair, failure) -> {
+            if(failure != null) {
+                Log.writeLog(this, this.toString(), "data session not opened - keep request: "
+                        + failure.getLocalizedMessage());
+                this.pendingConnectionRequests.add(connectionRequest.sourcePeerID,
+                        connectionRequest.targetPeerID, connectionRequest.until, connectionRequest);
+                return;
+            }
+            try {
+                Log.writeLog(this, this.toString(), "tell hub about opened data session: " + connectionRequest);
+                this.hub.startDataSession(this.getPeerID(), connectionRequest.sourcePeerID, streamPair, timeout);
+            } catch (ASAPHubException | IOException e) {
+                Log.writeLog(this, this.toString(), "cannot start data session with hub: "
+                        + e.getLocalizedMessage());
+                streamPair.close();
+            }
+        }, task -> HubThreads.start(task, "opened data session"));
+    }
+
+    /**
+     * Next due request is served as soon as running data session ended - channel stays silenced. Requests that
+     * ask for a new connection are left to {@link #processPendingConnectionRequestList()}.
+     */
+    @Override
+    protected ConnectionRequest nextBatchedRequest() {
+        if(this.channelLost) return null;
+        ConnectionRequest request = this.pendingConnectionRequests.pollNextDue();
+        if(request == null) return null;
+        if(this.canEstablishTCPConnections() && request.newConnection) {
+            this.pendingConnectionRequests.add(request.sourcePeerID, request.targetPeerID, request.until, request);
+            return null;
+        }
+        Log.writeLog(this, this.toString(), "serve request right after running data session: " + request);
+        return request;
+    }
+
+    @Override
+    protected void batchedRequestNotServed(ConnectionRequest request) {
+        Log.writeLog(this, this.toString(), "batched data session not started - keep request: " + request);
+        this.pendingConnectionRequests.add(request.sourcePeerID, request.targetPeerID, request.until, request);
+    }
+
+    @Override
+    protected void batchedDataSessionStarted(HubPDUOpenSession next, StreamPair dataSession) {
+        // other connector might have to silence its channel first - never block the previous session's reader
+        HubThreads.start(new Runnable() {
+            @Override
+            public void run() {
+                SharedChannelConnectorHubSide connector = SharedChannelConnectorHubSide.this;
+                try {
+                    Log.writeLog(connector, connector.toString(), "tell hub about batched data session: " + next);
+                    connector.hub.startDataSession(connector.getPeerID(), next.sourcePeerID, dataSession,
+                            (int) next.maxIdleInMillis);
+                } catch (ASAPHubException | IOException e) {
+                    Log.writeLog(connector, connector.toString(), "cannot start batched data session with hub: "
+                            + e.getLocalizedMessage());
+                    dataSession.close();
+                }
+            }
+        }, "batched data session");
+    }
+
+    /**
+     * Open a stream to our peer and ask hub to connect it with the other peer. Connector of the other peer might
+     * not be multiplexed and must silence its channel. That can take a while - it is done in its own thread.
+     * @param connectionRequest
+     */
+    private void startMultiplexedDataSession(ConnectionRequest connectionRequest) {
+        Log.writeLog(this, this.toString(), "launch multiplexed data session by request: " + connectionRequest);
+        HubThreads.start(new Runnable() {
+            @Override
+            public void run() {
+                SharedChannelConnectorHubSide connector = SharedChannelConnectorHubSide.this;
+                StreamPair streamPair = null;
+                try {
+                    streamPair = connector.initDataSession(connectionRequest.sourcePeerID,
+                            connectionRequest.targetPeerID, connector.getTimeOutDataConnection());
+
+                    connector.hub.startDataSession(connector.getPeerID(), connectionRequest.sourcePeerID,
+                            streamPair, connector.getTimeOutDataConnection());
+                } catch (ASAPHubException | IOException e) {
+                    Log.writeLog(connector, connector.toString(), "cannot launch multiplexed data session: "
+                            + e.getLocalizedMessage());
+                    if(streamPair != null) streamPair.close();
+                }
+            }
+        }, "multiplexed data session");
+    }
+
     protected boolean initDataSessionOnNewConnection(
             ConnectionRequest connectionRequest, int timeOutConnectionRequest, int timeOutDataConnection)
             throws IOException {
@@ -298,15 +430,16 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
     }
 
     protected void actionWhenBackFromDataSession() {
+        this.pushPeerPresence();
         try {
-            if(this.processPendingConnectionRequestList()) return; // there are pending request
-            // relaunch Connector thread
+            // a pending request started next data session - or asked for silence: reply must be read
+            if(this.processPendingConnectionRequestList() && this.statusInDataSession()) return;
         } catch (ASAPHubException | IOException e) {
             e.printStackTrace();
         }
 
         // no pending requests - relaunch connector thread
-        (new ConnectorThread(this, this.getInputStream())).start();
+        this.createConnectorThread().start();
     }
 
     /**
@@ -339,18 +472,11 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
     @Override
     public void disconnect(CharSequence sourcePeerID, CharSequence targetPeerID) throws ASAPHubException {
         Log.writeLog(this, "disconnect called");
-        ConnectionRequest removeRequest = null;
-        for(ConnectionRequest request : this.pendingConnectionRequests) {
-            if( PeerIDHelper.sameID(sourcePeerID, request.sourcePeerID)
-                && PeerIDHelper.sameID(targetPeerID, request.targetPeerID)) {
-
-                Log.writeLog(this, this.toString(), "found connection request");
-                removeRequest = request;
-                break;
-            }
-        }
+        ConnectionRequest removeRequest = this.pendingConnectionRequests.remove(sourcePeerID, targetPeerID,
+                request -> PeerIDHelper.sameID(sourcePeerID, request.sourcePeerID)
+                        && PeerIDHelper.sameID(targetPeerID, request.targetPeerID));
 
-        if(removeRequest != null) this.pendingConnectionRequests.remove(removeRequest);
+        if(removeRequest != null) Log.writeLog(this, this.toString(), "found connection request");
     }
 
     /**
@@ -375,7 +501,7 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
             Log.writeLog(this, this.toString(), "got connection to peer side");
 
             // link stream pair from hub with stream pair to peer
-            new StreamPairLink(stream2Peer, sourcePeerID, stream2Hub, targetPeerID);
+            new HubStreamPairLink(stream2Peer, sourcePeerID, stream2Hub, targetPeerID);
             Log.writeLog(this, this.toString(), "created and started stream pair link");
         }
         catch(ASAPHubException ahe) {
@@ -408,21 +534,261 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
     /////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     private void sendHubStatusRPLY() throws IOException {
-        Set<CharSequence> allPeers = this.hub.getRegisteredPeers();
+        if(HubCapabilities.has(this.getCapabilities(), HubCapabilities.STATUS_DELTA)) {
+            this.sendHubStatusDeltaRPLY(HubPDUHubStatusRQ.NO_VERSION);
+            return;
+        }
+
+        // serialised once per registry version - calling peer is left out when written
+        HubPDU hubInfoPDU = new HubPDUHubStatusRPLY(this.hub.getEncodedRegisteredPeers(), this.peerID);
+        Log.writeLog(this, this.toString(), "send hub status to " + this.peerID);
+        this.writeStatusPDU(hubInfoPDU);
+    }
+
+
+    /**
+     * Send peers (un)registered since a version the peer knows - or all peers if hub cannot tell.
+     * @param knownVersion
+     * @throws IOException
+     */
+    private void sendHubStatusDeltaRPLY(long knownVersion) throws IOException {
+        PeerRegistry.Delta delta = this.hub.getRegisteredPeersSince(knownVersion);
+        Set<CharSequence> added = new HashSet<>(delta.getAdded());
+        Set<CharSequence> removed = new HashSet<>(delta.getRemoved());
         // sort out calling peer
-        //Log.writeLog(this, "assemble registered peer list for " + this.peerID);
-        Set<CharSequence> peersWithoutCaller = new HashSet();
-        for (CharSequence peerName : allPeers) {
-//            Log.writeLog(this, peerName + " checked for peer list for " + this.peerID);
-            if (!peerName.toString().equalsIgnoreCase(this.peerID)) {
-                peersWithoutCaller.add(peerName);
+        added.removeIf(peerName -> peerName.toString().equalsIgnoreCase(this.peerID));
+        removed.removeIf(peerName -> peerName.toString().equalsIgnoreCase(this.peerID));
+
+        HubPDU hubInfoPDU = new HubPDUHubStatusRPLY(delta.getVersion(), delta.isFull(), added, removed);
+        Log.writeLog(this, this.toString(), "send hub status delta to " + this.peerID + ": " + hubInfoPDU);
+        this.writeStatusPDU(hubInfoPDU);
+    }
+
+    /**
+     * Status replies are not written behind an open session request - peer side might already speak data session.
+     * Peer asks again with its next sync. Peers that did not agree on open sessions get any reply - as before.
+     */
+    private void writeStatusPDU(HubPDU pdu) throws IOException {
+        if(!this.writePDUUnlessOpeningSession(pdu)) {
+            Log.writeLog(this, this.toString(), "data session is being opened - drop " + pdu);
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                                heartbeat                                                //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public static final int DEFAULT_HEARTBEAT_INTERVAL_IN_MILLIS = 5000;
+    public static final int DEFAULT_MAX_MISSED_HEARTBEATS = 3;
+    private static int defaultHeartbeatIntervalInMillis = DEFAULT_HEARTBEAT_INTERVAL_IN_MILLIS;
+    private static int defaultMaxMissedHeartbeats = DEFAULT_MAX_MISSED_HEARTBEATS;
+
+    private int heartbeatIntervalInMillis = defaultHeartbeatIntervalInMillis;
+    private int maxMissedHeartbeats = defaultMaxMissedHeartbeats;
+    private final Object heartbeatLock = new Object();
+    private HubTimerWheel.Timeout nextHeartbeat = null;
+    private int heartbeatSequence = 0;
+    private final AtomicInteger unansweredHeartbeats = new AtomicInteger();
+
+    /**
+     * Heartbeat settings of connectors created from now on.
+     * @param intervalInMillis
+     * @param maxMissedHeartbeats
+     */
+    public static void setDefaultHeartbeat(int intervalInMillis, int maxMissedHeartbeats) {
+        defaultHeartbeatIntervalInMillis = intervalInMillis;
+        defaultMaxMissedHeartbeats = maxMissedHeartbeats;
+    }
+
+    /**
+     * Hub pings peer each interval while connector protocol runs. Peer is unregistered and channel closed if that
+     * many pings in a row were not answered. Takes effect with next registration.
+     * @param intervalInMillis
+     * @param maxMissedHeartbeats
+     */
+    public void setHeartbeat(int intervalInMillis, int maxMissedHeartbeats) {
+        this.heartbeatIntervalInMillis = intervalInMillis;
+        this.maxMissedHeartbeats = maxMissedHeartbeats;
+    }
+
+    private void startHeartbeat() {
+        if(!HubCapabilities.has(this.getCapabilities(), HubCapabilities.HEARTBEAT)) return;
+        if(this.heartbeatIntervalInMillis <= 0) return;
+        this.unansweredHeartbeats.set(0);
+        this.scheduleHeartbeat();
+    }
+
+    private void scheduleHeartbeat() {
+        synchronized (this.heartbeatLock) {
+            if(this.channelLost) return;
+            if(this.nextHeartbeat != null) this.nextHeartbeat.cancel();
+            this.nextHeartbeat = HubTimerWheel.getDefault().schedule(this.heartbeatIntervalInMillis,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            SharedChannelConnectorHubSide.this.heartbeat();
+                        }
+                    });
+        }
+    }
+
+    private void stopHeartbeat() {
+        synchronized (this.heartbeatLock) {
+            if(this.nextHeartbeat != null) this.nextHeartbeat.cancel();
+            this.nextHeartbeat = null;
+        }
+    }
+
+    // runs on timer wheel - must not block
+    private void heartbeat() {
+        if(this.channelLost) return;
+        if(this.isHandlingPDU()) {
+            // we would not read a pong anyway - not the peers fault
+            this.scheduleHeartbeat();
+            return;
+        }
+        if(this.unansweredHeartbeats.get() >= this.maxMissedHeartbeats) {
+            Log.writeLogErr(this, this.toString(), this.unansweredHeartbeats.get()
+                    + " heartbeats not answered - unregister peer and close channel");
+            this.hub.unregister(this.getPeerID(), this);
+            this.abandonChannel();
+            return;
+        }
+        // no pings without connector protocol - status must not last longer than it could with a living peer
+        if(this.stuckOutOfProtocol((long) this.heartbeatIntervalInMillis * this.maxMissedHeartbeats)) {
+            Log.writeLogErr(this, this.toString(),
+                    "channel does not come back to connector protocol - unregister peer and close channel");
+            this.hub.unregister(this.getPeerID(), this);
+            this.abandonChannel();
+            return;
+        }
+
+        int sequence;
+        synchronized (this.heartbeatLock) {
+            sequence = this.heartbeatSequence++;
+        }
+        try {
+            // silenced channel or data session - peer cannot answer: ping skipped, counter stays.
+            // deferred: written by another thread within a few ms - a peer that does not read cannot block this one
+            if(this.writePDUInProtocolStatus(new HubPDUHeartbeat(false, sequence, System.nanoTime()), true)) {
+                this.unansweredHeartbeats.incrementAndGet();
             }
+        } catch (IOException e) {
+            Log.writeLog(this, this.toString(), "cannot send heartbeat: " + e.getLocalizedMessage());
+            this.unansweredHeartbeats.incrementAndGet();
         }
-        HubPDU hubInfoPDU = new HubPDUHubStatusRPLY(peersWithoutCaller);
-        Log.writeLog(this, this.toString(), "send hub status to " + this.peerID);
-        hubInfoPDU.sendPDU(this.getOutputStream());
+        this.scheduleHeartbeat();
     }
 
+    @Override
+    protected void heartbeatAnswered(HubPDUHeartbeat pong) {
+        this.unansweredHeartbeats.set(0);
+    }
+
+    /**
+     * Channel is considered dead - e.g. peer resumed its registration with another connector or stopped answering
+     * heartbeats. Closing the streams ends connector thread.
+     */
+    private void abandonChannel() {
+        this.channelLost = true;
+        this.stopHeartbeat();
+        try {
+            this.getInputStream().close();
+        } catch (IOException e) {
+            // ignore
+        }
+        try {
+            this.getOutputStream().close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                              presence push                                              //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public static final long DEFAULT_PRESENCE_PUSH_WINDOW_IN_MILLIS = 100;
+    private long presencePushWindowInMillis = DEFAULT_PRESENCE_PUSH_WINDOW_IN_MILLIS;
+    private final Object presenceLock = new Object();
+    private Set<CharSequence> joinedPeers = new HashSet<>();
+    private Set<CharSequence> leftPeers = new HashSet<>();
+    private HubTimerWheel.Timeout presencePush = null;
+
+    /**
+     * Changes of peer presence are collected that long and pushed in a single PDU.
+     * @param millis
+     */
+    public void setPresencePushWindowInMillis(long millis) {
+        this.presencePushWindowInMillis = millis;
+    }
+
+    @Override
+    public void peerPresenceChanged(CharSequence peerID, boolean joined) {
+        if(!HubCapabilities.has(this.getCapabilities(), HubCapabilities.PRESENCE_PUSH)) return;
+        if(this.peerID == null || PeerIDHelper.sameID(peerID, this.peerID)) return;
+
+        synchronized (this.presenceLock) {
+            if(joined) {
+                this.leftPeers.remove(peerID);
+                this.joinedPeers.add(peerID);
+            } else {
+                this.joinedPeers.remove(peerID);
+                this.leftPeers.add(peerID);
+            }
+            // first change in this window - push when it ends
+            if(this.presencePush == null) {
+                this.presencePush = HubTimerWheel.getDefault().schedule(this.presencePushWindowInMillis,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                SharedChannelConnectorHubSide.this.pushPeerPresence();
+                            }
+                        });
+            }
+        }
+    }
+
+    /**
+     * Push collected presence changes. Nothing is written to a silenced channel or during a data session on it -
+     * changes are kept and pushed when connector protocol is back.
+     */
+    void pushPeerPresence() {
+        HubPDUPeerPresence pdu;
+        Set<CharSequence> pushedJoined;
+        Set<CharSequence> pushedLeft;
+        synchronized (this.presenceLock) {
+            this.presencePush = null;
+            if(this.joinedPeers.isEmpty() && this.leftPeers.isEmpty()) return;
+            pushedJoined = this.joinedPeers;
+            pushedLeft = this.leftPeers;
+            pdu = new HubPDUPeerPresence(pushedJoined, pushedLeft);
+            this.joinedPeers = new HashSet<>();
+            this.leftPeers = new HashSet<>();
+        }
+
+        try {
+            if(this.writePDUInProtocolStatus(pdu)) {
+                Log.writeLog(this, this.toString(), "pushed peer presence: " + pdu);
+                return;
+            }
+        } catch (IOException e) {
+            // channel is gone - peer gets full hub status after reconnect
+            Log.writeLogErr(this, this.toString(), "cannot push peer presence: " + e.getLocalizedMessage());
+            return;
+        }
+
+        // channel not in connector protocol - keep changes, later ones win
+        synchronized (this.presenceLock) {
+            for(CharSequence peerID : pushedJoined) {
+                if(!this.leftPeers.contains(peerID)) this.joinedPeers.add(peerID);
+            }
+            for(CharSequence peerID : pushedLeft) {
+                if(!this.joinedPeers.contains(peerID)) this.leftPeers.add(peerID);
+            }
+        }
+        Log.writeLog(this, this.toString(), "channel not in connector protocol - push presence later");
+    }
 
     /////////////////////////////////////////////////////////////////////////////////////////////////////////////
     //                                       reaction on received PDUs                                         //
@@ -430,6 +796,14 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
 
     private boolean peerSideCanCreateTCPConnections = false;
 
+    private static final SecureRandom RESUMPTION_TOKENS = new SecureRandom();
+    private long resumptionToken = HubPDURegister.NO_RESUMPTION_TOKEN;
+
+    @Override
+    public long getResumptionToken() {
+        return this.resumptionToken;
+    }
+
     @Override
     public void register(HubPDURegister pdu) {
         // received register pdu - tell hub
@@ -438,11 +812,34 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
                         + pdu.canCreateTCPConnections + ")");
         this.peerID = pdu.peerID.toString();
         this.peerSideCanCreateTCPConnections = pdu.canCreateTCPConnections;
+        ConnectorInternal previous = null;
         try {
-            this.sendHubStatusRPLY();
+            if(pdu.withCapabilities()) {
+                // peer side understands a reply - tell what we support
+                int agreed = pdu.capabilities & HubCapabilities.SUPPORTED;
+                this.setCapabilities(agreed);
+                Log.writeLog(this, this.toString(), "agreed capabilities: " + HubCapabilities.toString(agreed));
+                if(HubCapabilities.has(agreed, HubCapabilities.RESUMPTION)) {
+                    if(pdu.isResume()) previous = this.hub.resumeRegistration(pdu.peerID, pdu.resumptionToken, this);
+                    long token;
+                    do { token = RESUMPTION_TOKENS.nextLong(); } while(token == HubPDURegister.NO_RESUMPTION_TOKEN);
+                    this.resumptionToken = token;
+                }
+                this.writePDU(new HubPDURegisterRPLY(agreed, this.resumptionToken, previous != null));
+                if(HubCapabilities.has(agreed, HubCapabilities.MULTIPLEX)) this.multiplexingAgreed();
+            }
+            // a resuming peer knows hub status already
+            if(previous == null) this.sendHubStatusRPLY();
         } catch (IOException e) {
             Log.writeLog(this, this.toString(), "failed to send hub status" + e.getLocalizedMessage());
         }
+
+        this.startHeartbeat();
+        if(previous != null) {
+            Log.writeLog(this, this.toString(), "registration resumed");
+            this.takeOverPendingConnectionRequests(previous);
+            return;
+        }
         this.hub.register(pdu.peerID, this, pdu.canCreateTCPConnections);
 
         /* connector thread reads...
@@ -461,6 +858,25 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
 
     }
 
+    /**
+     * Requests that reached previous connector while our peer was gone are served by this one.
+     * @param previous connector this peer was registered with before it lost its connection
+     */
+    private void takeOverPendingConnectionRequests(ConnectorInternal previous) {
+        if(!(previous instanceof SharedChannelConnectorHubSide)) return;
+        SharedChannelConnectorHubSide previousConnector = (SharedChannelConnectorHubSide) previous;
+        // hub might not have noticed yet that previous channel is gone
+        previousConnector.abandonChannel();
+        for(ConnectionRequest request : previousConnector.pendingConnectionRequests.drain()) {
+            this.pendingConnectionRequests.addIfAbsent(
+                    request.sourcePeerID, request.targetPeerID, request.until, request);
+        }
+        if(this.pendingConnectionRequests.isEmpty()) return;
+        Log.writeLog(this, this.toString(), "took over pending connection requests: "
+                + this.pendingConnectionRequests.size());
+        this.processPendingConnectionRequestListLater();
+    }
+
     @Override
     public void unregister(HubPDUUnregister pdu) {
         Log.writeLog(this, this.toString(), "received unregister from peer side - tell hub");
@@ -488,13 +904,18 @@ public class SharedChannelConnectorHubSide extends SharedChannelConnectorImpl
 
     @Override
     public void hubStatusRQ(HubPDUHubStatusRQ pdu) {
-        Set<CharSequence> peersWithoutThis = new HashSet<>();
-        peersWithoutThis.addAll(this.getHub().getRegisteredPeers());
-        peersWithoutThis.remove(this.getPeerID());
+        if(pdu.isDelta()) {
+            try {
+                this.sendHubStatusDeltaRPLY(pdu.knownVersion);
+            } catch (IOException e) {
+                Log.writeLogErr(this, this.toString(), "cannot send hub status reply: " + e.getLocalizedMessage());
+            }
+            return;
+        }
 
-        HubPDUHubStatusRPLY reply = new HubPDUHubStatusRPLY(peersWithoutThis);
+        HubPDUHubStatusRPLY reply = new HubPDUHubStatusRPLY(this.hub.getEncodedRegisteredPeers(), this.getPeerID());
         try {
-            reply.sendPDU(this.getOutputStream());
+            this.writeStatusPDU(reply);
         } catch (IOException e) {
             Log.writeLogErr(this, this.toString(), "cannot send hub status reply: " + e.getLocalizedMessage());
         }
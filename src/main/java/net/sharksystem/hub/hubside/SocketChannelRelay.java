@@ -0,0 +1,294 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays data sessions between two dedicated TCP connections. A single selector thread serves all sessions.
+ * Bytes are moved from one socket channel to the other through pooled direct buffers - they never pass a heap array.
+ * <br/><br/>
+ * A session ends if both sides closed their output, on any error or if no byte was relayed within max idle time.
+ */
+public class SocketChannelRelay implements Runnable {
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final long IDLE_CHECK_INTERVAL_IN_MILLIS = 1000;
+
+    private final Selector selector;
+    private final Queue<RelaySession> newSessions = new ConcurrentLinkedQueue<>();
+    private final Queue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final Set<RelaySession> sessions = new HashSet<>(); // selector thread only
+    private final AtomicLong relayedBytes = new AtomicLong();
+    private Thread thread = null;
+    private boolean killed = false;
+    private long lastIdleCheck = System.currentTimeMillis();
+
+    public SocketChannelRelay() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Relay all data between both stream pairs. Stream pairs must not be used otherwise afterwards.
+     * @param pairA
+     * @param pairB
+     * @param maxIdleInMillis session is closed if nothing was relayed within that period, no limit if <= 0
+     * @throws IOException
+     */
+    public void relay(SocketChannelStreamPair pairA, SocketChannelStreamPair pairB, long maxIdleInMillis)
+            throws IOException {
+        pairA.getSocketChannel().configureBlocking(false);
+        pairB.getSocketChannel().configureBlocking(false);
+
+        this.newSessions.add(new RelaySession(pairA, pairB, maxIdleInMillis));
+        synchronized (this) {
+            if(this.killed) throw new IOException("relay already killed");
+            if(this.thread == null) this.thread = HubThreads.start(this, "socket channel relay");
+        }
+        this.selector.wakeup();
+    }
+
+    /**
+     * @return number of bytes relayed since this relay was created
+     */
+    public long getRelayedBytes() {
+        return this.relayedBytes.get();
+    }
+
+    /**
+     * @return number of buffers waiting in pool - each running session holds two
+     */
+    int getPooledBuffers() {
+        return this.bufferPool.size();
+    }
+
+    public void kill() {
+        synchronized (this) {
+            this.killed = true;
+        }
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        Log.writeLog(this, "socket channel relay started");
+        try {
+            while(!this.isKilled()) {
+                this.selector.select(IDLE_CHECK_INTERVAL_IN_MILLIS);
+
+                RelaySession newSession;
+                while((newSession = this.newSessions.poll()) != null) {
+                    newSession.register();
+                }
+
+                Iterator<SelectionKey> keyIterator = this.selector.selectedKeys().iterator();
+                while(keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    Endpoint endpoint = (Endpoint) key.attachment();
+                    endpoint.session.pump();
+                }
+
+                this.closeIdleSessions();
+            }
+        } catch (IOException e) {
+            Log.writeLogErr(this, "socket channel relay failed: " + e.getLocalizedMessage());
+        } finally {
+            for(RelaySession session : new HashSet<>(this.sessions)) {
+                session.close();
+            }
+            try {
+                this.selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            Log.writeLog(this, "socket channel relay stopped");
+        }
+    }
+
+    private synchronized boolean isKilled() {
+        return this.killed;
+    }
+
+    private void closeIdleSessions() {
+        long now = System.currentTimeMillis();
+        if(now - this.lastIdleCheck < IDLE_CHECK_INTERVAL_IN_MILLIS) return;
+        this.lastIdleCheck = now;
+
+        for(RelaySession session : new HashSet<>(this.sessions)) {
+            if(session.maxIdleInMillis > 0 && now - session.lastActivity > session.maxIdleInMillis) {
+                Log.writeLog(this, "close idle relay session: " + session);
+                session.close();
+            }
+        }
+    }
+
+    private ByteBuffer getBuffer() {
+        ByteBuffer buffer = this.bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if(this.bufferPool.size() < MAX_POOLED_BUFFERS) this.bufferPool.offer(buffer);
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                         sessions                                                    //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    private static class Endpoint {
+        final SocketChannelStreamPair streamPair;
+        final SocketChannel channel;
+        final RelaySession session;
+        SelectionKey key;
+
+        Endpoint(SocketChannelStreamPair streamPair, RelaySession session) {
+            this.streamPair = streamPair;
+            this.channel = streamPair.getSocketChannel();
+            this.session = session;
+        }
+    }
+
+    /**
+     * Bytes flowing from one endpoint to the other. Buffer is in fill mode between calls.
+     */
+    private static class Direction {
+        final Endpoint from;
+        final Endpoint to;
+        final ByteBuffer buffer;
+        boolean endOfStream = false;
+        boolean outputShutdown = false;
+
+        Direction(Endpoint from, Endpoint to, ByteBuffer buffer) {
+            this.from = from;
+            this.to = to;
+            this.buffer = buffer;
+        }
+
+        boolean wantsRead() {
+            return !this.endOfStream && this.buffer.hasRemaining();
+        }
+
+        boolean wantsWrite() {
+            return this.buffer.position() > 0;
+        }
+
+        boolean finished() {
+            return this.outputShutdown;
+        }
+    }
+
+    private class RelaySession {
+        final Endpoint a;
+        final Endpoint b;
+        final Direction a2b;
+        final Direction b2a;
+        final long maxIdleInMillis;
+        long lastActivity = System.currentTimeMillis();
+        boolean closed = false;
+
+        RelaySession(SocketChannelStreamPair pairA, SocketChannelStreamPair pairB, long maxIdleInMillis) {
+            this.a = new Endpoint(pairA, this);
+            this.b = new Endpoint(pairB, this);
+            this.a2b = new Direction(this.a, this.b, SocketChannelRelay.this.getBuffer());
+            this.b2a = new Direction(this.b, this.a, SocketChannelRelay.this.getBuffer());
+            this.maxIdleInMillis = maxIdleInMillis;
+        }
+
+        void register() {
+            try {
+                this.a.key = this.a.channel.register(SocketChannelRelay.this.selector, SelectionKey.OP_READ, this.a);
+                this.b.key = this.b.channel.register(SocketChannelRelay.this.selector, SelectionKey.OP_READ, this.b);
+                SocketChannelRelay.this.sessions.add(this);
+            } catch (ClosedChannelException e) {
+                Log.writeLog(SocketChannelRelay.this, "channel closed before relay started: " + this);
+                this.close();
+            }
+        }
+
+        void pump() {
+            try {
+                this.pump(this.a2b);
+                this.pump(this.b2a);
+                if(this.a2b.finished() && this.b2a.finished()) {
+                    this.close();
+                    return;
+                }
+                this.updateInterest(this.a);
+                this.updateInterest(this.b);
+            } catch (IOException e) {
+                Log.writeLog(SocketChannelRelay.this, "relay session ended: " + e.getLocalizedMessage());
+                this.close();
+            }
+        }
+
+        private void pump(Direction direction) throws IOException {
+            for(;;) {
+                int read = 0;
+                if(direction.wantsRead()) {
+                    read = direction.from.channel.read(direction.buffer);
+                    if(read < 0) direction.endOfStream = true;
+                }
+
+                int written = 0;
+                if(direction.wantsWrite()) {
+                    direction.buffer.flip();
+                    written = direction.to.channel.write(direction.buffer);
+                    direction.buffer.compact();
+                }
+
+                if(read > 0 || written > 0) {
+                    this.lastActivity = System.currentTimeMillis();
+                    SocketChannelRelay.this.relayedBytes.addAndGet(written);
+                }
+
+                // stop if nothing moved: source empty or target full
+                if(read <= 0 && written == 0) break;
+            }
+
+            if(direction.endOfStream && !direction.wantsWrite() && !direction.outputShutdown) {
+                // all data delivered - tell other side
+                direction.outputShutdown = true;
+                direction.to.channel.shutdownOutput();
+            }
+        }
+
+        private void updateInterest(Endpoint endpoint) {
+            Direction inbound = endpoint == this.a ? this.a2b : this.b2a;
+            Direction outbound = endpoint == this.a ? this.b2a : this.a2b;
+            int ops = 0;
+            if(inbound.wantsRead()) ops |= SelectionKey.OP_READ;
+            if(outbound.wantsWrite()) ops |= SelectionKey.OP_WRITE;
+            if(endpoint.key.isValid()) endpoint.key.interestOps(ops);
+        }
+
+        void close() {
+            if(this.closed) return;
+            this.closed = true;
+            SocketChannelRelay.this.sessions.remove(this);
+            if(this.a.key != null) this.a.key.cancel();
+            if(this.b.key != null) this.b.key.cancel();
+            this.a.streamPair.close();
+            this.b.streamPair.close();
+            SocketChannelRelay.this.releaseBuffer(this.a2b.buffer);
+            SocketChannelRelay.this.releaseBuffer(this.b2a.buffer);
+        }
+
+        public String toString() {
+            return this.a.streamPair + " <--> " + this.b.streamPair;
+        }
+    }
+}
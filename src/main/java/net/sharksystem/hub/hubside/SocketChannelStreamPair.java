@@ -0,0 +1,84 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.utils.streams.StreamPair;
+import net.sharksystem.utils.streams.StreamPairListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stream pair of a dedicated TCP data connection. Hub can relay two of them with a {@link SocketChannelRelay}
+ * instead of copying bytes through streams.
+ */
+public class SocketChannelStreamPair implements StreamPair {
+    private final SocketChannel channel;
+    private final CharSequence sessionID;
+    private CharSequence endpointID = null;
+    private final List<StreamPairListener> listener = new ArrayList<>();
+    private boolean closed = false;
+
+    public SocketChannelStreamPair(SocketChannel channel, CharSequence sessionID) {
+        this.channel = channel;
+        this.sessionID = sessionID;
+    }
+
+    public SocketChannel getSocketChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return this.channel.socket().getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return this.channel.socket().getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        List<StreamPairListener> listenerCopy;
+        synchronized (this) {
+            if(this.closed) return;
+            this.closed = true;
+            listenerCopy = new ArrayList<>(this.listener);
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for(StreamPairListener l : listenerCopy) {
+            l.notifyClosed(this, this.sessionID.toString());
+        }
+    }
+
+    @Override
+    public synchronized void addListener(StreamPairListener listener) {
+        this.listener.add(listener);
+    }
+
+    @Override
+    public CharSequence getSessionID() {
+        return this.sessionID;
+    }
+
+    @Override
+    public CharSequence getEndpointID() {
+        return this.endpointID;
+    }
+
+    @Override
+    public void setEndpointID(CharSequence endpointID) {
+        this.endpointID = endpointID;
+    }
+
+    public String toString() {
+        return this.sessionID.toString();
+    }
+}
@@ -3,7 +3,6 @@ package net.sharksystem.hub.peerside;
 import net.sharksystem.SharkException;
 import net.sharksystem.asap.*;
 import net.sharksystem.hub.*;
-import net.sharksystem.utils.AlarmClock;
 import net.sharksystem.utils.AlarmClockListener;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.streams.StreamPair;
@@ -15,13 +14,18 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
         Runnable, NewConnectionListener, AlarmClockListener,
         HubConnectorStatusListener {
     private static final int FORCE_NEW_ROUND_KEY = 1;
+    /** hubs are never synced more often */
+    public static final int MIN_SYNC_INTERVAL_IN_MILLIS = 1000;
+    /** sync interval adapts between wait interval divided and multiplied by that factor */
+    public static final int SYNC_INTERVAL_ADAPTION_FACTOR = 4;
     private final ASAPEncounterManager asapEncounterManager;
     private final int waitIntervalInSeconds;
     private List<HubConnector> hubConnectors = new ArrayList<>();
     private int timeoutInMillis;
     private Thread managerThread = null;
     private int forceNewRoundWaitingPeriod = 2000; // some seconds - other connections can arrive..
-    private AlarmClock alarmClock;
+    private HubAlarmClock alarmClock;
+    private final HubConnectionEstablisher connectionEstablisher = new HubConnectionEstablisher();
 
     public static ASAPHubManager createASAPHubManager(
             ASAPEncounterManager asapEncounterManager,  int waitIntervalInSeconds) {
@@ -53,7 +57,7 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
             if(this.managerThread == null) {
                 // re-launch
                 this.managerThreadStopped = false;
-                new Thread(this).start();
+                HubThreads.start(this, "hub manager");
             } else {
                 // we have a running manager thread
                 this.forceNewRound();
@@ -88,7 +92,7 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
             this.alarmClock.kill();
         }
         //Log.writeLog(this, this.toString(), "set new alarm");
-        this.alarmClock = new AlarmClock(forceNewRoundWaitingPeriod, FORCE_NEW_ROUND_KEY, this);
+        this.alarmClock = new HubAlarmClock(forceNewRoundWaitingPeriod, FORCE_NEW_ROUND_KEY, this);
         this.alarmClock.start();
     }
 
@@ -128,6 +132,13 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
         return this.runningConnectorDescriptions;
     }
 
+    /**
+     * @return establishes hub connections - tells about pending and failed attempts
+     */
+    public HubConnectionEstablisher getConnectionEstablisher() {
+        return this.connectionEstablisher;
+    }
+
     public HubConnector getHubConnector(HubConnectorDescription hcd) throws SharkException {
         for(HubConnector runningHc : this.hubConnectors) {
             if(runningHc.isSame(hcd)) return runningHc;
@@ -174,28 +185,19 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
             }
 
             if(!isRunning) {
-                // launch it
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
-                                "init new hub connector: " + hcd);
-                        try {
-                            HubConnector hubConnector = HubConnectorFactory.createHubConnector(hcd);
-                            // register on hub
-                            hubConnector.connectHub(asapPeer.getPeerID());
-                            ASAPHubManagerImpl.this.addHub(hubConnector);
-                            Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
-                                    "hub connector initialized: " + hcd);
-                            // remember - it is running now
-//                            ASAPHubManagerImpl.this.runningConnectorDescriptions.add(hcd);
-                            ASAPHubManagerImpl.this.hubConnectorStarted(hcd);
-                        } catch (IOException | ASAPException e) {
-                            Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
-                                    "cannot create hub connector: " + e.getLocalizedMessage());
-                        }
-                    }
-                }).start();
+                // launch it - bounded number of threads, no second attempt while one is pending, backoff
+                this.connectionEstablisher.connect(hcd, timeoutInMillis -> {
+                    Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
+                            "init new hub connector: " + hcd);
+                    HubConnector hubConnector = HubConnectorFactory.createHubConnector(hcd, timeoutInMillis);
+                    // register on hub
+                    hubConnector.connectHub(asapPeer.getPeerID());
+                    ASAPHubManagerImpl.this.addHub(hubConnector);
+                    Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
+                            "hub connector initialized: " + hcd);
+                    // remember - it is running now
+                    ASAPHubManagerImpl.this.hubConnectorStarted(hcd);
+                });
             } else {
                 Log.writeLog(this, this.toString(), "hub connector already running: " + hcd);
             }
@@ -224,21 +226,18 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
 
     private void disconnectASAPHubs(Collection<HubConnector> toBeKilled) {
         for(HubConnector hcd : toBeKilled) {
-                // try to disconnect
-                new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                    try {
-                        Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
-                                "disconnect hub connector: " + hcd);
-                        hcd.disconnectHub();
-                        ASAPHubManagerImpl.this.removeHub(hcd);
-                    } catch(IOException | ASAPException e) {
-                        Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
-                                e.getLocalizedMessage());
-                    }
+            // try to disconnect - not on connection establisher: must not wait behind unreachable hubs
+            HubThreads.start(() -> {
+                try {
+                    Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
+                            "disconnect hub connector: " + hcd);
+                    hcd.disconnectHub();
+                    ASAPHubManagerImpl.this.removeHub(hcd);
+                } catch(IOException | ASAPException e) {
+                    Log.writeLog(ASAPHubManagerImpl.this,ASAPHubManagerImpl.this.toString(),
+                            e.getLocalizedMessage());
                 }
-            }).start();
+            }, "disconnect hub");
         }
     }
 
@@ -253,8 +252,9 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
     }
 
     public void forceSyncWithHubs() {
-        if(this.managerThread != null) {
-            this.managerThread.interrupt();
+        synchronized (this.syncSchedules) {
+            this.forceSync = true;
+            this.syncSchedules.notify();
         }
     }
 
@@ -266,42 +266,110 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
         return this.lastSyncStatusWithConnectedHubs;
     }
 
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                                 sync loop                                               //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    // guarded by itself - manager thread waits on it for next sync
+    private final Map<HubConnector, HubSyncSchedule> syncSchedules = new HashMap<>();
+    private boolean forceSync = false;
+
+    private long getBaseSyncIntervalInMillis() {
+        return this.waitIntervalInSeconds * 1000L;
+    }
+
+    private HubSyncSchedule createSyncSchedule(long now) {
+        long base = this.getBaseSyncIntervalInMillis();
+        long min = Math.max(MIN_SYNC_INTERVAL_IN_MILLIS, base / SYNC_INTERVAL_ADAPTION_FACTOR);
+        long max = Math.max(min, base * SYNC_INTERVAL_ADAPTION_FACTOR);
+        // a hub that does not answer within an interval is asked again
+        return new HubSyncSchedule(base, min, max, Math.max(min, base), now);
+    }
+
+    /**
+     * Each hub is synced on a schedule of its own - concurrently, jittered, more often while peers come and go
+     * (see {@link HubSyncSchedule}). A slow hub has at most one sync in flight and does not delay others.
+     */
     @Override
     public void run() {
         this.managerThread = Thread.currentThread();
         Log.writeLog(this, this.toString(), "hub manager thread started");
 
         while (!this.managerThreadStopped) {
-            Log.writeLog(this, this.toString(),"start a new sync round");
+            List<HubConnector> connectors;
+            synchronized (this.hubConnectors) {
+                connectors = new ArrayList<>(this.hubConnectors);
+            }
 
-            this.lastSyncStatusWithConnectedHubs = System.currentTimeMillis();
-            for(HubConnector hubConnector : this.hubConnectors) {
-                Log.writeLog(this, this.toString(), "check hub connection");
-                hubConnector.addStatusListener(this);
-                try {
-                    // trigger syncing
-                    hubConnector.syncHubInformation();
-                } catch (IOException e) {
-                    // io on this hub - removeHub it later and go ahead
-                    Log.writeLog(this, this.toString(), "problems with hub - remove it: " + e);
-                    e.printStackTrace();
-                    removeHub(hubConnector);
+            List<HubConnector> due = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            long nextWakeUp = now + this.getBaseSyncIntervalInMillis();
+            synchronized (this.syncSchedules) {
+                // forget removed hubs
+                this.syncSchedules.keySet().retainAll(connectors);
+                for(HubConnector hubConnector : connectors) {
+                    HubSyncSchedule schedule = this.syncSchedules.get(hubConnector);
+                    if(schedule == null) {
+                        hubConnector.addStatusListener(this);
+                        schedule = this.createSyncSchedule(now);
+                        this.syncSchedules.put(hubConnector, schedule);
+                    }
+                    if(schedule.isDue(now, this.forceSync)) {
+                        schedule.syncStarted(now);
+                        due.add(hubConnector);
+                    }
+                    nextWakeUp = Math.min(nextWakeUp, schedule.nextWakeUp(now));
                 }
+                this.forceSync = false;
+            }
+
+            if(!due.isEmpty()) this.lastSyncStatusWithConnectedHubs = now;
+            for(HubConnector hubConnector : due) {
+                HubThreads.start(() -> this.syncHub(hubConnector), "sync hub");
             }
 
             try {
-                long sleepingTime = this.waitIntervalInSeconds * 1000;
-                Log.writeLog(this, this.toString(), "wait before next round (in ms): " + sleepingTime);
-                Thread.sleep(sleepingTime);
+                synchronized (this.syncSchedules) {
+                    long waitingTime = nextWakeUp - System.currentTimeMillis();
+                    // a sync answered in between might have moved its next sync
+                    if(waitingTime > 0 && !this.forceSync) this.syncSchedules.wait(waitingTime);
+                }
             } catch (InterruptedException e) {
                 if(!this.managerThreadStopped) {
-                    Log.writeLog(this, this.toString(), "interrupted - make next sync round now");
+                    Log.writeLog(this, this.toString(), "interrupted - sync all hubs now");
+                    synchronized (this.syncSchedules) { this.forceSync = true; }
                 }
             }
         }
         Log.writeLog(this, this.toString(), "hub manager thread ended.");
     }
 
+    private void syncHub(HubConnector hubConnector) {
+        Log.writeLog(this, this.toString(), "sync hub: " + hubConnector);
+        try {
+            hubConnector.syncHubInformation();
+        } catch (IOException e) {
+            // io on this hub - remove it and go ahead
+            Log.writeLog(this, this.toString(), "problems with hub - remove it: " + e);
+            synchronized (this.syncSchedules) {
+                HubSyncSchedule schedule = this.syncSchedules.get(hubConnector);
+                if(schedule != null) schedule.syncFailed(System.currentTimeMillis());
+            }
+            this.removeHub(hubConnector);
+        }
+    }
+
+    private void syncScheduleChanged(Connector connector, boolean synced, boolean changed) {
+        synchronized (this.syncSchedules) {
+            HubSyncSchedule schedule = this.syncSchedules.get(connector);
+            if(schedule == null) return;
+            long now = System.currentTimeMillis();
+            if(synced) schedule.syncDone(now, changed);
+            else schedule.churn(now);
+            Log.writeLog(this, this.toString(), "sync schedule: " + schedule);
+            this.syncSchedules.notify();
+        }
+    }
 
     @Override
     public void notifyConnectedAndOpen() {
@@ -312,6 +380,7 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
     @Override
     public void notifySynced(Connector connector, boolean changed) {
         Log.writeLog(this, this.toString(), "synced (changed: " + changed + ")");
+        this.syncScheduleChanged(connector, true, changed);
 
         if(/*changed && */ connector instanceof HubConnector) { // maybe new message in ASAP peer... connect each round
             HubConnector hubConnector = (HubConnector) connector;
@@ -333,6 +402,30 @@ public class ASAPHubManagerImpl implements ASAPHubManager, NewHubConnectionListe
         }
     }
 
+    /**
+     * Hub pushed new peers - meet them now, do not wait for next sync round.
+     */
+    @Override
+    public void notifyPeersChanged(Connector connector, Collection<CharSequence> joinedPeers,
+                                   Collection<CharSequence> leftPeers) {
+        Log.writeLog(this, this.toString(), "peers joined: " + joinedPeers + " | left: " + leftPeers);
+        if(!(connector instanceof HubConnector)) return;
+        this.syncScheduleChanged(connector, false, true);
+
+        HubConnector hubConnector = (HubConnector) connector;
+        try {
+            for (CharSequence peerID : joinedPeers) {
+                if (this.asapEncounterManager.shouldCreateConnectionToPeer(
+                        peerID, EncounterConnectionType.ASAP_HUB)) {
+                    hubConnector.connectPeer(peerID);
+                }
+            }
+        } catch (IOException e) {
+            Log.writeLog(this, this.toString(), "problems with hub - remove it: " + e);
+            this.removeHub(hubConnector);
+        }
+    }
+
     @Override
     public void notifyPeerConnected(CharSequence targetPeerID, StreamPair streamPair) {
         try {
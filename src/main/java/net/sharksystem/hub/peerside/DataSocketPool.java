@@ -0,0 +1,252 @@
+package net.sharksystem.hub.peerside;
+
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.HubTimerWheel;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Idle TCP connections to the hub data port, opened before they are needed. Hub asks for a new data connection
+ * with a session token (see {@link net.sharksystem.hub.protocol.HubCapabilities#DATA_PORT_TOKENS}). A pooled
+ * connection only has to present the token - no TCP handshake on the way to a new encounter. Pool is refilled
+ * in the background after each take.
+ * <br/><br/>
+ * A connection that carried a data session is not given back. Hub relays data sessions byte by byte and cannot
+ * tell where a session ends - closing the connection is the end of session.
+ * <br/><br/>
+ * Hub closes connections that presented no token for a while. Pooled connections idle longer than
+ * maxIdleInMillis are evicted before that happens. Evicted connections are not replaced - a pool nobody takes
+ * from runs empty instead of reconnecting each maxIdleInMillis. Connections hub closed anyway are dropped on take.
+ */
+public class DataSocketPool {
+    public static final int DEFAULT_POOL_SIZE = 2;
+    /** must be less than hub side max idle time of connections without token */
+    public static final int DEFAULT_MAX_IDLE_IN_MILLIS = 30000;
+
+    private final String hostName;
+    private final int port;
+    private final int size;
+    private final int maxIdleInMillis;
+
+    private final Deque<PooledSocket> idleSockets = new ArrayDeque<>();
+    private int opening = 0;
+    private boolean closed = false;
+    private HubTimerWheel.Timeout evictionTimeout = null;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param hostName hub
+     * @param port hub data port
+     * @param size number of idle connections kept open
+     * @param maxIdleInMillis idle connections are closed after that time
+     */
+    public DataSocketPool(String hostName, int port, int size, int maxIdleInMillis) {
+        this.hostName = hostName;
+        this.port = port;
+        this.size = size;
+        this.maxIdleInMillis = maxIdleInMillis;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * @return an idle connection to hub data port or a new one if pool is empty. Pool is refilled afterwards.
+     * @throws IOException connection could not be established
+     */
+    public Socket take() throws IOException {
+        Socket socket = null;
+        for(;;) {
+            PooledSocket pooledSocket;
+            synchronized (this) {
+                if(this.closed) throw new IOException("data socket pool closed");
+                pooledSocket = this.idleSockets.pollFirst();
+            }
+            if(pooledSocket == null) break;
+            if(isAlive(pooledSocket.socket)) {
+                socket = pooledSocket.socket;
+                break;
+            }
+            Log.writeLog(this, "pooled data connection closed by hub");
+            closeQuietly(pooledSocket.socket);
+            this.evictions.incrementAndGet();
+        }
+        this.refill();
+
+        if(socket != null) {
+            this.hits.incrementAndGet();
+            return socket;
+        }
+
+        this.misses.incrementAndGet();
+        return new Socket(this.hostName, this.port);
+    }
+
+    /**
+     * Hub sends nothing before a token was presented. Anything readable - end of stream in most cases - means
+     * hub has given up this connection. Costs at most a millisecond on a live connection.
+     */
+    private static boolean isAlive(Socket socket) {
+        if(socket.isClosed()) return false;
+        try {
+            int soTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                socket.getInputStream().read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return true;
+            } finally {
+                socket.setSoTimeout(soTimeout);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open connections in background until pool is full.
+     */
+    public void refill() {
+        int missing;
+        synchronized (this) {
+            if(this.closed) return;
+            missing = this.size - this.idleSockets.size() - this.opening;
+            if(missing <= 0) return;
+            this.opening += missing;
+        }
+
+        final int toOpen = missing;
+        HubThreads.start(() -> {
+            for(int i = 0; i < toOpen; i++) {
+                Socket socket = null;
+                try {
+                    socket = new Socket(this.hostName, this.port);
+                } catch (IOException e) {
+                    Log.writeLog(this, "cannot open pooled data connection: " + e.getLocalizedMessage());
+                }
+                this.opened(socket);
+            }
+        }, "data socket pool refill");
+    }
+
+    private void opened(Socket socket) {
+        synchronized (this) {
+            this.opening--;
+            if(socket != null && !this.closed) {
+                this.idleSockets.addLast(new PooledSocket(socket));
+                this.scheduleEviction();
+                return;
+            }
+        }
+        if(socket != null) closeQuietly(socket);
+    }
+
+    // must be called with lock
+    private void scheduleEviction() {
+        if(this.evictionTimeout != null) return;
+        this.evictionTimeout = HubTimerWheel.getDefault().schedule(Math.max(1, this.maxIdleInMillis / 2),
+                this::evictIdleSockets);
+    }
+
+    void evictIdleSockets() {
+        List<Socket> evicted = new ArrayList<>();
+        synchronized (this) {
+            this.evictionTimeout = null;
+            long now = System.currentTimeMillis();
+            Iterator<PooledSocket> iter = this.idleSockets.iterator();
+            while(iter.hasNext()) {
+                PooledSocket pooledSocket = iter.next();
+                if(pooledSocket.socket.isClosed() || now - pooledSocket.since >= this.maxIdleInMillis) {
+                    iter.remove();
+                    evicted.add(pooledSocket.socket);
+                }
+            }
+            if(!this.idleSockets.isEmpty()) this.scheduleEviction();
+        }
+
+        for(Socket socket : evicted) closeQuietly(socket);
+        // no refill - next take does it
+        this.evictions.addAndGet(evicted.size());
+    }
+
+    /**
+     * Close all idle connections. Pool cannot be used afterwards.
+     */
+    public void close() {
+        List<PooledSocket> toClose;
+        synchronized (this) {
+            this.closed = true;
+            toClose = new ArrayList<>(this.idleSockets);
+            this.idleSockets.clear();
+            if(this.evictionTimeout != null) this.evictionTimeout.cancel();
+            this.evictionTimeout = null;
+        }
+        for(PooledSocket pooledSocket : toClose) closeQuietly(pooledSocket.socket);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                                metrics                                              //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return number of takes served by an idle connection
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return number of takes that had to open a new connection
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of idle connections closed because they were idle too long or closed by hub
+     */
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    public synchronized int getIdleSockets() {
+        return this.idleSockets.size();
+    }
+
+    public String toString() {
+        return "data socket pool " + this.hostName + ":" + this.port + " (idle: " + this.getIdleSockets()
+                + ", hits: " + this.getHits() + ", misses: " + this.getMisses()
+                + ", evictions: " + this.getEvictions() + ")";
+    }
+
+    private static class PooledSocket {
+        private final Socket socket;
+        private final long since = System.currentTimeMillis();
+
+        PooledSocket(Socket socket) {
+            this.socket = socket;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package net.sharksystem.hub.peerside;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Establishes hub connections with a bounded number of threads. Attempts beyond that limit wait in a queue.
+ * Disconnecting is not done here - it must not wait behind attempts to unreachable hubs.
+ * <ul>
+ *     <li>An attempt to a hub already queued or running is not started again.</li>
+ *     <li>A hub that could not be reached is not tried again before its backoff has passed. Backoff starts with
+ *     {@link #DEFAULT_INITIAL_BACKOFF_IN_MILLIS} and doubles with each failure up to
+ *     {@link #DEFAULT_MAX_BACKOFF_IN_MILLIS}. A random part (up to half) is taken off - peers that lost the same
+ *     hub do not come back all at once.</li>
+ *     <li>Each attempt has a deadline. An attempt still queued at its deadline is dropped and counts as failed.
+ *     An attempt gets the time left until its deadline - it is meant as connect timeout.
+ *     An attempt still running at its deadline is no longer pending - it failed from callers point of view.
+ *     No second attempt is started while it runs, though.</li>
+ * </ul>
+ */
+public class HubConnectionEstablisher {
+    public static final int DEFAULT_MAX_CONCURRENT_ATTEMPTS = 4;
+    public static final int DEFAULT_INITIAL_BACKOFF_IN_MILLIS = 1000;
+    public static final int DEFAULT_MAX_BACKOFF_IN_MILLIS = 60000;
+    public static final int DEFAULT_DEADLINE_IN_MILLIS = 30000;
+
+    /**
+     * Establish a connection to a hub
+     */
+    public interface ConnectionAttempt {
+        /**
+         * @param timeoutInMillis time left until deadline - more than 0
+         */
+        void connect(int timeoutInMillis) throws IOException, ASAPException;
+    }
+
+    private final int maxConcurrentAttempts;
+    private int initialBackoffInMillis = DEFAULT_INITIAL_BACKOFF_IN_MILLIS;
+    private int maxBackoffInMillis = DEFAULT_MAX_BACKOFF_IN_MILLIS;
+    private int deadlineInMillis = DEFAULT_DEADLINE_IN_MILLIS;
+
+    private final Deque<Task> queue = new ArrayDeque<>();
+    private final List<Task> running = new ArrayList<>();
+    private final List<Backoff> backoffs = new ArrayList<>();
+    private int workers = 0;
+
+    private long succeeded = 0;
+    private long failed = 0;
+    private long deduplicated = 0;
+    private long backedOff = 0;
+    private long expired = 0;
+
+    public HubConnectionEstablisher() {
+        this(DEFAULT_MAX_CONCURRENT_ATTEMPTS);
+    }
+
+    /**
+     * @param maxConcurrentAttempts maximum number of threads working on attempts at the same time
+     */
+    public HubConnectionEstablisher(int maxConcurrentAttempts) {
+        if(maxConcurrentAttempts < 1) throw new IllegalArgumentException("need at least one thread");
+        this.maxConcurrentAttempts = maxConcurrentAttempts;
+    }
+
+    public synchronized void setBackoffInMillis(int initialBackoffInMillis, int maxBackoffInMillis) {
+        this.initialBackoffInMillis = initialBackoffInMillis;
+        this.maxBackoffInMillis = maxBackoffInMillis;
+    }
+
+    public synchronized void setDeadlineInMillis(int deadlineInMillis) {
+        this.deadlineInMillis = deadlineInMillis;
+    }
+
+    /**
+     * Try to connect a hub - sooner or later.
+     * @param hcd hub
+     * @param attempt does the actual work
+     * @return false if nothing was started: an attempt to that hub is pending or hub is backing off
+     */
+    public synchronized boolean connect(HubConnectorDescription hcd, ConnectionAttempt attempt) {
+        long now = System.currentTimeMillis();
+        // a running attempt past its deadline might still succeed - do not start a second one
+        if(this.isPending(hcd, Long.MIN_VALUE)) {
+            this.deduplicated++;
+            Log.writeLog(this, "connection attempt already pending: " + hcd);
+            return false;
+        }
+        Backoff backoff = this.findBackoff(hcd);
+        if(backoff != null && now < backoff.nextAttempt) {
+            this.backedOff++;
+            Log.writeLog(this, "hub failed recently - next attempt in "
+                    + (backoff.nextAttempt - now) + " ms: " + hcd);
+            return false;
+        }
+
+        this.queue.addLast(new Task(hcd, attempt, now + this.deadlineInMillis));
+        if(this.workers < this.maxConcurrentAttempts) {
+            this.workers++;
+            HubThreads.start(this::work, "hub connection establisher");
+        }
+        return true;
+    }
+
+    private void work() {
+        while(true) {
+            Task task;
+            long timeLeft;
+            synchronized (this) {
+                task = this.queue.pollFirst();
+                if(task == null) {
+                    this.workers--;
+                    return;
+                }
+                timeLeft = task.deadline - System.currentTimeMillis();
+                if(timeLeft < 0) {
+                    this.expired++;
+                    Log.writeLog(this, "connection attempt not started before deadline: " + task.hcd);
+                    this.attemptFailed(task.hcd);
+                    continue;
+                }
+                this.running.add(task);
+            }
+
+            boolean success = false;
+            try {
+                // 0 would be no timeout at all
+                task.attempt.connect((int) Math.max(1, Math.min(timeLeft, Integer.MAX_VALUE)));
+                success = true;
+            } catch (IOException | ASAPException | RuntimeException e) {
+                Log.writeLog(this, "cannot connect hub " + task.hcd + ": " + e.getLocalizedMessage());
+            }
+            synchronized (this) {
+                this.running.remove(task);
+                if(success) {
+                    this.succeeded++;
+                    Backoff backoff = this.findBackoff(task.hcd);
+                    if(backoff != null) this.backoffs.remove(backoff);
+                } else {
+                    this.attemptFailed(task.hcd);
+                }
+            }
+        }
+    }
+
+    // must be called with lock
+    private void attemptFailed(HubConnectorDescription hcd) {
+        this.failed++;
+        long now = System.currentTimeMillis();
+        Backoff backoff = this.findBackoff(hcd);
+        if(backoff == null) {
+            backoff = new Backoff(hcd);
+            this.backoffs.add(backoff);
+        }
+        backoff.failures++;
+        backoff.lastFailure = now;
+
+        // exponential - shift limited to stay in range
+        long delay = Math.min((long) this.maxBackoffInMillis,
+                (long) this.initialBackoffInMillis << Math.min(backoff.failures - 1, 30));
+        // take off a random part up to a half
+        delay -= ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        backoff.nextAttempt = now + delay;
+    }
+
+    // must be called with lock
+    private Backoff findBackoff(HubConnectorDescription hcd) {
+        for(Backoff backoff : this.backoffs) {
+            if(backoff.hcd.isSame(hcd)) return backoff;
+        }
+        return null;
+    }
+
+    // must be called with lock - deadlines before now are ignored
+    private boolean isPending(HubConnectorDescription hcd, long now) {
+        for(Task task : this.queue) {
+            if(task.hcd.isSame(hcd) && now <= task.deadline) return true;
+        }
+        for(Task task : this.running) {
+            if(task.hcd.isSame(hcd) && now <= task.deadline) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param hcd
+     * @return true if an attempt to that hub is queued or running and its deadline has not passed
+     */
+    public synchronized boolean isPending(HubConnectorDescription hcd) {
+        return this.isPending(hcd, System.currentTimeMillis());
+    }
+
+    /**
+     * @param hcd
+     * @return time of last failed attempt since last success - -1 if there is none
+     */
+    public synchronized long getLastFailure(HubConnectorDescription hcd) {
+        Backoff backoff = this.findBackoff(hcd);
+        return backoff == null ? -1 : backoff.lastFailure;
+    }
+
+    /**
+     * @param hcd
+     * @return earliest time a new attempt to that hub is started
+     */
+    public synchronized long getNextAttempt(HubConnectorDescription hcd) {
+        Backoff backoff = this.findBackoff(hcd);
+        return backoff == null ? System.currentTimeMillis() : backoff.nextAttempt;
+    }
+
+    /**
+     * Forget failures - next attempt to each hub is started immediately.
+     */
+    public synchronized void resetBackoff() {
+        this.backoffs.clear();
+    }
+
+    /**
+     * Drop queued attempts. Running ones are not interrupted.
+     */
+    public synchronized void clear() {
+        this.queue.clear();
+    }
+
+    public synchronized int getQueued() {
+        return this.queue.size();
+    }
+
+    public synchronized int getRunning() {
+        return this.running.size();
+    }
+
+    public synchronized long getSucceeded() { return this.succeeded; }
+    public synchronized long getFailed() { return this.failed; }
+    public synchronized long getDeduplicated() { return this.deduplicated; }
+    public synchronized long getBackedOff() { return this.backedOff; }
+    public synchronized long getExpired() { return this.expired; }
+
+    public synchronized String toString() {
+        return "hub connection establisher (queued: " + this.queue.size() + ", running: " + this.running.size()
+                + ", succeeded: " + this.succeeded + ", failed: " + this.failed
+                + ", deduplicated: " + this.deduplicated + ", backed off: " + this.backedOff
+                + ", expired: " + this.expired + ")";
+    }
+
+    private static class Task {
+        private final HubConnectorDescription hcd;
+        private final ConnectionAttempt attempt;
+        private final long deadline;
+
+        Task(HubConnectorDescription hcd, ConnectionAttempt attempt, long deadline) {
+            this.hcd = hcd;
+            this.attempt = attempt;
+            this.deadline = deadline;
+        }
+    }
+
+    private static class Backoff {
+        private final HubConnectorDescription hcd;
+        private int failures = 0;
+        private long lastFailure = -1;
+        private long nextAttempt = 0;
+
+        Backoff(HubConnectorDescription hcd) {
+            this.hcd = hcd;
+        }
+    }
+}
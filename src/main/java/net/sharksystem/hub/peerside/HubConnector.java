@@ -3,9 +3,12 @@ package net.sharksystem.hub.peerside;
 import net.sharksystem.asap.ASAPException;
 import net.sharksystem.hub.ASAPHubException;
 import net.sharksystem.hub.hubside.Hub;
+import net.sharksystem.utils.streams.StreamPair;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Hub connector is an interface that is used on peers' side to communicate with a hub. A protocol is required that
@@ -36,6 +39,13 @@ public interface HubConnector {
      */
     void syncHubInformation() throws IOException;
 
+    /**
+     * Refresh hub information and get notified when hub replied.
+     * @return future completed with peer name list when hub replied. It fails if request could not be sent, on
+     * timeout or if connection is lost.
+     */
+    CompletableFuture<Collection<CharSequence>> syncHubInformationAsync();
+
     /**
      * Hub is asked to establish a connection to a peer. It is an asynchronous call. A listener is called
      * when a connection was established. Most probably, a new channel (e.g. TCP channel) is created.
@@ -46,6 +56,28 @@ public interface HubConnector {
      */
     void connectPeer(CharSequence peerID) throws IOException;
 
+    int DEFAULT_CONNECT_PEER_TIMEOUT_IN_MILLIS = 30000;
+
+    /**
+     * Hub is asked to establish a connection to a peer. Returned future is completed with the stream pair of
+     * the data session. Listeners are not called for that data session - it belongs to the caller.
+     * Future fails if request cannot be sent, after {@link #DEFAULT_CONNECT_PEER_TIMEOUT_IN_MILLIS} or
+     * if connection to hub is lost. It fails at once if a data session with that peer was asked for before and is
+     * still pending - hub would drop a second request of the same pair.
+     *
+     * @param peerID
+     * @return future stream pair of the data session
+     */
+    CompletableFuture<StreamPair> connectPeerAsync(CharSequence peerID);
+
+    /**
+     * @param peerID
+     * @param timeoutInMillis future fails if no data session is established within that time
+     * @return future stream pair of the data session
+     * @see #connectPeerAsync(CharSequence)
+     */
+    CompletableFuture<StreamPair> connectPeerAsync(CharSequence peerID, long timeoutInMillis);
+
     /**
      * Peers' side connects and registers itself with the hub.
      * There a no address information of the hub in this call. Those protocol specific information are meant
@@ -78,13 +110,29 @@ public interface HubConnector {
 
     void removeListener(NewConnectionListener listener);
 
+    /**
+     * Listeners and futures of {@link #connectPeerAsync(CharSequence)} are called by this executor. Default is
+     * a new thread for each notification.
+     * @param executor executor - null sets back to default
+     */
+    void setListenerExecutor(Executor executor);
+
     void addStatusListener(HubConnectorStatusListener listener);
 
     boolean isShutdown();
 
     void setTimeOutInMillis(int millis);
 
+    /**
+     * @deprecated use {@link #syncHubInformationAsync()}
+     */
+    @Deprecated
     void prepareBlockUntilReceived(byte pduCommand);
+
+    /**
+     * @deprecated use {@link #syncHubInformationAsync()}
+     */
+    @Deprecated
     void blockUntilReceived(byte hubStatusReply);
 
     boolean isSame(HubConnectorDescription hcd);
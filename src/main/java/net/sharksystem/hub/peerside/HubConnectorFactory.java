@@ -9,10 +9,19 @@ import java.io.IOException;
 
 public class HubConnectorFactory {
     public static HubConnector createHubConnector(HubConnectorDescription hcd) throws ASAPHubException, IOException {
+        return createHubConnector(hcd, SharedTCPChannelConnectorPeerSide.DEFAULT_CONNECT_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * @param hcd
+     * @param connectTimeoutInMillis give up if hub cannot be reached within that time
+     */
+    public static HubConnector createHubConnector(HubConnectorDescription hcd, int connectTimeoutInMillis)
+            throws ASAPHubException, IOException {
         switch (hcd.getType()) {
             case HubConnectorDescription.TCP:
                 return SharedTCPChannelConnectorPeerSide.createTCPHubConnector(
-                        hcd.getHostName(), hcd.getPortNumber(), hcd.canMultiChannel());
+                        hcd.getHostName(), hcd.getPortNumber(), hcd.canMultiChannel(), connectTimeoutInMillis);
 
             default: throw new ASAPHubException("unknown hub connector protocol type: " + hcd.getType());
         }
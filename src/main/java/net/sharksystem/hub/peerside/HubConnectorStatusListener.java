@@ -2,6 +2,8 @@ package net.sharksystem.hub.peerside;
 
 import net.sharksystem.hub.Connector;
 
+import java.util.Collection;
+
 public interface HubConnectorStatusListener {
     /**
      * Called if an open connection is established to the hub.
@@ -14,4 +16,14 @@ public interface HubConnectorStatusListener {
      * @param changed peer list changed - or not
      */
     void notifySynced(Connector connector, boolean changed);
+
+    /**
+     * Hub pushed peers that joined or left (see {@link net.sharksystem.hub.protocol.HubCapabilities#PRESENCE_PUSH}).
+     * Peer list of the connector is already updated.
+     * @param connector
+     * @param joinedPeers
+     * @param leftPeers
+     */
+    default void notifyPeersChanged(Connector connector, Collection<CharSequence> joinedPeers,
+                                    Collection<CharSequence> leftPeers) { }
 }
@@ -0,0 +1,119 @@
+package net.sharksystem.hub.peerside;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When to ask a hub for its peers next time. Each hub has a schedule of its own.
+ * <ul>
+ *     <li>Interval adapts: halved if hub reported changes or pushed joined / left peers, grows by half if nothing
+ *     changed. It stays between a minimum and a maximum.</li>
+ *     <li>Each next sync time is jittered by up to {@link #JITTER_IN_PERCENT} percent - peers started at the
+ *     same time do not hit the hub in lockstep. First sync happens within the minimum interval.</li>
+ *     <li>One sync at a time: no new sync is started before the last one was answered or timed out.</li>
+ * </ul>
+ * Not thread safe - caller synchronizes.
+ */
+class HubSyncSchedule {
+    public static final int JITTER_IN_PERCENT = 20;
+
+    private final long minIntervalInMillis;
+    private final long maxIntervalInMillis;
+    private final long syncTimeoutInMillis;
+    private long intervalInMillis;
+    private long nextSync;
+    private long inFlightSince = -1;
+
+    /**
+     * @param intervalInMillis interval to start with
+     * @param minIntervalInMillis
+     * @param maxIntervalInMillis
+     * @param syncTimeoutInMillis sync without reply is given up after that time
+     * @param now
+     */
+    HubSyncSchedule(long intervalInMillis, long minIntervalInMillis, long maxIntervalInMillis,
+                    long syncTimeoutInMillis, long now) {
+        this.minIntervalInMillis = minIntervalInMillis;
+        this.maxIntervalInMillis = maxIntervalInMillis;
+        this.syncTimeoutInMillis = syncTimeoutInMillis;
+        this.intervalInMillis = Math.max(minIntervalInMillis, Math.min(maxIntervalInMillis, intervalInMillis));
+        this.nextSync = now + ThreadLocalRandom.current().nextLong(minIntervalInMillis + 1);
+    }
+
+    private long jittered(long interval) {
+        long jitter = interval * JITTER_IN_PERCENT / 100;
+        return interval - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
+    }
+
+    boolean isInFlight(long now) {
+        return this.inFlightSince >= 0 && now - this.inFlightSince < this.syncTimeoutInMillis;
+    }
+
+    /**
+     * @param now
+     * @param force ignore schedule
+     * @return true if a sync can be started now
+     */
+    boolean isDue(long now, boolean force) {
+        if(this.isInFlight(now)) return false;
+        return force || now >= this.nextSync;
+    }
+
+    void syncStarted(long now) {
+        this.inFlightSince = now;
+    }
+
+    /**
+     * Hub answered
+     * @param now
+     * @param changed true if hub reported changes
+     */
+    void syncDone(long now, boolean changed) {
+        this.inFlightSince = -1;
+        if(changed) {
+            this.intervalInMillis = Math.max(this.minIntervalInMillis, this.intervalInMillis / 2);
+        } else {
+            this.intervalInMillis = Math.min(this.maxIntervalInMillis, this.intervalInMillis * 3 / 2);
+        }
+        this.nextSync = now + this.jittered(this.intervalInMillis);
+    }
+
+    /**
+     * Sync could not be sent - try again after an interval.
+     * @param now
+     */
+    void syncFailed(long now) {
+        this.inFlightSince = -1;
+        this.nextSync = now + this.jittered(this.intervalInMillis);
+    }
+
+    /**
+     * Peers joined or left - hub is busy, sync sooner.
+     * @param now
+     */
+    void churn(long now) {
+        this.intervalInMillis = Math.max(this.minIntervalInMillis, this.intervalInMillis / 2);
+        this.nextSync = Math.min(this.nextSync, now + this.jittered(this.intervalInMillis));
+    }
+
+    /**
+     * @param now
+     * @return time this schedule needs attention: next sync or time out of sync in flight
+     */
+    long nextWakeUp(long now) {
+        if(this.isInFlight(now)) return this.inFlightSince + this.syncTimeoutInMillis;
+        return this.nextSync;
+    }
+
+    long getIntervalInMillis() {
+        return this.intervalInMillis;
+    }
+
+    long getNextSync() {
+        return this.nextSync;
+    }
+
+    public String toString() {
+        return "interval (ms): " + this.intervalInMillis + " | next sync: " + this.nextSync
+                + (this.inFlightSince >= 0 ? " | in flight" : "");
+    }
+}
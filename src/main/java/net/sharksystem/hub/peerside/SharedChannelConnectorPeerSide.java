@@ -12,15 +12,27 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 
 public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnectorImpl implements HubConnector {
     private List<NewConnectionListener> listener = new ArrayList<>();
     private Collection<CharSequence> peerIDs = new ArrayList<>();
+    private long knownPeerIDsVersion = HubPDUHubStatusRQ.NO_VERSION;
     private CharSequence localPeerID;
     private boolean shutdown = false;
     private HubPDUUnregister pendingDisconnectPDU = null;
 
+    private static int defaultRequestedCapabilities = HubCapabilities.NONE;
+    private int requestedCapabilities = defaultRequestedCapabilities;
+
     public SharedChannelConnectorPeerSide(InputStream is, OutputStream os) throws ASAPHubException {
         super(is, os);
     }
@@ -35,6 +47,24 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
         return false;
     }
 
+    /**
+     * Capabilities offered to hub with next connectHub call. Older hubs do not understand any - default is none.
+     * @param capabilities
+     * @see HubCapabilities
+     */
+    public void setRequestedCapabilities(int capabilities) {
+        this.requestedCapabilities = capabilities;
+    }
+
+    /**
+     * Capabilities offered by connectors created from now on.
+     * @param capabilities
+     * @see HubCapabilities
+     */
+    public static void setDefaultRequestedCapabilities(int capabilities) {
+        defaultRequestedCapabilities = capabilities;
+    }
+
     ////////////////////////////////////////////////////////////////////////////////////////////////////
     //                                 guard methods - ensure right status                            //
     ////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -56,7 +86,143 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
     }
 
     protected void connectionLost() {
-        Log.writeLog(this, "lost connection to hub permanently - should do something?");
+        if(this.startReconnecting()) return;
+        Log.writeLog(this, "lost connection to hub permanently");
+        this.failPendingConnects(new IOException("lost connection to hub"));
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                         reconnect                                              //
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    public static final int DEFAULT_MAX_RECONNECT_ATTEMPTS = 8;
+    public static final int DEFAULT_RECONNECT_INITIAL_BACKOFF_IN_MILLIS = 500;
+    public static final int DEFAULT_RECONNECT_MAX_BACKOFF_IN_MILLIS = 30000;
+
+    private int maxReconnectAttempts = DEFAULT_MAX_RECONNECT_ATTEMPTS;
+    private int reconnectInitialBackoffInMillis = DEFAULT_RECONNECT_INITIAL_BACKOFF_IN_MILLIS;
+    private int reconnectMaxBackoffInMillis = DEFAULT_RECONNECT_MAX_BACKOFF_IN_MILLIS;
+    private boolean canCreateTCPConnections = false;
+    private boolean disconnectRequested = false;
+    private boolean reconnecting = false;
+    private long resumptionToken = HubPDURegister.NO_RESUMPTION_TOKEN;
+    private int reconnects = 0;
+    private int resumptions = 0;
+
+    /**
+     * A lost connection to hub is reopened automatically. Attempts are delayed by a backoff that starts with
+     * initial backoff and doubles with each failed attempt up to max backoff.
+     * @param maxAttempts 0: do not reconnect
+     * @param initialBackoffInMillis
+     * @param maxBackoffInMillis
+     */
+    public synchronized void setReconnect(int maxAttempts, int initialBackoffInMillis, int maxBackoffInMillis) {
+        this.maxReconnectAttempts = maxAttempts;
+        this.reconnectInitialBackoffInMillis = initialBackoffInMillis;
+        this.reconnectMaxBackoffInMillis = maxBackoffInMillis;
+    }
+
+    /**
+     * Open a new channel to hub and make it this connectors channel (see {@link #replaceStreams(InputStream,
+     * OutputStream)}). Default: channel cannot be reopened.
+     * @return false if this connector cannot reopen its channel
+     * @throws IOException hub not reachable (yet)
+     * @throws ASAPException new channel not usable
+     */
+    protected boolean reopenChannel() throws IOException, ASAPException {
+        return false;
+    }
+
+    /**
+     * @return number of successful reconnects
+     */
+    public synchronized int getReconnects() {
+        return this.reconnects;
+    }
+
+    /**
+     * @return number of reconnects that got previous registration back
+     */
+    public synchronized int getResumptions() {
+        return this.resumptions;
+    }
+
+    /**
+     * @return true if connector tries to get its connection back
+     */
+    public synchronized boolean isReconnecting() {
+        return this.reconnecting;
+    }
+
+    private synchronized boolean startReconnecting() {
+        if(this.reconnecting) return true; // already on it
+        if(this.disconnectRequested || this.localPeerID == null || this.maxReconnectAttempts <= 0) return false;
+        this.reconnecting = true;
+        HubThreads.start(this::reconnect, "hub reconnect");
+        return true;
+    }
+
+    private void reconnect() {
+        int attempts;
+        long backoff;
+        synchronized (this) {
+            attempts = this.maxReconnectAttempts;
+            backoff = this.reconnectInitialBackoffInMillis;
+        }
+
+        for(int attempt = 1; attempt <= attempts; attempt++) {
+            // peers that lost the same hub do not come back at once
+            long delay = backoff - ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // try now
+            }
+
+            synchronized (this) {
+                if(this.disconnectRequested) break;
+            }
+            try {
+                if(!this.reopenChannel()) break;
+                this.sendRegister();
+                this.startConnectorSession();
+                synchronized (this) {
+                    this.reconnecting = false;
+                    this.reconnects++;
+                }
+                Log.writeLog(this, this.toString(), "reconnected to hub after " + attempt + " attempt(s)");
+                return;
+            } catch (IOException | ASAPException e) {
+                Log.writeLog(this, this.toString(), "reconnect attempt " + attempt + " failed: "
+                        + e.getLocalizedMessage());
+            }
+            synchronized (this) {
+                backoff = Math.min(this.reconnectMaxBackoffInMillis, backoff * 2);
+            }
+        }
+
+        synchronized (this) {
+            this.reconnecting = false;
+        }
+        Log.writeLog(this, this.toString(), "gave up reconnecting to hub");
+        this.shutdown = true;
+        this.failPendingConnects(new IOException("lost connection to hub"));
+    }
+
+    /**
+     * Register (again). After a reconnect, a token from last register reply is presented - hub hands back our
+     * registration and requests that came in meanwhile.
+     */
+    private void sendRegister() throws IOException {
+        long token;
+        boolean canCreateTCPConnections;
+        synchronized (this) {
+            token = this.resumptionToken;
+            canCreateTCPConnections = this.canCreateTCPConnections;
+        }
+        this.writePDU(new HubPDURegister(this.localPeerID, canCreateTCPConnections, this.requestedCapabilities,
+                HubCapabilities.has(this.requestedCapabilities, HubCapabilities.RESUMPTION) ?
+                        token : HubPDURegister.NO_RESUMPTION_TOKEN));
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -75,11 +241,15 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
         }
 
         this.localPeerID = localPeerID;
-        // create hello pdu
-        HubPDURegister hubPDURegister = new HubPDURegister(localPeerID, canCreateTCPConnections);
+        synchronized (this) {
+            this.knownPeerIDsVersion = HubPDUHubStatusRQ.NO_VERSION;
+            this.canCreateTCPConnections = canCreateTCPConnections;
+            this.disconnectRequested = false;
+            this.resumptionToken = HubPDURegister.NO_RESUMPTION_TOKEN;
+        }
 
         // introduce yourself to hub
-        hubPDURegister.sendPDU(this.getOutputStream());
+        this.sendRegister();
 
         // start management protocol
         Log.writeLog(this, this.toString(), "start hub protocol engine");
@@ -87,13 +257,16 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
     }
 
     private void startConnectorSession() {
-        ConnectorThread connectorThread = new ConnectorThread(this, this.getInputStream());
+        ConnectorThread connectorThread = this.createConnectorThread();
         connectorThread.start();
         this.connectorSessionStarted(connectorThread);
     }
 
     @Override
     public void disconnectHub() throws ASAPHubException {
+        synchronized (this) {
+            this.disconnectRequested = true;
+        }
         // create hello pdu
         HubPDUUnregister hubPDUUnregister = new HubPDUUnregister(localPeerID);
 
@@ -118,15 +291,143 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
     @Override
     public void syncHubInformation() throws IOException {
         // can fail ignore
-        this.sendPDU(new HubPDUHubStatusRQ());
+        this.sendPDU(this.createHubStatusRQ());
+    }
+
+    @Override
+    public CompletableFuture<Collection<CharSequence>> syncHubInformationAsync() {
+        if(!this.statusDeltaAgreed()) {
+            CompletableFuture<HubPDU> reply = this.expectPDU(HubPDU.HUB_STATUS_REPLY);
+            if(!this.sendPDU(new HubPDUHubStatusRQ())) {
+                reply.completeExceptionally(new IOException("cannot send hub status request"));
+            }
+            return reply.thenApply(pdu -> ((HubPDUHubStatusRPLY) pdu).connectedPeers);
+        }
+
+        CompletableFuture<HubPDU> reply = this.expectPDU(HubPDU.HUB_STATUS_DELTA_REPLY);
+        if(!this.sendPDU(this.createHubStatusRQ())) {
+            reply.completeExceptionally(new IOException("cannot send hub status request"));
+        }
+        // delta is applied before waiting threads are notified
+        return reply.thenApply(pdu -> {
+            synchronized (this) {
+                return this.peerIDs;
+            }
+        });
+    }
+
+    private boolean statusDeltaAgreed() {
+        return HubCapabilities.has(this.getCapabilities(), HubCapabilities.STATUS_DELTA);
+    }
+
+    /**
+     * @return request for changes since the peer list version we know - if hub agreed on deltas
+     */
+    private HubPDUHubStatusRQ createHubStatusRQ() {
+        if(!this.statusDeltaAgreed()) return new HubPDUHubStatusRQ();
+        synchronized (this) {
+            return new HubPDUHubStatusRQ(this.knownPeerIDsVersion);
+        }
     }
 
     private List<HubPDUConnectPeerRQ> connectRQList = new ArrayList<>();
 
+    // futures of asynchronous connect requests - at most one per peer: hub drops a second request of the same pair
+    private final Map<String, CompletableFuture<StreamPair>> pendingConnects = new HashMap<>();
+    private int connectPeerTimeoutInMillis = DEFAULT_CONNECT_PEER_TIMEOUT_IN_MILLIS;
+
+    /**
+     * @param millis how long {@link #connectPeerAsync(CharSequence)} waits for a data session
+     */
+    public void setConnectPeerTimeoutInMillis(int millis) {
+        this.connectPeerTimeoutInMillis = millis;
+    }
+
+    @Override
+    public CompletableFuture<StreamPair> connectPeerAsync(CharSequence peerID) {
+        return this.connectPeerAsync(peerID, this.connectPeerTimeoutInMillis);
+    }
+
+    @Override
+    public CompletableFuture<StreamPair> connectPeerAsync(CharSequence peerID, long timeoutInMillis) {
+        String key = peerID.toString();
+        CompletableFuture<StreamPair> connection = new CompletableFuture<>();
+        synchronized (this.pendingConnects) {
+            if(this.pendingConnects.containsKey(key)) {
+                // hub would drop this request as duplicate - caller would wait in vain
+                connection.completeExceptionally(new IOException(
+                        "data session with " + peerID + " already requested - wait for that one"));
+                return connection;
+            }
+            this.pendingConnects.put(key, connection);
+        }
+
+        HubTimerWheel.Timeout timeout = HubTimerWheel.getDefault().schedule(timeoutInMillis, new Runnable() {
+            @Override
+            public void run() {
+                connection.completeExceptionally(new TimeoutException(
+                        "no data session with " + peerID + " within " + timeoutInMillis + " ms"));
+            }
+        });
+        connection.whenComplete((streamPair, throwable) -> {
+            timeout.cancel();
+            synchronized (this.pendingConnects) {
+                this.pendingConnects.remove(key, connection);
+            }
+        });
+
+        try {
+            this.connectPeer(peerID);
+        } catch (IOException e) {
+            connection.completeExceptionally(e);
+        }
+        return connection;
+    }
+
+    /**
+     * @return future that waits for a data session with this peer - null if there is none
+     */
+    private CompletableFuture<StreamPair> takePendingConnect(CharSequence peerID) {
+        synchronized (this.pendingConnects) {
+            return this.pendingConnects.remove(peerID.toString());
+        }
+    }
+
+    private void failPendingConnects(Throwable cause) {
+        List<CompletableFuture<StreamPair>> failed;
+        synchronized (this.pendingConnects) {
+            failed = new ArrayList<>(this.pendingConnects.values());
+            this.pendingConnects.clear();
+        }
+        for(CompletableFuture<StreamPair> connection : failed) connection.completeExceptionally(cause);
+    }
+
+    /**
+     * Send connect requests that could not be sent while connector protocol was not running.
+     */
+    private void sendQueuedConnectRequests() {
+        List<HubPDUConnectPeerRQ> queued;
+        synchronized (this) {
+            if(this.connectRQList.isEmpty()) return;
+            queued = new ArrayList<>(this.connectRQList);
+            this.connectRQList.clear();
+        }
+        for(int i = 0; i < queued.size(); i++) {
+            if(!this.sendPDU(queued.get(i), true)) {
+                // not in protocol mode (again) - keep remaining ones
+                synchronized (this) {
+                    this.connectRQList.addAll(queued.subList(i, queued.size()));
+                }
+                return;
+            }
+        }
+    }
+
     @Override
     public void connectPeer(CharSequence peerID) throws IOException {
         HubPDUConnectPeerRQ connectRQ = new HubPDUConnectPeerRQ(peerID);
-        if(!this.sendPDU(connectRQ)) {
+        // often called for several peers in a row - requests are coalesced into a single write
+        if(!this.sendPDU(connectRQ, true)) {
             synchronized (this) {
                 for(HubPDUConnectPeerRQ otherRQ : this.connectRQList) {
                     if(PeerIDHelper.sameID(peerID, otherRQ.peerID)) {
@@ -140,14 +441,16 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
     }
 
     private boolean sendPDU(HubPDU pdu)  {
+        return this.sendPDU(pdu, false);
+    }
+
+    private boolean sendPDU(HubPDU pdu, boolean deferred)  {
         if(!this.statusHubConnectorProtocol()) return false;
 
         try {
             this.checkConnected();
-            synchronized (this.getOutputStream()) {
-                pdu.sendPDU(this.getOutputStream());
-            }
-            return true;
+            // hub could open a data session in the meantime
+            return this.writePDUInProtocolStatus(pdu, deferred);
         }
         catch(IOException ioe) {
             Log.writeLog(this, this.toString(), "cannot send PDU: " + ioe.getLocalizedMessage());
@@ -160,7 +463,7 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
         if(this.pendingDisconnectPDU != null) {
             Log.writeLog(this, this.toString(), "send pending disconnect pdu");
             try {
-                this.pendingDisconnectPDU.sendPDU(this.getOutputStream());
+                this.writePDU(this.pendingDisconnectPDU);
                 return;
             } catch (IOException e) {
                 Log.writeLog(this, this.toString(), "cannot send pending PDU: " + e.getLocalizedMessage());
@@ -184,6 +487,21 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
         this.listener.remove(listener);
     }
 
+    /** default: each notification runs in its own thread */
+    private static final Executor THREAD_PER_NOTIFICATION = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            HubThreads.start(command, "notify peer connected");
+        }
+    };
+
+    private Executor listenerExecutor = THREAD_PER_NOTIFICATION;
+
+    @Override
+    public void setListenerExecutor(Executor executor) {
+        this.listenerExecutor = executor != null ? executor : THREAD_PER_NOTIFICATION;
+    }
+
     public Collection<CharSequence> getPeerIDs() throws IOException {
         synchronized (this) {
             return this.peerIDs;
@@ -199,6 +517,18 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
         this.pduNotHandled(pdu);
     }
 
+    @Override
+    public void registerRPLY(HubPDURegisterRPLY pdu) {
+        Log.writeLog(this, this.toString(), pdu.toString());
+        int agreed = pdu.capabilities & this.requestedCapabilities;
+        this.setCapabilities(agreed);
+        synchronized (this) {
+            this.resumptionToken = pdu.resumptionToken;
+            if(pdu.resumed) this.resumptions++;
+        }
+        if(HubCapabilities.has(agreed, HubCapabilities.MULTIPLEX)) this.multiplexingAgreed();
+    }
+
     @Override
     public void unregister(HubPDUUnregister pdu) {
         this.pduNotHandled(pdu);
@@ -220,13 +550,37 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
 
         Collection<CharSequence> previousIDs = this.peerIDs;
         synchronized (this) {
-            this.peerIDs = pdu.connectedPeers;
+            if(!pdu.isDelta() || pdu.full) {
+                this.peerIDs = pdu.connectedPeers;
+            } else {
+                // apply delta to a copy - previous list could be in use
+                Set<CharSequence> peerIDs = new HashSet<>(this.peerIDs);
+                peerIDs.removeAll(pdu.removedPeers);
+                peerIDs.addAll(pdu.connectedPeers);
+                this.peerIDs = peerIDs;
+            }
+            if(pdu.isDelta()) this.knownPeerIDsVersion = pdu.version;
         }
 
         // changes?
         this.notifyListenerSynced(!net.sharksystem.utils.Utils.sameContent(previousIDs, this.peerIDs));
     }
 
+    @Override
+    public void peerPresence(HubPDUPeerPresence pdu) {
+        Log.writeLog(this, this.toString(), pdu.toString());
+
+        synchronized (this) {
+            // apply to a copy - previous list could be in use
+            Set<CharSequence> peerIDs = new HashSet<>(this.peerIDs);
+            peerIDs.removeAll(pdu.leftPeers);
+            peerIDs.addAll(pdu.joinedPeers);
+            this.peerIDs = peerIDs;
+        }
+
+        this.notifyListenerPeersChanged(pdu.joinedPeers, pdu.leftPeers);
+    }
+
     @Override
     public void openNewTCPConnectionRequest(HubPDUConnectPeerNewTCPSocketRQ pdu) {
         this.pduNotHandled(pdu);
@@ -248,16 +602,13 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
 
         Log.writeLog(this, this.toString(), "wait for ready byte " + targetPeerID);
 
+        // blocks until hub linked both ends
         byte b = 0;
         while(b != Connector.readyByte) {
-            Log.writeLog(this, this.toString(), "no ready byte yet");
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                // ignore
-            }
             try {
-                b = (byte) streamPair.getInputStream().read();
+                int read = streamPair.getInputStream().read();
+                if(read < 0) throw new IOException("end of stream");
+                b = (byte) read;
             } catch (IOException e) {
                 Log.writeLog(this, this.toString(), "connection gone before usage, other peer: "
                         + targetPeerID);
@@ -266,22 +617,31 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
         }
         Log.writeLog(this, this.toString(), "got ready byte from hub - notify data session can begin");
 
+        // asked for with connectPeerAsync? stream pair belongs to that caller
+        CompletableFuture<StreamPair> connection = this.takePendingConnect(targetPeerID);
+        if(connection != null && !connection.isDone()) {
+            // make sure not to be blocked by application programmer
+            connection.completeAsync(() -> streamPair, this.listenerExecutor);
+            return;
+        }
+
         // tell listener
         if(this.listener != null) {
             // make sure not to be blocked by application programmer
-            new Thread(new Runnable() {
+            this.listenerExecutor.execute(new Runnable() {
                 @Override
                 public void run() {
                     for(NewConnectionListener l : listener) {
                         l.notifyPeerConnected(targetPeerID, streamPair);
                     }
                 }
-            }).start();
+            });
         }
     }
 
     @Override
     protected void resumedConnectorProtocol() {
+        this.sendQueuedConnectRequests();
         try {
             this.syncHubInformation();
         } catch (IOException e) {
@@ -291,7 +651,10 @@ public abstract class SharedChannelConnectorPeerSide extends SharedChannelConnec
 
     @Override
     protected void shutdown() {
+        // channel broke - e.g. out of sync after data session
+        if(this.startReconnecting()) return;
         this.shutdown = true;
+        this.failPendingConnects(new IOException("connector shut down"));
     }
 
     public boolean isShutdown() {
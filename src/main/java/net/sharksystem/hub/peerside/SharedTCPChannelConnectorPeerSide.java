@@ -1,7 +1,9 @@
 package net.sharksystem.hub.peerside;
 
 import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
 import net.sharksystem.hub.ASAPHubException;
+import net.sharksystem.hub.HubThreads;
 import net.sharksystem.hub.protocol.HubPDUConnectPeerNewTCPSocketRQ;
 import net.sharksystem.utils.Log;
 import net.sharksystem.utils.streams.StreamPairImpl;
@@ -9,6 +11,7 @@ import net.sharksystem.utils.streams.StreamPairImpl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
 import static net.sharksystem.hub.peerside.HubConnectorDescription.TCP;
@@ -18,6 +21,11 @@ public class SharedTCPChannelConnectorPeerSide extends SharedChannelConnectorPee
     private final int port;
     private final boolean multiChannel;
     private Socket hubSocket;
+    private volatile int connectTimeoutInMillis = DEFAULT_CONNECT_TIMEOUT_IN_MILLIS;
+    private int dataSocketPoolSize = DataSocketPool.DEFAULT_POOL_SIZE;
+    private DataSocketPool dataSocketPool = null;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_IN_MILLIS = 30000;
 
     public static HubConnector createTCPHubConnector(CharSequence hostName, int port)
             throws IOException, ASAPHubException {
@@ -27,15 +35,42 @@ public class SharedTCPChannelConnectorPeerSide extends SharedChannelConnectorPee
 
     public static HubConnector createTCPHubConnector(CharSequence hostName, int port, boolean multiChannel)
         throws IOException, ASAPHubException {
+
+        return createTCPHubConnector(hostName, port, multiChannel, DEFAULT_CONNECT_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * @param connectTimeoutInMillis give up if hub cannot be reached within that time - also used for reconnects
+     *                               and data sessions
+     */
+    public static HubConnector createTCPHubConnector(CharSequence hostName, int port, boolean multiChannel,
+                                                     int connectTimeoutInMillis)
+        throws IOException, ASAPHubException {
         // create TCP connection to hub
-        Socket hubSocket = new Socket(hostName.toString(), port);
+        Socket hubSocket = connectSocket(hostName.toString(), port, connectTimeoutInMillis);
 
-        return new SharedTCPChannelConnectorPeerSide(hubSocket, hostName, port, multiChannel);
+        SharedTCPChannelConnectorPeerSide connector =
+                new SharedTCPChannelConnectorPeerSide(hubSocket, hostName, port, multiChannel);
+        connector.setConnectTimeoutInMillis(connectTimeoutInMillis);
+        return connector;
+    }
+
+    static Socket connectSocket(String hostName, int port, int timeoutInMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(hostName, port), timeoutInMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
     }
 
     public SharedTCPChannelConnectorPeerSide(Socket hubSocket, CharSequence hostName, int port, boolean multiChannel)
             throws IOException, ASAPHubException {
         super(hubSocket.getInputStream(), hubSocket.getOutputStream());
+        // small PDUs go back and forth - do not wait for acknowledgements (PDU writer coalesces anyway)
+        hubSocket.setTcpNoDelay(true);
 
         Log.writeLog(this, this.toString(),"connected to hub: " + hostName + ":" + port);
 
@@ -45,11 +80,81 @@ public class SharedTCPChannelConnectorPeerSide extends SharedChannelConnectorPee
         this.multiChannel = multiChannel;
     }
 
+    /**
+     * @param connectTimeoutInMillis give up if hub cannot be reached within that time - used for reconnects and
+     *                               data sessions
+     */
+    public void setConnectTimeoutInMillis(int connectTimeoutInMillis) {
+        this.connectTimeoutInMillis = connectTimeoutInMillis;
+    }
+
     // overwrite default
     public void connectHub(CharSequence localPeerID) throws IOException, ASAPException {
         this.connectHub(localPeerID, this.multiChannel);
     }
 
+    @Override
+    public void disconnectHub() throws ASAPHubException {
+        super.disconnectHub();
+        synchronized (this) {
+            if(this.dataSocketPool != null) this.dataSocketPool.close();
+            this.dataSocketPool = null;
+        }
+    }
+
+    @Override
+    protected boolean reopenChannel() throws IOException, ASAPException {
+        Socket newHubSocket = connectSocket(this.hostName, this.port, this.connectTimeoutInMillis);
+        newHubSocket.setTcpNoDelay(true);
+        Socket lostHubSocket;
+        synchronized (this) {
+            lostHubSocket = this.hubSocket;
+            this.hubSocket = newHubSocket;
+        }
+        try {
+            lostHubSocket.close();
+        } catch (IOException e) {
+            // already broken - ignore
+        }
+        this.replaceStreams(newHubSocket.getInputStream(), newHubSocket.getOutputStream());
+        Log.writeLog(this, this.toString(), "reconnected to hub: " + this.hostName + ":" + this.port);
+        return true;
+    }
+
+    /**
+     * Number of idle connections to hub data port kept open for upcoming encounters. Only used if hub hands out
+     * session tokens - see {@link net.sharksystem.hub.protocol.HubCapabilities#DATA_PORT_TOKENS}.
+     * @param size 0: no pool - open a connection for each encounter
+     */
+    public void setDataSocketPoolSize(int size) {
+        this.dataSocketPoolSize = size;
+    }
+
+    /**
+     * @return pool of connections to hub data port - null if there is none (yet)
+     */
+    public synchronized DataSocketPool getDataSocketPool() {
+        return this.dataSocketPool;
+    }
+
+    private Socket openDataSocket(HubPDUConnectPeerNewTCPSocketRQ pdu) throws IOException {
+        if(!pdu.withToken() || this.dataSocketPoolSize <= 0) {
+            return connectSocket(this.hostName, pdu.getPort(), this.connectTimeoutInMillis);
+        }
+
+        DataSocketPool pool;
+        synchronized (this) {
+            if(this.dataSocketPool == null || this.dataSocketPool.getPort() != pdu.getPort()) {
+                // first token request tells data port
+                if(this.dataSocketPool != null) this.dataSocketPool.close();
+                this.dataSocketPool = new DataSocketPool(this.hostName, pdu.getPort(),
+                        this.dataSocketPoolSize, DataSocketPool.DEFAULT_MAX_IDLE_IN_MILLIS);
+            }
+            pool = this.dataSocketPool;
+        }
+        return pool.take();
+    }
+
     @Override
     public boolean isSame(HubConnectorDescription hcd) {
         if(hcd.getType() != TCP) {
@@ -85,15 +190,19 @@ public class SharedTCPChannelConnectorPeerSide extends SharedChannelConnectorPee
         Log.writeLog(this, this.toString(),"asked to open a new connection to " + pdu.peerID);
 
         try {
-            Socket newPeerSocket = new Socket(this.hostName, pdu.getPort());
+            Socket newPeerSocket = this.openDataSocket(pdu);
+            if(pdu.withToken()) {
+                // hub data port is shared - tell which encounter this connection belongs to
+                ASAPSerialization.writeLongParameter(pdu.getToken(), newPeerSocket.getOutputStream());
+            }
             Log.writeLog(this, this.toString(), "connected - wait clearance message");
-            new Wait4Clear(pdu.peerID, newPeerSocket).start();
+            HubThreads.start(new Wait4Clear(pdu.peerID, newPeerSocket), "wait for clear");
         } catch (IOException e) {
             Log.writeLog(this, this.toString(),"could not establish new TCP connection for new peer encounter");
         }
 
     }
-    private class Wait4Clear extends Thread {
+    private class Wait4Clear implements Runnable {
         private final InputStream is;
         private final CharSequence peerID;
         private final OutputStream os;
@@ -2,6 +2,7 @@ package net.sharksystem.hub.protocol;
 
 import net.sharksystem.asap.ASAPException;
 import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.HubThreads;
 import net.sharksystem.utils.Log;
 
 import java.io.IOException;
@@ -9,8 +10,9 @@ import java.io.InputStream;
 
 /**
  * Thread that reads and writes connector PDUs. Actual application logic is delegated to a connector implementation.
+ * The thread itself is produced by {@link HubThreads}.
  */
-public class ConnectorThread extends Thread {
+public class ConnectorThread implements Runnable {
     private final Connector connector;
     private final InputStream is;
     private boolean again = true;
@@ -20,6 +22,10 @@ public class ConnectorThread extends Thread {
         this.is = is;
     }
 
+    public void start() {
+        HubThreads.start(this, "connector thread");
+    }
+
     public void kill() {
         this.again = false;
     }
@@ -37,48 +43,7 @@ public class ConnectorThread extends Thread {
 
             while (this.again) {
                 HubPDU hubPDU = HubPDU.readPDU(this.is);
-
-                this.connector.notifyPDUReceived(hubPDU);
-
-                if (hubPDU instanceof HubPDUHubStatusRQ) {
-                    Log.writeLog(this, this.toString(), "read hub status RQ");
-                    this.connector.hubStatusRQ((HubPDUHubStatusRQ) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDUHubStatusRPLY) {
-                    Log.writeLog(this, this.toString(), "read hub status RPLY");
-                    this.connector.hubStatusRPLY((HubPDUHubStatusRPLY) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDUSilentRQ) {
-                    Log.writeLog(this, this.toString(), "read hub silent RQ");
-                    this.connector.silentRQ((HubPDUSilentRQ) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDUSilentRPLY) {
-                    Log.writeLog(this, this.toString(), "read hub silent RPLY");
-                    this.connector.silentRPLY((HubPDUSilentRPLY) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDUChannelClear) {
-                    Log.writeLog(this, this.toString(), "read hub channel clear");
-                    this.connector.channelClear((HubPDUChannelClear) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDURegister) {
-                    Log.writeLog(this, this.toString(), "read hub register");
-                    this.connector.register((HubPDURegister) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDUUnregister) {
-                    Log.writeLog(this, this.toString(), "read hub unregister");
-                    this.connector.unregister((HubPDUUnregister) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDUConnectPeerRQ) {
-                    Log.writeLog(this, this.toString(), "read hub connect peer RQ");
-                    this.connector.connectPeerRQ((HubPDUConnectPeerRQ) hubPDU);
-                }
-                else if (hubPDU instanceof HubPDUConnectPeerNewTCPSocketRQ) {
-                    Log.writeLog(this, this.toString(), "read hub new TCP connection request");
-                    this.connector.openNewTCPConnectionRequest((HubPDUConnectPeerNewTCPSocketRQ) hubPDU);
-                } else {
-                    Log.writeLog(this, this.toString(), "got unknown / unsupported PDU type: "
-                        + hubPDU.getClass().getSimpleName());
-                }
+                this.dispatchPDU(hubPDU);
             }
         } catch (IOException | ASAPException e) {
             Log.writeLog(this, this.connector.toString(),"connection lost - no recovery expected");
@@ -91,6 +56,127 @@ public class ConnectorThread extends Thread {
         }
     }
 
+    /**
+     * Hand a received PDU over to the connector. Engines that do not read PDUs from a blocking stream, e.g. the
+     * selector based hub engine, decode PDUs by themselves and call this method.
+     * @param hubPDU received PDU
+     */
+    protected void dispatchPDU(HubPDU hubPDU) {
+        if(this.handledByExecutor(hubPDU)) {
+            // might wait for other connectors - keep on reading. Nobody waits for such a PDU as a reply.
+            this.connector.getHandlerExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    ConnectorThread.this.handlePDU(hubPDU);
+                }
+            });
+            return;
+        }
+        this.handlePDUAndNotify(hubPDU);
+    }
+
+    /**
+     * PDUs that reach into the hub and other connectors. Anything else is handled right here: most PDUs only change
+     * connector state and some (silence, channel clear, open session) decide what the next bytes on the channel are.
+     * @param hubPDU
+     * @return true if PDU is handled by connector's handler executor
+     */
+    private boolean handledByExecutor(HubPDU hubPDU) {
+        return hubPDU instanceof HubPDUConnectPeerRQ
+                || hubPDU instanceof HubPDUConnectPeerNewTCPSocketRQ
+                || hubPDU instanceof HubPDUUnregister;
+    }
+
+    private void handlePDUAndNotify(HubPDU hubPDU) {
+        this.connector.notifyPDUHandlingStarted(hubPDU);
+        try {
+            this.handlePDU(hubPDU);
+        } finally {
+            // after handling - threads waiting for a reply find connector state already updated
+            this.connector.notifyPDUReceived(hubPDU);
+        }
+    }
+
+    private void handlePDU(HubPDU hubPDU) {
+        // stream pdus first - most frequent on multiplexed channels
+        if (hubPDU instanceof HubPDUStreamData) {
+            this.connector.streamData((HubPDUStreamData) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUStreamWindow) {
+            this.connector.streamWindow((HubPDUStreamWindow) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUStreamOpen) {
+            Log.writeLog(this, this.toString(), "read stream open");
+            this.connector.streamOpen((HubPDUStreamOpen) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUStreamClose) {
+            Log.writeLog(this, this.toString(), "read stream close");
+            this.connector.streamClose((HubPDUStreamClose) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUHeartbeat) {
+            this.connector.heartbeat((HubPDUHeartbeat) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUOpenSession) {
+            Log.writeLog(this, this.toString(), "read open session");
+            this.connector.openSession((HubPDUOpenSession) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUHubStatusRQ) {
+            Log.writeLog(this, this.toString(), "read hub status RQ");
+            this.connector.hubStatusRQ((HubPDUHubStatusRQ) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUHubStatusRPLY) {
+            Log.writeLog(this, this.toString(), "read hub status RPLY");
+            this.connector.hubStatusRPLY((HubPDUHubStatusRPLY) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUPeerPresence) {
+            Log.writeLog(this, this.toString(), "read peer presence");
+            this.connector.peerPresence((HubPDUPeerPresence) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUSilentRQ) {
+            Log.writeLog(this, this.toString(), "read hub silent RQ");
+            this.connector.silentRQ((HubPDUSilentRQ) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUSilentRPLY) {
+            Log.writeLog(this, this.toString(), "read hub silent RPLY");
+            this.connector.silentRPLY((HubPDUSilentRPLY) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUChannelClear) {
+            Log.writeLog(this, this.toString(), "read hub channel clear");
+            this.connector.channelClear((HubPDUChannelClear) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDURegister) {
+            Log.writeLog(this, this.toString(), "read hub register");
+            this.connector.register((HubPDURegister) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDURegisterRPLY) {
+            Log.writeLog(this, this.toString(), "read hub register RPLY");
+            this.connector.registerRPLY((HubPDURegisterRPLY) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUUnregister) {
+            Log.writeLog(this, this.toString(), "read hub unregister");
+            this.connector.unregister((HubPDUUnregister) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUConnectPeerRQ) {
+            Log.writeLog(this, this.toString(), "read hub connect peer RQ");
+            this.connector.connectPeerRQ((HubPDUConnectPeerRQ) hubPDU);
+        }
+        else if (hubPDU instanceof HubPDUConnectPeerNewTCPSocketRQ) {
+            Log.writeLog(this, this.toString(), "read hub new TCP connection request");
+            this.connector.openNewTCPConnectionRequest((HubPDUConnectPeerNewTCPSocketRQ) hubPDU);
+        } else {
+            Log.writeLog(this, this.toString(), "got unknown / unsupported PDU type: "
+                + hubPDU.getClass().getSimpleName());
+        }
+    }
+
+    protected Connector getConnector() {
+        return this.connector;
+    }
+
+    protected boolean isKilled() {
+        return !this.again;
+    }
+
     public String toString() {
         return this.connector.toString();
     }
@@ -0,0 +1,20 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.hub.Connector;
+
+import java.io.InputStream;
+
+/**
+ * Connectors (re-)launch their protocol engine whenever they (re-)enter hub protocol status. This factory decides
+ * what kind of engine is used. Default is a thread blocking in a read on the input stream.
+ */
+public interface ConnectorThreadFactory {
+    ConnectorThreadFactory BLOCKING_READ = new ConnectorThreadFactory() {
+        @Override
+        public ConnectorThread createConnectorThread(Connector connector, InputStream is) {
+            return new ConnectorThread(connector, is);
+        }
+    };
+
+    ConnectorThread createConnectorThread(Connector connector, InputStream is);
+}
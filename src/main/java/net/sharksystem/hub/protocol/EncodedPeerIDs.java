@@ -0,0 +1,79 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Peer ids serialised once - like {@link ASAPSerialization#writeCharSequenceSetParameter} would do. Hub keeps one
+ * per version of its registered peers and writes it into each status reply. A reply leaves out the asking peer:
+ * bytes before and after its entry are written as they are - no set, no encoding per reply.
+ * <br/><br/>
+ * Immutable.
+ */
+public class EncodedPeerIDs {
+    private final long version;
+    private final byte[] entries;
+    private final int size;
+    // position of each peer entry in entries: start, end
+    private final Map<String, int[]> positions = new HashMap<>();
+
+    /**
+     * @param version version of the peer list - negative if unknown
+     * @param peerIDs
+     */
+    public EncodedPeerIDs(long version, Collection<CharSequence> peerIDs) {
+        this.version = version;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        int size = 0;
+        try {
+            for(CharSequence peerID : peerIDs) {
+                int start = baos.size();
+                ASAPSerialization.writeCharSequenceParameter(peerID, baos);
+                this.positions.put(peerID.toString(), new int[] {start, baos.size()});
+                size++;
+            }
+        } catch (IOException e) {
+            // cannot happen - writes to memory
+            throw new IllegalStateException(e);
+        }
+        this.entries = baos.toByteArray();
+        this.size = size;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Write peer ids as char sequence set parameter.
+     * @param os
+     * @param excludedPeerID left out - can be null
+     * @throws IOException
+     */
+    public void writeTo(OutputStream os, CharSequence excludedPeerID) throws IOException {
+        int[] excluded = excludedPeerID == null ? null : this.positions.get(excludedPeerID.toString());
+        if(excluded == null) {
+            ASAPSerialization.writeNonNegativeIntegerParameter(this.size, os);
+            os.write(this.entries);
+        } else {
+            ASAPSerialization.writeNonNegativeIntegerParameter(this.size - 1, os);
+            os.write(this.entries, 0, excluded[0]);
+            os.write(this.entries, excluded[1], this.entries.length - excluded[1]);
+        }
+    }
+
+    public String toString() {
+        return "encoded peer ids (version: " + this.version + ", peers: " + this.size
+                + ", bytes: " + this.entries.length + ")";
+    }
+}
@@ -0,0 +1,59 @@
+package net.sharksystem.hub.protocol;
+
+/**
+ * Optional protocol features. A peer offers a set of capabilities when registering. The hub replies with those it
+ * supports as well. Both sides use only accepted capabilities. Peers that offer nothing talk the original protocol.
+ */
+public class HubCapabilities {
+    public static final int NONE = 0;
+
+    /** data sessions are multiplexed streams on the shared channel - no silence required */
+    public static final int MULTIPLEX = 1;
+
+    /** data sessions on a silenced channel are framed - both sides resync immediately after end of session */
+    public static final int FRAMED_DATA_SESSIONS = 2;
+
+    /** hub status replies carry a version and only peers (un)registered since the version the peer knows */
+    public static final int STATUS_DELTA = 4;
+
+    /** hub pushes peers that joined or left - peers need not poll hub status to learn about new peers */
+    public static final int PRESENCE_PUSH = 8;
+
+    /** new data connections go to one hub data port - peer presents a session token as first bytes */
+    public static final int DATA_PORT_TOKENS = 16;
+
+    /** hub hands out a resumption token - a peer that lost its connection gets its registration back with it */
+    public static final int RESUMPTION = 32;
+
+    /** hub pings peer while connector protocol runs - measures round trip time and detects dead connections */
+    public static final int HEARTBEAT = 64;
+
+    /** hub opens data sessions on a shared channel with a single round trip - see {@link HubPDUOpenSession} */
+    public static final int OPEN_SESSION = 128;
+
+    /** hub runs queued data sessions back to back on a silenced channel - requires framed data sessions */
+    public static final int BATCHED_SESSIONS = 256;
+
+    /** all capabilities this implementation can handle */
+    public static final int SUPPORTED = MULTIPLEX | FRAMED_DATA_SESSIONS | STATUS_DELTA | PRESENCE_PUSH
+            | DATA_PORT_TOKENS | RESUMPTION | HEARTBEAT | OPEN_SESSION | BATCHED_SESSIONS;
+
+    public static boolean has(int capabilities, int capability) {
+        return (capabilities & capability) == capability;
+    }
+
+    public static String toString(int capabilities) {
+        if(capabilities == NONE) return "none";
+        StringBuilder sb = new StringBuilder();
+        if(has(capabilities, MULTIPLEX)) sb.append("multiplex ");
+        if(has(capabilities, FRAMED_DATA_SESSIONS)) sb.append("framedDataSessions ");
+        if(has(capabilities, STATUS_DELTA)) sb.append("statusDelta ");
+        if(has(capabilities, PRESENCE_PUSH)) sb.append("presencePush ");
+        if(has(capabilities, DATA_PORT_TOKENS)) sb.append("dataPortTokens ");
+        if(has(capabilities, RESUMPTION)) sb.append("resumption ");
+        if(has(capabilities, HEARTBEAT)) sb.append("heartbeat ");
+        if(has(capabilities, OPEN_SESSION)) sb.append("openSession ");
+        if(has(capabilities, BATCHED_SESSIONS)) sb.append("batchedSessions ");
+        return sb.toString().trim();
+    }
+}
@@ -18,6 +18,21 @@ public abstract class HubPDU {
     static final byte SILENT_REPLY = 7;
     public static final byte CHANNEL_CLEAR = 8;
     static final byte HUB_UNREGISTER = 9;
+    static final byte HUB_REGISTER_WITH_CAPABILITIES = 10;
+    public static final byte HUB_REGISTER_REPLY = 11;
+    static final byte STREAM_OPEN = 12;
+    static final byte STREAM_DATA = 13;
+    static final byte STREAM_WINDOW = 14;
+    static final byte STREAM_CLOSE = 15;
+    static final byte HUB_STATUS_DELTA_REQUEST = 16;
+    public static final byte HUB_STATUS_DELTA_REPLY = 17;
+    public static final byte PEER_PRESENCE = 18;
+    static final byte OPEN_NEW_TCP_SOCKET_WITH_TOKEN_RQ = 19;
+    static final byte HUB_REGISTER_RESUME = 20;
+    static final byte HEARTBEAT_PING = 21;
+    public static final byte HEARTBEAT_PONG = 22;
+    static final byte OPEN_SESSION_REQUEST = 23;
+    static final byte OPEN_SESSION_REPLY = 24;
 
     private final byte pduNumber;
 
@@ -31,14 +46,29 @@ public abstract class HubPDU {
         byte b = ASAPSerialization.readByte(is);
         switch (b) {
             case HUB_REGISTER: return new HubPDURegister(is);
+            case HUB_REGISTER_WITH_CAPABILITIES: return new HubPDURegister(is, true);
+            case HUB_REGISTER_RESUME: return new HubPDURegister(is, true, true);
+            case HUB_REGISTER_REPLY: return new HubPDURegisterRPLY(is);
             case HUB_UNREGISTER: return new HubPDUUnregister(is);
             case CONNECT_PEER_REQUEST: return new HubPDUConnectPeerRQ(is);
             case HUB_STATUS_REQUEST: return new HubPDUHubStatusRQ(is);
             case HUB_STATUS_REPLY: return new HubPDUHubStatusRPLY(is);
+            case HUB_STATUS_DELTA_REQUEST: return new HubPDUHubStatusRQ(is, true);
+            case HUB_STATUS_DELTA_REPLY: return new HubPDUHubStatusRPLY(is, true);
+            case PEER_PRESENCE: return new HubPDUPeerPresence(is);
+            case HEARTBEAT_PING: return new HubPDUHeartbeat(is, false);
+            case HEARTBEAT_PONG: return new HubPDUHeartbeat(is, true);
+            case OPEN_SESSION_REQUEST: return new HubPDUOpenSession(is, false);
+            case OPEN_SESSION_REPLY: return new HubPDUOpenSession(is, true);
             case OPEN_NEW_TCP_SOCKET_RQ: return new HubPDUConnectPeerNewTCPSocketRQ(is);
+            case OPEN_NEW_TCP_SOCKET_WITH_TOKEN_RQ: return new HubPDUConnectPeerNewTCPSocketRQ(is, true);
             case SILENT_REQUEST: return new HubPDUSilentRQ(is);
             case SILENT_REPLY: return new HubPDUSilentRPLY(is);
             case CHANNEL_CLEAR: return new HubPDUChannelClear(is);
+            case STREAM_OPEN: return new HubPDUStreamOpen(is);
+            case STREAM_DATA: return new HubPDUStreamData(is);
+            case STREAM_WINDOW: return new HubPDUStreamWindow(is);
+            case STREAM_CLOSE: return new HubPDUStreamClose(is);
 
             default: throw new IOException("unknown pdu type: " + b);
         }
@@ -7,20 +7,46 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+/**
+ * Hub asks peer to open a new TCP connection for an encounter with peerID. Original request names a port opened for
+ * this connection only. A request with token (see {@link HubCapabilities#DATA_PORT_TOKENS}) names the hub data port
+ * shared by all new connections - peer writes the token first to tell hub which encounter it belongs to.
+ */
 public class HubPDUConnectPeerNewTCPSocketRQ extends HubPDU {
+    public static final long NO_TOKEN = 0;
+
     private final int port;
+    private final long token;
     public CharSequence peerID;
 
     public HubPDUConnectPeerNewTCPSocketRQ(CharSequence peerID, int port) {
         super(OPEN_NEW_TCP_SOCKET_RQ);
         this.peerID = peerID;
         this.port = port;
+        this.token = NO_TOKEN;
+    }
+
+    /**
+     * @param peerID
+     * @param port hub data port
+     * @param token session token - must not be {@link #NO_TOKEN}
+     */
+    public HubPDUConnectPeerNewTCPSocketRQ(CharSequence peerID, int port, long token) {
+        super(OPEN_NEW_TCP_SOCKET_WITH_TOKEN_RQ);
+        this.peerID = peerID;
+        this.port = port;
+        this.token = token;
     }
 
     public HubPDUConnectPeerNewTCPSocketRQ(InputStream is) throws IOException, ASAPException {
-        super(OPEN_NEW_TCP_SOCKET_RQ);
+        this(is, false);
+    }
+
+    public HubPDUConnectPeerNewTCPSocketRQ(InputStream is, boolean withToken) throws IOException, ASAPException {
+        super(withToken ? OPEN_NEW_TCP_SOCKET_WITH_TOKEN_RQ : OPEN_NEW_TCP_SOCKET_RQ);
         this.peerID = ASAPSerialization.readCharSequenceParameter(is);
         this.port = ASAPSerialization.readIntegerParameter(is);
+        this.token = withToken ? ASAPSerialization.readLongParameter(is) : NO_TOKEN;
     }
 
     @Override
@@ -28,9 +54,22 @@ public class HubPDUConnectPeerNewTCPSocketRQ extends HubPDU {
         super.sendPDUNumber(os);
         ASAPSerialization.writeCharSequenceParameter(this.peerID, os);
         ASAPSerialization.writeIntegerParameter(this.port, os);
+        if(this.withToken()) ASAPSerialization.writeLongParameter(this.token, os);
     }
 
     public int getPort() { return this.port;}
     public CharSequence getPeerID() { return this.peerID;}
+    public long getToken() { return this.token;}
 
+    /**
+     * @return true if peer must write the token as first bytes of the new connection
+     */
+    public boolean withToken() {
+        return this.getCommand() == OPEN_NEW_TCP_SOCKET_WITH_TOKEN_RQ;
+    }
+
+    public String toString() {
+        return super.toString() + " | " + this.peerID + " | port: " + this.port
+                + (this.withToken() ? " | with token" : "");
+    }
 }
@@ -0,0 +1,56 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Hub pings a peer that agreed on {@link HubCapabilities#HEARTBEAT}. Peer answers with a pong that echoes sequence
+ * number and time stamp - the pinging side takes round trip time from its own clock.
+ */
+public class HubPDUHeartbeat extends HubPDU {
+    public final int sequence;
+    public final long timestamp;
+
+    /**
+     * @param pong false: ping; true: answer to a ping
+     * @param sequence
+     * @param timestamp time of ping in nanoseconds of pinging side - see {@link System#nanoTime()}
+     */
+    public HubPDUHeartbeat(boolean pong, int sequence, long timestamp) {
+        super(pong ? HEARTBEAT_PONG : HEARTBEAT_PING);
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    public HubPDUHeartbeat(InputStream is, boolean pong) throws IOException, ASAPException {
+        super(pong ? HEARTBEAT_PONG : HEARTBEAT_PING);
+        this.sequence = ASAPSerialization.readIntegerParameter(is);
+        this.timestamp = ASAPSerialization.readLongParameter(is);
+    }
+
+    public boolean isPong() {
+        return this.getCommand() == HEARTBEAT_PONG;
+    }
+
+    /**
+     * @return answer to this ping
+     */
+    public HubPDUHeartbeat createPong() {
+        return new HubPDUHeartbeat(true, this.sequence, this.timestamp);
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        ASAPSerialization.writeIntegerParameter(this.sequence, os);
+        ASAPSerialization.writeLongParameter(this.timestamp, os);
+    }
+
+    public String toString() {
+        return super.toString() + " | " + (this.isPong() ? "pong " : "ping ") + this.sequence;
+    }
+}
@@ -6,28 +6,116 @@ import net.sharksystem.asap.utils.ASAPSerialization;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Registered peers. The original reply lists all peers. A delta reply (see {@link HubCapabilities#STATUS_DELTA})
+ * carries the version of the hub peer list and either all peers (full) or peers added and removed since the version
+ * the peer asked with.
+ */
 public class HubPDUHubStatusRPLY extends HubPDU {
+    /** all peers - or peers added since known version in a delta reply that is not full */
     public Set<CharSequence> connectedPeers;
+    public final Set<CharSequence> removedPeers;
+    public final long version;
+    public final boolean full;
+
+    // hub side: peers already serialised - connectedPeers is null
+    private final EncodedPeerIDs encodedPeers;
+    private final CharSequence excludedPeerID;
 
     public HubPDUHubStatusRPLY(Set<CharSequence> connectedPeers) {
         super(HUB_STATUS_REPLY);
         this.connectedPeers = connectedPeers;
+        this.removedPeers = new HashSet<>();
+        this.version = HubPDUHubStatusRQ.NO_VERSION;
+        this.full = true;
+        this.encodedPeers = null;
+        this.excludedPeerID = null;
     }
 
-    public HubPDUHubStatusRPLY(InputStream is) throws IOException, ASAPException {
+    /**
+     * Reply with peers serialised before - nothing is encoded when sent.
+     * @param encodedPeers all peers
+     * @param excludedPeerID peer left out of the reply - usually the asking one
+     */
+    public HubPDUHubStatusRPLY(EncodedPeerIDs encodedPeers, CharSequence excludedPeerID) {
         super(HUB_STATUS_REPLY);
-        this.connectedPeers = ASAPSerialization.readCharSequenceSetParameter(is);
+        this.connectedPeers = null;
+        this.removedPeers = Collections.emptySet();
+        this.version = encodedPeers.getVersion();
+        this.full = true;
+        this.encodedPeers = encodedPeers;
+        this.excludedPeerID = excludedPeerID;
+    }
+
+    /**
+     * Delta reply
+     * @param version version of hub peer list
+     * @param full true: addedPeers are all peers
+     * @param addedPeers
+     * @param removedPeers
+     */
+    public HubPDUHubStatusRPLY(long version, boolean full, Set<CharSequence> addedPeers,
+                               Set<CharSequence> removedPeers) {
+        super(HUB_STATUS_DELTA_REPLY);
+        this.connectedPeers = addedPeers;
+        this.removedPeers = removedPeers;
+        this.version = version;
+        this.full = full;
+        this.encodedPeers = null;
+        this.excludedPeerID = null;
+    }
+
+    public HubPDUHubStatusRPLY(InputStream is) throws IOException, ASAPException {
+        this(is, false);
+    }
+
+    public HubPDUHubStatusRPLY(InputStream is, boolean delta) throws IOException, ASAPException {
+        super(delta ? HUB_STATUS_DELTA_REPLY : HUB_STATUS_REPLY);
+        this.encodedPeers = null;
+        this.excludedPeerID = null;
+        if(delta) {
+            this.version = ASAPSerialization.readLongParameter(is);
+            this.full = ASAPSerialization.readBooleanParameter(is);
+            this.connectedPeers = ASAPSerialization.readCharSequenceSetParameter(is);
+            this.removedPeers = ASAPSerialization.readCharSequenceSetParameter(is);
+        } else {
+            this.version = HubPDUHubStatusRQ.NO_VERSION;
+            this.full = true;
+            this.connectedPeers = ASAPSerialization.readCharSequenceSetParameter(is);
+            this.removedPeers = new HashSet<>();
+        }
+    }
+
+    /**
+     * @return true if this is a reply to a delta request
+     */
+    public boolean isDelta() {
+        return this.getCommand() == HUB_STATUS_DELTA_REPLY;
     }
 
     @Override
     public void sendPDU(OutputStream os) throws IOException {
         super.sendPDUNumber(os);
-        ASAPSerialization.writeCharSequenceSetParameter(this.connectedPeers, os);
+        if(this.isDelta()) {
+            ASAPSerialization.writeLongParameter(this.version, os);
+            ASAPSerialization.writeBooleanParameter(this.full, os);
+            ASAPSerialization.writeCharSequenceSetParameter(this.connectedPeers, os);
+            ASAPSerialization.writeCharSequenceSetParameter(this.removedPeers, os);
+        } else if(this.encodedPeers != null) {
+            this.encodedPeers.writeTo(os, this.excludedPeerID);
+        } else {
+            ASAPSerialization.writeCharSequenceSetParameter(this.connectedPeers, os);
+        }
     }
 
     public String toString() {
-        return super.toString() + " | " + this.connectedPeers;
+        if(this.encodedPeers != null) return super.toString() + " | " + this.encodedPeers;
+        if(!this.isDelta()) return super.toString() + " | " + this.connectedPeers;
+        return super.toString() + " | version " + this.version + (this.full ? " | all: " : " | added: ")
+                + this.connectedPeers + " | removed: " + this.removedPeers;
     }
 }
@@ -1,20 +1,53 @@
 package net.sharksystem.hub.protocol;
 
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+/**
+ * Peer asks for registered peers. Peers that agreed on {@link HubCapabilities#STATUS_DELTA} send the version of the
+ * peer list they know - hub replies only what changed since. Others send the original request.
+ */
 public class HubPDUHubStatusRQ extends HubPDU {
-    public HubPDUHubStatusRQ(InputStream is) {
-        super(HUB_STATUS_REQUEST);
+    public static final long NO_VERSION = -1;
+
+    public final long knownVersion;
+
+    public HubPDUHubStatusRQ(InputStream is) throws IOException, ASAPException {
+        this(is, false);
+    }
+
+    public HubPDUHubStatusRQ(InputStream is, boolean delta) throws IOException, ASAPException {
+        super(delta ? HUB_STATUS_DELTA_REQUEST : HUB_STATUS_REQUEST);
+        this.knownVersion = delta ? ASAPSerialization.readLongParameter(is) : NO_VERSION;
     }
 
     public HubPDUHubStatusRQ() {
         super(HUB_STATUS_REQUEST);
+        this.knownVersion = NO_VERSION;
+    }
+
+    /**
+     * @param knownVersion version of peer list known to this peer - {@link #NO_VERSION} if none
+     */
+    public HubPDUHubStatusRQ(long knownVersion) {
+        super(HUB_STATUS_DELTA_REQUEST);
+        this.knownVersion = knownVersion;
+    }
+
+    /**
+     * @return true if peer expects a delta reply
+     */
+    public boolean isDelta() {
+        return this.getCommand() == HUB_STATUS_DELTA_REQUEST;
     }
 
     @Override
     public void sendPDU(OutputStream os) throws IOException {
         super.sendPDUNumber(os);
+        if(this.isDelta()) ASAPSerialization.writeLongParameter(this.knownVersion, os);
     }
 }
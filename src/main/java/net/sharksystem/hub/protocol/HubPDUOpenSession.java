@@ -0,0 +1,85 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Only if both agreed on {@link HubCapabilities#OPEN_SESSION}: Hub opens a data session on the shared channel with
+ * a single round trip - instead of silent request, silent reply and channel clear. Request carries session ID,
+ * idle timeout and sync sequence. A peer that accepts sends its reply as last PDU - each following byte on the
+ * channel (in either direction) belongs to the data session.
+ */
+public class HubPDUOpenSession extends HubConnectionPDU {
+    public final CharSequence sessionID;
+    public final long maxIdleInMillis;
+    public final byte[] syncSequence;
+    public final boolean accepted;
+
+    /**
+     * Request
+     */
+    public HubPDUOpenSession(CharSequence sourcePeerID, CharSequence targetPeerID, CharSequence sessionID,
+                             long maxIdleInMillis, byte[] syncSequence) {
+        super(HubPDU.OPEN_SESSION_REQUEST, sourcePeerID, targetPeerID);
+        this.sessionID = sessionID;
+        this.maxIdleInMillis = maxIdleInMillis;
+        this.syncSequence = syncSequence;
+        this.accepted = false;
+    }
+
+    private HubPDUOpenSession(HubPDUOpenSession request, boolean accepted) {
+        super(HubPDU.OPEN_SESSION_REPLY, request.sourcePeerID, request.targetPeerID);
+        this.sessionID = request.sessionID;
+        this.maxIdleInMillis = request.maxIdleInMillis;
+        this.syncSequence = request.syncSequence;
+        this.accepted = accepted;
+    }
+
+    public HubPDUOpenSession(InputStream is, boolean reply) throws IOException, ASAPException {
+        super(reply ? HubPDU.OPEN_SESSION_REPLY : HubPDU.OPEN_SESSION_REQUEST, is);
+        this.sessionID = ASAPSerialization.readCharSequenceParameter(is);
+        if(reply) {
+            this.maxIdleInMillis = 0;
+            this.syncSequence = null;
+            this.accepted = ASAPSerialization.readByteParameter(is) != 0;
+        } else {
+            this.maxIdleInMillis = ASAPSerialization.readLongParameter(is);
+            this.syncSequence = ASAPSerialization.readByteArray(is);
+            this.accepted = false;
+        }
+    }
+
+    public boolean isReply() {
+        return this.getCommand() == HubPDU.OPEN_SESSION_REPLY;
+    }
+
+    /**
+     * @param accepted false: peer cannot switch to a data session now
+     * @return answer to this request
+     */
+    public HubPDUOpenSession createReply(boolean accepted) {
+        return new HubPDUOpenSession(this, accepted);
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        super.sendFromTo(os);
+        ASAPSerialization.writeCharSequenceParameter(this.sessionID, os);
+        if(this.isReply()) {
+            ASAPSerialization.writeByteParameter(this.accepted ? (byte) 1 : (byte) 0, os);
+        } else {
+            ASAPSerialization.writeLongParameter(this.maxIdleInMillis, os);
+            ASAPSerialization.writeByteArray(this.syncSequence, os);
+        }
+    }
+
+    public String toString() {
+        return super.toString() + " | " + (this.isReply() ? "open session reply " : "open session ")
+                + this.sessionID + (this.isReply() ? (this.accepted ? " accepted" : " rejected") : "");
+    }
+}
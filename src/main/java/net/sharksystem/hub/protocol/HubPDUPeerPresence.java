@@ -0,0 +1,41 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+
+/**
+ * Hub tells a peer which peers joined or left the hub since the last push. Only sent to peers that agreed on
+ * {@link HubCapabilities#PRESENCE_PUSH}. Hub collects changes over a short window - one PDU per window.
+ */
+public class HubPDUPeerPresence extends HubPDU {
+    public final Set<CharSequence> joinedPeers;
+    public final Set<CharSequence> leftPeers;
+
+    public HubPDUPeerPresence(Set<CharSequence> joinedPeers, Set<CharSequence> leftPeers) {
+        super(PEER_PRESENCE);
+        this.joinedPeers = joinedPeers;
+        this.leftPeers = leftPeers;
+    }
+
+    public HubPDUPeerPresence(InputStream is) throws IOException, ASAPException {
+        super(PEER_PRESENCE);
+        this.joinedPeers = ASAPSerialization.readCharSequenceSetParameter(is);
+        this.leftPeers = ASAPSerialization.readCharSequenceSetParameter(is);
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        ASAPSerialization.writeCharSequenceSetParameter(this.joinedPeers, os);
+        ASAPSerialization.writeCharSequenceSetParameter(this.leftPeers, os);
+    }
+
+    public String toString() {
+        return super.toString() + " | joined: " + this.joinedPeers + " | left: " + this.leftPeers;
+    }
+}
@@ -7,20 +7,70 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+/**
+ * Peer registers with hub. A peer can offer additional capabilities (see {@link HubCapabilities}). Those peers
+ * send an extended register PDU and hub replies with a {@link HubPDURegisterRPLY}. Register without capabilities
+ * is sent in the original format - older hubs understand it.
+ * <br/>
+ * A peer that lost its connection can present the resumption token received with its last register reply
+ * (see {@link HubCapabilities#RESUMPTION}). Such a register is sent only if hub has already agreed to resumption.
+ */
 public class HubPDURegister extends HubPDU {
+    public static final long NO_RESUMPTION_TOKEN = 0;
+
     public final CharSequence peerID;
     public final boolean canCreateTCPConnections;
+    public final int capabilities;
+    public final long resumptionToken;
 
     public HubPDURegister(CharSequence peerID, boolean canCreateTCPConnections) {
-        super(HUB_REGISTER);
+        this(peerID, canCreateTCPConnections, HubCapabilities.NONE);
+    }
+
+    public HubPDURegister(CharSequence peerID, boolean canCreateTCPConnections, int capabilities) {
+        this(peerID, canCreateTCPConnections, capabilities, NO_RESUMPTION_TOKEN);
+    }
+
+    public HubPDURegister(CharSequence peerID, boolean canCreateTCPConnections, int capabilities,
+                          long resumptionToken) {
+        super(resumptionToken != NO_RESUMPTION_TOKEN ? HUB_REGISTER_RESUME :
+                capabilities == HubCapabilities.NONE ? HUB_REGISTER : HUB_REGISTER_WITH_CAPABILITIES);
         this.peerID = peerID;
         this.canCreateTCPConnections = canCreateTCPConnections;
+        this.capabilities = capabilities;
+        this.resumptionToken = resumptionToken;
     }
 
     public HubPDURegister(InputStream is) throws IOException, ASAPException {
-        super(HUB_REGISTER);
+        this(is, false);
+    }
+
+    public HubPDURegister(InputStream is, boolean withCapabilities) throws IOException, ASAPException {
+        this(is, withCapabilities, false);
+    }
+
+    public HubPDURegister(InputStream is, boolean withCapabilities, boolean resume)
+            throws IOException, ASAPException {
+        super(resume ? HUB_REGISTER_RESUME : withCapabilities ? HUB_REGISTER_WITH_CAPABILITIES : HUB_REGISTER);
         this.peerID = ASAPSerialization.readCharSequenceParameter(is);
         this.canCreateTCPConnections = ASAPSerialization.readBooleanParameter(is);
+        this.capabilities = withCapabilities || resume ?
+                ASAPSerialization.readIntegerParameter(is) : HubCapabilities.NONE;
+        this.resumptionToken = resume ? ASAPSerialization.readLongParameter(is) : NO_RESUMPTION_TOKEN;
+    }
+
+    /**
+     * @return true if peer side understands a register reply
+     */
+    public boolean withCapabilities() {
+        return this.getCommand() != HUB_REGISTER;
+    }
+
+    /**
+     * @return true if peer wants its registration back
+     */
+    public boolean isResume() {
+        return this.getCommand() == HUB_REGISTER_RESUME;
     }
 
     @Override
@@ -28,5 +78,7 @@ public class HubPDURegister extends HubPDU {
         super.sendPDUNumber(os);
         ASAPSerialization.writeCharSequenceParameter(this.peerID, os);
         ASAPSerialization.writeBooleanParameter(this.canCreateTCPConnections, os);
+        if(this.withCapabilities()) ASAPSerialization.writeIntegerParameter(this.capabilities, os);
+        if(this.isResume()) ASAPSerialization.writeLongParameter(this.resumptionToken, os);
     }
 }
@@ -0,0 +1,57 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Hub replies a register with capabilities. It contains all capabilities both sides will use. If
+ * {@link HubCapabilities#RESUMPTION} was agreed, reply carries a resumption token and tells if a previous
+ * registration was resumed.
+ */
+public class HubPDURegisterRPLY extends HubPDU {
+    public final int capabilities;
+    public final long resumptionToken;
+    public final boolean resumed;
+
+    public HubPDURegisterRPLY(int capabilities) {
+        this(capabilities, HubPDURegister.NO_RESUMPTION_TOKEN, false);
+    }
+
+    public HubPDURegisterRPLY(int capabilities, long resumptionToken, boolean resumed) {
+        super(HUB_REGISTER_REPLY);
+        this.capabilities = capabilities;
+        this.resumptionToken = resumptionToken;
+        this.resumed = resumed;
+    }
+
+    public HubPDURegisterRPLY(InputStream is) throws IOException, ASAPException {
+        super(HUB_REGISTER_REPLY);
+        this.capabilities = ASAPSerialization.readIntegerParameter(is);
+        if(HubCapabilities.has(this.capabilities, HubCapabilities.RESUMPTION)) {
+            this.resumptionToken = ASAPSerialization.readLongParameter(is);
+            this.resumed = ASAPSerialization.readBooleanParameter(is);
+        } else {
+            this.resumptionToken = HubPDURegister.NO_RESUMPTION_TOKEN;
+            this.resumed = false;
+        }
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        ASAPSerialization.writeIntegerParameter(this.capabilities, os);
+        if(HubCapabilities.has(this.capabilities, HubCapabilities.RESUMPTION)) {
+            ASAPSerialization.writeLongParameter(this.resumptionToken, os);
+            ASAPSerialization.writeBooleanParameter(this.resumed, os);
+        }
+    }
+
+    public String toString() {
+        return super.toString() + " | " + HubCapabilities.toString(this.capabilities)
+                + (this.resumed ? " | resumed" : "");
+    }
+}
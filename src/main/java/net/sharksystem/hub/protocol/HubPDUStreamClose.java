@@ -0,0 +1,35 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * End of a multiplexed stream. Sender will neither send nor accept any further data on this stream.
+ */
+public class HubPDUStreamClose extends HubPDU {
+    public final int streamID;
+
+    public HubPDUStreamClose(int streamID) {
+        super(STREAM_CLOSE);
+        this.streamID = streamID;
+    }
+
+    public HubPDUStreamClose(InputStream is) throws IOException, ASAPException {
+        super(STREAM_CLOSE);
+        this.streamID = ASAPSerialization.readIntegerParameter(is);
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        ASAPSerialization.writeIntegerParameter(this.streamID, os);
+    }
+
+    public String toString() {
+        return super.toString() + " | stream " + this.streamID;
+    }
+}
@@ -0,0 +1,54 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Data of a multiplexed stream.
+ */
+public class HubPDUStreamData extends HubPDU {
+    public final int streamID;
+    public final byte[] data;
+    public final int offset;
+    public final int length;
+
+    public HubPDUStreamData(int streamID, byte[] data, int offset, int length) {
+        super(STREAM_DATA);
+        this.streamID = streamID;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public HubPDUStreamData(InputStream is) throws IOException, ASAPException {
+        super(STREAM_DATA);
+        this.streamID = ASAPSerialization.readIntegerParameter(is);
+        this.length = ASAPSerialization.readIntegerParameter(is);
+        if(this.length < 0) throw new ASAPException("negative data length: " + this.length);
+        this.offset = 0;
+        this.data = new byte[this.length];
+        // read(byte[]) can return less than asked for - read until complete
+        int read = 0;
+        while(read < this.length) {
+            int n = is.read(this.data, read, this.length - read);
+            if(n < 0) throw new IOException("stream ended within stream data pdu");
+            read += n;
+        }
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        ASAPSerialization.writeIntegerParameter(this.streamID, os);
+        ASAPSerialization.writeIntegerParameter(this.length, os);
+        os.write(this.data, this.offset, this.length);
+    }
+
+    public String toString() {
+        return super.toString() + " | stream " + this.streamID + " | " + this.length + " bytes";
+    }
+}
@@ -0,0 +1,46 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Opens a new data session on a multiplexed channel. It replaces silence request, silence reply and channel clear.
+ * Other side can send up to {@link #window} bytes before it has to wait for a window update.
+ */
+public class HubPDUStreamOpen extends HubConnectionPDU {
+    public final int streamID;
+    public final int window;
+    public final long maxIdleInMillis;
+
+    public HubPDUStreamOpen(int streamID, CharSequence sourcePeerID, CharSequence targetPeerID,
+                            int window, long maxIdleInMillis) {
+        super(STREAM_OPEN, sourcePeerID, targetPeerID);
+        this.streamID = streamID;
+        this.window = window;
+        this.maxIdleInMillis = maxIdleInMillis;
+    }
+
+    public HubPDUStreamOpen(InputStream is) throws IOException, ASAPException {
+        super(STREAM_OPEN, is);
+        this.streamID = ASAPSerialization.readIntegerParameter(is);
+        this.window = ASAPSerialization.readIntegerParameter(is);
+        this.maxIdleInMillis = ASAPSerialization.readLongParameter(is);
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        super.sendFromTo(os);
+        ASAPSerialization.writeIntegerParameter(this.streamID, os);
+        ASAPSerialization.writeIntegerParameter(this.window, os);
+        ASAPSerialization.writeLongParameter(this.maxIdleInMillis, os);
+    }
+
+    public String toString() {
+        return super.toString() + " | stream " + this.streamID + " | " + this.sourcePeerID + " --> " + this.targetPeerID;
+    }
+}
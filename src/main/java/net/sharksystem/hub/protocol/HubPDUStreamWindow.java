@@ -0,0 +1,39 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.ASAPException;
+import net.sharksystem.asap.utils.ASAPSerialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Receiver consumed data of a multiplexed stream. Sender can send that many bytes more.
+ */
+public class HubPDUStreamWindow extends HubPDU {
+    public final int streamID;
+    public final int increment;
+
+    public HubPDUStreamWindow(int streamID, int increment) {
+        super(STREAM_WINDOW);
+        this.streamID = streamID;
+        this.increment = increment;
+    }
+
+    public HubPDUStreamWindow(InputStream is) throws IOException, ASAPException {
+        super(STREAM_WINDOW);
+        this.streamID = ASAPSerialization.readIntegerParameter(is);
+        this.increment = ASAPSerialization.readIntegerParameter(is);
+    }
+
+    @Override
+    public void sendPDU(OutputStream os) throws IOException {
+        super.sendPDUNumber(os);
+        ASAPSerialization.writeIntegerParameter(this.streamID, os);
+        ASAPSerialization.writeIntegerParameter(this.increment, os);
+    }
+
+    public String toString() {
+        return super.toString() + " | stream " + this.streamID + " | +" + this.increment;
+    }
+}
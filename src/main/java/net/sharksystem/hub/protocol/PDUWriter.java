@@ -0,0 +1,288 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.hub.HubAlarmClock;
+import net.sharksystem.utils.AlarmClockListener;
+import net.sharksystem.utils.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Writes PDUs of a connector. PDUs are serialised into a reusable buffer and each buffer is handed to the
+ * underlying stream with a single write (and flush) instead of many small writes per PDU.
+ * <br/><br/>
+ * Threads sending concurrently are coalesced: the first thread becomes writer and writes everything queued so far
+ * in one go, the others wait until their PDUs are written. A writer can wait a short coalescing window for other
+ * threads before writing. {@link #write(HubPDU)} returns after the PDU was written and reports IO problems to
+ * its caller.
+ * <br/><br/>
+ * PDUs queued with {@link #writeDeferred(HubPDU)} are not written immediately. They go out with the next PDU written
+ * or when the coalescing window is over - several connect requests after a sync end up in a single write.
+ */
+public class PDUWriter implements AlarmClockListener {
+    /** default time to collect deferred PDUs before writing them */
+    public static final int DEFAULT_DEFERRED_WINDOW_IN_MILLIS = 5;
+    /** buffers growing beyond that size (large PDUs) are not kept */
+    static final int MAX_KEPT_BUFFER_SIZE = 256 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private final OutputStream os;
+
+    private PDUBuffer pending = new PDUBuffer();
+    private PDUBuffer spare = new PDUBuffer();
+
+    // sequence numbers of PDUs - queued: serialised into pending buffer, written: handed to stream
+    private long queued = 0;
+    private long written = 0;
+    private int pendingPDUs = 0;
+    private boolean writing = false;
+    private IOException broken = null;
+
+    private int coalescingWindowInMillis = 0;
+    private int deferredWindowInMillis = DEFAULT_DEFERRED_WINDOW_IN_MILLIS;
+    private HubAlarmClock deferredFlush = null;
+
+    // metrics
+    private long pdusWritten = 0;
+    private long writeCalls = 0;
+    private long bytesWritten = 0;
+
+    public PDUWriter(OutputStream os) {
+        this.os = os;
+    }
+
+    /**
+     * Writer waits that long for PDUs of other threads before writing. Default is 0 - concurrent threads are
+     * coalesced anyway, PDUs of a single thread are not delayed.
+     * @param millis coalescing window
+     */
+    public void setCoalescingWindowInMillis(int millis) {
+        this.coalescingWindowInMillis = Math.max(0, millis);
+    }
+
+    /**
+     * @param millis how long deferred PDUs are collected before they are written
+     */
+    public void setDeferredWindowInMillis(int millis) {
+        this.deferredWindowInMillis = Math.max(0, millis);
+    }
+
+    /**
+     * Write a PDU. Method returns when the PDU is handed to the underlying stream.
+     * @param pdu
+     * @throws IOException stream broken
+     */
+    public void write(HubPDU pdu) throws IOException {
+        this.write(Collections.singletonList(pdu));
+    }
+
+    /**
+     * Write PDUs - in this order and with a single write.
+     * @param pdus
+     * @throws IOException stream broken
+     */
+    public void write(Collection<? extends HubPDU> pdus) throws IOException {
+        boolean interrupted = false;
+        try {
+            synchronized (this) {
+                long sequence = this.queue(pdus);
+                while (this.written < sequence) {
+                    if (this.broken != null) throw this.broken;
+                    if (!this.writing) break; // become writer
+                    interrupted |= this.waitForWriter();
+                }
+                if (this.written >= sequence) return; // written by another thread
+                this.writing = true;
+            }
+
+            interrupted |= this.writeQueued();
+        } finally {
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a PDU. It is written with next PDU or after the deferred window at the latest. IO problems are reported
+     * with next call of any write method.
+     * @param pdu
+     * @throws IOException stream already broken
+     */
+    public void writeDeferred(HubPDU pdu) throws IOException {
+        synchronized (this) {
+            this.queue(Collections.singletonList(pdu));
+            // flush already scheduled - it is kept even if deferred PDUs go out earlier with another PDU
+            if(this.deferredFlush != null) return;
+            this.deferredFlush = new HubAlarmClock(this.deferredWindowInMillis, this);
+            this.deferredFlush.start();
+        }
+    }
+
+    /**
+     * Queue a PDU without writing it. Never waits for the stream - can be called holding a lock that must not be
+     * held during a blocking write. PDU is written with the next PDU or {@link #flush()} - caller is expected to
+     * flush.
+     * @param pdu
+     * @throws IOException stream already broken
+     */
+    public void enqueue(HubPDU pdu) throws IOException {
+        synchronized (this) {
+            this.queue(Collections.singletonList(pdu));
+        }
+    }
+
+    /**
+     * Write all queued (e.g. deferred) PDUs now.
+     * @throws IOException stream broken
+     */
+    public void flush() throws IOException {
+        this.write(Collections.emptyList());
+    }
+
+    @Override
+    public void alarmClockRinging(int yourKey) {
+        synchronized (this) {
+            this.deferredFlush = null;
+        }
+        try {
+            this.flush();
+        } catch (IOException e) {
+            Log.writeLog(this, "cannot write deferred PDUs: " + e.getLocalizedMessage());
+        }
+    }
+
+    // must be called holding the lock
+    private long queue(Collection<? extends HubPDU> pdus) throws IOException {
+        if(this.broken != null) throw this.broken;
+        for(HubPDU pdu : pdus) {
+            pdu.sendPDU(this.pending);
+            this.queued++;
+            this.pendingPDUs++;
+        }
+        return this.queued;
+    }
+
+    // PDU is already queued and will be written - an interrupt cannot take it back
+    private boolean waitForWriter() {
+        try {
+            this.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Called by the writing thread. It writes all queued PDUs and passes writer role to a waiting thread afterwards.
+     * @return true if writer was interrupted while waiting for other threads
+     */
+    private boolean writeQueued() throws IOException {
+        PDUBuffer buffer;
+        long batchEnd;
+        int batchPDUs;
+        boolean interrupted;
+        synchronized (this) {
+            interrupted = this.awaitCoalescingWindow();
+            // swap buffers - other threads can queue while this one writes
+            buffer = this.pending;
+            this.pending = this.spare;
+            batchEnd = this.queued;
+            batchPDUs = this.pendingPDUs;
+            this.pendingPDUs = 0;
+        }
+
+        IOException failure = null;
+        if(buffer.size() > 0) {
+            try {
+                this.os.write(buffer.getBuffer(), 0, buffer.size());
+                this.os.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        synchronized (this) {
+            if(failure == null) {
+                this.written = batchEnd;
+                if(buffer.size() > 0) {
+                    this.writeCalls++;
+                    this.pdusWritten += batchPDUs;
+                    this.bytesWritten += buffer.size();
+                }
+            } else {
+                this.broken = failure;
+            }
+            this.spare = buffer.size() > MAX_KEPT_BUFFER_SIZE ? new PDUBuffer() : buffer;
+            this.spare.reset();
+            this.writing = false;
+            this.notifyAll(); // waiting threads are done or one of them writes next batch
+        }
+
+        if(failure != null) throw failure;
+        return interrupted;
+    }
+
+    private boolean awaitCoalescingWindow() {
+        if(this.coalescingWindowInMillis <= 0) return false;
+        long until = System.currentTimeMillis() + this.coalescingWindowInMillis;
+        long remaining;
+        while((remaining = until - System.currentTimeMillis()) > 0) {
+            try {
+                this.wait(remaining);
+            } catch (InterruptedException e) {
+                return true; // write now
+            }
+        }
+        return false;
+    }
+
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+    //                                              metrics                                                //
+    /////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * @return number of PDUs handed to the stream
+     */
+    public synchronized long getPDUsWritten() {
+        return this.pdusWritten;
+    }
+
+    /**
+     * @return number of writes to the stream - each is followed by a flush
+     */
+    public synchronized long getWriteCalls() {
+        return this.writeCalls;
+    }
+
+    public synchronized long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    /**
+     * @return average number of stream writes per PDU - 1.0 means no coalescing at all, 0 if nothing written yet
+     */
+    public synchronized double getWritesPerPDU() {
+        if(this.pdusWritten == 0) return 0;
+        return (double) this.writeCalls / this.pdusWritten;
+    }
+
+    public synchronized String toString() {
+        return "pdu writer (pdus: " + this.pdusWritten + ", writes: " + this.writeCalls
+                + ", bytes: " + this.bytesWritten + ")";
+    }
+
+    /**
+     * Byte array stream that exposes its buffer - no copy when writing to the stream.
+     */
+    private static class PDUBuffer extends ByteArrayOutputStream {
+        PDUBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        byte[] getBuffer() {
+            return this.buf;
+        }
+    }
+}
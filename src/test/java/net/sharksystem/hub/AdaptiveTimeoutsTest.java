@@ -0,0 +1,53 @@
+package net.sharksystem.hub;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveTimeoutsTest {
+    @Test
+    public void configuredTimeoutsWithoutMeasurements() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(new RTTEstimator());
+        assertEquals(-1, timeouts.getRTOInMillis());
+        assertEquals(1000, timeouts.getSilenceTimeoutInMillis(1000));
+        assertEquals(1000, timeouts.getDataSessionTimeoutInMillis(1000));
+        assertEquals(1000000, timeouts.getConnectionRequestTimeoutInMillis(1000000));
+    }
+
+    @Test
+    public void hugeConfiguredConnectionRequestTimeoutIsCut() {
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(new RTTEstimator());
+        // connector timeout of 3 s scaled like connectors do - beyond int range
+        assertEquals(AdaptiveTimeouts.MAX_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS,
+                timeouts.getConnectionRequestTimeoutInMillis(3000L * 1000000));
+        assertEquals(1000, timeouts.getConnectionRequestTimeoutInMillis(1000L));
+    }
+
+    @Test
+    public void timeoutsFollowMeasurements() {
+        RTTEstimator rtt = new RTTEstimator();
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(rtt);
+
+        // fast LAN - floors apply
+        for(int i = 0; i < 10; i++) rtt.sample(500);
+        assertEquals(AdaptiveTimeouts.MIN_SILENCE_TIMEOUT_IN_MILLIS, timeouts.getSilenceTimeoutInMillis(1000));
+        // no data session yet
+        assertEquals(1000, timeouts.getDataSessionTimeoutInMillis(1000));
+
+        for(int i = 0; i < 10; i++) timeouts.dataSessionEnded(300, 1000, false);
+        int sessionTimeout = timeouts.getDataSessionTimeoutInMillis(1000);
+        assertTrue(sessionTimeout >= 300 && sessionTimeout < 1000);
+        assertEquals(AdaptiveTimeouts.MIN_CONNECTION_REQUEST_TIMEOUT_IN_MILLIS,
+                timeouts.getConnectionRequestTimeoutInMillis(1000000));
+
+        // session cut short - next gets at least twice the time
+        timeouts.dataSessionEnded(sessionTimeout, sessionTimeout, true);
+        assertTrue(timeouts.getDataSessionTimeoutInMillis(1000) >= 2 * sessionTimeout);
+        assertEquals(1, timeouts.getTruncatedSessions());
+
+        // slow link - ceilings apply
+        for(int i = 0; i < 50; i++) rtt.sample(100000000);
+        assertEquals(AdaptiveTimeouts.MAX_SILENCE_TIMEOUT_IN_MILLIS, timeouts.getSilenceTimeoutInMillis(1000));
+        assertEquals(AdaptiveTimeouts.MAX_DATA_SESSION_TIMEOUT_IN_MILLIS, timeouts.getDataSessionTimeoutInMillis(1000));
+    }
+}
@@ -0,0 +1,174 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.hub.ConnectorStateMachine.Event;
+import net.sharksystem.hub.ConnectorStateMachine.State;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectorStateMachineTest {
+    @Test
+    public void silenceAndDataSession() {
+        ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+        assertEquals(State.PROTOCOL, stateMachine.getState());
+
+        assertTrue(stateMachine.fire(Event.ASK_FOR_SILENCE));
+        assertFalse(stateMachine.fire(Event.ASK_FOR_SILENCE)); // already asked
+        assertTrue(stateMachine.fire(Event.ENTER_SILENCE));
+        assertTrue(stateMachine.fire(Event.ENTER_SILENCE)); // rewind
+        assertTrue(stateMachine.fire(Event.START_DATA_SESSION));
+        assertEquals(State.DATA_SESSION, stateMachine.getState());
+
+        // unframed data session timed out
+        assertFalse(stateMachine.fire(Event.SYNCED));
+        assertTrue(stateMachine.fire(Event.SYNC));
+        assertTrue(stateMachine.fire(Event.SYNCED));
+        assertEquals(State.PROTOCOL, stateMachine.getState());
+        assertEquals(6, stateMachine.getTransitions());
+    }
+
+    @Test
+    public void refusedEventKeepsStatus() {
+        ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+        stateMachine.fire(Event.OPEN_SESSION);
+        assertFalse(stateMachine.fire(Event.ASK_FOR_SILENCE));
+        assertFalse(stateMachine.fire(Event.ENTER_SILENCE));
+        assertEquals(State.OPENING_SESSION, stateMachine.getState());
+
+        assertTrue(stateMachine.fire(Event.SESSION_NOT_OPENED));
+        assertEquals(State.PROTOCOL, stateMachine.getState());
+    }
+
+    @Test
+    public void closedUntilChannelReplaced() {
+        for(State state : State.values()) {
+            assertEquals(State.PROTOCOL, ConnectorStateMachine.next(state, Event.CHANNEL_REPLACED));
+        }
+        ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+        assertTrue(stateMachine.fire(Event.CLOSE));
+        for(Event event : Event.values()) {
+            if(event != Event.CHANNEL_REPLACED) assertFalse(event.name(), stateMachine.fire(event));
+        }
+        assertTrue(stateMachine.fire(Event.CHANNEL_REPLACED));
+    }
+
+    @Test
+    public void eachTransitionIsTimed() throws InterruptedException {
+        ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+        List<String> transitions = new ArrayList<>();
+        List<Long> nanos = new ArrayList<>();
+        stateMachine.setListener((from, event, to, nanosInPreviousState) -> {
+            transitions.add(from + "-" + event + "->" + to);
+            nanos.add(nanosInPreviousState);
+        });
+
+        stateMachine.fire(Event.ENTER_SILENCE);
+        Thread.sleep(20);
+        stateMachine.fire(Event.SILENCE_ENDED);
+        stateMachine.fire(Event.SYNC); // refused - not timed
+
+        assertEquals(2, transitions.size());
+        assertEquals("PROTOCOL-ENTER_SILENCE->SILENCE", transitions.get(0));
+        assertEquals("SILENCE-SILENCE_ENDED->PROTOCOL", transitions.get(1));
+        assertTrue(nanos.get(1) >= 20000000L);
+        assertEquals((long) nanos.get(1), stateMachine.getNanosInState(State.SILENCE));
+    }
+
+    @Test
+    public void listenerIsCalledOutsideLock() {
+        ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+        List<Boolean> locked = new ArrayList<>();
+        stateMachine.setListener((from, event, to, nanosInPreviousState) ->
+                locked.add(Thread.holdsLock(stateMachine)));
+
+        synchronized (stateMachine) {
+            assertTrue(stateMachine.fire(Event.ASK_FOR_SILENCE));
+            assertTrue(stateMachine.fire(Event.ENTER_SILENCE));
+            stateMachine.notifyListener(); // still locked - nothing happens
+            assertTrue(locked.isEmpty());
+        }
+        stateMachine.notifyListener();
+        assertEquals(2, locked.size());
+        assertFalse(locked.get(0));
+        assertFalse(locked.get(1));
+
+        // not locked by caller - told right away
+        assertTrue(stateMachine.fire(Event.SILENCE_ENDED));
+        assertEquals(3, locked.size());
+        assertFalse(locked.get(2));
+    }
+
+    @Test
+    public void blockedListenerDoesNotBlockOtherThreads() throws Exception {
+        ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+        CountDownLatch listenerBlocks = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> transitions = new ArrayList<>();
+        stateMachine.setListener((from, event, to, nanosInPreviousState) -> {
+            synchronized (transitions) {
+                transitions.add(from + "-" + event + "->" + to);
+            }
+            listenerBlocks.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+
+        Thread first = new Thread(() -> stateMachine.fire(Event.OPEN_SESSION));
+        first.start();
+        assertTrue(listenerBlocks.await(10, TimeUnit.SECONDS));
+
+        // listener of first transition blocks - state machine does not
+        Thread second = new Thread(() -> stateMachine.fire(Event.START_DATA_SESSION));
+        second.start();
+        second.join(10000);
+        assertFalse(second.isAlive());
+        assertEquals(State.DATA_SESSION, stateMachine.getState());
+
+        // thread that tells listener already tells the second transition as well - in order
+        release.countDown();
+        first.join(10000);
+        assertFalse(first.isAlive());
+        synchronized (transitions) {
+            assertEquals(2, transitions.size());
+            assertEquals("PROTOCOL-OPEN_SESSION->OPENING_SESSION", transitions.get(0));
+            assertEquals("OPENING_SESSION-START_DATA_SESSION->DATA_SESSION", transitions.get(1));
+        }
+    }
+
+    @Test
+    public void transitionsDoNotAllocate() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(!(threadMXBean instanceof com.sun.management.ThreadMXBean)) return; // cannot measure
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        if(!allocations.isThreadAllocatedMemorySupported()) return;
+
+        ConnectorStateMachine stateMachine = new ConnectorStateMachine();
+        long[] sum = new long[1];
+        stateMachine.setListener((from, event, to, nanosInPreviousState) -> sum[0] += nanosInPreviousState);
+        for(int i = 0; i < 10000; i++) this.dataSessionRound(stateMachine); // warm up
+
+        long threadID = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadID);
+        for(int i = 0; i < 10000; i++) this.dataSessionRound(stateMachine);
+        long allocated = allocations.getThreadAllocatedBytes(threadID) - before;
+
+        // 40000 transitions - a single object each would be far more than that
+        assertTrue("allocated bytes: " + allocated, allocated < 10000);
+    }
+
+    private void dataSessionRound(ConnectorStateMachine stateMachine) {
+        stateMachine.fire(Event.OPEN_SESSION);
+        stateMachine.fire(Event.START_DATA_SESSION);
+        stateMachine.fire(Event.START_DATA_SESSION);
+        stateMachine.fire(Event.DATA_SESSION_ENDED);
+    }
+}
@@ -0,0 +1,196 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.hub.hubside.SharedChannelConnectorHubSide;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FramedStreamPairTest {
+    /**
+     * Tells how a data session ended - channel is not touched.
+     */
+    private static class RecordingConnector extends SharedChannelConnectorHubSide {
+        private final AtomicInteger ended = new AtomicInteger();
+        private final AtomicInteger broken = new AtomicInteger();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        RecordingConnector(ASAPTCPHub hub) throws Exception {
+            super(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(), hub);
+        }
+
+        @Override
+        void framedDataSessionEnded(FramedStreamPair streamPair) {
+            this.ended.incrementAndGet();
+            this.done.countDown();
+        }
+
+        @Override
+        void framedDataSessionBroken(FramedStreamPair streamPair) {
+            this.broken.incrementAndGet();
+            this.done.countDown();
+        }
+
+        void awaitDone() throws InterruptedException {
+            assertTrue(this.done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private ASAPTCPHub hub;
+    private Socket aliceSocket;
+    private Socket bobSocket;
+    private RecordingConnector aliceConnector;
+    private RecordingConnector bobConnector;
+    private FramedStreamPair alice;
+    private FramedStreamPair bob;
+
+    @Before
+    public void connect() throws Exception {
+        try(ServerSocket serverSocket = new ServerSocket(0)) {
+            this.aliceSocket = new Socket("localhost", serverSocket.getLocalPort());
+            this.bobSocket = serverSocket.accept();
+        }
+        this.aliceSocket.setSoTimeout(10000); // test fails instead of hanging
+        this.bobSocket.setSoTimeout(10000);
+        int hubPort;
+        try(ServerSocket socket = new ServerSocket(0)) {
+            hubPort = socket.getLocalPort();
+        }
+        this.hub = new ASAPTCPHub(hubPort, false); // never started - connectors need one
+        this.aliceConnector = new RecordingConnector(this.hub);
+        this.bobConnector = new RecordingConnector(this.hub);
+        this.alice = new FramedStreamPair(this.aliceSocket.getInputStream(), this.aliceSocket.getOutputStream(),
+                this.aliceConnector, "alice");
+        this.bob = new FramedStreamPair(this.bobSocket.getInputStream(), this.bobSocket.getOutputStream(),
+                this.bobConnector, "bob");
+    }
+
+    @After
+    public void close() throws Exception {
+        this.aliceSocket.close();
+        this.bobSocket.close();
+        this.hub.kill();
+    }
+
+    private static String read(InputStream is, int length) throws IOException {
+        byte[] b = new byte[length];
+        int off = 0;
+        while(off < length) {
+            int read = is.read(b, off, length - off);
+            if(read < 0) throw new IOException("end of stream after " + off + " bytes");
+            off += read;
+        }
+        return new String(b);
+    }
+
+    private void endedOnBothSides(FramedStreamPair first, RecordingConnector firstConnector,
+                                  FramedStreamPair second, RecordingConnector secondConnector) throws Exception {
+        first.getOutputStream().write("hello".getBytes());
+        first.close();
+
+        // data before end of session can be read - nothing behind it
+        assertEquals("hello", read(second.getInputStream(), 5));
+        assertEquals(-1, second.getInputStream().read());
+        assertEquals(0, secondConnector.ended.get()); // its own end is missing
+
+        second.close();
+        firstConnector.awaitDone();
+        secondConnector.awaitDone();
+        assertEquals(1, firstConnector.ended.get());
+        assertEquals(1, secondConnector.ended.get());
+        assertEquals(0, firstConnector.broken.get() + secondConnector.broken.get());
+        assertNull(first.getNextSession());
+        assertNull(second.getNextSession());
+    }
+
+    @Test
+    public void aliceEndsFirst() throws Exception {
+        this.endedOnBothSides(this.alice, this.aliceConnector, this.bob, this.bobConnector);
+    }
+
+    @Test
+    public void bobEndsFirst() throws Exception {
+        this.endedOnBothSides(this.bob, this.bobConnector, this.alice, this.aliceConnector);
+    }
+
+    @Test
+    public void localCloseDrainsUntilOtherSideEnds() throws Exception {
+        this.bob.getOutputStream().write(new byte[10000]);
+        // Alice does not read and closes - drained from now on
+        this.alice.close();
+        assertEquals(-1, this.alice.getInputStream().read());
+        try {
+            this.alice.getOutputStream().write(1);
+            fail("data session closed");
+        } catch (IOException e) {
+            // expected
+        }
+
+        this.bob.getOutputStream().write("more".getBytes());
+        assertEquals(-1, this.bob.getInputStream().read()); // Alice ended
+        this.bob.close();
+        // connector protocol resumes right behind end of session
+        this.bobSocket.getOutputStream().write(42);
+
+        this.aliceConnector.awaitDone();
+        assertEquals(1, this.aliceConnector.ended.get());
+        assertEquals(0, this.aliceConnector.broken.get());
+        assertEquals(42, this.aliceSocket.getInputStream().read());
+    }
+
+    @Test
+    public void truncatedFrameBreaksSession() throws Exception {
+        // frame announces 100 bytes - channel is lost after 10
+        byte[] header = {0, 0, 0, 100};
+        this.bobSocket.getOutputStream().write(header);
+        this.bobSocket.getOutputStream().write(new byte[10]);
+        this.bobSocket.shutdownOutput();
+
+        assertEquals(10, this.alice.getInputStream().read(new byte[100]));
+        try {
+            this.alice.getInputStream().read(new byte[100]);
+            fail("channel lost within data session");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, this.aliceConnector.ended.get());
+    }
+
+    @Test
+    public void channelLostWhileDraining() throws Exception {
+        this.alice.close();
+        // Bob never sends end of session
+        this.bobSocket.shutdownOutput();
+
+        this.aliceConnector.awaitDone();
+        assertEquals(1, this.aliceConnector.broken.get());
+        assertEquals(0, this.aliceConnector.ended.get());
+    }
+
+    @Test
+    public void lostChannelBeforeEndOfSession() throws Exception {
+        this.bob.getOutputStream().write("hi".getBytes());
+        this.bobSocket.shutdownOutput();
+
+        assertEquals("hi", read(this.alice.getInputStream(), 2));
+        try {
+            this.alice.getInputStream().read();
+            fail("no end of session - channel lost");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(0, this.aliceConnector.ended.get());
+    }
+}
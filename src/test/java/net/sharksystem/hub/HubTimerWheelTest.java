@@ -0,0 +1,162 @@
+package net.sharksystem.hub;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HubTimerWheelTest {
+    private static final int TICK_IN_MILLIS = 10;
+
+    private HubTimerWheel wheel;
+
+    @After
+    public void stopWheel() {
+        if(this.wheel != null) this.wheel.stop();
+    }
+
+    /**
+     * Wheel thread is started with first timeout - that can take a while. Later timeouts are scheduled at once.
+     */
+    private void startedWheel(int wheelSize) throws InterruptedException {
+        this.wheel = new HubTimerWheel(TICK_IN_MILLIS, wheelSize);
+        CountDownLatch started = new CountDownLatch(1);
+        this.wheel.schedule(0, started::countDown);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Each task tells when it ran - in millis after it was created, right before it was scheduled.
+     */
+    private static class Recorder {
+        private final List<Integer> fired = new ArrayList<>();
+        private final ConcurrentHashMap<Integer, Long> firedAfterMillis = new ConcurrentHashMap<>();
+        private final CountDownLatch all;
+
+        Recorder(int number) {
+            this.all = new CountDownLatch(number);
+        }
+
+        Runnable task(int id) {
+            long createdNanos = System.nanoTime();
+            return () -> {
+                this.firedAfterMillis.put(id, (System.nanoTime() - createdNanos) / 1000000);
+                synchronized (this.fired) {
+                    this.fired.add(id);
+                }
+                this.all.countDown();
+            };
+        }
+
+        void awaitAll() throws InterruptedException {
+            assertTrue(this.all.await(10, TimeUnit.SECONDS));
+        }
+
+        List<Integer> fired() {
+            synchronized (this.fired) {
+                return new ArrayList<>(this.fired);
+            }
+        }
+    }
+
+    @Test
+    public void timeoutsFireInOrderOfDeadlines() throws Exception {
+        this.startedWheel(HubTimerWheel.DEFAULT_WHEEL_SIZE);
+        // scheduled out of order - deadlines a few ticks apart
+        int[] delays = {200, 50, 150, 100, 250};
+        Recorder recorder = new Recorder(delays.length);
+        for(int delay : delays) this.wheel.schedule(delay, recorder.task(delay));
+
+        recorder.awaitAll();
+        assertEquals(Arrays.asList(50, 100, 150, 200, 250), recorder.fired());
+        for(int delay : delays) {
+            long firedAfter = recorder.firedAfterMillis.get(delay);
+            assertTrue(delay + " fired after " + firedAfter, firedAfter >= delay); // never early
+        }
+        assertEquals(delays.length + 1, this.wheel.getScheduledTimeouts());
+        assertEquals(delays.length + 1, this.wheel.getExpiredTimeouts());
+        assertEquals(0, this.wheel.getPendingTimeouts());
+    }
+
+    @Test
+    public void timeoutsBeyondOneRevolutionWaitForTheirRound() throws Exception {
+        // 8 buckets - a revolution takes 80 ms, like 512 buckets take 5120 ms
+        int wheelSize = 8;
+        int revolution = wheelSize * TICK_IN_MILLIS;
+        this.startedWheel(wheelSize);
+
+        // same bucket, different rounds
+        int[] delays = {30, 30 + revolution, 30 + 3 * revolution};
+        Recorder recorder = new Recorder(delays.length);
+        for(int delay : delays) this.wheel.schedule(delay, recorder.task(delay));
+
+        recorder.awaitAll();
+        assertEquals(Arrays.asList(delays[0], delays[1], delays[2]), recorder.fired());
+        for(int delay : delays) {
+            long firedAfter = recorder.firedAfterMillis.get(delay);
+            assertTrue(delay + " fired after " + firedAfter, firedAfter >= delay);
+        }
+    }
+
+    @Test
+    public void cancelledTimeoutDoesNotFire() throws Exception {
+        this.startedWheel(HubTimerWheel.DEFAULT_WHEEL_SIZE);
+        Recorder recorder = new Recorder(1);
+        HubTimerWheel.Timeout cancelled = this.wheel.schedule(50, recorder.task(1));
+        this.wheel.schedule(100, recorder.task(2));
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel()); // cancelled already
+        assertEquals(1, this.wheel.getPendingTimeouts());
+
+        recorder.awaitAll();
+        Thread.sleep(5 * TICK_IN_MILLIS);
+        assertEquals(Arrays.asList(2), recorder.fired());
+        assertEquals(1, this.wheel.getCancelledTimeouts());
+        assertEquals(2, this.wheel.getExpiredTimeouts());
+    }
+
+    @Test
+    public void cancelAfterFiringFails() throws Exception {
+        this.startedWheel(HubTimerWheel.DEFAULT_WHEEL_SIZE);
+        Recorder recorder = new Recorder(1);
+        HubTimerWheel.Timeout timeout = this.wheel.schedule(20, recorder.task(1));
+
+        recorder.awaitAll();
+        assertFalse(timeout.cancel());
+        assertEquals(0, this.wheel.getCancelledTimeouts());
+        assertEquals(2, this.wheel.getExpiredTimeouts());
+    }
+
+    @Test
+    public void blockingTaskDoesNotDelayOthers() throws Exception {
+        this.startedWheel(HubTimerWheel.DEFAULT_WHEEL_SIZE);
+        CountDownLatch blockerRuns = new CountDownLatch(1);
+        CountDownLatch releaseBlocker = new CountDownLatch(1);
+        this.wheel.schedule(20, () -> {
+            blockerRuns.countDown();
+            try {
+                releaseBlocker.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        });
+        Recorder recorder = new Recorder(2);
+        this.wheel.schedule(40, recorder.task(1));
+        this.wheel.schedule(40, recorder.task(2)); // same tick
+
+        assertTrue(blockerRuns.await(10, TimeUnit.SECONDS));
+        // first task still blocks - others run anyway
+        recorder.awaitAll();
+        for(long firedAfter : recorder.firedAfterMillis.values()) assertTrue("fired after " + firedAfter,
+                firedAfter < 1000);
+        releaseBlocker.countDown();
+    }
+}
@@ -6,6 +6,7 @@ import net.sharksystem.asap.ASAPException;
 import net.sharksystem.asap.apps.testsupport.ASAPTestPeerFS;
 import net.sharksystem.hub.peerside.*;
 import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.hub.protocol.HubCapabilities;
 import net.sharksystem.utils.fs.FSUtils;
 import net.sharksystem.utils.testsupport.TestHelper;
 import org.junit.Assert;
@@ -100,17 +101,66 @@ public class HubUsageTests {
                 false);
     }
 
+    @Test
+    public void usageSharedConnectionNIO() throws IOException, InterruptedException, ASAPException {
+        this.runUsageTest(
+                false,
+                false,
+                "NON_CAN_TCP",
+                "YZ",
+                false,
+                true);
+    }
+
+    @Test
+    public void usageNewConnectionNIO() throws IOException, InterruptedException, ASAPException {
+        this.runUsageTest(
+                true,
+                true,
+                "BOTH_CAN_TCP",
+                "YZ",
+                false,
+                true);
+    }
+
+    @Test
+    public void usageSharedConnectionMultiplexed() throws IOException, InterruptedException, ASAPException {
+        SharedChannelConnectorPeerSide.setDefaultRequestedCapabilities(HubCapabilities.MULTIPLEX);
+        try {
+            this.runUsageTest(
+                    false,
+                    false,
+                    "NON_CAN_TCP",
+                    "YZ",
+                    false,
+                    true);
+        }
+        finally {
+            SharedChannelConnectorPeerSide.setDefaultRequestedCapabilities(HubCapabilities.NONE);
+        }
+    }
+
     public void runUsageTest(
             boolean aliceCanCreateTCPConnections,
             boolean bobCanCreateTCPConnections,
             String messageA, String messageB,
             boolean pureBytes)  throws IOException, InterruptedException, ASAPException {
+        this.runUsageTest(aliceCanCreateTCPConnections, bobCanCreateTCPConnections, messageA, messageB, pureBytes,
+                false);
+    }
+
+    public void runUsageTest(
+            boolean aliceCanCreateTCPConnections,
+            boolean bobCanCreateTCPConnections,
+            String messageA, String messageB,
+            boolean pureBytes,
+            boolean nioEngine)  throws IOException, InterruptedException, ASAPException {
 
         int maxTimeInSeconds = Connector.DEFAULT_TIMEOUT_IN_MILLIS / 1000;
         maxTimeInSeconds = maxTimeInSeconds > 0 ? maxTimeInSeconds : 1;
         int specificPort = getPort();
         CharSequence host = "localhost";
-        ASAPTCPHub hub = new ASAPTCPHub(specificPort, true);
+        ASAPTCPHub hub = new ASAPTCPHub(specificPort, true, nioEngine);
         hub.setPortRange(7000, 9000); // optional - required to configure a firewall
         hub.setMaxIdleConnectionInSeconds(maxTimeInSeconds);
         new Thread(hub).start();
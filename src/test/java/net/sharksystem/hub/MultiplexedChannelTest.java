@@ -0,0 +1,193 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUStreamClose;
+import net.sharksystem.hub.protocol.HubPDUStreamData;
+import net.sharksystem.hub.protocol.HubPDUStreamOpen;
+import net.sharksystem.hub.protocol.HubPDUStreamWindow;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MultiplexedChannelTest {
+    private static final int WINDOW = MultiplexedStreamPair.INITIAL_WINDOW;
+
+    /**
+     * Delivers each PDU right away to the other side - like a shared channel that never loses anything.
+     */
+    private static class LoopbackChannel extends MultiplexedChannel {
+        private final String id;
+        private LoopbackChannel other;
+        private final List<HubPDU> sent = new ArrayList<>();
+        private volatile MultiplexedStreamPair accepted;
+
+        LoopbackChannel(String id, boolean hubSide) {
+            super(null, hubSide);
+            this.id = id;
+        }
+
+        @Override
+        void send(HubPDU pdu) {
+            synchronized (this.sent) {
+                this.sent.add(pdu);
+            }
+            if(pdu instanceof HubPDUStreamOpen) this.other.accepted = this.other.acceptStream((HubPDUStreamOpen) pdu);
+            else if(pdu instanceof HubPDUStreamData) this.other.dataReceived((HubPDUStreamData) pdu);
+            else if(pdu instanceof HubPDUStreamWindow) this.other.windowReceived((HubPDUStreamWindow) pdu);
+            else if(pdu instanceof HubPDUStreamClose) this.other.closeReceived((HubPDUStreamClose) pdu);
+        }
+
+        int sent(Class<? extends HubPDU> pduClass) {
+            int number = 0;
+            synchronized (this.sent) {
+                for(HubPDU pdu : this.sent) if(pduClass.isInstance(pdu)) number++;
+            }
+            return number;
+        }
+
+        @Override
+        String getID() {
+            return this.id;
+        }
+    }
+
+    private LoopbackChannel hub;
+    private LoopbackChannel peer;
+
+    private MultiplexedStreamPair open() throws IOException {
+        this.hub = new LoopbackChannel("hub", true);
+        this.peer = new LoopbackChannel("peer", false);
+        this.hub.other = this.peer;
+        this.peer.other = this.hub;
+        return this.hub.openStream("Alice", "Bob", 0);
+    }
+
+    private static AtomicInteger countClosed(MultiplexedStreamPair stream) {
+        AtomicInteger closed = new AtomicInteger();
+        stream.addListener((streamPair, key) -> closed.incrementAndGet());
+        return closed;
+    }
+
+    private static void readFully(InputStream is, byte[] b) throws IOException {
+        int off = 0;
+        while(off < b.length) {
+            int read = is.read(b, off, b.length - off);
+            if(read < 0) throw new IOException("end of stream after " + off + " bytes");
+            off += read;
+        }
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        for(int i = 0; i < 1000 && thread.getState() != Thread.State.WAITING; i++) Thread.sleep(10);
+    }
+
+    @Test
+    public void writerWaitsForWindowAndContinuesAfterUpdate() throws Exception {
+        MultiplexedStreamPair sender = this.open();
+        MultiplexedStreamPair receiver = this.peer.accepted;
+
+        byte[] data = new byte[3 * WINDOW];
+        for(int i = 0; i < data.length; i++) data[i] = (byte) i;
+        List<Exception> failures = new ArrayList<>();
+        Thread writer = new Thread(() -> {
+            try {
+                sender.getOutputStream().write(data);
+            } catch (IOException e) {
+                failures.add(e);
+            }
+        });
+        writer.start();
+
+        // nobody reads - writer used up granted window and waits
+        waitUntilWaiting(writer);
+        assertEquals(Thread.State.WAITING, writer.getState());
+        assertEquals(WINDOW, receiver.getInputStream().available());
+        assertEquals(0, this.peer.sent(HubPDUStreamWindow.class));
+
+        // reading grants new credit
+        byte[] received = new byte[data.length];
+        readFully(receiver.getInputStream(), received);
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertTrue(failures.isEmpty());
+        assertArrayEquals(data, received);
+        assertTrue(this.peer.sent(HubPDUStreamWindow.class) > 0);
+    }
+
+    @Test
+    public void dataBeyondGrantedWindowClosesStream() throws Exception {
+        MultiplexedStreamPair sender = this.open();
+        MultiplexedStreamPair receiver = this.peer.accepted;
+        AtomicInteger senderClosed = countClosed(sender);
+        AtomicInteger receiverClosed = countClosed(receiver);
+
+        // a sender that ignores flow control
+        this.peer.dataReceived(new HubPDUStreamData(sender.getStreamID(), new byte[WINDOW], 0, WINDOW));
+        this.peer.dataReceived(new HubPDUStreamData(sender.getStreamID(), new byte[1], 0, 1));
+
+        assertEquals(1, this.peer.sent(HubPDUStreamClose.class));
+        assertEquals(1, receiverClosed.get());
+        assertEquals(1, senderClosed.get());
+        assertEquals(0, this.peer.size());
+        assertEquals(0, this.hub.size());
+        try {
+            sender.getOutputStream().write(1);
+            fail("stream closed by other side");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void endOfStreamAfterOtherSideClosed() throws Exception {
+        MultiplexedStreamPair sender = this.open();
+        MultiplexedStreamPair receiver = this.peer.accepted;
+        AtomicInteger senderClosed = countClosed(sender);
+        AtomicInteger receiverClosed = countClosed(receiver);
+
+        sender.getOutputStream().write("hello".getBytes());
+        sender.close();
+        assertEquals(1, senderClosed.get());
+        assertEquals(1, receiverClosed.get());
+        assertEquals(0, this.hub.size());
+        assertEquals(0, this.peer.size());
+
+        // received data can still be read
+        byte[] received = new byte[5];
+        readFully(receiver.getInputStream(), received);
+        assertEquals("hello", new String(received));
+        assertEquals(-1, receiver.getInputStream().read());
+
+        // listeners are told once - stream close is not sent back
+        receiver.close();
+        assertEquals(1, receiverClosed.get());
+        assertEquals(0, this.peer.sent(HubPDUStreamClose.class));
+    }
+
+    @Test
+    public void lostChannelClosesAllStreams() throws Exception {
+        MultiplexedStreamPair first = this.open();
+        MultiplexedStreamPair second = this.hub.openStream("Alice", "Clara", 0);
+        AtomicInteger firstClosed = countClosed(first);
+        AtomicInteger secondClosed = countClosed(second);
+        assertEquals(2, this.hub.size());
+
+        this.hub.closeAll();
+        assertEquals(0, this.hub.size());
+        assertEquals(1, firstClosed.get());
+        assertEquals(1, secondClosed.get());
+        assertEquals(-1, first.getInputStream().read());
+        try {
+            second.getOutputStream().write(1);
+            fail("channel lost");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
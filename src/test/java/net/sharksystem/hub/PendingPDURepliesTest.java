@@ -0,0 +1,63 @@
+package net.sharksystem.hub;
+
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRPLY;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class PendingPDURepliesTest {
+    @Test
+    public void manyWaitersGetSameReply() throws Exception {
+        PendingPDUReplies pendingReplies = new PendingPDUReplies();
+        List<CompletableFuture<HubPDU>> replies = new ArrayList<>();
+        for(int i = 0; i < 100; i++) {
+            replies.add(pendingReplies.expect(HubPDU.HUB_STATUS_REPLY, 10000));
+        }
+        CompletableFuture<HubPDU> otherCommand = pendingReplies.expect(HubPDU.CHANNEL_CLEAR, 10000);
+
+        HubPDU reply = new HubPDUHubStatusRPLY(new HashSet<>());
+        pendingReplies.received(reply);
+
+        for(CompletableFuture<HubPDU> future : replies) {
+            assertSame(reply, future.get(1, TimeUnit.SECONDS));
+        }
+        assertFalse(otherCommand.isDone());
+        assertEquals(1, pendingReplies.size());
+    }
+
+    @Test
+    public void waiterTimesOut() throws Exception {
+        PendingPDUReplies pendingReplies = new PendingPDUReplies();
+        CompletableFuture<HubPDU> reply = pendingReplies.expect(HubPDU.HUB_STATUS_REPLY, 50);
+        try {
+            reply.get(5, TimeUnit.SECONDS);
+            fail("timeout expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, pendingReplies.size());
+    }
+
+    @Test
+    public void connectionLostFailsWaiters() throws Exception {
+        PendingPDUReplies pendingReplies = new PendingPDUReplies();
+        CompletableFuture<HubPDU> reply = pendingReplies.expect(HubPDU.HUB_STATUS_REPLY, 0);
+        pendingReplies.failAll(new IOException("connection lost"));
+        try {
+            reply.get(1, TimeUnit.SECONDS);
+            fail("failure expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
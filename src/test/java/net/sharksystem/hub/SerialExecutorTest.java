@@ -0,0 +1,52 @@
+package net.sharksystem.hub;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SerialExecutorTest {
+    @Test
+    public void tasksRunInOrderAndNeverBlockCaller() throws Exception {
+        SerialExecutor executor = new SerialExecutor("test");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<Integer> order = new ArrayList<>();
+
+        // first task blocks - like a handler waiting for a silent peer
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // go ahead
+            }
+        });
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // caller hands over all tasks while first one is still held
+        CountDownLatch submitted = new CountDownLatch(1);
+        new Thread(() -> {
+            for(int i = 0; i < 100; i++) {
+                int number = i;
+                executor.execute(() -> order.add(number));
+            }
+            executor.execute(done::countDown);
+            submitted.countDown();
+        }).start();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        assertEquals(1, release.getCount());
+        assertEquals(101, executor.getQueueLength());
+
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        for(int i = 0; i < 100; i++) assertEquals(i, (int) order.get(i));
+        assertEquals(0, executor.getQueueLength());
+    }
+}
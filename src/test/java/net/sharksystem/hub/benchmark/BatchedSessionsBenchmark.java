@@ -0,0 +1,146 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.hub.peerside.NewConnectionListener;
+import net.sharksystem.hub.peerside.SharedChannelConnectorPeerSide;
+import net.sharksystem.hub.peerside.SharedTCPChannelConnectorPeerSide;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A popular peer is asked for a data session by a number of other peers at once - each round. Each side sends a
+ * byte, reads a byte and closes its stream pair. Benchmark reports how many encounters per second the popular
+ * peer gets through.
+ * <br/><br/>
+ * Usage: BatchedSessionsBenchmark [single|batched|both] [number of other peers] [rounds] [port]
+ * <br/>
+ * single: popular peer's channel goes back to connector protocol after each data session; batched: queued data
+ * sessions follow each other on the silenced channel.
+ */
+public class BatchedSessionsBenchmark {
+    public static final int DEFAULT_NUMBER_PEERS = 8;
+    public static final int DEFAULT_ROUNDS = 5;
+    public static final int DEFAULT_PORT = 6330;
+    public static final String SINGLE = "single";
+    public static final String BATCHED = "batched";
+    public static final String BOTH = "both";
+
+    private static final CharSequence POPULAR = "POPULAR";
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : BOTH;
+        int numberPeers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUMBER_PEERS;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PORT;
+
+        PrintStream console = System.out;
+        Log.setOutStream(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { /* drop */ }
+        }));
+
+        if(!mode.equalsIgnoreCase(BATCHED)) run(console, SINGLE, numberPeers, rounds, port);
+        if(!mode.equalsIgnoreCase(SINGLE)) run(console, BATCHED, numberPeers, rounds, port + 1);
+        System.exit(0);
+    }
+
+    private static void run(PrintStream console, String mode, int numberPeers, int rounds, int port)
+            throws Exception {
+        int capabilities = HubCapabilities.FRAMED_DATA_SESSIONS | HubCapabilities.OPEN_SESSION;
+        if(mode.equals(BATCHED)) capabilities |= HubCapabilities.BATCHED_SESSIONS;
+
+        ASAPTCPHub hub = new ASAPTCPHub(port, false);
+        HubThreads.start(hub, "tcp hub");
+        Thread.sleep(200);
+
+        SessionPeer popular = new SessionPeer(port, POPULAR, capabilities);
+        List<SessionPeer> others = new ArrayList<>();
+        for(int i = 0; i < numberPeers; i++) {
+            others.add(new SessionPeer(port, "PEER_" + i, capabilities));
+        }
+        Thread.sleep(500);
+
+        long sumDuration = 0;
+        int done = 0;
+        for(int round = 0; round < rounds; round++) {
+            // each encounter ends on both sides
+            CountDownLatch ended = new CountDownLatch(2 * numberPeers);
+            popular.prepare(ended);
+            for(SessionPeer other : others) other.prepare(ended);
+
+            long start = System.nanoTime();
+            for(SessionPeer other : others) other.connector.connectPeer(POPULAR);
+            if(!ended.await(numberPeers * 3L * Connector.DEFAULT_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS)) {
+                console.println("round " + round + ": " + ended.getCount() + " session ends missing - give up");
+                break;
+            }
+            sumDuration += (System.nanoTime() - start) / 1000;
+            done++;
+
+            // let all channels speak connector protocol again
+            Thread.sleep(500);
+        }
+
+        console.println("mode:                 " + mode);
+        console.println("rounds:               " + done + " / " + rounds + " (" + numberPeers + " encounters each)");
+        if(done > 0) {
+            double roundMillis = sumDuration / done / 1000.0;
+            console.println(String.format("avg round (ms):       %.3f", roundMillis));
+            console.println(String.format("encounters / s:       %.1f", numberPeers * 1000.0 / roundMillis));
+        }
+
+        popular.connector.disconnectHub();
+        for(SessionPeer other : others) other.connector.disconnectHub();
+        hub.kill();
+    }
+
+    private static class SessionPeer implements NewConnectionListener {
+        private final SharedChannelConnectorPeerSide connector;
+        private volatile CountDownLatch ended;
+
+        SessionPeer(int port, CharSequence peerID, int capabilities) throws Exception {
+            this.connector = (SharedChannelConnectorPeerSide)
+                    SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+            this.connector.setRequestedCapabilities(capabilities);
+            this.connector.addListener(this);
+            this.connector.connectHub(peerID, false);
+        }
+
+        void prepare(CountDownLatch ended) {
+            this.ended = ended;
+        }
+
+        @Override
+        public void notifyPeerConnected(CharSequence targetPeerID, StreamPair streamPair) {
+            CountDownLatch ended = this.ended;
+            HubThreads.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OutputStream os = streamPair.getOutputStream();
+                        InputStream is = streamPair.getInputStream();
+                        os.write(1);
+                        os.flush();
+                        is.read();
+                    } catch (IOException e) {
+                        // not measured
+                    }
+                    streamPair.close();
+                    ended.countDown();
+                }
+            }, "benchmark session");
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.hub.peerside.HubConnectorStatusListener;
+import net.sharksystem.hub.peerside.NewConnectionListener;
+import net.sharksystem.hub.peerside.SharedChannelConnectorPeerSide;
+import net.sharksystem.hub.peerside.SharedTCPChannelConnectorPeerSide;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two peers run a series of short data sessions over shared hub channels. Benchmark reports how long it takes from
+ * a connect request until both peers got their stream pair (setup). Data sessions are framed in either mode - end
+ * of a session is not measured.
+ * <br/><br/>
+ * Usage: DataSessionSetupBenchmark [handshake|open|both] [number of sessions] [port]
+ * <br/>
+ * handshake: hub silences each channel (silent request, silent reply) and clears it (channel clear);
+ * open: hub opens a data session with a single round trip (open session request and reply).
+ */
+public class DataSessionSetupBenchmark {
+    public static final int DEFAULT_NUMBER_SESSIONS = 20;
+    public static final int DEFAULT_PORT = 6320;
+    public static final String HANDSHAKE = "handshake";
+    public static final String OPEN = "open";
+    public static final String BOTH = "both";
+
+    private static final CharSequence ALICE = "ALICE";
+    private static final CharSequence BOB = "BOB";
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : BOTH;
+        int numberSessions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUMBER_SESSIONS;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+
+        PrintStream console = System.out;
+        Log.setOutStream(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { /* drop */ }
+        }));
+
+        if(!mode.equalsIgnoreCase(OPEN)) run(console, HANDSHAKE, numberSessions, port);
+        if(!mode.equalsIgnoreCase(HANDSHAKE)) run(console, OPEN, numberSessions, port + 1);
+        System.exit(0);
+    }
+
+    private static void run(PrintStream console, String mode, int numberSessions, int port) throws Exception {
+        int capabilities = HubCapabilities.FRAMED_DATA_SESSIONS;
+        if(mode.equals(OPEN)) capabilities |= HubCapabilities.OPEN_SESSION;
+
+        ASAPTCPHub hub = new ASAPTCPHub(port, false);
+        HubThreads.start(hub, "tcp hub");
+        Thread.sleep(200);
+
+        SessionPeer alice = new SessionPeer(port, ALICE, capabilities);
+        SessionPeer bob = new SessionPeer(port, BOB, capabilities);
+        Thread.sleep(500);
+
+        long sumSetup = 0;
+        long minSetup = Long.MAX_VALUE;
+        long maxSetup = 0;
+        int done = 0;
+        for(int i = 0; i < numberSessions; i++) {
+            CountDownLatch connected = new CountDownLatch(2);
+            CountDownLatch resumed = new CountDownLatch(2);
+            alice.prepare(connected, resumed);
+            bob.prepare(connected, resumed);
+
+            long start = System.nanoTime();
+            alice.connector.connectPeer(BOB);
+            if(!connected.await(3L * Connector.DEFAULT_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS)) {
+                console.println("session " + i + " not set up - give up");
+                break;
+            }
+            long setup = (Math.max(alice.connectedAt, bob.connectedAt) - start) / 1000;
+            sumSetup += setup;
+            minSetup = Math.min(minSetup, setup);
+            maxSetup = Math.max(maxSetup, setup);
+
+            // next session on channels that speak connector protocol again
+            if(!resumed.await(30, TimeUnit.SECONDS)) {
+                console.println("connector protocol did not resume after session " + i + " - give up");
+                break;
+            }
+            done++;
+        }
+
+        console.println("mode:                 " + mode);
+        console.println("sessions:             " + done + " / " + numberSessions);
+        if(done > 0) {
+            console.println(String.format("avg setup (ms):       %.3f", sumSetup / done / 1000.0));
+            console.println(String.format("min / max setup (ms): %.3f / %.3f", minSetup / 1000.0, maxSetup / 1000.0));
+        }
+
+        alice.connector.disconnectHub();
+        bob.connector.disconnectHub();
+        hub.kill();
+    }
+
+    private static class SessionPeer implements NewConnectionListener, HubConnectorStatusListener {
+        private final SharedChannelConnectorPeerSide connector;
+        private CountDownLatch connected;
+        private CountDownLatch resumed;
+        private volatile long connectedAt;
+        private volatile boolean inSession = false;
+
+        SessionPeer(int port, CharSequence peerID, int capabilities) throws Exception {
+            this.connector = (SharedChannelConnectorPeerSide)
+                    SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+            this.connector.setRequestedCapabilities(capabilities);
+            this.connector.addListener(this);
+            this.connector.addStatusListener(this);
+            this.connector.connectHub(peerID, false);
+        }
+
+        void prepare(CountDownLatch connected, CountDownLatch resumed) {
+            this.connected = connected;
+            this.resumed = resumed;
+        }
+
+        @Override
+        public void notifyPeerConnected(CharSequence targetPeerID, StreamPair streamPair) {
+            this.connectedAt = System.nanoTime();
+            this.inSession = true;
+            this.connected.countDown();
+            HubThreads.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OutputStream os = streamPair.getOutputStream();
+                        InputStream is = streamPair.getInputStream();
+                        os.write(1);
+                        os.flush();
+                        is.read();
+                    } catch (IOException e) {
+                        // not measured
+                    }
+                    streamPair.close();
+                }
+            }, "benchmark session");
+        }
+
+        @Override
+        public void notifyConnectedAndOpen() {
+            // called whenever connector protocol (re-)starts
+            if(!this.inSession) return;
+            this.inSession = false;
+            this.resumed.countDown();
+        }
+
+        @Override
+        public void notifySynced(Connector connector, boolean changed) { }
+    }
+}
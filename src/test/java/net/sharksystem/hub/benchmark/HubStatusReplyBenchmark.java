@@ -0,0 +1,80 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.protocol.EncodedPeerIDs;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRPLY;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Produces hub status replies for a hub with many registered peers, each reply leaving out the asking peer.
+ * Reports time and bytes allocated per reply.
+ * <br/><br/>
+ * Usage: HubStatusReplyBenchmark [encode|cached] [registered peers] [replies]
+ * <br/>
+ * encode: copy registered peers into a new set, remove the caller and serialise it (previous implementation);
+ * cached: write peers serialised once per registry version ({@link EncodedPeerIDs}).
+ */
+public class HubStatusReplyBenchmark {
+    public static final String ENCODE = "encode";
+    public static final String CACHED = "cached";
+    public static final int DEFAULT_PEERS = 10000;
+    public static final int DEFAULT_REPLIES = 5000;
+    private static final int WARM_UP_REPLIES = 2000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : CACHED;
+        int peers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PEERS;
+        int replies = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_REPLIES;
+        boolean cachedMode = mode.equalsIgnoreCase(CACHED);
+
+        Set<CharSequence> registeredPeers = new LinkedHashSet<>();
+        for(int i = 0; i < peers; i++) registeredPeers.add("peer_" + i + "_" + Integer.toHexString(i * 31));
+        CharSequence[] callers = registeredPeers.toArray(new CharSequence[0]);
+        EncodedPeerIDs encodedPeerIDs = new EncodedPeerIDs(1, registeredPeers);
+
+        // reused like the buffer of a pdu writer
+        ByteArrayOutputStream os = new ByteArrayOutputStream(peers * 32);
+
+        run(cachedMode, registeredPeers, encodedPeerIDs, callers, os, WARM_UP_REPLIES);
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadID = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadID);
+        long start = System.nanoTime();
+        long bytes = run(cachedMode, registeredPeers, encodedPeerIDs, callers, os, replies);
+        long durationNanos = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadID) - allocatedBefore;
+
+        System.out.println("mode:                       " + mode);
+        System.out.println("registered peers:           " + peers);
+        System.out.println("replies:                    " + replies);
+        System.out.println("us per reply:               " + durationNanos / replies / 1000);
+        System.out.println("bytes per reply:            " + bytes / replies);
+        System.out.println("bytes allocated per reply:  " + allocated / replies);
+    }
+
+    private static long run(boolean cachedMode, Set<CharSequence> registeredPeers, EncodedPeerIDs encodedPeerIDs,
+                            CharSequence[] callers, ByteArrayOutputStream os, int replies) throws Exception {
+        long bytes = 0;
+        for(int i = 0; i < replies; i++) {
+            CharSequence caller = callers[i % callers.length];
+            HubPDUHubStatusRPLY reply;
+            if(cachedMode) {
+                reply = new HubPDUHubStatusRPLY(encodedPeerIDs, caller);
+            } else {
+                Set<CharSequence> peersWithoutCaller = new HashSet<>(registeredPeers);
+                peersWithoutCaller.remove(caller);
+                reply = new HubPDUHubStatusRPLY(peersWithoutCaller);
+            }
+            os.reset();
+            reply.sendPDU(os);
+            bytes += os.size();
+        }
+        return bytes;
+    }
+}
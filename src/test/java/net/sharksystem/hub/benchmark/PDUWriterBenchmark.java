@@ -0,0 +1,132 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUConnectPeerRQ;
+import net.sharksystem.hub.protocol.HubPDUStreamData;
+import net.sharksystem.hub.protocol.PDUWriter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads send PDUs over a TCP connection on localhost. Benchmark counts writes reaching the socket and reports
+ * writes per PDU and duration.
+ * <br/><br/>
+ * Usage: PDUWriterBenchmark [direct|writer|deferred] [number of threads] [PDUs per thread]
+ * <br/>
+ * direct: PDU is serialised straight into the socket stream (previous implementation);
+ * writer: {@link PDUWriter} - one write per PDU at most, concurrent threads are coalesced;
+ * deferred: connect requests queued with {@link PDUWriter#writeDeferred(HubPDU)}, one flush per thread at the end.
+ * <br/>
+ * Each thread alternates connect requests and small stream data PDUs.
+ */
+public class PDUWriterBenchmark {
+    public static final String DIRECT = "direct";
+    public static final String WRITER = "writer";
+    public static final String DEFERRED = "deferred";
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_PDUS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : WRITER;
+        int numberThreads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+        int pdusPerThread = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PDUS;
+
+        ServerSocket srv = new ServerSocket(0);
+        Socket sender = new Socket("localhost", srv.getLocalPort());
+        Socket receiver = srv.accept();
+
+        // drain
+        Thread drain = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                InputStream is = receiver.getInputStream();
+                while(is.read(buffer) >= 0) { /* drop */ }
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        drain.start();
+
+        CountingOutputStream socketStream = new CountingOutputStream(sender.getOutputStream());
+        PDUWriter pduWriter = new PDUWriter(socketStream);
+        byte[] payload = new byte[64];
+
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < numberThreads; t++) {
+            int threadNumber = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < pdusPerThread; i++) {
+                        HubPDU pdu = i % 2 == 0 ?
+                                new HubPDUConnectPeerRQ("peer_" + threadNumber + "_" + i) :
+                                new HubPDUStreamData(threadNumber, payload, 0, payload.length);
+
+                        if (mode.equalsIgnoreCase(DIRECT)) {
+                            synchronized (socketStream) {
+                                pdu.sendPDU(socketStream);
+                            }
+                        } else if (mode.equalsIgnoreCase(DEFERRED) && pdu instanceof HubPDUConnectPeerRQ) {
+                            pduWriter.writeDeferred(pdu);
+                        } else {
+                            pduWriter.write(pdu);
+                        }
+                    }
+                    pduWriter.flush();
+                } catch (IOException e) {
+                    System.out.println("sender failed: " + e.getLocalizedMessage());
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for(Thread thread : threads) thread.start();
+        for(Thread thread : threads) thread.join();
+        long durationMillis = (System.nanoTime() - start) / 1000000;
+
+        long pdus = (long) numberThreads * pdusPerThread;
+        System.out.println("mode:                       " + mode);
+        System.out.println("threads:                    " + numberThreads);
+        System.out.println("PDUs:                       " + pdus);
+        System.out.println("socket writes:              " + socketStream.writes.get());
+        System.out.println("writes per PDU:             "
+                + String.format("%.3f", (double) socketStream.writes.get() / pdus));
+        System.out.println("duration (ms):              " + durationMillis);
+        if(!mode.equalsIgnoreCase(DIRECT)) {
+            System.out.println("writer metrics:             " + pduWriter
+                    + " | writes per PDU: " + String.format("%.3f", pduWriter.getWritesPerPDU()));
+        }
+
+        sender.close();
+        receiver.close();
+        srv.close();
+        System.exit(0);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        final AtomicLong writes = new AtomicLong();
+
+        CountingOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.writes.incrementAndGet();
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.writes.incrementAndGet();
+            this.out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.hubside.PeerRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads register, look up and unregister peers like connector threads during a registration storm. Each thread
+ * owns a range of peer ids; every tenth operation a thread takes a snapshot of all peers like a hub status reply.
+ * Reports throughput, lost registrations and lock contention.
+ * <br/><br/>
+ * Usage: PeerRegistryBenchmark [registry|hashmap] [threads] [operations per thread]
+ * <br/>
+ * registry: {@link PeerRegistry}; hashmap: an unsynchronised HashMap (previous implementation) - expect lost
+ * registrations or exceptions.
+ */
+public class PeerRegistryBenchmark {
+    public static final String REGISTRY = "registry";
+    public static final String HASHMAP = "hashmap";
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_OPERATIONS = 1000000;
+    private static final int PEERS_PER_THREAD = 1000;
+    private static final int SNAPSHOT_EVERY = 10;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : REGISTRY;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_THREADS;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_OPERATIONS;
+        boolean registryMode = mode.equalsIgnoreCase(REGISTRY);
+
+        PeerRegistry<String> registry = new PeerRegistry<>();
+        Map<CharSequence, String> hashMap = new HashMap<>();
+        AtomicLong failures = new AtomicLong();
+        AtomicLong snapshotSizes = new AtomicLong();
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for(int t = 0; t < threads; t++) {
+            int threadNumber = t;
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for(int i = 0; i < operations; i++) {
+                        // register, look up, unregister a peer - new string each time, no identity lookups
+                        String peerID = "peer_" + threadNumber + "_" + (i / 3 % PEERS_PER_THREAD);
+                        switch (i % 3) {
+                            case 0:
+                                if(registryMode) registry.register(peerID, peerID);
+                                else hashMap.put(peerID, peerID);
+                                break;
+                            case 1:
+                                String connector = registryMode ? registry.get(peerID) : hashMap.get(peerID);
+                                if(connector == null) failures.incrementAndGet(); // lost registration
+                                break;
+                            default:
+                                if(registryMode) registry.unregister(peerID);
+                                else hashMap.remove(peerID);
+                        }
+                        if(i % SNAPSHOT_EVERY == 0) {
+                            snapshotSizes.addAndGet(registryMode ?
+                                    registry.getSnapshot().size() : new ArrayList<>(hashMap.keySet()).size());
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.incrementAndGet();
+                    System.err.println(Thread.currentThread().getName() + ": " + e);
+                } finally {
+                    done.countDown();
+                }
+            }, "registry worker " + t));
+        }
+        for(Thread worker : workers) worker.start();
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long durationNanos = System.nanoTime() - startNanos;
+        long totalOperations = (long) threads * operations;
+
+        System.out.println("mode:                       " + mode);
+        System.out.println("threads:                    " + threads);
+        System.out.println("operations:                 " + totalOperations);
+        System.out.println("operations per second:      " + (long) (totalOperations / (durationNanos / 1e9)));
+        System.out.println("ns per operation:           " + durationNanos / totalOperations);
+        System.out.println("failures:                   " + failures.get());
+        System.out.println("avg snapshot size:          "
+                + snapshotSizes.get() / Math.max(1, totalOperations / SNAPSHOT_EVERY));
+        if(registryMode) System.out.println(registry);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,136 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.HubStreamPairLink;
+import net.sharksystem.hub.hubside.SocketChannelRelay;
+import net.sharksystem.hub.hubside.SocketChannelStreamPair;
+import net.sharksystem.utils.Log;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Relays data sessions between dedicated TCP connections on localhost and reports throughput and CPU time
+ * spent in relaying per GB.
+ * <br/><br/>
+ * Usage: RelayBenchmark [link|relay] [megabytes per session] [number of sessions]
+ * <br/>
+ * link: copy through streams with two threads per session ({@link HubStreamPairLink});
+ * relay: socket channel to socket channel with pooled direct buffers ({@link SocketChannelRelay}).
+ * <br/>
+ * Relay CPU is process CPU time minus CPU time of sending and receiving threads. It is an approximation - JIT and
+ * GC are included.
+ */
+public class RelayBenchmark {
+    public static final String LINK = "link";
+    public static final String RELAY = "relay";
+    public static final int DEFAULT_MEGABYTES = 1024;
+    public static final int DEFAULT_SESSIONS = 1;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : RELAY;
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MEGABYTES;
+        int numberSessions = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SESSIONS;
+        long bytesPerSession = megabytes * 1024L * 1024L;
+
+        PrintStream console = System.out;
+        Log.setOutStream(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { /* drop */ }
+        }));
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.OperatingSystemMXBean osMXBean =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+        ServerSocketChannel srv = ServerSocketChannel.open();
+        srv.bind(new InetSocketAddress("localhost", 0));
+        int port = ((InetSocketAddress) srv.getLocalAddress()).getPort();
+
+        SocketChannelRelay relay = new SocketChannelRelay();
+        List<SocketChannel> senders = new ArrayList<>();
+        List<SocketChannel> receivers = new ArrayList<>();
+        for(int i = 0; i < numberSessions; i++) {
+            SocketChannel sender = SocketChannel.open(new InetSocketAddress("localhost", port));
+            SocketChannelStreamPair hubSideA = new SocketChannelStreamPair(srv.accept(), "A" + i);
+            SocketChannel receiver = SocketChannel.open(new InetSocketAddress("localhost", port));
+            SocketChannelStreamPair hubSideB = new SocketChannelStreamPair(srv.accept(), "B" + i);
+
+            if(mode.equalsIgnoreCase(LINK)) {
+                new HubStreamPairLink(hubSideA, "A" + i, hubSideB, "B" + i);
+            } else {
+                relay.relay(hubSideA, hubSideB, 0);
+            }
+            senders.add(sender);
+            receivers.add(receiver);
+        }
+        int threadsDuringRelay = threadMXBean.getThreadCount();
+
+        AtomicLong endpointCPU = new AtomicLong();
+        List<Thread> endpointThreads = new ArrayList<>();
+        long cpuStart = osMXBean.getProcessCpuTime();
+        long start = System.nanoTime();
+        for(int i = 0; i < numberSessions; i++) {
+            SocketChannel sender = senders.get(i);
+            SocketChannel receiver = receivers.get(i);
+            endpointThreads.add(new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                try {
+                    long sent = 0;
+                    while(sent < bytesPerSession) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(CHUNK_SIZE, bytesPerSession - sent));
+                        sent += sender.write(buffer);
+                    }
+                } catch (Exception e) {
+                    console.println("sender failed: " + e.getLocalizedMessage());
+                }
+                endpointCPU.addAndGet(threadMXBean.getCurrentThreadCpuTime());
+            }));
+            endpointThreads.add(new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+                try {
+                    long received = 0;
+                    while(received < bytesPerSession) {
+                        buffer.clear();
+                        int read = receiver.read(buffer);
+                        if(read < 0) break;
+                        received += read;
+                    }
+                } catch (Exception e) {
+                    console.println("receiver failed: " + e.getLocalizedMessage());
+                }
+                endpointCPU.addAndGet(threadMXBean.getCurrentThreadCpuTime());
+            }));
+        }
+        for(Thread thread : endpointThreads) thread.start();
+        for(Thread thread : endpointThreads) thread.join();
+
+        long durationNanos = System.nanoTime() - start;
+        long relayCPU = osMXBean.getProcessCpuTime() - cpuStart - endpointCPU.get();
+        double gigabytes = (double) (bytesPerSession * numberSessions) / (1024L * 1024L * 1024L);
+
+        console.println("mode:                       " + mode);
+        console.println("sessions:                   " + numberSessions);
+        console.println("relayed (MB):               " + megabytes * numberSessions);
+        console.println("throughput (MB/s):          "
+                + (long) (megabytes * numberSessions / (durationNanos / 1e9)));
+        console.println("relay CPU per GB (ms):      " + (long) (relayCPU / 1e6 / gigabytes));
+        console.println("threads while relaying:     " + threadsDuringRelay);
+
+        for(SocketChannel channel : senders) channel.close();
+        for(SocketChannel channel : receivers) channel.close();
+        relay.kill();
+        srv.close();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,169 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.Connector;
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.hub.peerside.HubConnectorStatusListener;
+import net.sharksystem.hub.peerside.NewConnectionListener;
+import net.sharksystem.hub.peerside.SharedChannelConnectorPeerSide;
+import net.sharksystem.hub.peerside.SharedTCPChannelConnectorPeerSide;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.utils.Log;
+import net.sharksystem.utils.streams.StreamPair;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two peers run a series of short data sessions over a shared hub channel. Each side sends a byte, reads a byte and
+ * closes its stream pair. Benchmark reports how long it takes from closing a data session until both connectors
+ * speak connector protocol again (turnaround) and how long a complete session takes.
+ * <br/><br/>
+ * Usage: SessionTurnaroundBenchmark [legacy|framed|multiplex] [number of sessions] [port]
+ * <br/>
+ * legacy: sleep and sync sequence after data session; framed: end of session is framed; multiplex: data sessions
+ * are streams on the shared channel - there is no turnaround at all.
+ */
+public class SessionTurnaroundBenchmark {
+    public static final int DEFAULT_NUMBER_SESSIONS = 10;
+    public static final int DEFAULT_PORT = 6310;
+    public static final String LEGACY = "legacy";
+    public static final String FRAMED = "framed";
+    public static final String MULTIPLEX = "multiplex";
+
+    private static final CharSequence ALICE = "ALICE";
+    private static final CharSequence BOB = "BOB";
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : FRAMED;
+        int numberSessions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUMBER_SESSIONS;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+
+        int capabilities = HubCapabilities.NONE;
+        if(mode.equalsIgnoreCase(FRAMED)) capabilities = HubCapabilities.FRAMED_DATA_SESSIONS;
+        else if(mode.equalsIgnoreCase(MULTIPLEX)) capabilities = HubCapabilities.MULTIPLEX;
+        boolean multiplexed = capabilities == HubCapabilities.MULTIPLEX;
+
+        PrintStream console = System.out;
+        Log.setOutStream(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { /* drop */ }
+        }));
+
+        ASAPTCPHub hub = new ASAPTCPHub(port, false);
+        HubThreads.start(hub, "tcp hub");
+        Thread.sleep(200);
+
+        SessionPeer alice = new SessionPeer(port, ALICE, capabilities);
+        SessionPeer bob = new SessionPeer(port, BOB, capabilities);
+        Thread.sleep(500);
+
+        long sumTurnaround = 0;
+        long sumSession = 0;
+        int done = 0;
+        for(int i = 0; i < numberSessions; i++) {
+            CountDownLatch closed = new CountDownLatch(2);
+            CountDownLatch resumed = new CountDownLatch(multiplexed ? 0 : 2);
+            alice.prepare(closed, resumed);
+            bob.prepare(closed, resumed);
+
+            long start = System.currentTimeMillis();
+            // a connect request can get lost if hub side connector is not back yet - ask again
+            do {
+                alice.connector.connectPeer(BOB);
+            } while(!alice.started.await(3L * Connector.DEFAULT_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS));
+
+            if(!closed.await(30, TimeUnit.SECONDS)) {
+                console.println("session " + i + " did not end - give up");
+                break;
+            }
+            long closedAt = Math.max(alice.closedAt, bob.closedAt);
+            if(!resumed.await(30, TimeUnit.SECONDS)) {
+                console.println("connector protocol did not resume after session " + i + " - give up");
+                break;
+            }
+            if(multiplexed) {
+                sumSession += closedAt - start;
+            } else {
+                // each peer: from closing its stream pair until its connector protocol runs again
+                sumTurnaround += ((alice.resumedAt - alice.closedAt) + (bob.resumedAt - bob.closedAt)) / 2;
+                sumSession += Math.max(alice.resumedAt, bob.resumedAt) - start;
+            }
+            done++;
+        }
+
+        console.println("mode:                       " + mode);
+        console.println("sessions:                   " + done + " / " + numberSessions);
+        if(done > 0) {
+            console.println("avg turnaround (ms):        " + sumTurnaround / done);
+            console.println("avg session incl. resume:   " + sumSession / done);
+        }
+
+        hub.kill();
+        System.exit(0);
+    }
+
+    private static class SessionPeer implements NewConnectionListener, HubConnectorStatusListener {
+        private final SharedChannelConnectorPeerSide connector;
+        private CountDownLatch started;
+        private CountDownLatch closed;
+        private CountDownLatch resumed;
+        private volatile long closedAt;
+        private volatile long resumedAt;
+        private volatile boolean inSession = false;
+
+        SessionPeer(int port, CharSequence peerID, int capabilities) throws Exception {
+            this.connector = (SharedChannelConnectorPeerSide)
+                    SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+            this.connector.setRequestedCapabilities(capabilities);
+            this.connector.addListener(this);
+            this.connector.addStatusListener(this);
+            this.connector.connectHub(peerID, false);
+        }
+
+        void prepare(CountDownLatch closed, CountDownLatch resumed) {
+            this.started = new CountDownLatch(1);
+            this.closed = closed;
+            this.resumed = resumed;
+        }
+
+        @Override
+        public void notifyPeerConnected(CharSequence targetPeerID, StreamPair streamPair) {
+            this.started.countDown();
+            HubThreads.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OutputStream os = streamPair.getOutputStream();
+                        InputStream is = streamPair.getInputStream();
+                        os.write(1);
+                        os.flush();
+                        is.read();
+                    } catch (IOException e) {
+                        // measured anyway
+                    }
+                    SessionPeer.this.inSession = true;
+                    SessionPeer.this.closedAt = System.currentTimeMillis();
+                    streamPair.close();
+                    SessionPeer.this.closed.countDown();
+                }
+            }, "benchmark session");
+        }
+
+        @Override
+        public void notifyConnectedAndOpen() {
+            // called whenever connector protocol (re-)starts
+            if(!this.inSession) return;
+            this.inSession = false;
+            this.resumedAt = System.currentTimeMillis();
+            this.resumed.countDown();
+        }
+
+        @Override
+        public void notifySynced(Connector connector, boolean changed) { }
+    }
+}
@@ -0,0 +1,122 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.hub.protocol.HubPDURegister;
+import net.sharksystem.utils.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registers a large number of idle peers on a local hub and reports how many peers got registered, how long it took,
+ * how many hub threads and platform threads are alive and how much heap is used.
+ * <br/><br/>
+ * Usage: ThreadModeBenchmark [platform|virtual|nio] [number of peers] [port]
+ * <br/>
+ * Virtual threads require Java 21 - virtual mode refuses to run on older runtimes. Virtual threads are counted as hub
+ * threads but not as platform threads. Run each mode in its own JVM - numbers are not comparable otherwise.
+ * Each peer costs two file descriptors since peers and hub share a process - check ulimit -n.
+ */
+public class ThreadModeBenchmark {
+    public static final int DEFAULT_NUMBER_PEERS = 2000;
+    public static final int DEFAULT_PORT = 6300;
+    public static final int MAX_WAIT_IN_MILLIS = 60000;
+    public static final int STABLE_PERIOD_IN_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : HubThreads.PLATFORM_THREAD_MODE;
+        int numberPeers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUMBER_PEERS;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+
+        // hub logs each pdu - keep console readable
+        PrintStream console = System.out;
+        Log.setOutStream(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) { /* drop */ }
+        }));
+
+        boolean nio = false;
+        if(mode.equalsIgnoreCase(HubThreads.VIRTUAL_THREAD_MODE)) {
+            if(!HubThreads.useVirtualThreads()) {
+                console.println("virtual threads are not supported by this runtime (Java 21+ required)");
+                return;
+            }
+        } else if(mode.equalsIgnoreCase("nio")) {
+            nio = true;
+        }
+
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        ASAPTCPHub hub = new ASAPTCPHub(port, false, nio);
+        HubThreads.start(hub, "tcp hub");
+        Thread.sleep(200);
+
+        List<Socket> peers = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < numberPeers; i++) {
+                Socket socket = new Socket("localhost", port);
+                new HubPDURegister("peer_" + i, false).sendPDU(socket.getOutputStream());
+                peers.add(socket);
+            }
+        } catch (IOException e) {
+            console.println("could not connect more peers: " + e.getLocalizedMessage());
+        }
+
+        // wait until all peers are registered or nothing changes anymore
+        int registered = 0;
+        long lastChange = System.currentTimeMillis();
+        long duration = 0;
+        while(System.currentTimeMillis() - start < MAX_WAIT_IN_MILLIS) {
+            int nowRegistered = hub.getRegisteredPeers().size();
+            long now = System.currentTimeMillis();
+            if(nowRegistered != registered) {
+                registered = nowRegistered;
+                lastChange = now;
+                duration = now - start;
+            }
+            if(registered >= peers.size() || now - lastChange > STABLE_PERIOD_IN_MILLIS) break;
+            Thread.sleep(50);
+        }
+
+        int peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapAfter = usedHeap();
+
+        console.println("mode:                     " + (nio ? "nio" : HubThreads.getThreadMode()));
+        console.println("connected peers:          " + peers.size());
+        console.println("registered peers:         " + registered);
+        console.println("time to register (ms):    " + duration);
+        console.println("hub threads:              " + HubThreads.getLiveThreads()
+                + " (peak " + HubThreads.getPeakLiveThreads() + ")");
+        console.println("platform threads:         " + threadsBefore + " -> " + threads + " (peak " + peakThreads + ")");
+        console.println("used heap (KB):           " + heapBefore / 1024 + " -> " + heapAfter / 1024
+                + " (" + (heapAfter - heapBefore) / Math.max(1, registered) + " bytes per peer)");
+
+        for(Socket socket : peers) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        hub.kill();
+        System.exit(0);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,95 @@
+package net.sharksystem.hub.benchmark;
+
+import net.sharksystem.hub.HubTimerWheel;
+import net.sharksystem.utils.AlarmClock;
+import net.sharksystem.utils.AlarmClockListener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Arms and cancels timeouts like connectors do on each state change and reports throughput. A second round lets
+ * timeouts expire and reports how late they fire.
+ * <br/><br/>
+ * Usage: TimerWheelBenchmark [wheel|threads] [number of arm/cancel pairs]
+ * <br/>
+ * wheel: {@link HubTimerWheel}; threads: an {@link AlarmClock} thread per timeout, interrupted when killed
+ * (previous implementation).
+ */
+public class TimerWheelBenchmark {
+    public static final String WHEEL = "wheel";
+    public static final String THREADS = "threads";
+    public static final int DEFAULT_NUMBER = 100000;
+    private static final int EXPIRING_TIMEOUTS = 1000;
+    private static final long EXPIRING_DELAY_IN_MILLIS = 50;
+    private static final long LONG_TIMEOUT_IN_MILLIS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : WHEEL;
+        int number = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NUMBER;
+        boolean wheelMode = mode.equalsIgnoreCase(WHEEL);
+
+        HubTimerWheel wheel = new HubTimerWheel(HubTimerWheel.DEFAULT_TICK_IN_MILLIS, HubTimerWheel.DEFAULT_WHEEL_SIZE);
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        AlarmClockListener doNothing = new AlarmClockListener() {
+            @Override
+            public void alarmClockRinging(int yourKey) { }
+        };
+
+        // warm up
+        armAndCancel(wheelMode, wheel, doNothing, Math.min(number, 10000));
+
+        long threadsBefore = threadMXBean.getTotalStartedThreadCount();
+        long start = System.nanoTime();
+        armAndCancel(wheelMode, wheel, doNothing, number);
+        long durationNanos = System.nanoTime() - start;
+        long threadsStarted = threadMXBean.getTotalStartedThreadCount() - threadsBefore;
+
+        // let some expire
+        CountDownLatch rung = new CountDownLatch(EXPIRING_TIMEOUTS);
+        AtomicLong sumLateness = new AtomicLong();
+        AtomicLong maxLateness = new AtomicLong();
+        for(int i = 0; i < EXPIRING_TIMEOUTS; i++) {
+            long armedAt = System.nanoTime();
+            AlarmClockListener listener = new AlarmClockListener() {
+                @Override
+                public void alarmClockRinging(int yourKey) {
+                    long lateness = (System.nanoTime() - armedAt) / 1000000 - EXPIRING_DELAY_IN_MILLIS;
+                    sumLateness.addAndGet(lateness);
+                    maxLateness.accumulateAndGet(lateness, Math::max);
+                    rung.countDown();
+                }
+            };
+            if(wheelMode) wheel.schedule(EXPIRING_DELAY_IN_MILLIS, 0, listener);
+            else new AlarmClock(EXPIRING_DELAY_IN_MILLIS, listener).start();
+        }
+        rung.await();
+
+        System.out.println("mode:                       " + mode);
+        System.out.println("arm/cancel pairs:           " + number);
+        System.out.println("pairs per second:           " + (long) (number / (durationNanos / 1e9)));
+        System.out.println("ns per pair:                " + durationNanos / number);
+        System.out.println("threads started:            " + threadsStarted);
+        System.out.println("avg lateness (ms):          " + sumLateness.get() / EXPIRING_TIMEOUTS
+                + " (max " + maxLateness.get() + ")");
+        if(wheelMode) System.out.println(wheel);
+
+        wheel.stop();
+        System.exit(0);
+    }
+
+    private static void armAndCancel(boolean wheelMode, HubTimerWheel wheel, AlarmClockListener listener, int number) {
+        for(int i = 0; i < number; i++) {
+            if(wheelMode) {
+                wheel.schedule(LONG_TIMEOUT_IN_MILLIS, 0, listener).cancel();
+            } else {
+                AlarmClock alarmClock = new AlarmClock(LONG_TIMEOUT_IN_MILLIS, listener);
+                alarmClock.start();
+                alarmClock.kill();
+                alarmClock.interrupt(); // like previous HubAlarmClock - do not keep a sleeping thread
+            }
+        }
+    }
+}
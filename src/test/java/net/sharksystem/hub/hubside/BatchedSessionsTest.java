@@ -0,0 +1,191 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.ConnectorStateMachine;
+import net.sharksystem.hub.protocol.ConnectionRequest;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRPLY;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRQ;
+import net.sharksystem.hub.protocol.HubPDUOpenSession;
+import net.sharksystem.hub.protocol.HubPDURegister;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hub side connector of a peer that agreed on batched data sessions. Test plays that peer on the other end of the
+ * channel. Requests come from peers the hub does not know: hub ends each data session right away.
+ */
+public class BatchedSessionsTest {
+    private static final int CAPABILITIES = HubCapabilities.FRAMED_DATA_SESSIONS | HubCapabilities.OPEN_SESSION
+            | HubCapabilities.BATCHED_SESSIONS;
+    private static final int END_OF_SESSION = 0;
+    private static final int NEXT_SESSION = -1;
+
+    /**
+     * Fails each write once told so - e.g. a session boundary.
+     */
+    private static class BreakableOutputStream extends FilterOutputStream {
+        private volatile boolean broken = false;
+        private volatile int failedWrites = 0;
+
+        BreakableOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        private void check() throws IOException {
+            if(this.broken) {
+                this.failedWrites++;
+                throw new IOException("channel broken");
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.check();
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.check();
+            this.out.write(b, off, len);
+        }
+    }
+
+    private ASAPTCPHub hub;
+    private Socket hubEnd;
+    private Socket peerEnd;
+    private BreakableOutputStream hubOut;
+    private SharedChannelConnectorHubSide connector;
+    private final List<String> transitions = new ArrayList<>();
+
+    @Before
+    public void connect() throws Exception {
+        int hubPort;
+        try(ServerSocket serverSocket = new ServerSocket(0)) {
+            hubPort = serverSocket.getLocalPort();
+            this.peerEnd = new Socket("localhost", hubPort);
+            this.hubEnd = serverSocket.accept();
+        }
+        this.peerEnd.setSoTimeout(10000); // test fails instead of hanging
+        this.hub = new ASAPTCPHub(hubPort, false); // never started - test plays connector thread
+
+        this.hubOut = new BreakableOutputStream(this.hubEnd.getOutputStream());
+        this.connector = new SharedChannelConnectorHubSide(this.hubEnd.getInputStream(), this.hubOut, this.hub);
+        this.connector.getStateMachine().setListener((from, event, to, nanosInPreviousState) -> {
+            synchronized (this.transitions) {
+                this.transitions.add(from + "-" + event + "->" + to);
+            }
+        });
+        this.connector.register(new HubPDURegister("Popular", false, CAPABILITIES));
+    }
+
+    @After
+    public void close() throws Exception {
+        this.peerEnd.close();
+        this.hubEnd.close();
+        this.hub.kill();
+    }
+
+    private <T extends HubPDU> T next(Class<T> pduClass) throws Exception {
+        HubPDU pdu;
+        do {
+            pdu = HubPDU.readPDU(this.peerEnd.getInputStream());
+        } while(!pduClass.isInstance(pdu));
+        return pduClass.cast(pdu);
+    }
+
+    private int readFrameHeader() throws IOException {
+        return new DataInputStream(this.peerEnd.getInputStream()).readInt();
+    }
+
+    private void endSession() throws IOException {
+        new DataOutputStream(this.peerEnd.getOutputStream()).writeInt(END_OF_SESSION);
+    }
+
+    private void waitForState(ConnectorStateMachine.State state) throws InterruptedException {
+        for(int i = 0; i < 1000 && !this.connector.getStateMachine().is(state); i++) Thread.sleep(10);
+        assertEquals(state, this.connector.getStateMachine().getState());
+    }
+
+    /**
+     * Both requests are queued before first data session starts - hub asks to open the first one.
+     */
+    private HubPDUOpenSession queueTwoRequests() throws Exception {
+        this.connector.connectionRequest("Bob", "Popular", 10000);
+        this.connector.connectionRequest("Clara", "Popular", 10000);
+        HubPDUOpenSession request = this.next(HubPDUOpenSession.class);
+        assertEquals("Bob", request.sourcePeerID.toString());
+        return request;
+    }
+
+    @Test
+    public void queuedRequestsRunBackToBackThenProtocolResumes() throws Exception {
+        HubPDUOpenSession request = this.queueTwoRequests();
+        this.connector.openSession(request.createReply(true));
+
+        // hub ends first session with a boundary - second request follows
+        assertEquals(NEXT_SESSION, this.readFrameHeader());
+        HubPDUOpenSession boundary = (HubPDUOpenSession) HubPDU.readPDU(this.peerEnd.getInputStream());
+        assertEquals("Clara", boundary.sourcePeerID.toString());
+        this.endSession();
+
+        // nothing left - connector protocol resumes after second session
+        assertEquals(END_OF_SESSION, this.readFrameHeader());
+        this.endSession();
+        this.waitForState(ConnectorStateMachine.State.PROTOCOL);
+        assertTrue(this.connector.getPendingConnectionRequests().isEmpty());
+
+        synchronized (this.transitions) {
+            assertEquals("PROTOCOL-OPEN_SESSION->OPENING_SESSION", this.transitions.get(0));
+            assertEquals("OPENING_SESSION-START_DATA_SESSION->DATA_SESSION", this.transitions.get(1));
+            // channel does not go back to connector protocol in between
+            assertEquals("DATA_SESSION-START_DATA_SESSION->DATA_SESSION", this.transitions.get(2));
+            assertEquals("DATA_SESSION-DATA_SESSION_ENDED->PROTOCOL", this.transitions.get(3));
+            assertEquals(4, this.transitions.size());
+        }
+
+        // connector protocol runs on channel again
+        this.connector.hubStatusRQ(new HubPDUHubStatusRQ());
+        assertNotNull(this.next(HubPDUHubStatusRPLY.class));
+    }
+
+    @Test
+    public void singleRequestEndsWithoutBoundary() throws Exception {
+        this.connector.connectionRequest("Bob", "Popular", 10000);
+        HubPDUOpenSession request = this.next(HubPDUOpenSession.class);
+        this.connector.openSession(request.createReply(true));
+
+        assertEquals(END_OF_SESSION, this.readFrameHeader());
+        this.endSession();
+        this.waitForState(ConnectorStateMachine.State.PROTOCOL);
+    }
+
+    @Test
+    public void unwritableBoundaryKeepsRequest() throws Exception {
+        HubPDUOpenSession request = this.queueTwoRequests();
+        // channel breaks before hub ends first session
+        this.hubOut.broken = true;
+        this.connector.openSession(request.createReply(true));
+
+        this.waitForState(ConnectorStateMachine.State.CLOSED);
+        assertTrue(this.hubOut.failedWrites > 0);
+        List<ConnectionRequest> pending = this.connector.getPendingConnectionRequests();
+        assertEquals(1, pending.size());
+        assertEquals("Clara", pending.get(0).sourcePeerID.toString());
+    }
+}
@@ -0,0 +1,96 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.asap.utils.ASAPSerialization;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DataPortListenerTest {
+    @Test
+    public void connectionsAreMatchedByToken() throws Exception {
+        ServerSocketChannel srvChannel = ServerSocketChannel.open();
+        srvChannel.bind(new InetSocketAddress(0));
+        DataPortListener dataPortListener = new DataPortListener(srvChannel.socket());
+        dataPortListener.start();
+
+        CountDownLatch created = new CountDownLatch(1);
+        StringBuilder createdFor = new StringBuilder();
+        NewConnectionCreatorListener listener = (sourcePeerID, targetPeerID, streamPair, timeOutDataConnection) -> {
+            createdFor.append(sourcePeerID).append("->").append(targetPeerID);
+            streamPair.close();
+            created.countDown();
+        };
+
+        // pooled by peer - connected before token is known
+        Socket socket = new Socket("localhost", dataPortListener.getPort());
+
+        long token = dataPortListener.expect(listener, "Alice", "Bob", 5000, 5000);
+        assertEquals(1, dataPortListener.getExpectedConnections());
+
+        // unknown token - connection is closed
+        Socket wrongSocket = new Socket("localhost", dataPortListener.getPort());
+        ASAPSerialization.writeLongParameter(token + 1, wrongSocket.getOutputStream());
+        assertEquals(-1, wrongSocket.getInputStream().read());
+        wrongSocket.close();
+
+        ASAPSerialization.writeLongParameter(token, socket.getOutputStream());
+        assertTrue(created.await(5, TimeUnit.SECONDS));
+        assertEquals("Alice->Bob", createdFor.toString());
+        assertEquals(0, dataPortListener.getExpectedConnections());
+        socket.close();
+
+        dataPortListener.kill();
+    }
+
+    @Test
+    public void tokensPresentedAtOnceAreAllHandedOver() throws Exception {
+        ServerSocketChannel srvChannel = ServerSocketChannel.open();
+        srvChannel.bind(new InetSocketAddress(0));
+        DataPortListener dataPortListener = new DataPortListener(srvChannel.socket());
+        dataPortListener.start();
+
+        int numberConnections = 50;
+        CountDownLatch created = new CountDownLatch(numberConnections);
+        NewConnectionCreatorListener listener = (sourcePeerID, targetPeerID, streamPair, timeOutDataConnection) -> {
+            streamPair.close();
+            created.countDown();
+        };
+
+        List<Socket> sockets = new ArrayList<>();
+        List<Long> tokens = new ArrayList<>();
+        for(int i = 0; i < numberConnections; i++) {
+            sockets.add(new Socket("localhost", dataPortListener.getPort()));
+            tokens.add(dataPortListener.expect(listener, "Alice", "Bob_" + i, 10000, 5000));
+        }
+
+        // all become readable together - several tokens are matched in the same selection round
+        for(int i = 0; i < numberConnections; i++) {
+            ASAPSerialization.writeLongParameter(tokens.get(i), sockets.get(i).getOutputStream());
+        }
+        assertTrue("handed over: " + (numberConnections - created.getCount()),
+                created.await(10, TimeUnit.SECONDS));
+        assertEquals(0, dataPortListener.getExpectedConnections());
+
+        // listener survived - still matches new connections
+        CountDownLatch createdLater = new CountDownLatch(1);
+        long token = dataPortListener.expect((sourcePeerID, targetPeerID, streamPair, timeOutDataConnection) -> {
+            streamPair.close();
+            createdLater.countDown();
+        }, "Alice", "Clara", 5000, 5000);
+        Socket socket = new Socket("localhost", dataPortListener.getPort());
+        ASAPSerialization.writeLongParameter(token, socket.getOutputStream());
+        assertTrue(createdLater.await(5, TimeUnit.SECONDS));
+
+        socket.close();
+        for(Socket s : sockets) s.close();
+        dataPortListener.kill();
+    }
+}
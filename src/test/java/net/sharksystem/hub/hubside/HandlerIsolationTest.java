@@ -0,0 +1,113 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.ConnectorStateMachine;
+import net.sharksystem.hub.SharedChannelConnectorImpl;
+import net.sharksystem.hub.peerside.SharedChannelConnectorPeerSide;
+import net.sharksystem.hub.peerside.SharedTCPChannelConnectorPeerSide;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUConnectPeerRQ;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRPLY;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRQ;
+import net.sharksystem.hub.protocol.HubPDURegister;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HandlerIsolationTest {
+    // hub connectors wait that long for a reply - far longer than this test runs
+    private static final int LONG_TIMEOUT_IN_MILLIS = 120000;
+
+    private static int freePort() throws Exception {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Ask for a peer that is busy and does not answer - and for hub status right after. Returns with status reply.
+     */
+    private static void receiveStatusReply(Socket peer, CharSequence busyPeerID) throws Exception {
+        OutputStream os = peer.getOutputStream();
+        InputStream is = peer.getInputStream();
+        new HubPDUConnectPeerRQ(busyPeerID).sendPDU(os);
+        new HubPDUHubStatusRQ().sendPDU(os);
+        os.flush();
+        HubPDU reply;
+        do {
+            reply = HubPDU.readPDU(is);
+        } while(!(reply instanceof HubPDUHubStatusRPLY));
+    }
+
+    /**
+     * Returns after hub registered that peer. Hub handles PDUs of a peer in order: registration is done when hub
+     * replies to a status request sent after register PDU.
+     */
+    private static void registered(Socket peer) throws Exception {
+        new HubPDUHubStatusRQ().sendPDU(peer.getOutputStream());
+        HubPDU.readPDU(peer.getInputStream()); // hub status after registration
+        HubPDU reply;
+        do {
+            reply = HubPDU.readPDU(peer.getInputStream());
+        } while(!(reply instanceof HubPDUHubStatusRPLY));
+    }
+
+    @Test
+    public void silentTargetDoesNotStallSourceProtocol() throws Exception {
+        int port = freePort();
+        ASAPTCPHub hub = new ASAPTCPHub(port, false); // server socket is bound - peers can connect right away
+        new Thread(hub).start();
+
+        SharedChannelConnectorPeerSide alice = (SharedChannelConnectorPeerSide)
+                SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+        alice.connectHub("Alice");
+        alice.syncHubInformationAsync().get(30, TimeUnit.SECONDS); // hub replied - Alice is registered
+
+        // registers, asks for Alice and never answers again - hub waits for its silence in vain
+        Socket mute = new Socket("localhost", port);
+        mute.setSoTimeout(30000); // test fails instead of hanging
+        new HubPDURegister("Mute", false).sendPDU(mute.getOutputStream());
+        registered(mute);
+
+        // hub waits far longer than this test runs - no clock can end the wait for Mute
+        SharedChannelConnectorImpl muteConnector = (SharedChannelConnectorImpl) hub.getPeerRegistry().get("Mute");
+        muteConnector.setTimeOutInMillis(LONG_TIMEOUT_IN_MILLIS);
+        ((SharedChannelConnectorImpl) hub.getPeerRegistry().get("Alice")).setTimeOutInMillis(LONG_TIMEOUT_IN_MILLIS);
+        ConnectorStateMachine muteState = muteConnector.getStateMachine();
+        CountDownLatch askedForSilence = new CountDownLatch(1);
+        muteState.setListener((from, event, to, nanosInPreviousState) -> {
+            if(to == ConnectorStateMachine.State.ASKED_FOR_SILENCE) askedForSilence.countDown();
+        });
+        new HubPDUConnectPeerRQ("Alice").sendPDU(mute.getOutputStream());
+
+        Socket bob = new Socket("localhost", port);
+        bob.setSoTimeout(30000);
+        new HubPDURegister("Bob", false).sendPDU(bob.getOutputStream());
+        registered(bob);
+        ((SharedChannelConnectorImpl) hub.getPeerRegistry().get("Bob")).setTimeOutInMillis(LONG_TIMEOUT_IN_MILLIS);
+
+        // Alice side is set up - hub is waiting for Mute now
+        assertTrue(askedForSilence.await(30, TimeUnit.SECONDS));
+        assertEquals(ConnectorStateMachine.State.ASKED_FOR_SILENCE, muteState.getState());
+        long transitions = muteState.getTransitions();
+
+        // Bob asks for Mute and for hub status - reply arrives while hub still waits for Mute
+        receiveStatusReply(bob, "Mute");
+        assertEquals(transitions, muteState.getTransitions());
+
+        // again - request for Mute is still pending
+        receiveStatusReply(bob, "Mute");
+        assertEquals(transitions, muteState.getTransitions());
+
+        alice.disconnectHub();
+        mute.close();
+        bob.close();
+        hub.kill();
+    }
+}
@@ -0,0 +1,197 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.RTTEstimator;
+import net.sharksystem.hub.peerside.SharedChannelConnectorPeerSide;
+import net.sharksystem.hub.peerside.SharedTCPChannelConnectorPeerSide;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUHeartbeat;
+import net.sharksystem.hub.protocol.HubPDURegister;
+import net.sharksystem.hub.protocol.HubPDUSilentRPLY;
+import net.sharksystem.hub.protocol.HubPDUSilentRQ;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HeartbeatTest {
+    private static int freePort() throws Exception {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void rttMeasuredAndSilentPeerUnregistered() throws Exception {
+        SharedChannelConnectorHubSide.setDefaultHeartbeat(100, 2);
+        try {
+            int port = freePort();
+            ASAPTCPHub hub = new ASAPTCPHub(port, false);
+            new Thread(hub).start();
+            Thread.sleep(100);
+
+            // registers but never answers
+            Socket mute = new Socket("localhost", port);
+            new HubPDURegister("Mute", false, HubCapabilities.HEARTBEAT).sendPDU(mute.getOutputStream());
+
+            SharedChannelConnectorPeerSide alice = (SharedChannelConnectorPeerSide)
+                    SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+            alice.setRequestedCapabilities(HubCapabilities.HEARTBEAT);
+            alice.connectHub("Alice");
+
+            Thread.sleep(200);
+            assertTrue(hub.isRegistered("Mute"));
+
+            Thread.sleep(600);
+            assertFalse(hub.isRegistered("Mute"));
+            assertTrue(hub.isRegistered("Alice"));
+            RTTEstimator rtt = hub.getRTTEstimator("Alice");
+            assertNotNull(rtt);
+            assertTrue(rtt.getSamples() >= 3);
+            assertTrue(rtt.getSmoothedRTTInMicros() > 0);
+
+            alice.disconnectHub();
+            mute.close();
+            hub.kill();
+        } finally {
+            SharedChannelConnectorHubSide.setDefaultHeartbeat(
+                    SharedChannelConnectorHubSide.DEFAULT_HEARTBEAT_INTERVAL_IN_MILLIS,
+                    SharedChannelConnectorHubSide.DEFAULT_MAX_MISSED_HEARTBEATS);
+        }
+    }
+
+    @Test
+    public void peerDyingInDataSessionUnregistered() throws Exception {
+        SharedChannelConnectorHubSide.setDefaultHeartbeat(100, 2);
+        try {
+            int port = freePort();
+            ASAPTCPHub hub = new ASAPTCPHub(port, false);
+            new Thread(hub).start();
+            Thread.sleep(100);
+
+            // answers pings and silence request - goes silent for good when its channel is silenced
+            Socket mute = new Socket("localhost", port);
+            new HubPDURegister("Mute", false, HubCapabilities.HEARTBEAT).sendPDU(mute.getOutputStream());
+            HubThreads.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        InputStream is = mute.getInputStream();
+                        OutputStream os = mute.getOutputStream();
+                        for(;;) {
+                            HubPDU pdu = HubPDU.readPDU(is);
+                            if(pdu instanceof HubPDUHeartbeat) {
+                                ((HubPDUHeartbeat) pdu).createPong().sendPDU(os);
+                            } else if(pdu instanceof HubPDUSilentRQ) {
+                                new HubPDUSilentRPLY(((HubPDUSilentRQ) pdu).waitDuration).sendPDU(os);
+                                break;
+                            }
+                        }
+                        while(is.read() != -1) ; // hub writes channel clear and sync sequence
+                    } catch (Exception e) {
+                        // channel closed
+                    }
+                }
+            }, "mute peer");
+
+            SharedChannelConnectorPeerSide alice = (SharedChannelConnectorPeerSide)
+                    SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+            alice.connectHub("Alice");
+            Thread.sleep(300);
+            assertTrue(hub.isRegistered("Mute"));
+
+            // data session times out - hub waits for sync sequence in vain
+            alice.connectPeer("Mute");
+            long until = System.currentTimeMillis() + 10000;
+            while(hub.isRegistered("Mute") && System.currentTimeMillis() < until) Thread.sleep(100);
+            assertFalse(hub.isRegistered("Mute"));
+
+            alice.disconnectHub();
+            mute.close();
+            hub.kill();
+        } finally {
+            SharedChannelConnectorHubSide.setDefaultHeartbeat(
+                    SharedChannelConnectorHubSide.DEFAULT_HEARTBEAT_INTERVAL_IN_MILLIS,
+                    SharedChannelConnectorHubSide.DEFAULT_MAX_MISSED_HEARTBEATS);
+        }
+    }
+
+    /**
+     * Takes whatever is written until it is told to block - from then on writes hang until stream is closed.
+     */
+    private static class BlockingOutputStream extends OutputStream {
+        private boolean blocked = false;
+        private boolean closed = false;
+
+        synchronized void block() {
+            this.blocked = true;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            while(this.blocked && !this.closed) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if(this.closed) throw new IOException("closed");
+        }
+
+        @Override
+        public synchronized void close() {
+            this.closed = true;
+            this.notifyAll();
+        }
+    }
+
+    @Test
+    public void peerDetectedWhileWriteToItBlocks() throws Exception {
+        SharedChannelConnectorHubSide.setDefaultHeartbeat(100, 2);
+        try {
+            ASAPTCPHub hub = new ASAPTCPHub(freePort(), false);
+            BlockingOutputStream os = new BlockingOutputStream();
+            SharedChannelConnectorHubSide connector =
+                    new SharedChannelConnectorHubSide(new ByteArrayInputStream(new byte[0]), os, hub);
+            connector.register(new HubPDURegister("Zombie", false, HubCapabilities.HEARTBEAT));
+            assertTrue(hub.isRegistered("Zombie"));
+
+            // peer stops reading - silence request cannot be written
+            os.block();
+            CountDownLatch askForSilenceReturned = new CountDownLatch(1);
+            HubThreads.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connector.askForSilence(200);
+                    } catch (Exception e) {
+                        // channel abandoned
+                    }
+                    askForSilenceReturned.countDown();
+                }
+            }, "ask zombie for silence");
+
+            // silence request times out, pings are not answered - blocked writer holds no lock detector needs
+            long until = System.currentTimeMillis() + 10000;
+            while(hub.isRegistered("Zombie") && System.currentTimeMillis() < until) Thread.sleep(50);
+            assertFalse(hub.isRegistered("Zombie"));
+            // abandoned channel releases blocked writer
+            assertTrue(askForSilenceReturned.await(5, TimeUnit.SECONDS));
+            hub.kill();
+        } finally {
+            SharedChannelConnectorHubSide.setDefaultHeartbeat(
+                    SharedChannelConnectorHubSide.DEFAULT_HEARTBEAT_INTERVAL_IN_MILLIS,
+                    SharedChannelConnectorHubSide.DEFAULT_MAX_MISSED_HEARTBEATS);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUHeartbeat;
+import net.sharksystem.hub.protocol.HubPDUSilentRQ;
+import net.sharksystem.hub.protocol.HubPDUStreamData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NIOConnectionTest {
+    private static final int SENT_BYTES = 4 * 1024 * 1024;
+
+    @Test
+    public void slowReaderPausesChannel() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+        // engine is not started - connection uses it to change interest ops only
+        NIOConnectorEngine engine = new NIOConnectorEngine(ServerSocketChannel.open(), null, false, 1);
+
+        Socket sender = new Socket("localhost", serverChannel.socket().getLocalPort());
+        SocketChannel channel = serverChannel.accept();
+        channel.configureBlocking(false);
+        Selector selector = Selector.open();
+        NIOConnection connection = new NIOConnection(channel, engine);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connection.setSelectionKey(key);
+
+        // sender is faster than anybody reading on hub side
+        Thread senderThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream os = sender.getOutputStream();
+                    byte[] chunk = new byte[8 * 1024];
+                    for(int sent = 0; sent < SENT_BYTES; sent += chunk.length) os.write(chunk);
+                    os.flush();
+                    sender.shutdownOutput();
+                } catch (Exception e) {
+                    // test fails on missing bytes
+                }
+            }
+        });
+        senderThread.start();
+
+        ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+        for(int i = 0; i < 20; i++) select(selector, readBuffer);
+
+        // nobody consumed - selector stopped reading
+        int buffered = connection.getBufferedInput();
+        assertTrue("buffered: " + buffered, buffered >= NIOConnection.MAX_BUFFERED_INPUT);
+        assertTrue("buffered: " + buffered, buffered < NIOConnection.MAX_BUFFERED_INPUT + readBuffer.capacity());
+        assertEquals(0, key.interestOps() & SelectionKey.OP_READ);
+
+        // data session reader drains buffer - reading resumes and all bytes arrive
+        AtomicLong received = new AtomicLong();
+        Thread readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputStream is = connection.getInputStream();
+                    byte[] b = new byte[4 * 1024];
+                    int read;
+                    while((read = is.read(b)) != -1) received.addAndGet(read);
+                } catch (Exception e) {
+                    // test fails on missing bytes
+                }
+            }
+        });
+        readerThread.start();
+
+        long until = System.currentTimeMillis() + 20000;
+        while(received.get() < SENT_BYTES && System.currentTimeMillis() < until) {
+            select(selector, readBuffer);
+            assertTrue(connection.getBufferedInput() < NIOConnection.MAX_BUFFERED_INPUT + readBuffer.capacity());
+        }
+        assertEquals(SENT_BYTES, received.get());
+
+        connection.close();
+        sender.close();
+        serverChannel.close();
+        selector.close();
+    }
+
+    private static void select(Selector selector, ByteBuffer readBuffer) throws Exception {
+        selector.select(50);
+        Iterator<SelectionKey> keyIter = selector.selectedKeys().iterator();
+        while(keyIter.hasNext()) {
+            SelectionKey key = keyIter.next();
+            keyIter.remove();
+            if(key.isValid() && key.isReadable()) {
+                NIOConnection connection = (NIOConnection) key.attachment();
+                if(!connection.readFromChannel(readBuffer)) key.cancel();
+            }
+        }
+    }
+
+    /**
+     * Records handled PDUs - not connected to any connector.
+     */
+    private static class RecordingSession extends NIOConnectorSession {
+        private final LinkedBlockingQueue<HubPDU> handled = new LinkedBlockingQueue<>();
+
+        RecordingSession(NIOConnection connection, NIOConnectorEngine engine) {
+            super(null, connection, engine);
+        }
+
+        @Override
+        void handlePDU(HubPDU hubPDU) {
+            this.handled.add(hubPDU);
+        }
+
+        @Override
+        public String toString() {
+            return "recording session";
+        }
+    }
+
+    /**
+     * Selector thread of a test - reads and tells connections about new data like the engine does.
+     */
+    private static class Pump implements Runnable {
+        private final Selector selector;
+        private volatile boolean again = true;
+
+        Pump(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+            try {
+                while(this.again) {
+                    this.selector.select(50);
+                    Iterator<SelectionKey> keyIter = this.selector.selectedKeys().iterator();
+                    while(keyIter.hasNext()) {
+                        SelectionKey key = keyIter.next();
+                        keyIter.remove();
+                        if(!key.isValid() || !key.isReadable()) continue;
+                        NIOConnection connection = (NIOConnection) key.attachment();
+                        if(!connection.readFromChannel(readBuffer)) key.cancel();
+                        connection.dataArrived();
+                    }
+                }
+            } catch (Exception e) {
+                // test ends
+            }
+        }
+    }
+
+    private static NIOConnection connect(ServerSocketChannel serverChannel, Selector selector,
+                                         NIOConnectorEngine engine) throws Exception {
+        SocketChannel channel = serverChannel.accept();
+        channel.configureBlocking(false);
+        NIOConnection connection = new NIOConnection(channel, engine);
+        selector.wakeup();
+        connection.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, connection));
+        return connection;
+    }
+
+    @Test
+    public void pduArrivingInPiecesIsNotParsedOverAndOver() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+        NIOConnectorEngine engine = new NIOConnectorEngine(ServerSocketChannel.open(), null, false, 1);
+        Selector selector = Selector.open();
+        Pump pump = new Pump(selector);
+
+        Socket sender = new Socket("localhost", serverChannel.socket().getLocalPort());
+        sender.setTcpNoDelay(true);
+        NIOConnection connection = connect(serverChannel, selector, engine);
+        RecordingSession session = new RecordingSession(connection, engine);
+        connection.sessionStarted(session);
+        new Thread(pump).start();
+
+        ByteArrayOutputStream serialised = new ByteArrayOutputStream();
+        new HubPDUStreamData(1, new byte[64 * 1024], 0, 64 * 1024).sendPDU(serialised);
+        byte[] pdu = serialised.toByteArray();
+        // 64 pieces - each one is read on its own
+        OutputStream os = sender.getOutputStream();
+        int pieceSize = 1024;
+        for(int off = 0; off < pdu.length; off += pieceSize) {
+            os.write(pdu, off, Math.min(pieceSize, pdu.length - off));
+            os.flush();
+            Thread.sleep(2);
+        }
+
+        HubPDU received = session.handled.poll(10, TimeUnit.SECONDS);
+        assertTrue(received instanceof HubPDUStreamData);
+        assertEquals(64 * 1024, ((HubPDUStreamData) received).length);
+        // first piece tells the length - parsed again when all bytes arrived
+        assertTrue("decode attempts: " + connection.getDecodeAttempts(), connection.getDecodeAttempts() <= 4);
+
+        pump.again = false;
+        connection.close();
+        sender.close();
+        serverChannel.close();
+    }
+
+    @Test
+    public void waitingHandlerDoesNotOccupyWorker() throws Exception {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+        // a single worker - a handler waiting on it would wait forever
+        NIOConnectorEngine engine = new NIOConnectorEngine(ServerSocketChannel.open(), null, false, 1);
+        Selector selector = Selector.open();
+        Pump pump = new Pump(selector);
+
+        Socket aliceSocket = new Socket("localhost", serverChannel.socket().getLocalPort());
+        NIOConnection alice = connect(serverChannel, selector, engine);
+        Socket bobSocket = new Socket("localhost", serverChannel.socket().getLocalPort());
+        NIOConnection bob = connect(serverChannel, selector, engine);
+
+        CountDownLatch bobHandled = new CountDownLatch(1);
+        List<HubPDU> aliceHandled = Collections.synchronizedList(new ArrayList<>());
+        // silenced channel waits for the other one - like a data session being set up
+        NIOConnectorSession aliceSession = new RecordingSession(alice, engine) {
+            @Override
+            void handlePDU(HubPDU hubPDU) {
+                if(hubPDU instanceof HubPDUSilentRQ) {
+                    try {
+                        bobHandled.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // test fails
+                    }
+                }
+                aliceHandled.add(hubPDU);
+            }
+        };
+        NIOConnectorSession bobSession = new RecordingSession(bob, engine) {
+            @Override
+            void handlePDU(HubPDU hubPDU) {
+                bobHandled.countDown();
+            }
+        };
+        alice.sessionStarted(aliceSession);
+        bob.sessionStarted(bobSession);
+        new Thread(pump).start();
+
+        new HubPDUSilentRQ(1000).sendPDU(aliceSocket.getOutputStream());
+        new HubPDUHeartbeat(false, 1, System.nanoTime()).sendPDU(aliceSocket.getOutputStream());
+        Thread.sleep(100);
+        new HubPDUHeartbeat(false, 1, System.nanoTime()).sendPDU(bobSocket.getOutputStream());
+
+        assertTrue(bobHandled.await(5, TimeUnit.SECONDS));
+        long until = System.currentTimeMillis() + 5000;
+        while(aliceHandled.size() < 2 && System.currentTimeMillis() < until) Thread.sleep(10);
+        // in order - nothing was decoded while handler waited
+        assertEquals(2, aliceHandled.size());
+        assertTrue(aliceHandled.get(0) instanceof HubPDUSilentRQ);
+        assertTrue(aliceHandled.get(1) instanceof HubPDUHeartbeat);
+
+        pump.again = false;
+        alice.close();
+        bob.close();
+        aliceSocket.close();
+        bobSocket.close();
+        serverChannel.close();
+    }
+}
@@ -0,0 +1,78 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.hub.HubThreads;
+import net.sharksystem.hub.peerside.SharedChannelConnectorPeerSide;
+import net.sharksystem.hub.peerside.SharedTCPChannelConnectorPeerSide;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUOpenSession;
+import net.sharksystem.hub.protocol.HubPDURegister;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OpenSessionTimeoutTest {
+    private static int freePort() throws Exception {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void unansweredOpenSessionDoesNotBlockChannel() throws Exception {
+        int port = freePort();
+        ASAPTCPHub hub = new ASAPTCPHub(port, false);
+        new Thread(hub).start();
+        Thread.sleep(100);
+
+        // agrees on single round trip data sessions - but never answers an open session request
+        Socket mute = new Socket("localhost", port);
+        new HubPDURegister("Mute", false, HubCapabilities.OPEN_SESSION).sendPDU(mute.getOutputStream());
+        Semaphore openSessionRequests = new Semaphore(0);
+        HubThreads.start(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for(;;) {
+                        HubPDU pdu = HubPDU.readPDU(mute.getInputStream());
+                        if(pdu instanceof HubPDUOpenSession) openSessionRequests.release();
+                    }
+                } catch (Exception e) {
+                    // socket closed
+                }
+            }
+        }, "mute peer");
+        Thread.sleep(200);
+
+        SharedChannelConnectorPeerSide alice = (SharedChannelConnectorPeerSide)
+                SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+        alice.connectHub("Alice");
+        SharedChannelConnectorPeerSide bob = (SharedChannelConnectorPeerSide)
+                SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+        bob.connectHub("Bob");
+        Thread.sleep(200);
+
+        alice.connectPeer("Mute");
+        assertTrue(openSessionRequests.tryAcquire(5, TimeUnit.SECONDS));
+
+        // hub gave up first request - request of another peer gets through
+        Thread.sleep(2000);
+        bob.connectPeer("Mute");
+        assertTrue("hub still waits for reply", openSessionRequests.tryAcquire(5, TimeUnit.SECONDS));
+
+        alice.disconnectHub();
+        bob.disconnectHub();
+        try {
+            mute.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        hub.kill();
+    }
+}
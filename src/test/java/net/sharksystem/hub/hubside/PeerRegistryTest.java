@@ -0,0 +1,135 @@
+package net.sharksystem.hub.hubside;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PeerRegistryTest {
+    @Test
+    public void lookupIgnoresCharSequenceType() {
+        PeerRegistry<String> registry = new PeerRegistry<>();
+        registry.register(new StringBuilder("Alice"), "connector");
+        assertEquals("connector", registry.get("Alice"));
+        assertTrue(registry.isRegistered(new StringBuilder("Alice")));
+        assertFalse(registry.isRegistered("alice")); // ids are compared exactly
+    }
+
+    @Test
+    public void snapshotIsImmutableAndVersioned() {
+        PeerRegistry<String> registry = new PeerRegistry<>();
+        registry.register("Alice", "a");
+        PeerRegistry.Snapshot<String> snapshot = registry.getSnapshot();
+        assertSame(snapshot, registry.getSnapshot()); // nothing changed - no rebuild
+
+        registry.register("Bob", "b");
+        Set<CharSequence> peers = snapshot.getPeerIDs();
+        assertEquals(1, peers.size());
+        try {
+            peers.add("Clara");
+            fail("snapshot must be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+
+        PeerRegistry.Snapshot<String> newSnapshot = registry.getSnapshot();
+        assertEquals(2, newSnapshot.size());
+        assertTrue(newSnapshot.getVersion() > snapshot.getVersion());
+    }
+
+    @Test
+    public void changesSinceKnownVersion() {
+        PeerRegistry<String> registry = new PeerRegistry<>(4, 8);
+        registry.register("Alice", "a");
+        registry.register("Bob", "b");
+        long known = registry.getVersion();
+
+        registry.register("Clara", "c");
+        registry.unregister("Bob");
+        registry.register("David", "d");
+        registry.unregister("David");
+
+        PeerRegistry.Delta delta = registry.getChangesSince(known);
+        assertFalse(delta.isFull());
+        assertEquals(registry.getVersion(), delta.getVersion());
+        assertEquals(1, delta.getAdded().size());
+        assertTrue(delta.getAdded().contains("Clara"));
+        assertTrue(delta.getRemoved().contains("Bob"));
+        assertFalse(delta.getAdded().contains("David"));
+
+        // unknown or too far behind - all peers
+        assertTrue(registry.getChangesSince(-1).isFull());
+        for(int i = 0; i < 10; i++) registry.register("peer" + i, "p");
+        PeerRegistry.Delta full = registry.getChangesSince(known);
+        assertTrue(full.isFull());
+        assertEquals(registry.getSnapshot().size(), full.getAdded().size());
+    }
+
+    @Test
+    public void changesSinceDoNotTakeStripeLocks() {
+        PeerRegistry<String> registry = new PeerRegistry<>(4, 8);
+        registry.register("Alice", "a");
+        long known = registry.getVersion();
+        registry.register("Bob", "b");
+        registry.replace("Alice", "a", "a2");
+
+        long lockAcquisitions = registry.getLockAcquisitions();
+        PeerRegistry.Delta delta = registry.getChangesSince(known);
+        assertEquals(lockAcquisitions, registry.getLockAcquisitions());
+        assertEquals(2, delta.getAdded().size());
+        assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void changesSinceMatchConcurrentRegistrations() throws InterruptedException {
+        PeerRegistry<String> registry = new PeerRegistry<>(16, 100000);
+        long known = registry.getVersion();
+        Thread[] threads = new Thread[4];
+        for(int t = 0; t < threads.length; t++) {
+            int threadNumber = t;
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < 1000; i++) {
+                    registry.register("peer_" + threadNumber + "_" + i, "c");
+                    // every other peer leaves again
+                    if(i % 2 == 1) registry.unregister("peer_" + threadNumber + "_" + i);
+                }
+            });
+            threads[t].start();
+        }
+        // readers run while peers change - each delta applied to the last one reached must match registry
+        Set<CharSequence> seen = new HashSet<>();
+        long seenVersion = known;
+        while(threads[0].isAlive() || threads[1].isAlive() || threads[2].isAlive() || threads[3].isAlive()) {
+            PeerRegistry.Delta delta = registry.getChangesSince(seenVersion);
+            assertFalse(delta.isFull());
+            seen.addAll(delta.getAdded());
+            seen.removeAll(delta.getRemoved());
+            seenVersion = delta.getVersion();
+        }
+        for(Thread thread : threads) thread.join();
+        PeerRegistry.Delta delta = registry.getChangesSince(seenVersion);
+        seen.addAll(delta.getAdded());
+        seen.removeAll(delta.getRemoved());
+
+        assertEquals(registry.getSnapshot().getPeerIDs(), seen);
+        assertEquals(2000, seen.size());
+    }
+
+    @Test
+    public void concurrentRegistrationsAreNotLost() throws InterruptedException {
+        PeerRegistry<String> registry = new PeerRegistry<>();
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t < threads.length; t++) {
+            int threadNumber = t;
+            threads[t] = new Thread(() -> {
+                for(int i = 0; i < 1000; i++) registry.register("peer_" + threadNumber + "_" + i, "c");
+            });
+            threads[t].start();
+        }
+        for(Thread thread : threads) thread.join();
+        assertEquals(8000, registry.getSnapshot().size());
+        assertEquals(8000, registry.getRegistrations());
+    }
+}
@@ -0,0 +1,63 @@
+package net.sharksystem.hub.hubside;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class PendingRequestsTest {
+    @Test
+    public void duplicatesInEitherDirection() {
+        PendingRequests<String> requests = new PendingRequests<>("test", null);
+        long until = System.currentTimeMillis() + 10000;
+        assertNull(requests.addIfAbsent("Alice", "Bob", until, "Alice -> Bob"));
+        assertEquals("Alice -> Bob", requests.addIfAbsent("Bob", "Alice", until, "Bob -> Alice"));
+        assertNull(requests.addIfAbsent("Alice", "Clara", until, "Alice -> Clara"));
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    public void nextDueFirstAndExpiredDropped() {
+        List<String> expired = new ArrayList<>();
+        PendingRequests<String> requests = new PendingRequests<>("test", expired::add);
+        long now = System.currentTimeMillis();
+        requests.add("Alice", "Bob", now + 20000, "late");
+        requests.add("Alice", "Clara", now - 1, "expired");
+        requests.add("Alice", "David", now + 10000, "early");
+
+        assertEquals("early", requests.pollNextDue());
+        assertEquals(1, expired.size());
+        assertEquals("expired", expired.get(0));
+        assertEquals("late", requests.pollNextDue());
+        assertNull(requests.pollNextDue());
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    public void removeByPeers() {
+        PendingRequests<String> requests = new PendingRequests<>("test", null);
+        long until = System.currentTimeMillis() + 10000;
+        requests.add("Alice", "Bob", until, "first");
+        requests.add("Bob", "Alice", until, "second");
+
+        assertEquals("second", requests.remove("Alice", "Bob", request -> request.equals("second")));
+        assertNull(requests.remove("Alice", "Bob", request -> request.equals("second")));
+        assertEquals(1, requests.size());
+        assertEquals("first", requests.pollNextDue());
+        assertNull(requests.pollNextDue());
+    }
+
+    @Test
+    public void sweepEvictsExpired() throws InterruptedException {
+        List<String> expired = new CopyOnWriteArrayList<>();
+        PendingRequests<String> requests = new PendingRequests<>("test", expired::add);
+        requests.add("Alice", "Bob", System.currentTimeMillis() + 50, "short");
+
+        Thread.sleep(PendingRequests.SWEEP_INTERVAL_IN_MILLIS + 500);
+        assertTrue(requests.isEmpty());
+        assertEquals(1, expired.size());
+    }
+}
@@ -0,0 +1,149 @@
+package net.sharksystem.hub.hubside;
+
+import net.sharksystem.asap.ASAPEncounterManager;
+import net.sharksystem.hub.ConnectorStateMachine;
+import net.sharksystem.hub.peerside.ASAPHubManagerImpl;
+import net.sharksystem.hub.peerside.SharedTCPChannelConnectorPeerSide;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.hub.protocol.HubPDU;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRPLY;
+import net.sharksystem.hub.protocol.HubPDUHubStatusRQ;
+import net.sharksystem.hub.protocol.HubPDUPeerPresence;
+import net.sharksystem.hub.protocol.HubPDURegister;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PresencePushTest {
+    private ASAPTCPHub hub;
+    private int port;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @Before
+    public void startHub() throws Exception {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+        this.hub = new ASAPTCPHub(this.port, false);
+        new Thread(this.hub).start();
+    }
+
+    @After
+    public void killHub() throws Exception {
+        for(Socket socket : this.sockets) socket.close();
+        this.hub.kill();
+    }
+
+    /**
+     * Returns after hub registered that peer: hub handles PDUs of a peer in order.
+     */
+    private Socket register(CharSequence peerID, int capabilities) throws Exception {
+        Socket socket = new Socket("localhost", this.port);
+        socket.setSoTimeout(30000); // test fails instead of hanging
+        this.sockets.add(socket);
+        new HubPDURegister(peerID, false, capabilities).sendPDU(socket.getOutputStream());
+        new HubPDUHubStatusRQ().sendPDU(socket.getOutputStream());
+        int statusReplies = 0;
+        while(statusReplies < 2) {
+            if(HubPDU.readPDU(socket.getInputStream()) instanceof HubPDUHubStatusRPLY) statusReplies++;
+        }
+        return socket;
+    }
+
+    private static HubPDUPeerPresence nextPresence(Socket socket) throws Exception {
+        HubPDU pdu;
+        do {
+            pdu = HubPDU.readPDU(socket.getInputStream());
+        } while(!(pdu instanceof HubPDUPeerPresence));
+        return (HubPDUPeerPresence) pdu;
+    }
+
+    private static Set<String> ids(Set<CharSequence> peerIDs) {
+        Set<String> ids = new HashSet<>();
+        for(CharSequence peerID : peerIDs) ids.add(peerID.toString());
+        return ids;
+    }
+
+    @Test
+    public void changesWithinWindowArePushedTogether() throws Exception {
+        Socket alice = this.register("Alice", HubCapabilities.PRESENCE_PUSH);
+        SharedChannelConnectorHubSide aliceConnector =
+                (SharedChannelConnectorHubSide) this.hub.getPeerRegistry().get("Alice");
+        aliceConnector.setPresencePushWindowInMillis(60000); // never ends in this test - pushed by hand
+
+        int numberPeers = 20;
+        Set<String> expected = new HashSet<>();
+        for(int i = 0; i < numberPeers; i++) {
+            this.register("peer_" + i, 0);
+            expected.add("peer_" + i);
+        }
+
+        aliceConnector.pushPeerPresence();
+        HubPDUPeerPresence presence = nextPresence(alice);
+        assertEquals(expected, ids(presence.joinedPeers));
+    }
+
+    @Test
+    public void changesAreKeptWhileChannelIsNotInProtocol() throws Exception {
+        Socket alice = this.register("Alice", HubCapabilities.PRESENCE_PUSH);
+        SharedChannelConnectorHubSide aliceConnector =
+                (SharedChannelConnectorHubSide) this.hub.getPeerRegistry().get("Alice");
+        aliceConnector.setPresencePushWindowInMillis(60000);
+
+        this.register("Bob", 0);
+        // silenced channel - nothing is written, nothing is lost
+        assertTrue(aliceConnector.getStateMachine().fire(ConnectorStateMachine.Event.ENTER_SILENCE));
+        aliceConnector.pushPeerPresence();
+        this.register("Clara", 0);
+        assertTrue(aliceConnector.getStateMachine().fire(ConnectorStateMachine.Event.SILENCE_ENDED));
+
+        aliceConnector.pushPeerPresence();
+        HubPDUPeerPresence presence = nextPresence(alice);
+        Set<String> expected = new HashSet<>();
+        expected.add("Bob");
+        expected.add("Clara");
+        assertEquals(expected, ids(presence.joinedPeers));
+        assertTrue(presence.leftPeers.isEmpty());
+    }
+
+    @Test
+    public void hubManagerConnectsToPushedPeer() throws Exception {
+        LinkedBlockingQueue<String> askedFor = new LinkedBlockingQueue<>();
+        // tells which peers manager wants to meet - and declines to keep this test free of data sessions
+        ASAPEncounterManager encounterManager = (ASAPEncounterManager) Proxy.newProxyInstance(
+                ASAPEncounterManager.class.getClassLoader(), new Class<?>[] {ASAPEncounterManager.class},
+                (proxy, method, args) -> {
+                    if(method.getName().equals("shouldCreateConnectionToPeer")) {
+                        askedFor.add(args[0].toString());
+                        return false;
+                    }
+                    return null;
+                });
+        ASAPHubManagerImpl hubManager = new ASAPHubManagerImpl(encounterManager);
+
+        SharedTCPChannelConnectorPeerSide alice = (SharedTCPChannelConnectorPeerSide)
+                SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", this.port, false);
+        alice.setRequestedCapabilities(HubCapabilities.PRESENCE_PUSH);
+        // no manager thread - no sync round: only a push can make manager ask for Bob
+        alice.addStatusListener(hubManager);
+        alice.connectHub("Alice");
+        alice.syncHubInformationAsync().get(10, TimeUnit.SECONDS);
+        askedFor.clear();
+
+        this.register("Bob", 0);
+        assertEquals("Bob", askedFor.poll(10, TimeUnit.SECONDS));
+        alice.disconnectHub();
+    }
+}
@@ -0,0 +1,169 @@
+package net.sharksystem.hub.hubside;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SocketChannelRelayTest {
+    private ServerSocketChannel serverChannel;
+    private SocketChannelRelay relay;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @Before
+    public void open() throws Exception {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress("localhost", 0));
+        this.relay = new SocketChannelRelay();
+    }
+
+    @After
+    public void close() throws Exception {
+        this.relay.kill();
+        for(Socket socket : this.sockets) socket.close();
+        this.serverChannel.close();
+    }
+
+    /**
+     * A peer and hub side of its dedicated data connection.
+     */
+    private class Connection {
+        final Socket peer;
+        final SocketChannelStreamPair hubSide;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        Connection(String sessionID) throws IOException {
+            int port = ((InetSocketAddress) SocketChannelRelayTest.this.serverChannel.getLocalAddress()).getPort();
+            this.peer = new Socket("localhost", port);
+            this.peer.setSoTimeout(10000); // test fails instead of hanging
+            SocketChannelRelayTest.this.sockets.add(this.peer);
+            this.hubSide = new SocketChannelStreamPair(SocketChannelRelayTest.this.serverChannel.accept(), sessionID);
+            this.hubSide.addListener((streamPair, key) -> this.closed.countDown());
+        }
+
+        void awaitClosed() throws InterruptedException {
+            assertTrue(this.hubSide + " not closed", this.closed.await(10, TimeUnit.SECONDS));
+        }
+
+        void write(String s) throws IOException {
+            this.peer.getOutputStream().write(s.getBytes());
+            this.peer.getOutputStream().flush();
+        }
+
+        String read(int length) throws IOException {
+            InputStream is = this.peer.getInputStream();
+            byte[] b = new byte[length];
+            int off = 0;
+            while(off < length) {
+                int read = is.read(b, off, length - off);
+                if(read < 0) throw new IOException("end of stream after " + off + " bytes");
+                off += read;
+            }
+            return new String(b);
+        }
+    }
+
+    private void waitForPooledBuffers(int number) throws InterruptedException {
+        // session is closed before its buffers go back
+        for(int i = 0; i < 1000 && this.relay.getPooledBuffers() != number; i++) Thread.sleep(10);
+        assertEquals(number, this.relay.getPooledBuffers());
+    }
+
+    @Test
+    public void halfCloseIsForwarded() throws Exception {
+        Connection alice = new Connection("alice");
+        Connection bob = new Connection("bob");
+        this.relay.relay(alice.hubSide, bob.hubSide, 0);
+
+        alice.write("hello");
+        alice.peer.shutdownOutput();
+        assertEquals("hello", bob.read(5));
+        assertEquals(-1, bob.peer.getInputStream().read()); // Alice is done
+
+        // other direction is still open
+        bob.write("reply");
+        assertEquals("reply", alice.read(5));
+        assertEquals(1, alice.closed.getCount());
+
+        // both sides done - session ends
+        bob.peer.shutdownOutput();
+        assertEquals(-1, alice.peer.getInputStream().read());
+        alice.awaitClosed();
+        bob.awaitClosed();
+        assertEquals(10, this.relay.getRelayedBytes());
+        this.waitForPooledBuffers(2);
+    }
+
+    @Test
+    public void idleSessionIsClosed() throws Exception {
+        Connection alice = new Connection("alice");
+        Connection bob = new Connection("bob");
+        this.relay.relay(alice.hubSide, bob.hubSide, 200);
+
+        alice.write("hi");
+        assertEquals("hi", bob.read(2));
+
+        // nothing flows anymore
+        alice.awaitClosed();
+        bob.awaitClosed();
+        assertEquals(-1, alice.peer.getInputStream().read());
+        assertEquals(-1, bob.peer.getInputStream().read());
+        this.waitForPooledBuffers(2);
+    }
+
+    @Test
+    public void errorClosesSession() throws Exception {
+        Connection alice = new Connection("alice");
+        Connection bob = new Connection("bob");
+        this.relay.relay(alice.hubSide, bob.hubSide, 0);
+        alice.write("hi");
+        assertEquals("hi", bob.read(2));
+
+        // Alice's connection is reset - relay cannot deliver anything to her
+        alice.peer.setSoLinger(true, 0);
+        alice.peer.close();
+        for(int i = 0; i < 100 && alice.closed.getCount() > 0; i++) {
+            try {
+                bob.write("more");
+            } catch (IOException e) {
+                break; // relay closed Bob's side already
+            }
+            Thread.sleep(10);
+        }
+        alice.awaitClosed();
+        bob.awaitClosed();
+        this.waitForPooledBuffers(2);
+    }
+
+    @Test
+    public void buffersAreReused() throws Exception {
+        Connection alice = new Connection("alice");
+        Connection bob = new Connection("bob");
+        this.relay.relay(alice.hubSide, bob.hubSide, 0);
+        assertEquals(0, this.relay.getPooledBuffers());
+        alice.peer.shutdownOutput();
+        bob.peer.shutdownOutput();
+        alice.awaitClosed();
+        bob.awaitClosed();
+        this.waitForPooledBuffers(2);
+
+        // next session takes buffers from pool
+        Connection clara = new Connection("clara");
+        Connection dave = new Connection("dave");
+        this.relay.relay(clara.hubSide, dave.hubSide, 0);
+        assertEquals(0, this.relay.getPooledBuffers());
+        clara.write("x");
+        assertEquals("x", dave.read(1));
+    }
+}
@@ -0,0 +1,122 @@
+package net.sharksystem.hub.peerside;
+
+import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.utils.streams.StreamPair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectPeerAsyncTest {
+    private ASAPTCPHub hub;
+    private int port;
+
+    @Before
+    public void startHub() throws Exception {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+        this.hub = new ASAPTCPHub(this.port, false);
+        new Thread(this.hub).start();
+    }
+
+    @After
+    public void killHub() {
+        this.hub.kill();
+    }
+
+    private SharedTCPChannelConnectorPeerSide connect(CharSequence peerID) throws Exception {
+        SharedTCPChannelConnectorPeerSide connector = (SharedTCPChannelConnectorPeerSide)
+                SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", this.port, false);
+        connector.connectHub(peerID);
+        connector.syncHubInformationAsync().get(10, TimeUnit.SECONDS); // hub replied - peer is registered
+        return connector;
+    }
+
+    private static Throwable failure(CompletableFuture<StreamPair> connection) throws Exception {
+        try {
+            connection.get(10, TimeUnit.SECONDS);
+            fail("future must fail");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void futureGetsDataSessionAndListenersAreNotCalled() throws Exception {
+        SharedTCPChannelConnectorPeerSide alice = this.connect("Alice");
+        SharedTCPChannelConnectorPeerSide bob = this.connect("Bob");
+        AtomicInteger aliceListenerCalls = new AtomicInteger();
+        alice.addListener((peerID, streamPair) -> aliceListenerCalls.incrementAndGet());
+        LinkedBlockingQueue<StreamPair> bobSessions = new LinkedBlockingQueue<>();
+        bob.addListener((peerID, streamPair) -> bobSessions.offer(streamPair));
+
+        CompletableFuture<StreamPair> connection = alice.connectPeerAsync("Bob");
+        StreamPair aliceSide = connection.get(10, TimeUnit.SECONDS);
+        StreamPair bobSide = bobSessions.poll(10, TimeUnit.SECONDS);
+        assertNotNull(bobSide);
+
+        aliceSide.getOutputStream().write(42);
+        aliceSide.getOutputStream().flush();
+        assertEquals(42, bobSide.getInputStream().read());
+        // data session belongs to future - Alice's listener was not told
+        assertEquals(0, aliceListenerCalls.get());
+
+        aliceSide.close();
+        bobSide.close();
+        alice.disconnectHub();
+        bob.disconnectHub();
+    }
+
+    @Test
+    public void secondRequestForSamePeerFailsAtOnce() throws Exception {
+        SharedTCPChannelConnectorPeerSide alice = this.connect("Alice");
+
+        CompletableFuture<StreamPair> first = alice.connectPeerAsync("Nobody", 10000);
+        CompletableFuture<StreamPair> second = alice.connectPeerAsync("Nobody", 10000);
+        assertTrue(second.isCompletedExceptionally());
+        assertFalse(first.isDone());
+
+        first.cancel(false);
+        // first one is gone - a new request can be made
+        CompletableFuture<StreamPair> third = alice.connectPeerAsync("Nobody", 10000);
+        assertFalse(third.isDone());
+        third.cancel(false);
+        alice.disconnectHub();
+    }
+
+    @Test
+    public void futureTimesOut() throws Exception {
+        SharedTCPChannelConnectorPeerSide alice = this.connect("Alice");
+
+        CompletableFuture<StreamPair> connection = alice.connectPeerAsync("Nobody", 200);
+        assertTrue(failure(connection) instanceof TimeoutException);
+        alice.disconnectHub();
+    }
+
+    @Test
+    public void futureFailsWhenHubConnectionIsLost() throws Exception {
+        Socket aliceSocket = new Socket("localhost", this.port);
+        SharedTCPChannelConnectorPeerSide alice =
+                new SharedTCPChannelConnectorPeerSide(aliceSocket, "localhost", this.port, false);
+        alice.setReconnect(0, 100, 100); // connection is lost for good
+        alice.connectHub("Alice");
+        alice.syncHubInformationAsync().get(10, TimeUnit.SECONDS);
+
+        CompletableFuture<StreamPair> connection = alice.connectPeerAsync("Nobody", 60000);
+        aliceSocket.close();
+        assertTrue(failure(connection) instanceof IOException);
+    }
+}
@@ -0,0 +1,124 @@
+package net.sharksystem.hub.peerside;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DataSocketPoolTest {
+    private ServerSocket srv;
+    private final List<Socket> accepted = new ArrayList<>();
+
+    @Before
+    public void startHub() throws Exception {
+        this.srv = new ServerSocket(0);
+        new Thread(() -> {
+            try {
+                while(true) {
+                    Socket socket = this.srv.accept();
+                    synchronized (this.accepted) {
+                        this.accepted.add(socket);
+                    }
+                }
+            } catch (Exception e) {
+                // closed
+            }
+        }).start();
+    }
+
+    @After
+    public void stopHub() throws Exception {
+        this.srv.close();
+        this.closeAccepted();
+    }
+
+    private int acceptedConnections() {
+        synchronized (this.accepted) {
+            return this.accepted.size();
+        }
+    }
+
+    private void closeAccepted() throws IOException {
+        synchronized (this.accepted) {
+            for(Socket socket : this.accepted) socket.close();
+        }
+    }
+
+    private static void waitForIdleSockets(DataSocketPool pool, int expected) throws InterruptedException {
+        for(int i = 0; i < 100 && pool.getIdleSockets() != expected; i++) Thread.sleep(20);
+        assertEquals(expected, pool.getIdleSockets());
+    }
+
+    private void waitForAcceptedConnections(int expected) throws InterruptedException {
+        for(int i = 0; i < 100 && this.acceptedConnections() < expected; i++) Thread.sleep(20);
+        assertEquals(expected, this.acceptedConnections());
+    }
+
+    @Test
+    public void takeRefillAndEvict() throws Exception {
+        DataSocketPool pool = new DataSocketPool("localhost", this.srv.getLocalPort(), 2, 200);
+
+        // empty pool - opens a connection and fills pool
+        Socket socket = pool.take();
+        assertNotNull(socket);
+        assertEquals(1, pool.getMisses());
+        waitForIdleSockets(pool, 2);
+
+        pool.take();
+        assertEquals(1, pool.getHits());
+        waitForIdleSockets(pool, 2);
+        this.waitForAcceptedConnections(4);
+
+        // idle too long - evicted, not replaced
+        Thread.sleep(500);
+        assertEquals(2, pool.getEvictions());
+        assertEquals(0, pool.getIdleSockets());
+        Thread.sleep(500);
+        assertEquals(4, this.acceptedConnections()); // no reconnects while nobody takes
+
+        // next take refills
+        pool.take();
+        assertEquals(2, pool.getMisses());
+        waitForIdleSockets(pool, 2);
+
+        pool.close();
+        assertEquals(0, pool.getIdleSockets());
+    }
+
+    @Test
+    public void connectionsClosedByHubAreNotTaken() throws Exception {
+        DataSocketPool pool = new DataSocketPool("localhost", this.srv.getLocalPort(), 2,
+                DataSocketPool.DEFAULT_MAX_IDLE_IN_MILLIS);
+        pool.refill();
+        waitForIdleSockets(pool, 2);
+        this.waitForAcceptedConnections(2);
+
+        // hub gives up both pooled connections
+        this.closeAccepted();
+        Thread.sleep(100);
+
+        Socket socket = pool.take();
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(2, pool.getEvictions());
+
+        // new connection works - hub accepted it
+        socket.getOutputStream().write(42);
+        this.waitForAcceptedConnections(5); // two refilled in background
+        waitForIdleSockets(pool, 2);
+
+        // live pooled connection is taken and usable
+        Socket pooled = pool.take();
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pooled.getSoTimeout());
+        pooled.getOutputStream().write(42);
+        pool.close();
+    }
+}
@@ -0,0 +1,148 @@
+package net.sharksystem.hub.peerside;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HubConnectionEstablisherTest {
+    private static void waitUntilIdle(HubConnectionEstablisher establisher) throws InterruptedException {
+        for(int i = 0; i < 250 && (establisher.getQueued() > 0 || establisher.getRunning() > 0); i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void boundedAndDeduplicated() throws Exception {
+        HubConnectionEstablisher establisher = new HubConnectionEstablisher(2);
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        HubConnectionEstablisher.ConnectionAttempt attempt = timeoutInMillis -> {
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // go ahead
+            }
+            concurrent.decrementAndGet();
+        };
+
+        for(int i = 0; i < 10; i++) {
+            assertTrue(establisher.connect(new TCPHubConnectorDescriptionImpl("localhost", 7000 + i), attempt));
+        }
+        // same hub again
+        assertFalse(establisher.connect(new TCPHubConnectorDescriptionImpl("localhost", 7000), attempt));
+        assertEquals(1, establisher.getDeduplicated());
+        assertTrue(establisher.isPending(new TCPHubConnectorDescriptionImpl("localhost", 7009)));
+
+        release.countDown();
+        waitUntilIdle(establisher);
+        assertEquals(10, establisher.getSucceeded());
+        assertTrue(maxConcurrent.get() <= 2);
+    }
+
+    @Test
+    public void failedHubBacksOff() throws Exception {
+        HubConnectionEstablisher establisher = new HubConnectionEstablisher();
+        establisher.setBackoffInMillis(200, 1000);
+        HubConnectorDescription hcd = new TCPHubConnectorDescriptionImpl("localhost", 7100);
+        HubConnectionEstablisher.ConnectionAttempt failing = timeoutInMillis -> { throw new IOException("unreachable"); };
+
+        assertTrue(establisher.connect(hcd, failing));
+        waitUntilIdle(establisher);
+        assertEquals(1, establisher.getFailed());
+        assertTrue(establisher.getLastFailure(hcd) > 0);
+
+        // within backoff
+        assertFalse(establisher.connect(hcd, failing));
+        assertEquals(1, establisher.getBackedOff());
+
+        // backoff passed - second failure doubles backoff
+        Thread.sleep(250);
+        assertTrue(establisher.connect(hcd, failing));
+        waitUntilIdle(establisher);
+        assertEquals(2, establisher.getFailed());
+        long backoff = establisher.getNextAttempt(hcd) - establisher.getLastFailure(hcd);
+        assertTrue(backoff >= 200 && backoff <= 400);
+
+        // success resets
+        Thread.sleep(450);
+        assertTrue(establisher.connect(hcd, timeoutInMillis -> {}));
+        waitUntilIdle(establisher);
+        assertEquals(-1, establisher.getLastFailure(hcd));
+    }
+
+    @Test
+    public void queuedAttemptsExpire() throws Exception {
+        HubConnectionEstablisher establisher = new HubConnectionEstablisher(1);
+        establisher.setDeadlineInMillis(100);
+        CountDownLatch release = new CountDownLatch(1);
+
+        establisher.connect(new TCPHubConnectorDescriptionImpl("localhost", 7200), timeoutInMillis -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // go ahead
+            }
+        });
+        HubConnectorDescription waiting = new TCPHubConnectorDescriptionImpl("localhost", 7201);
+        establisher.connect(waiting, timeoutInMillis -> {});
+
+        Thread.sleep(200);
+        // deadline passed - no longer pending
+        assertFalse(establisher.isPending(waiting));
+        release.countDown();
+        waitUntilIdle(establisher);
+        assertEquals(1, establisher.getExpired());
+        assertTrue(establisher.getLastFailure(waiting) > 0);
+    }
+
+    @Test
+    public void attemptGetsTimeLeftAsTimeout() throws Exception {
+        HubConnectionEstablisher establisher = new HubConnectionEstablisher(1);
+        establisher.setDeadlineInMillis(2000);
+        AtomicInteger timeout = new AtomicInteger();
+
+        establisher.connect(new TCPHubConnectorDescriptionImpl("localhost", 7300), timeout::set);
+        waitUntilIdle(establisher);
+        assertTrue(timeout.get() > 0 && timeout.get() <= 2000);
+    }
+
+    @Test
+    public void unreachableHubFailsWithinConnectTimeout() throws Exception {
+        List<Socket> queued = new ArrayList<>();
+        // nobody accepts - once its queue is full, hub does not answer connection requests
+        try(ServerSocket hub = new ServerSocket(0, 1)) {
+            try {
+                for(int i = 0; i < 10; i++) {
+                    queued.add(SharedTCPChannelConnectorPeerSide.connectSocket("localhost", hub.getLocalPort(), 500));
+                }
+                fail("queue of hub socket never fills up");
+            } catch (SocketTimeoutException e) {
+                // queue is full
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", hub.getLocalPort(), false, 500);
+                fail("hub is not reachable");
+            } catch (IOException e) {
+                // expected
+            }
+            assertTrue(System.currentTimeMillis() - start < 5000);
+        } finally {
+            for(Socket socket : queued) socket.close();
+        }
+    }
+}
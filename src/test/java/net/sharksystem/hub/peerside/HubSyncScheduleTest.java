@@ -0,0 +1,37 @@
+package net.sharksystem.hub.peerside;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HubSyncScheduleTest {
+    @Test
+    public void intervalAdaptsToChurn() {
+        long now = 0;
+        HubSyncSchedule schedule = new HubSyncSchedule(8000, 1000, 32000, 8000, now);
+        // first sync within minimum interval
+        assertTrue(schedule.getNextSync() <= 1000);
+
+        // one sync at a time
+        assertTrue(schedule.isDue(1000, false));
+        schedule.syncStarted(1000);
+        assertFalse(schedule.isDue(1000, true));
+        assertEquals(9000, schedule.nextWakeUp(1000));
+        // no answer - given up after time out
+        assertTrue(schedule.isDue(9000, false));
+
+        schedule.syncDone(9000, true);
+        assertEquals(4000, schedule.getIntervalInMillis());
+        long next = schedule.getNextSync() - 9000;
+        assertTrue(next >= 3200 && next <= 4800);
+
+        schedule.churn(9000);
+        schedule.churn(9000);
+        schedule.churn(9000);
+        assertEquals(1000, schedule.getIntervalInMillis());
+        assertTrue(schedule.getNextSync() - 9000 <= 1200);
+
+        for(int i = 0; i < 20; i++) schedule.syncDone(10000, false);
+        assertEquals(32000, schedule.getIntervalInMillis());
+    }
+}
@@ -0,0 +1,62 @@
+package net.sharksystem.hub.peerside;
+
+import net.sharksystem.hub.hubside.ASAPTCPHub;
+import net.sharksystem.hub.protocol.HubCapabilities;
+import net.sharksystem.utils.streams.StreamPair;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReconnectTest {
+    private static int freePort() throws Exception {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void registrationAndRequestsSurviveConnectionLoss() throws Exception {
+        int port = freePort();
+        ASAPTCPHub hub = new ASAPTCPHub(port, false);
+        new Thread(hub).start();
+        Thread.sleep(100);
+
+        Socket aliceSocket = new Socket("localhost", port);
+        SharedTCPChannelConnectorPeerSide alice =
+                new SharedTCPChannelConnectorPeerSide(aliceSocket, "localhost", port, false);
+        SharedTCPChannelConnectorPeerSide bob = (SharedTCPChannelConnectorPeerSide)
+                SharedTCPChannelConnectorPeerSide.createTCPHubConnector("localhost", port, false);
+        alice.setRequestedCapabilities(HubCapabilities.RESUMPTION);
+        bob.setRequestedCapabilities(HubCapabilities.RESUMPTION);
+        alice.setReconnect(5, 200, 1000);
+        alice.addListener((peerID, streamPair) -> { });
+
+        alice.connectHub("Alice");
+        bob.connectHub("Bob");
+        Thread.sleep(300);
+
+        // connection lost - hub keeps alice registered
+        aliceSocket.close();
+        Thread.sleep(50);
+        assertTrue(alice.isReconnecting());
+        assertTrue(hub.isRegistered("Alice"));
+
+        // request reaches hub while alice is gone - served after she is back
+        CompletableFuture<StreamPair> connection = bob.connectPeerAsync("Alice", 10000);
+        StreamPair streamPair = connection.get(10, TimeUnit.SECONDS);
+        assertNotNull(streamPair);
+        streamPair.close();
+
+        assertEquals(1, alice.getReconnects());
+        assertEquals(1, alice.getResumptions());
+
+        alice.disconnectHub();
+        bob.disconnectHub();
+        hub.kill();
+    }
+}
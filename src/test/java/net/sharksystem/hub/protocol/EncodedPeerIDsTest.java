@@ -0,0 +1,49 @@
+package net.sharksystem.hub.protocol;
+
+import net.sharksystem.asap.utils.ASAPSerialization;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class EncodedPeerIDsTest {
+    @Test
+    public void sameBytesAsSetParameter() throws Exception {
+        Set<CharSequence> peers = new LinkedHashSet<>();
+        peers.add("Alice");
+        peers.add("Bob");
+        peers.add("Clara");
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ASAPSerialization.writeCharSequenceSetParameter(peers, expected);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        new EncodedPeerIDs(1, peers).writeTo(encoded, null);
+
+        assertArrayEquals(expected.toByteArray(), encoded.toByteArray());
+    }
+
+    @Test
+    public void callerIsLeftOut() throws Exception {
+        Set<CharSequence> peers = new LinkedHashSet<>();
+        peers.add("Alice");
+        peers.add("Bob");
+        peers.add("Clara");
+        EncodedPeerIDs encodedPeerIDs = new EncodedPeerIDs(1, peers);
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        encodedPeerIDs.writeTo(encoded, new StringBuilder("Bob"));
+        Set<CharSequence> read = ASAPSerialization.readCharSequenceSetParameter(
+                new ByteArrayInputStream(encoded.toByteArray()));
+
+        Set<String> readIDs = new HashSet<>();
+        for(CharSequence peerID : read) readIDs.add(peerID.toString());
+        assertEquals(2, readIDs.size());
+        assertTrue(readIDs.contains("Alice"));
+        assertTrue(readIDs.contains("Clara"));
+    }
+}
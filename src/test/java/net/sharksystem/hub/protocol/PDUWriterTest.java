@@ -0,0 +1,228 @@
+package net.sharksystem.hub.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PDUWriterTest {
+    /**
+     * Keeps each write call. First write can be held back, writes can be made to fail.
+     */
+    private static class RecordingOutputStream extends OutputStream {
+        private final List<byte[]> writes = new ArrayList<>();
+        private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+        private final CountDownLatch releaseFirstWrite = new CountDownLatch(1);
+        private boolean holdFirstWrite = false;
+        private volatile boolean fail = false;
+        private int attempts = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            boolean hold;
+            synchronized (this) {
+                hold = this.holdFirstWrite && this.attempts == 0;
+                this.attempts++;
+            }
+            if(hold) {
+                this.firstWriteStarted.countDown();
+                try {
+                    assertTrue(this.releaseFirstWrite.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if(this.fail) throw new IOException("stream broken");
+            synchronized (this) {
+                this.writes.add(Arrays.copyOfRange(b, off, off + len));
+            }
+        }
+
+        synchronized int attempts() {
+            return this.attempts;
+        }
+
+        synchronized List<byte[]> writes() {
+            return new ArrayList<>(this.writes);
+        }
+    }
+
+    private static List<String> peerIDs(byte[] write) throws Exception {
+        List<String> peerIDs = new ArrayList<>();
+        ByteArrayInputStream is = new ByteArrayInputStream(write);
+        while(is.available() > 0) {
+            peerIDs.add(((HubPDUConnectPeerRQ) HubPDU.readPDU(is)).peerID.toString());
+        }
+        return peerIDs;
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        for(int i = 0; i < 1000 && thread.getState() != Thread.State.WAITING; i++) Thread.sleep(10);
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static Thread writeInThread(PDUWriter writer, CharSequence peerID, List<Exception> failures) {
+        Thread thread = new Thread(() -> {
+            try {
+                writer.write(new HubPDUConnectPeerRQ(peerID));
+            } catch (IOException e) {
+                synchronized (failures) {
+                    failures.add(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void concurrentWritersAreCoalescedInOrder() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.holdFirstWrite = true;
+        PDUWriter writer = new PDUWriter(os);
+        List<Exception> failures = new ArrayList<>();
+
+        Thread first = writeInThread(writer, "first", failures);
+        assertTrue(os.firstWriteStarted.await(10, TimeUnit.SECONDS));
+
+        // writer is busy - each thread queues its PDU and waits
+        int numberWriters = 10;
+        List<Thread> others = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for(int i = 0; i < numberWriters; i++) {
+            Thread thread = writeInThread(writer, "peer_" + i, failures);
+            waitUntilWaiting(thread);
+            others.add(thread);
+            expected.add("peer_" + i);
+        }
+
+        os.releaseFirstWrite.countDown();
+        first.join(10000);
+        for(Thread thread : others) thread.join(10000);
+        assertTrue(failures.isEmpty());
+
+        // all waiting PDUs go out with a single write - in the order they were queued
+        List<byte[]> writes = os.writes();
+        assertEquals(2, writes.size());
+        assertEquals(Arrays.asList("first"), peerIDs(writes.get(0)));
+        assertEquals(expected, peerIDs(writes.get(1)));
+
+        assertEquals(numberWriters + 1, writer.getPDUsWritten());
+        assertEquals(2, writer.getWriteCalls());
+        assertEquals(writes.get(0).length + writes.get(1).length, writer.getBytesWritten());
+        assertEquals(2.0 / (numberWriters + 1), writer.getWritesPerPDU(), 0.0001);
+    }
+
+    @Test
+    public void deferredPDUGoesOutWithNextWrite() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        PDUWriter writer = new PDUWriter(os);
+        writer.setDeferredWindowInMillis(60000); // clock does not ring in this test
+
+        writer.writeDeferred(new HubPDUConnectPeerRQ("deferred"));
+        assertEquals(0, os.attempts());
+        assertEquals(0, writer.getPDUsWritten());
+
+        writer.write(new HubPDUConnectPeerRQ("next"));
+        List<byte[]> writes = os.writes();
+        assertEquals(1, writes.size());
+        assertEquals(Arrays.asList("deferred", "next"), peerIDs(writes.get(0)));
+        assertEquals(2, writer.getPDUsWritten());
+        assertEquals(1, writer.getWriteCalls());
+    }
+
+    @Test
+    public void deferredPDUsGoOutWhenWindowIsOver() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        PDUWriter writer = new PDUWriter(os);
+
+        long start = System.nanoTime();
+        writer.writeDeferred(new HubPDUConnectPeerRQ("a"));
+        writer.writeDeferred(new HubPDUConnectPeerRQ("b"));
+        for(int i = 0; i < 1000 && os.attempts() == 0; i++) Thread.sleep(1);
+        long waitedInMillis = (System.nanoTime() - start) / 1000000;
+
+        List<byte[]> writes = os.writes();
+        assertEquals(1, writes.size());
+        assertEquals(Arrays.asList("a", "b"), peerIDs(writes.get(0)));
+        assertTrue("waited: " + waitedInMillis, waitedInMillis >= PDUWriter.DEFAULT_DEFERRED_WINDOW_IN_MILLIS);
+        assertTrue("waited: " + waitedInMillis, waitedInMillis < 1000);
+        assertEquals(2, writer.getPDUsWritten());
+        assertEquals(1, writer.getWriteCalls());
+    }
+
+    @Test
+    public void brokenStreamStaysBroken() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.fail = true;
+        PDUWriter writer = new PDUWriter(os);
+
+        IOException failure = null;
+        try {
+            writer.write(new HubPDUConnectPeerRQ("lost"));
+            fail("stream is broken");
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        // stream works again - writer does not try anymore
+        os.fail = false;
+        try {
+            writer.write(new HubPDUConnectPeerRQ("next"));
+            fail("writer is broken");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        try {
+            writer.writeDeferred(new HubPDUConnectPeerRQ("deferred"));
+            fail("writer is broken");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        try {
+            writer.enqueue(new HubPDUConnectPeerRQ("queued"));
+            fail("writer is broken");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(1, os.attempts());
+        assertEquals(0, writer.getPDUsWritten());
+        assertEquals(0, writer.getWriteCalls());
+        assertEquals(0, writer.getBytesWritten());
+    }
+
+    @Test
+    public void waitingWritersLearnAboutBrokenStream() throws Exception {
+        RecordingOutputStream os = new RecordingOutputStream();
+        os.holdFirstWrite = true;
+        PDUWriter writer = new PDUWriter(os);
+        List<Exception> failures = new ArrayList<>();
+
+        Thread first = writeInThread(writer, "first", failures);
+        assertTrue(os.firstWriteStarted.await(10, TimeUnit.SECONDS));
+        Thread second = writeInThread(writer, "second", failures);
+        waitUntilWaiting(second);
+
+        os.fail = true;
+        os.releaseFirstWrite.countDown();
+        first.join(10000);
+        second.join(10000);
+
+        assertEquals(2, failures.size());
+        assertEquals(1, os.attempts()); // second PDU was not tried
+        assertEquals(0, writer.getPDUsWritten());
+    }
+}